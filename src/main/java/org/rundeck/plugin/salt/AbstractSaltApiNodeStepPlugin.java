@@ -0,0 +1,1174 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import static org.rundeck.plugin.salt.validation.Validators.checkNotEmpty;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.validator.routines.UrlValidator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltReturnResponseParseException;
+import org.rundeck.plugin.salt.util.ArgumentParser;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.rundeck.plugin.salt.util.DeadlineExceededException;
+import org.rundeck.plugin.salt.validation.SaltStepValidationException;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+import org.rundeck.plugin.salt.version.SaltInteractionHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.dtolabs.rundeck.core.common.INodeEntry;
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepException;
+import com.dtolabs.rundeck.plugins.descriptions.PluginProperty;
+import com.dtolabs.rundeck.plugins.step.NodeStepPlugin;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Common base for node steps that execute salt functions on the node's minion through salt-api. Holds the
+ * properties all node steps take along with the minion presence check, job dispatch and polling, and return
+ * handling they share.
+ */
+public abstract class AbstractSaltApiNodeStepPlugin extends AbstractSaltApiPlugin implements NodeStepPlugin {
+
+    protected static final Splitter COMPOUND_FUNCTION_SPLITTER = Splitter.onPattern("\\r?\\n").trimResults()
+            .omitEmptyStrings();
+
+    // -- Option names expected to be passed in from rundeck --
+    protected static final String SALT_API_ATTACH_RUNNING_OPTION_NAME = "SALT_API_ATTACH_RUNNING";
+
+    // -- Salt functions used to look up the jobs running on a minion --
+    protected static final String SALT_RUNNING_FUNCTION = "saltutil.running";
+    protected static final String SALT_JOB_USER_KEY = "user";
+    protected static final String SALT_KWARG_MARKER = "__kwarg__";
+
+    // -- Salt client interfaces and functions used to look up minion presence --
+    protected static final String SALT_WHEEL_CLIENT = "wheel";
+    protected static final String SALT_LIST_ACCEPTED_KEYS_FUNCTION = "key.list_accepted";
+
+    @PluginProperty(title = SALT_API_ATTACH_RUNNING_OPTION_NAME, description = "Wait for an identical job already running on the minion instead of dispatching another", required = false)
+    protected boolean attachRunning;
+
+    // Read-only functions that are dispatched through the synchronous local client, a function may be dispatched
+    // again if the minion does not return in time
+    protected Set<String> synchronousFunctions;
+
+    @Autowired
+    protected MinionPresenceCache presenceCache;
+
+    @Autowired
+    protected SaltResultCache resultCache;
+
+    @Autowired
+    protected RunningJobCache runningJobCache;
+
+    @Autowired
+    protected JidJournal jidJournal;
+
+    @Autowired
+    protected SaltResultArchive resultArchive;
+
+    @Autowired
+    public void setSynchronousFunctions(@Value("${saltApi.synchronousFunctions}") String functions) {
+        synchronousFunctions = ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(functions));
+    }
+
+    @Override
+    public void executeNodeStep(PluginStepContext context, Map<String, Object> configuration, INodeEntry entry)
+            throws NodeStepException {
+        // Initialize logger for all actions
+        setLogWrapper(context.getLogger());
+        
+        // Extract options from context.
+        Map<String, String> optionData = context.getDataContext().get(RUNDECK_DATA_CONTEXT_OPTION_KEY);
+        if (optionData == null) {
+            throw new NodeStepException("Missing data context.", SaltApiNodeStepFailureReason.ARGUMENTS_MISSING,
+                    entry.getNodename());
+        }
+        String user = optionData.get(SALT_USER_OPTION_NAME);
+        String password = optionData.get(SALT_PASSWORD_OPTION_NAME);
+
+        validate(user, password, entry);
+
+        try {
+            startDeadline();
+            SaltApiCapability capability = getSaltApiCapability();
+            logWrapper.debug("Using salt-api version: [%s]", capability);
+            
+            HttpClient client = httpFactory.createHttpClient();
+            SaltApiAuthorization authorization = authorize(capability, client, user, password);
+            if (authorization == null) {
+                throw new NodeStepException("Authentication failure",
+                        SaltApiNodeStepFailureReason.AUTHENTICATION_FAILURE, entry.getNodename());
+            }
+
+            checkMinionPresence(capability, client, authorization, user, entry.getNodename());
+
+            executeOnMinion(context, capability, client, authorization, user, entry);
+
+            releaseAuthorization(capability, client, authorization);
+        } catch (SaltReturnResponseParseException e) {
+            throw new NodeStepException(e, SaltApiNodeStepFailureReason.SALT_API_FAILURE, entry.getNodename());
+        } catch (DeadlineExceededException e) {
+            throw new NodeStepException(e, SaltApiNodeStepFailureReason.DEADLINE_EXCEEDED, entry.getNodename());
+        } catch (InterruptedException e) {
+            throw new NodeStepException(e, SaltApiNodeStepFailureReason.INTERRUPTED, entry.getNodename());
+        } catch (SaltTargettingMismatchException e) {
+            throw new NodeStepException(e, SaltApiNodeStepFailureReason.SALT_TARGET_MISMATCH, entry.getNodename());
+        } catch (SaltJobNotRunningException e) {
+            throw new NodeStepException(e, SaltApiNodeStepFailureReason.JOB_NOT_RUNNING, entry.getNodename());
+        } catch (SaltApiException e) {
+            throw new NodeStepException(e, SaltApiNodeStepFailureReason.SALT_API_FAILURE, entry.getNodename());
+        } catch (HttpException e) {
+            throw new NodeStepException(e, SaltApiNodeStepFailureReason.COMMUNICATION_FAILURE, entry.getNodename());
+        } catch (IOException e) {
+            throw new NodeStepException(e, SaltApiNodeStepFailureReason.COMMUNICATION_FAILURE, entry.getNodename());
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    /**
+     * Executes the class function on the given node's minion once the step is authorized with salt-api.
+     * 
+     * @param user
+     *            The user the function is executed as.
+     * @throws NodeStepException
+     *             if the function was unsuccessful.
+     */
+    protected void executeOnMinion(PluginStepContext context, SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, String user, INodeEntry entry) throws HttpException, IOException,
+            SaltApiException, SaltTargettingMismatchException, SaltJobNotRunningException,
+            SaltReturnResponseParseException, InterruptedException, NodeStepException {
+        Set<String> secureData = extractSecureDataFromDataContext(context.getDataContext());
+        List<String> journalScope = null;
+        if (jidJournal.isEnabled()) {
+            journalScope = JidJournal.createScope(context.getDataContext(), saltEndpoint, user, entry.getNodename());
+        }
+        if (shouldExecuteCompound()) {
+            if (!capability.getSupportsLowstateBatches()) {
+                throw new NodeStepException(String.format(
+                        "salt-api version [%s] does not support compound functions", capability.getId()),
+                        SaltApiNodeStepFailureReason.ARGUMENTS_INVALID, entry.getNodename());
+            }
+            executeCompoundJob(capability, client, authorization, entry.getNodename(), secureData);
+        } else {
+            executeJob(capability, client, authorization, user, entry.getNodename(), secureData, journalScope);
+        }
+    }
+
+    /**
+     * Checks the minion against the presence cache before any job is dispatched to it, so that a step targeting a
+     * minion unknown to the master fails right away instead of polling until it gives up.
+     * 
+     * @param user
+     *            The user presence is looked up for, the cache is shared by steps of the same user and endpoint.
+     * @throws SaltTargettingMismatchException
+     *             if the master has not accepted the minion's key.
+     */
+    protected void checkMinionPresence(SaltApiCapability capability, final HttpClient client,
+            final SaltApiAuthorization authorization, String user, String minionId) throws HttpException,
+            IOException, SaltApiException, SaltTargettingMismatchException, InterruptedException {
+        if (!presenceCache.isEnabled() || !capability.getSupportsPresenceQueries()) {
+            return;
+        }
+        List<String> presenceKey = Arrays.asList(saltEndpoint, user, eAuth);
+        MinionPresence presence = presenceCache.get(presenceKey, minionId, new MinionPresenceCache.Loader() {
+            @Override
+            public MinionPresence load() throws HttpException, IOException, SaltApiException, InterruptedException {
+                return loadMinionPresence(client, authorization);
+            }
+        });
+        if (!presence.isAccepted(minionId)) {
+            throw new SaltTargettingMismatchException(String.format(
+                    "Minion [%s] does not have an accepted key on the salt master", minionId));
+        }
+    }
+
+    /**
+     * Lists the accepted keys with the key.list_accepted wheel function.
+     * 
+     * @return the presence of the master's minions, or {@link MinionPresence#UNKNOWN} if salt-api did not respond
+     *         successfully, e.g. because the user may not call the function.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected MinionPresence loadMinionPresence(HttpClient client, SaltApiAuthorization authorization)
+            throws IOException, SaltApiException, InterruptedException {
+        Map<String, Object> chunk = Maps.newLinkedHashMap();
+        chunk.put(SALT_API_CLIENT_PARAM_NAME, SALT_WHEEL_CLIENT);
+        chunk.put(SALT_API_FUNCTION_PARAM_NAME, SALT_LIST_ACCEPTED_KEYS_FUNCTION);
+        List<Map<String, Object>> lowstate = Lists.<Map<String, Object>> newArrayList(chunk);
+        List<Map<String, Object>> printableLowstate = Lists.<Map<String, Object>> newArrayList(
+                Maps.newLinkedHashMap(chunk));
+        HttpPost post = createJsonLowstatePost(authorization, lowstate, printableLowstate);
+
+        logWrapper.info("Looking up minion presence with salt-api endpoint: [%s]", post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+
+        HttpEntity entity = response.getEntity();
+        try {
+            String entityResponse = extractBodyFromEntity(entity);
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                logWrapper.warn("Could not look up minion presence: %s", entityResponse);
+                return MinionPresence.UNKNOWN;
+            }
+            logWrapper.debug("Received response for minion presence = %s", entityResponse);
+            try {
+                JsonArray returns = new JsonParser().parse(entityResponse).getAsJsonObject()
+                        .getAsJsonArray(SALT_OUTPUT_RETURN_KEY);
+                if (returns.size() != 1) {
+                    throw new SaltApiException(String.format("Could not understand salt response %s", entityResponse));
+                }
+                return new MinionPresence(extractMinionIds(returns.get(0)));
+            } catch (RuntimeException e) {
+                throw new SaltApiException(String.format("Could not understand salt response %s", entityResponse), e);
+            }
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Extracts minion ids from a wheel return, which wraps the list of ids as {"minions": [...]}, itself wrapped as
+     * {"data": {"return": ...}} by later salt versions.
+     * 
+     * @return the minion ids, or null if the return holds none, e.g. because the function was not permitted.
+     */
+    protected List<String> extractMinionIds(JsonElement functionReturn) {
+        JsonElement ids = functionReturn;
+        if (ids.isJsonObject() && ids.getAsJsonObject().has("data")) {
+            ids = ids.getAsJsonObject().getAsJsonObject("data").get(SALT_OUTPUT_RETURN_KEY);
+        }
+        if (ids != null && ids.isJsonObject()) {
+            ids = ids.getAsJsonObject().get("minions");
+        }
+        if (ids == null || !ids.isJsonArray()) {
+            return null;
+        }
+        List<String> minionIds = Lists.newArrayList();
+        for (JsonElement id : ids.getAsJsonArray()) {
+            minionIds.add(id.getAsString());
+        }
+        return minionIds;
+    }
+
+    /**
+     * Executes the class function as a single job, or reuses its cached return if the function is configured to be
+     * cached, and handles the return with the handler registered for the function.
+     * 
+     * @param user
+     *            The user the function is executed as, cached returns are only shared between steps of the same
+     *            user but are invalidated for all users of the minion.
+     * @param journalScope
+     *            Identifies the rundeck job the dispatched job is journaled for, or null if it is not journaled.
+     * @throws NodeStepException
+     *             if the function was unsuccessful.
+     */
+    protected void executeJob(SaltApiCapability capability, HttpClient client, SaltApiAuthorization authorization,
+            String user, String minionId, Set<String> secureData, List<String> journalScope) throws HttpException, IOException,
+            SaltApiException, SaltTargettingMismatchException, SaltJobNotRunningException,
+            SaltReturnResponseParseException, InterruptedException, NodeStepException {
+        List<String> args = ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse(getFunction());
+        String functionName = args.get(0);
+        List<String> cacheTarget = Arrays.asList(saltEndpoint, minionId);
+        List<String> cacheCredentials = Arrays.asList(user, eAuth);
+        List<String> cacheArgs = normalizeArguments(args.subList(1, args.size()));
+
+        MinionReturn jobOutput = null;
+        boolean claimed = false;
+        if (resultCache.getPolicy(functionName) != null) {
+            String cachedOutput = resultCache.getOrClaim(cacheTarget, cacheCredentials, functionName, cacheArgs);
+            if (cachedOutput != null) {
+                logWrapper.info("Using cached return for function [%s]", functionName);
+                jobOutput = MinionReturn.fromJson(cachedOutput);
+            } else {
+                claimed = true;
+            }
+        }
+        try {
+            if (jobOutput == null) {
+                jobOutput = dispatchJob(capability, client, authorization, user, minionId, secureData, journalScope);
+                resultCache.invalidate(cacheTarget, functionName);
+            }
+            SaltReturnResponse response = extractReturn(functionName, jobOutput);
+            if (!response.isSuccessful()) {
+                throw new NodeStepException(String.format("Execution failed on minion with exit code %d",
+                        response.getExitCode()), SaltApiNodeStepFailureReason.EXIT_CODE, minionId);
+            }
+            if (claimed) {
+                resultCache.complete(cacheTarget, cacheCredentials, functionName, cacheArgs, jobOutput.toJson());
+                claimed = false;
+            }
+        } finally {
+            if (claimed) {
+                resultCache.abandon(cacheTarget, cacheCredentials, functionName, cacheArgs);
+            }
+        }
+    }
+
+    /**
+     * Dispatches the class function as a single job, synchronously if it is read-only and supported, and waits for the
+     * minion's return. If attaching was requested and the minion is already running the function with the same
+     * args, that job's return is waited for instead. If a previous execution of the rundeck job dispatched the
+     * function and never collected its return, e.g. because rundeck restarted, that job is resumed instead.
+     * 
+     * @param user
+     *            The user the function is executed as, running jobs are only attached to by steps of the same user.
+     * @param journalScope
+     *            Identifies the rundeck job the dispatched job is journaled for, or null if it is not journaled.
+     * @return the minion's return.
+     */
+    protected MinionReturn dispatchJob(SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, String user, String minionId, Set<String> secureData,
+            List<String> journalScope) throws HttpException, IOException, SaltApiException,
+            SaltTargettingMismatchException, SaltJobNotRunningException, InterruptedException {
+        List<String> args = ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse(getFunction());
+        String functionName = args.get(0);
+        List<String> normalizedArgs = normalizeArguments(args.subList(1, args.size()));
+        List<Object> runningJobKey = Arrays.<Object> asList(saltEndpoint, user, eAuth, minionId);
+        List<String> journalKey = null;
+        if (journalScope != null) {
+            journalKey = Lists.newArrayList(journalScope);
+            journalKey.add(functionName);
+            journalKey.addAll(normalizedArgs);
+            String journaledJid = jidJournal.claimLiveJid(journalKey);
+            if (journaledJid != null) {
+                logWrapper.info("Resuming job [%s] dispatched by a previous execution", journaledJid);
+                try {
+                    return waitForJournaledJob(client, authorization, journalKey, journaledJid, minionId);
+                } catch (SaltJobNotRunningException e) {
+                    logWrapper.warn("Job [%s] is no longer known to the minion, dispatching it again", journaledJid);
+                }
+            }
+        }
+        if (attachRunning) {
+            RunningJob runningJob = findRunningJob(client, authorization, runningJobKey, user, minionId,
+                    functionName, normalizedArgs);
+            if (runningJob != null) {
+                logWrapper.info("Attaching to job [%s] already running [%s] on minion", runningJob.getJid(),
+                        functionName);
+                // The job belongs to another execution, so it is not killed if this step gives up on it.
+                return awaitJob(client, authorization, runningJob.getJid(), minionId);
+            }
+        }
+
+        MinionReturn jobOutput = null;
+        String dispatchedJid = null;
+        try {
+            if (shouldExecuteSynchronously(capability)) {
+                jobOutput = submitSynchronousJob(capability, client, authorization, minionId, secureData);
+                if (jobOutput == null) {
+                    // Only read-only functions are executed synchronously, so dispatching them again is harmless
+                    logWrapper.info("No synchronous response received from minion, falling back to job polling");
+                }
+            }
+            if (jobOutput == null) {
+                if (authorization.isStateless()) {
+                    dispatchedJid = submitLowstateJob(capability, client, authorization, minionId, secureData);
+                } else {
+                    dispatchedJid = submitJob(capability, client, authorization.getAuthToken(), minionId,
+                            secureData);
+                }
+                logWrapper.info("Received jid [%s] for submitted job", dispatchedJid);
+            }
+        } finally {
+            if (attachRunning) {
+                releaseRunningJobClaim(runningJobKey, dispatchedJid, functionName, normalizedArgs);
+            }
+        }
+        if (jobOutput == null) {
+            if (journalKey != null) {
+                jidJournal.recordDispatched(journalKey, dispatchedJid);
+                jobOutput = waitForJournaledJob(client, authorization, journalKey, dispatchedJid, minionId);
+            } else {
+                jobOutput = waitForJob(client, authorization, dispatchedJid, minionId);
+            }
+        }
+        return jobOutput;
+    }
+
+    /**
+     * Waits for the return of the given claimed journaled job and records it as completed once it returned, the
+     * minion is no longer running it or the step gave up on it and killed it. If the journal was closed because
+     * rundeck is shutting down, the job is left running and journaled so that a rerun can resume it after the
+     * restart. Any other failure releases the job but leaves it journaled, since it may still return.
+     */
+    protected MinionReturn waitForJournaledJob(HttpClient client, SaltApiAuthorization authorization,
+            List<String> journalKey, String jid, String minionId) throws IOException, InterruptedException,
+            SaltApiException, SaltJobNotRunningException {
+        boolean completed = false;
+        try {
+            MinionReturn jobOutput = awaitJob(client, authorization, jid, minionId);
+            completed = true;
+            return jobOutput;
+        } catch (SaltJobNotRunningException e) {
+            completed = true;
+            throw e;
+        } catch (InterruptedException e) {
+            if (!(e instanceof DeadlineExceededException) && jidJournal.isClosed()) {
+                logWrapper.info("Rundeck is shutting down, leaving job [%s] running to be resumed", jid);
+                throw e;
+            }
+            killJobQuietly(client, authorization, jid, minionId, null);
+            completed = true;
+            throw e;
+        } finally {
+            if (completed) {
+                jidJournal.recordCompleted(journalKey, jid);
+            } else {
+                jidJournal.release(jid);
+            }
+        }
+    }
+
+    /**
+     * @param user
+     *            The user the function is executed as, only jobs published by the same user are attached to.
+     * @return the job running the given function with the given normalized args on the minion, or null if there
+     *         is none, in which case the caller has claimed the function's dispatch and must release the claim with
+     *         {@link #releaseRunningJobClaim}.
+     */
+    protected RunningJob findRunningJob(final HttpClient client, final SaltApiAuthorization authorization,
+            Object runningJobKey, final String user, final String minionId, String functionName,
+            List<String> normalizedArgs) throws HttpException, IOException, SaltApiException, InterruptedException {
+        return runningJobCache.findOrClaim(runningJobKey, functionName, normalizedArgs,
+                new RunningJobCache.Loader() {
+                    @Override
+                    public List<RunningJob> load() throws HttpException, IOException, SaltApiException,
+                            InterruptedException {
+                        return loadRunningJobs(client, authorization, user, minionId);
+                    }
+                });
+    }
+
+    /**
+     * Releases the dispatch claimed by {@link #findRunningJob}, recording the dispatched job so that identical
+     * steps waiting for the claim attach to it.
+     * 
+     * @param dispatchedJid
+     *            The jid of the dispatched job, or null if no job was dispatched.
+     */
+    protected void releaseRunningJobClaim(Object runningJobKey, String dispatchedJid, String functionName,
+            List<String> normalizedArgs) {
+        if (dispatchedJid != null) {
+            runningJobCache.record(runningJobKey, new RunningJob(dispatchedJid, functionName, normalizedArgs));
+        } else {
+            runningJobCache.abandon(runningJobKey, functionName, normalizedArgs);
+        }
+    }
+
+    /**
+     * Asks the minion with saltutil.running for the jobs it is running on behalf of the given user. Jobs published
+     * by other users, or without a reported user, are left out so that steps never attach to them.
+     * 
+     * @return the running jobs, none if salt-api did not respond successfully or the minion did not answer.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected List<RunningJob> loadRunningJobs(HttpClient client, SaltApiAuthorization authorization, String user,
+            String minionId) throws IOException, InterruptedException, SaltApiException {
+        List<NameValuePair> params = Lists.newArrayList();
+        params.add(new BasicNameValuePair(SALT_API_CLIENT_PARAM_NAME, SALT_LOCAL_CLIENT));
+        params.add(new BasicNameValuePair(SALT_API_TARGET_PARAM_NAME, minionId));
+        params.add(new BasicNameValuePair(SALT_API_FUNCTION_PARAM_NAME, SALT_RUNNING_FUNCTION));
+        HttpPost post = createLowstatePost(authorization, params, Lists.newArrayList(params));
+
+        logWrapper.info("Looking up jobs running on minion [%s]", minionId);
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+
+        HttpEntity entity = response.getEntity();
+        try {
+            String entityResponse = extractBodyFromEntity(entity);
+            List<RunningJob> runningJobs = Lists.newArrayList();
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                logWrapper.warn("Could not look up jobs running on minion: %s", entityResponse);
+                return runningJobs;
+            }
+            logWrapper.debug("Received response for %s = %s", SALT_RUNNING_FUNCTION, entityResponse);
+            try {
+                JsonArray returns = new JsonParser().parse(entityResponse).getAsJsonObject()
+                        .getAsJsonArray(SALT_OUTPUT_RETURN_KEY);
+                if (returns.size() != 1) {
+                    throw new SaltApiException(String.format("Could not understand salt response %s", entityResponse));
+                }
+                JsonElement jobs = returns.get(0).getAsJsonObject().get(minionId);
+                if (jobs == null || !jobs.isJsonArray()) {
+                    return runningJobs;
+                }
+                for (JsonElement job : jobs.getAsJsonArray()) {
+                    JsonObject jobObject = job.getAsJsonObject();
+                    JsonElement jobUser = jobObject.get(SALT_JOB_USER_KEY);
+                    if (jobUser == null || !jobUser.isJsonPrimitive() || !jobUser.getAsString().equals(user)) {
+                        continue;
+                    }
+                    List<String> args = Lists.newArrayList();
+                    if (jobObject.has(SALT_API_ARGUMENTS_PARAM_NAME)) {
+                        for (JsonElement arg : jobObject.getAsJsonArray(SALT_API_ARGUMENTS_PARAM_NAME)) {
+                            addRunningJobArgument(args, arg);
+                        }
+                    }
+                    runningJobs.add(new RunningJob(jobObject.get(SALT_API_JID_PARAM_NAME).getAsString(), jobObject
+                            .get(SALT_API_FUNCTION_PARAM_NAME).getAsString(), normalizeArguments(args)));
+                }
+                return runningJobs;
+            } catch (RuntimeException e) {
+                throw new SaltApiException(String.format("Could not understand salt response %s", entityResponse), e);
+            }
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Adds an arg reported by saltutil.running in the form it is given on the command line. Keyword args are
+     * reported as an object marked with __kwarg__ and are added as key=value.
+     */
+    protected void addRunningJobArgument(List<String> args, JsonElement arg) {
+        if (arg.isJsonObject() && arg.getAsJsonObject().has(SALT_KWARG_MARKER)) {
+            for (Map.Entry<String, JsonElement> kwarg : arg.getAsJsonObject().entrySet()) {
+                if (!SALT_KWARG_MARKER.equals(kwarg.getKey())) {
+                    args.add(kwarg.getKey() + "=" + toArgumentString(kwarg.getValue()));
+                }
+            }
+        } else {
+            args.add(toArgumentString(arg));
+        }
+    }
+
+    protected String toArgumentString(JsonElement arg) {
+        return arg.isJsonPrimitive() ? arg.getAsString() : arg.toString();
+    }
+
+    /**
+     * Orders the given args so that the same positional args and keyword args in any order are equal: positional
+     * args keep their order and are followed by the keyword args sorted.
+     */
+    protected List<String> normalizeArguments(List<String> args) {
+        List<String> positional = Lists.newArrayList();
+        List<String> keywords = Lists.newArrayList();
+        for (String arg : args) {
+            if (arg.indexOf('=') > 0) {
+                keywords.add(arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+        Collections.sort(keywords);
+        positional.addAll(keywords);
+        return positional;
+    }
+
+    /**
+     * Executes the compound class function, i.e. one function per line, as a single job and handles each
+     * function's return with the handler registered for that function.
+     * 
+     * @throws NodeStepException
+     *             if any of the functions was unsuccessful.
+     */
+    protected void executeCompoundJob(SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, String minionId, Set<String> secureData)
+            throws HttpException, IOException, SaltApiException, SaltTargettingMismatchException,
+            SaltJobNotRunningException, SaltReturnResponseParseException, InterruptedException, NodeStepException {
+        LowstateChunk chunk = createCompoundLowstateChunk(minionId, secureData);
+        String dispatchedJid = submitCompoundJob(capability, client, authorization, chunk);
+        logWrapper.info("Received jid [%s] for submitted compound job", dispatchedJid);
+        MinionReturn jobOutput = waitForJob(client, authorization, dispatchedJid, minionId);
+        List<String> cacheTarget = Arrays.asList(saltEndpoint, minionId);
+        for (String functionName : chunk.getFunctions()) {
+            resultCache.invalidate(cacheTarget, functionName);
+        }
+
+        List<String> failures = Lists.newArrayList();
+        for (Map.Entry<String, MinionReturn> functionReturn : splitCompoundReturn(jobOutput, chunk.getFunctions())
+                .entrySet()) {
+            logWrapper.info("Return for function [%s]:", functionReturn.getKey());
+            SaltReturnResponse response = extractReturn(functionReturn.getKey(), functionReturn.getValue());
+            if (!response.isSuccessful()) {
+                failures.add(String.format("%s (exit code %d)", functionReturn.getKey(), response.getExitCode()));
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new NodeStepException(String.format("Execution failed on minion for functions %s", failures),
+                    SaltApiNodeStepFailureReason.EXIT_CODE, minionId);
+        }
+    }
+
+    /**
+     * Splits the minion's return for a compound job into the returns of each function.
+     * 
+     * @return each function's return, in the order of the given functions
+     * @throws SaltApiException
+     *             if the return does not contain a return for each function.
+     */
+    protected Map<String, MinionReturn> splitCompoundReturn(MinionReturn jobOutput, List<String> functions)
+            throws SaltApiException {
+        JsonElement parsed;
+        try {
+            parsed = jobOutput.getTree();
+        } catch (SaltReturnResponseParseException e) {
+            throw new SaltApiException(String.format("Expected a return for each of the functions %s, received %s",
+                    functions, jobOutput), e);
+        }
+        if (parsed == null || !parsed.isJsonObject()) {
+            throw new SaltApiException(String.format("Expected a return for each of the functions %s, received %s",
+                    functions, jobOutput));
+        }
+        JsonObject returns = parsed.getAsJsonObject();
+        Map<String, MinionReturn> functionReturns = Maps.newLinkedHashMap();
+        for (String functionName : functions) {
+            if (!returns.has(functionName)) {
+                throw new SaltApiException(String.format("No return received for function %s: %s", functionName,
+                        jobOutput));
+            }
+            functionReturns.put(functionName, MinionReturn.fromTree(returns.get(functionName)));
+        }
+        return functionReturns;
+    }
+    
+    /**
+     * Submits the job to salt-api using the class function and args.
+     * 
+     * @return the jid of the submitted job
+     * @throws HttpException
+     *             if there was a communication failure with salt-api
+     * @throws InterruptedException
+     */
+    protected String submitJob(SaltApiCapability capability, HttpClient client, String authToken, String minionId, Set<String> secureData) throws HttpException, IOException,
+            SaltApiException, SaltTargettingMismatchException, InterruptedException {
+        List<NameValuePair> params = Lists.newArrayList();
+        List<NameValuePair> printableParams = Lists.newArrayList();
+        addJobParameters(params, printableParams, minionId, secureData);
+        UrlEncodedFormEntity postEntity = new UrlEncodedFormEntity(params, CHAR_SET_ENCODING);
+        postEntity.setContentEncoding(CHAR_SET_ENCODING);
+        postEntity.setContentType(REQUEST_CONTENT_TYPE);
+
+        HttpPost post = httpFactory.createHttpPost(saltEndpoint + MINION_RESOURCE);
+        post.setHeader(SALT_AUTH_TOKEN_HEADER, authToken);
+        post.setHeader(REQUEST_ACCEPT_HEADER_NAME, JSON_RESPONSE_ACCEPT_TYPE);
+        post.setEntity(postEntity);
+        
+        logWrapper.debug("Submitting job with arguments [%s]", printableParams);
+        logWrapper.info("Submitting job with salt-api endpoint: [%s]", post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+        
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        try {
+            String entityResponse = extractBodyFromEntity(entity);
+            if (statusCode != HttpStatus.SC_ACCEPTED) {
+                throw new HttpException(String.format("Expected response code %d, received %d. %s",
+                        HttpStatus.SC_ACCEPTED, statusCode, entityResponse));
+            } else {
+                logWrapper.debug("Received response for job submission = %s", response);
+                SaltInteractionHandler interactionHandler = capability.getSaltInteractionHandler();
+                SaltApiResponseOutput saltOutput = interactionHandler.extractOutputForJobSubmissionResponse(entityResponse);
+                checkMinionDelegation(saltOutput, minionId);
+                return saltOutput.getJid();
+            }
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Submits the job to the synchronous local client of salt-api using the class function and args. The minion's
+     * return is included in the response so no polling is required. The request is never retried, since a retry
+     * would dispatch the function again.
+     * 
+     * @return the host response or null if the minion did not return before salt's timeout.
+     * @throws HttpException
+     *             if there was a communication failure with salt-api
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     * @throws InterruptedException
+     */
+    protected MinionReturn submitSynchronousJob(SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, String minionId, Set<String> secureData) throws HttpException,
+            IOException, SaltApiException, InterruptedException {
+        List<NameValuePair> params = Lists.newArrayList();
+        params.add(new BasicNameValuePair(SALT_API_CLIENT_PARAM_NAME, SALT_LOCAL_CLIENT));
+        List<NameValuePair> printableParams = Lists.newArrayList(params);
+        addJobParameters(params, printableParams, minionId, secureData);
+        String syncTimeout = getSyncTimeout();
+        if (StringUtils.isNotBlank(syncTimeout)) {
+            NameValuePair timeout = new BasicNameValuePair(SALT_API_TIMEOUT_PARAM_NAME, syncTimeout.trim());
+            params.add(timeout);
+            printableParams.add(timeout);
+        }
+        HttpPost post = createLowstatePost(authorization, params, printableParams);
+
+        logWrapper.debug("Submitting synchronous job with arguments [%s]", printableParams);
+        logWrapper.info("Submitting synchronous job with salt-api endpoint: [%s]", post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, 1, Predicates.<Integer>alwaysFalse());
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        try {
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new HttpException(String.format("Expected response code %d, received %d. %s",
+                        HttpStatus.SC_OK, statusCode, extractBodyFromEntity(entity)));
+            }
+            MinionReturn minionResponse = readMinionResponse(entity, minionId);
+            if (minionResponse != null) {
+                logWrapper.debug("Received synchronous response = %s", response);
+            }
+            return minionResponse;
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Submits the job to the asynchronous local client of salt-api's lowstate interface using the class function
+     * and args.
+     * 
+     * @return the jid of the submitted job
+     * @throws HttpException
+     *             if there was a communication failure with salt-api
+     * @throws InterruptedException
+     */
+    protected String submitLowstateJob(SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, String minionId, Set<String> secureData) throws HttpException,
+            IOException, SaltApiException, SaltTargettingMismatchException, InterruptedException {
+        if (shouldBatchLowstateSubmission(capability)) {
+            LowstateChunk chunk = createLowstateChunk(SALT_LOCAL_ASYNC_CLIENT, minionId, secureData);
+            SaltApiResponseOutput saltOutput = submitBatchedLowstateChunk(capability, client, authorization, chunk);
+            checkMinionDelegation(saltOutput, minionId);
+            return saltOutput.getJid();
+        }
+        List<NameValuePair> params = Lists.newArrayList();
+        params.add(new BasicNameValuePair(SALT_API_CLIENT_PARAM_NAME, SALT_LOCAL_ASYNC_CLIENT));
+        List<NameValuePair> printableParams = Lists.newArrayList(params);
+        addJobParameters(params, printableParams, minionId, secureData);
+        HttpPost post = createLowstatePost(authorization, params, printableParams);
+
+        logWrapper.debug("Submitting job with arguments [%s]", printableParams);
+        logWrapper.info("Submitting job with salt-api endpoint: [%s]", post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        try {
+            String entityResponse = extractBodyFromEntity(entity);
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new HttpException(String.format("Expected response code %d, received %d. %s",
+                        HttpStatus.SC_OK, statusCode, entityResponse));
+            }
+            logWrapper.debug("Received response for job submission = %s", response);
+            SaltInteractionHandler interactionHandler = capability.getSaltInteractionHandler();
+            SaltApiResponseOutput saltOutput = interactionHandler.extractOutputForJobSubmissionResponse(entityResponse);
+            checkMinionDelegation(saltOutput, minionId);
+            return saltOutput.getJid();
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Submits the compound chunk to the asynchronous local client of salt-api's lowstate interface.
+     * 
+     * @return the jid of the submitted job
+     * @throws HttpException
+     *             if there was a communication failure with salt-api
+     * @throws InterruptedException
+     */
+    protected String submitCompoundJob(SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, LowstateChunk chunk) throws HttpException, IOException,
+            SaltApiException, SaltTargettingMismatchException, InterruptedException {
+        SaltApiResponseOutput saltOutput;
+        if (authorization.isStateless() && shouldBatchLowstateSubmission(capability)) {
+            saltOutput = submitBatchedLowstateChunk(capability, client, authorization, chunk);
+        } else {
+            saltOutput = submitLowstateBatch(capability, client, authorization, ImmutableList.of(chunk)).get(0);
+        }
+        checkMinionDelegation(saltOutput, chunk.getTarget());
+        return saltOutput.getJid();
+    }
+
+    /**
+     * @throws SaltTargettingMismatchException
+     *             if salt did not dispatch the job to exactly the given minion.
+     */
+    protected void checkMinionDelegation(SaltApiResponseOutput saltOutput, String minionId)
+            throws SaltTargettingMismatchException {
+        if (saltOutput.getMinions().size() != 1) {
+            throw new SaltTargettingMismatchException(String.format(
+                    "Expected minion delegation count of 1, was %d. Full minion string: (%s)", saltOutput
+                            .getMinions().size(), saltOutput.getMinions()));
+        } else if (!saltOutput.getMinions().contains(minionId)) {
+            throw new SaltTargettingMismatchException(String.format(
+                    "Minion dispatch mis-match. Expected:%s,  was:%s", minionId, saltOutput.getMinions()
+                            .toString()));
+        }
+    }
+
+    /**
+     * Creates a compound chunk for the asynchronous local client with one function per line of the class
+     * function, targeting the given minion. Printable arguments have any secure data masked out.
+     */
+    protected LowstateChunk createCompoundLowstateChunk(String minionId, Set<String> secureData) {
+        List<String> functions = Lists.newArrayList();
+        List<List<String>> args = Lists.newArrayList();
+        List<List<String>> printableArgs = Lists.newArrayList();
+        for (List<String> line : parseCompoundFunctions()) {
+            functions.add(line.get(0));
+            List<String> functionArgs = line.subList(1, line.size());
+            List<String> printableFunctionArgs = Lists.newArrayListWithCapacity(functionArgs.size());
+            for (String arg : functionArgs) {
+                printableFunctionArgs.add(maskSecureData(arg, secureData));
+            }
+            args.add(functionArgs);
+            printableArgs.add(printableFunctionArgs);
+        }
+        return new LowstateChunk(SALT_LOCAL_ASYNC_CLIENT, minionId, functions, args, printableArgs);
+    }
+
+    /**
+     * Parses each non-blank line of the class function into a function followed by its arguments.
+     */
+    protected List<List<String>> parseCompoundFunctions() {
+        List<List<String>> functions = Lists.newArrayList();
+        for (String line : COMPOUND_FUNCTION_SPLITTER.split(getFunction())) {
+            functions.add(ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse(line));
+        }
+        return functions;
+    }
+
+    /**
+     * @return seconds salt waits for the synchronous response of a read-only function, or null to use salt's own
+     *         timeout.
+     */
+    protected String getSyncTimeout() {
+        return null;
+    }
+
+    /**
+     * @return true if each line of the class function should be executed as a separate function within a single
+     *         compound job.
+     */
+    protected boolean isCompound() {
+        return false;
+    }
+
+    /**
+     * @return true if compound execution was requested and the class function consists of several functions.
+     */
+    protected boolean shouldExecuteCompound() {
+        return isCompound() && parseCompoundFunctions().size() > 1;
+    }
+
+    /**
+     * Adds the function, target and arguments parsed from the class function to the given request parameters.
+     * Arguments added to printableParams have any secure data masked out.
+     */
+    protected void addJobParameters(List<NameValuePair> params, List<NameValuePair> printableParams,
+            String minionId, Set<String> secureData) {
+        List<String> args = ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse(getFunction());
+        NameValuePair functionParam = new BasicNameValuePair(SALT_API_FUNCTION_PARAM_NAME, args.get(0));
+        NameValuePair targetParam = new BasicNameValuePair(SALT_API_TARGET_PARAM_NAME, minionId);
+        params.add(functionParam);
+        params.add(targetParam);
+        printableParams.add(functionParam);
+        printableParams.add(targetParam);
+        for (int i = 1; i < args.size(); i++) {
+            String value = args.get(i);
+            params.add(new BasicNameValuePair(SALT_API_ARGUMENTS_PARAM_NAME, value));
+            printableParams.add(new BasicNameValuePair(SALT_API_ARGUMENTS_PARAM_NAME, maskSecureData(value,
+                    secureData)));
+        }
+    }
+
+    /**
+     * @return true if the class function should be dispatched through the synchronous local client, i.e. the
+     *         function is configured as synchronous. Only read-only functions are configured, since a function
+     *         whose synchronous response times out is dispatched again. Any other function is dispatched exactly
+     *         once, whether or not a synchronous timeout was given.
+     */
+    protected boolean shouldExecuteSynchronously(SaltApiCapability capability) {
+        if (!capability.getSupportsSynchronousExecution()) {
+            return false;
+        }
+        return synchronousFunctions.contains(getFunction().split(" ", 2)[0]);
+    }
+
+    protected void validate(String user, String password, INodeEntry entry) throws SaltStepValidationException {
+        checkNotEmpty(SALT_API_END_POINT_OPTION_NAME, saltEndpoint, SaltApiNodeStepFailureReason.ARGUMENTS_MISSING,
+                entry);
+        checkNotEmpty(SALT_API_FUNCTION_OPTION_NAME, getFunction(), SaltApiNodeStepFailureReason.ARGUMENTS_MISSING, entry);
+        checkNotEmpty(SALT_API_EAUTH_OPTION_NAME, eAuth, SaltApiNodeStepFailureReason.ARGUMENTS_MISSING, entry);
+        checkNotEmpty(SALT_USER_OPTION_NAME, user, SaltApiNodeStepFailureReason.ARGUMENTS_MISSING, entry);
+        checkNotEmpty(SALT_PASSWORD_OPTION_NAME, password, SaltApiNodeStepFailureReason.ARGUMENTS_MISSING, entry);
+
+        UrlValidator urlValidator = new UrlValidator(endPointSchemes, UrlValidator.ALLOW_LOCAL_URLS);
+        if (!urlValidator.isValid(saltEndpoint)) {
+            throw new SaltStepValidationException(SALT_API_END_POINT_OPTION_NAME, String.format(
+                    "%s is not a valid endpoint.", saltEndpoint), SaltApiNodeStepFailureReason.ARGUMENTS_INVALID,
+                    entry.getNodename());
+        }
+
+        if (StringUtils.isNotBlank(deadline) && !isPositiveInteger(deadline.trim())) {
+            throw new SaltStepValidationException(SALT_API_DEADLINE_OPTION_NAME, String.format(
+                    "%s is not a valid number of seconds.", deadline), SaltApiNodeStepFailureReason.ARGUMENTS_INVALID,
+                    entry.getNodename());
+        }
+    }
+
+    /**
+     * Waits for the minion's return for the given job, through the jobs runner for stateless requests. If the
+     * step's deadline passes or the step is interrupted while waiting, the job is killed on the minion.
+     * 
+     * @return the host response.
+     */
+    protected MinionReturn waitForJob(HttpClient client, SaltApiAuthorization authorization, String jid, String minionId)
+            throws IOException, InterruptedException, SaltApiException, SaltJobNotRunningException {
+        try {
+            return awaitJob(client, authorization, jid, minionId);
+        } catch (InterruptedException e) {
+            killJobQuietly(client, authorization, jid, minionId, null);
+            throw e;
+        }
+    }
+
+    /**
+     * Polls for the minion's return of the given job through the resource matching the given authorization, unless
+     * the return is already archived, and archives the return.
+     */
+    protected MinionReturn awaitJob(HttpClient client, SaltApiAuthorization authorization, String jid,
+            String minionId) throws IOException, InterruptedException, SaltApiException, SaltJobNotRunningException {
+        MinionReturn jobOutput = getArchivedReturn(jid, minionId);
+        if (jobOutput != null) {
+            logWrapper.info("Using archived return for job [%s]", jid);
+            return jobOutput;
+        }
+        if (authorization.isStateless()) {
+            jobOutput = waitForLowstateJidResponse(client, authorization, jid, minionId);
+        } else {
+            jobOutput = waitForJidResponse(client, authorization.getAuthToken(), jid, minionId);
+        }
+        archiveReturn(jid, minionId, jobOutput);
+        return jobOutput;
+    }
+
+    /**
+     * @return the given minion's return for the given job from the result archive, or null if archiving is
+     *         disabled or the return is not archived.
+     */
+    protected MinionReturn getArchivedReturn(String jid, String minionId) {
+        if (!resultArchive.isEnabled()) {
+            return null;
+        }
+        try {
+            String archivedOutput = resultArchive.get(jid, minionId);
+            return archivedOutput == null ? null : MinionReturn.fromJson(archivedOutput);
+        } catch (IOException e) {
+            logWrapper.warn("Could not read archived return for job [%s]: %s", jid, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Archives the given minion's return for the given job if archiving is enabled. A return that cannot be
+     * archived only fails to be read back later, so the failure is logged rather than failing the step.
+     */
+    protected void archiveReturn(String jid, String minionId, MinionReturn jobOutput) {
+        if (!resultArchive.isEnabled()) {
+            return;
+        }
+        try {
+            resultArchive.store(jid, minionId, jobOutput.toJson());
+        } catch (IOException e) {
+            logWrapper.warn("Could not archive return for job [%s]: %s", jid, e.getMessage());
+        }
+    }
+
+    protected MinionReturn waitForJidResponse(final HttpClient client, final String authToken, final String jid,
+            final String minionId) throws IOException, InterruptedException, SaltApiException,
+            SaltJobNotRunningException {
+        String jidResource = String.format("%s%s/%s", saltEndpoint, JOBS_RESOURCE, jid);
+        logWrapper.info("Polling for job status with salt-api endpoint: [%s]", jidResource);
+        return pollForJidResponse(new JidResponseSource() {
+            @Override
+            public MinionReturn extractOutput() throws IOException, SaltApiException, InterruptedException {
+                return extractOutputForJid(client, authToken, jid, minionId);
+            }
+        }, client, SaltApiAuthorization.forToken(authToken), jid, minionId);
+    }
+
+    /**
+     * Same as {@link #waitForJidResponse(HttpClient, String, String, String)} but looks the job up through the
+     * jobs runner of salt-api's lowstate interface.
+     */
+    protected MinionReturn waitForLowstateJidResponse(final HttpClient client, final SaltApiAuthorization authorization,
+            final String jid, final String minionId) throws IOException, InterruptedException, SaltApiException,
+            SaltJobNotRunningException {
+        logWrapper.info("Polling for job status of jid [%s] with salt-api jobs runner", jid);
+        return pollForJidResponse(new JidResponseSource() {
+            @Override
+            public MinionReturn extractOutput() throws IOException, SaltApiException, InterruptedException {
+                return extractLowstateOutputForJid(client, authorization, jid, minionId);
+            }
+        }, client, authorization, jid, minionId);
+    }
+
+    /**
+     * Extracts the minion job response by calling the job resource.
+     * 
+     * @return the host response or null if none is available.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected
+     *             format.
+     * @throws InterruptedException
+     */
+    protected MinionReturn extractOutputForJid(HttpClient client, String authToken, String jid, String minionId)
+            throws IOException, SaltApiException, InterruptedException {
+        String jidResource = String.format("%s%s/%s", saltEndpoint, JOBS_RESOURCE, jid);
+        HttpGet get = httpFactory.createHttpGet(jidResource);
+        get.setHeader(SALT_AUTH_TOKEN_HEADER, authToken);
+        get.setHeader(REQUEST_ACCEPT_HEADER_NAME, JSON_RESPONSE_ACCEPT_TYPE);
+        
+        HttpResponse response = retryExecutor.execute(logWrapper, client, get, numRetries);
+        
+        try {
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+                MinionReturn minionResponse = readMinionResponse(response.getEntity(), minionId);
+                if (minionResponse != null) {
+                    logWrapper.debug("Received response for jobs/%s = %s", jid, response);
+                }
+                return minionResponse;
+            } else {
+                return null;
+            }
+        } finally {
+            closeResource(response.getEntity());
+            get.releaseConnection();
+        }
+    }
+
+    /**
+     * Extracts the minion job response by calling the jobs runner through salt-api's lowstate interface.
+     * 
+     * @return the host response or null if none is available.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     * @throws InterruptedException
+     */
+    protected MinionReturn extractLowstateOutputForJid(HttpClient client, SaltApiAuthorization authorization, String jid,
+            String minionId) throws IOException, SaltApiException, InterruptedException {
+        List<NameValuePair> params = Lists.newArrayList();
+        params.add(new BasicNameValuePair(SALT_API_CLIENT_PARAM_NAME, SALT_RUNNER_CLIENT));
+        params.add(new BasicNameValuePair(SALT_API_FUNCTION_PARAM_NAME, SALT_LOOKUP_JID_FUNCTION));
+        params.add(new BasicNameValuePair(SALT_API_JID_PARAM_NAME, jid));
+        List<NameValuePair> printableParams = Lists.newArrayList(params);
+        HttpPost post = createLowstatePost(authorization, params, printableParams);
+
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries);
+
+        try {
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
+                MinionReturn minionResponse = readMinionResponse(response.getEntity(), minionId);
+                if (minionResponse != null) {
+                    logWrapper.debug("Received response for jid %s = %s", jid, response);
+                }
+                return minionResponse;
+            } else {
+                return null;
+            }
+        } finally {
+            closeResource(response.getEntity());
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Extracts a single minion's return from the salt-api response of the form {"return": [{"minion": ...}]} in
+     * the given entity, skipping other minions' returns without decoding them.
+     * 
+     * @return the minion's response or null if the minion has not returned.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected MinionReturn readMinionResponse(HttpEntity entity, String minionId) throws IOException,
+            SaltApiException {
+        List<MinionReturn> responses = readMinionResponses(entity, minionId);
+        if (responses.size() > 1) {
+            throw new SaltApiException(String.format("Too many responses received: %d", responses.size()));
+        }
+        return responses.isEmpty() ? null : responses.get(0);
+    }
+
+    /**
+     * Reads a single minion's return out of each element of the response in the given entity.
+     * 
+     * @return the minion's return for each element of the response, null for elements the minion has not
+     *         returned in.
+     * @see #readMinionReturns(HttpEntity, Set)
+     */
+    protected List<MinionReturn> readMinionResponses(HttpEntity entity, String minionId) throws IOException,
+            SaltApiException {
+        List<MinionReturn> responses = Lists.newArrayList();
+        for (Map<String, MinionReturn> returns : readMinionReturns(entity, Collections.singleton(minionId))) {
+            responses.add(returns.get(minionId));
+        }
+        return responses;
+    }
+
+}
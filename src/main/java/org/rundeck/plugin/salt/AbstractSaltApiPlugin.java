@@ -0,0 +1,1109 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.ParseException;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+import org.rundeck.plugin.salt.output.SaltReturnHandlerRegistry;
+import org.rundeck.plugin.salt.output.SaltReturnLines;
+import org.rundeck.plugin.salt.output.SaltReturnListener;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltReturnResponseParseException;
+import org.rundeck.plugin.salt.output.SaltStreamingReturnHandler;
+import org.rundeck.plugin.salt.output.SaltTreeReturnHandler;
+import org.rundeck.plugin.salt.util.ArgumentParser;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.rundeck.plugin.salt.util.DependencyInjectionUtil;
+import org.rundeck.plugin.salt.util.ExponentialBackoffTimer;
+import org.rundeck.plugin.salt.util.HttpFactory;
+import org.rundeck.plugin.salt.util.JsonTruncatingReader;
+import org.rundeck.plugin.salt.util.LogWrapper;
+import org.rundeck.plugin.salt.util.RetryingHttpClientExecutor;
+import org.rundeck.plugin.salt.util.SpillBuffer;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+import org.rundeck.plugin.salt.version.SaltApiVersionCapabilityRegistry;
+import org.rundeck.plugin.salt.version.SaltInteractionHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.dtolabs.rundeck.plugins.PluginLogger;
+import com.dtolabs.rundeck.plugins.descriptions.PluginProperty;
+import com.dtolabs.rundeck.plugins.descriptions.TextArea;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+/**
+ * Common base for steps that execute salt functions through salt-api. Holds the salt-api connection
+ * properties, the injected http and return handling infrastructure and the requests shared by all steps:
+ * authentication, lowstate submission and job polling.
+ */
+public abstract class AbstractSaltApiPlugin {
+
+    protected static final String SECURE_OPTION_VALUE = "****";
+
+    protected static final String LOWSTATE_RESOURCE = "/";
+    protected static final String LOGIN_RESOURCE = "/login";
+    protected static final String MINION_RESOURCE = "/minions";
+    protected static final String JOBS_RESOURCE = "/jobs";
+    protected static final String LOGOUT_RESOURCE = "/logout";
+    protected static final String RUN_RESOURCE = "/run";
+    protected static final String SALT_AUTH_TOKEN_HEADER = "X-Auth-Token";
+    protected static final String CHAR_SET_ENCODING = "UTF-8";
+    protected static final String REQUEST_CONTENT_TYPE = "application/x-www-form-urlencoded";
+    protected static final String JSON_REQUEST_CONTENT_TYPE = "application/json";
+    protected static final String REQUEST_ACCEPT_HEADER_NAME = "Accept";
+    protected static final String JSON_RESPONSE_ACCEPT_TYPE = "application/json";
+    protected static final String YAML_RESPONSE_ACCEPT_TYPE = "application/x-yaml";
+
+    protected static final String SALT_OUTPUT_RETURN_KEY = "return";
+
+    // -- Parameter names for REST calls to salt-api --
+    protected static final String SALT_API_CLIENT_PARAM_NAME = "client";
+    protected static final String SALT_API_TIMEOUT_PARAM_NAME = "timeout";
+    protected static final String SALT_API_FUNCTION_PARAM_NAME = "fun";
+    protected static final String SALT_API_ARGUMENTS_PARAM_NAME = "arg";
+    protected static final String SALT_API_TARGET_PARAM_NAME = "tgt";
+    protected static final String SALT_API_USERNAME_PARAM_NAME = "username";
+    protected static final String SALT_API_PASSWORD_PARAM_NAME = "password";
+    protected static final String SALT_API_EAUTH_PARAM_NAME = "eauth";
+    protected static final String SALT_API_JID_PARAM_NAME = "jid";
+    protected static final String SALT_API_EXPRESSION_FORM_PARAM_NAME = "expr_form";
+    protected static final String SALT_LIST_EXPRESSION_FORM = "list";
+
+    // -- Salt client interfaces and functions used for lowstate requests --
+    protected static final String SALT_LOCAL_CLIENT = "local";
+    protected static final String SALT_LOCAL_ASYNC_CLIENT = "local_async";
+    protected static final String SALT_RUNNER_CLIENT = "runner";
+    protected static final String SALT_LOOKUP_JID_FUNCTION = "jobs.lookup_jid";
+    protected static final String SALT_FIND_JOB_FUNCTION = "saltutil.find_job";
+    protected static final String SALT_KILL_JOB_FUNCTION = "saltutil.kill_job";
+
+    // -- Option names expected to be passed in from rundeck --
+    protected static final String RUNDECK_DATA_CONTEXT_OPTION_KEY = "option";
+    protected static final String RUNDECK_SECURE_DATA_CONTEXT_OPTION_KEY = "secureOption";
+    protected static final String SALT_API_END_POINT_OPTION_NAME = "SALT_API_END_POINT";
+    protected static final String SALT_API_VERSION_OPTION_NAME = "SALT_API_VERSION";
+    protected static final String SALT_API_FUNCTION_OPTION_NAME = "Function";
+    protected static final String SALT_API_EAUTH_OPTION_NAME = "SALT_API_EAUTH";
+    protected static final String SALT_API_STATELESS_OPTION_NAME = "SALT_API_STATELESS";
+    protected static final String SALT_API_DEADLINE_OPTION_NAME = "SALT_API_DEADLINE";
+    protected static final String SALT_USER_OPTION_NAME = "SALT_USER";
+    protected static final String SALT_PASSWORD_OPTION_NAME = "SALT_PASSWORD";
+    
+    @PluginProperty(title = SALT_API_END_POINT_OPTION_NAME, description = "Salt Api end point", required = true, defaultValue = "${option."
+            + SALT_API_END_POINT_OPTION_NAME + "}")
+    protected String saltEndpoint;
+
+    @PluginProperty(title = SALT_API_VERSION_OPTION_NAME, description = "Salt Api version", required = false)
+    protected String saltApiVersion;
+
+    @TextArea
+    @PluginProperty(title = SALT_API_FUNCTION_OPTION_NAME, description = "Function (including args) to invoke on salt minions", required = true)
+    protected String function;
+
+    @PluginProperty(title = SALT_API_EAUTH_OPTION_NAME, description = "Salt Master's external authentication system", required = true, defaultValue = "${option."
+            + SALT_API_EAUTH_OPTION_NAME + "}")
+    protected String eAuth;
+
+    @PluginProperty(title = SALT_API_STATELESS_OPTION_NAME, description = "Pass credentials with every request to salt-api's /run resource instead of logging in and out", required = false)
+    protected boolean stateless;
+
+    @PluginProperty(title = SALT_API_DEADLINE_OPTION_NAME, description = "Seconds the whole step may take, including retries and polling, before its salt job is killed", required = false)
+    protected String deadline;
+
+    protected LogWrapper logWrapper;
+
+    @Autowired
+    protected SaltApiVersionCapabilityRegistry capabilityRegistry;
+
+    @Autowired
+    protected SaltTreeReturnHandler defaultReturnHandler;
+
+    @Autowired
+    protected HttpFactory httpFactory;
+
+    @Autowired
+    protected SaltReturnHandlerRegistry returnHandlerRegistry;
+
+    @Autowired
+    protected RetryingHttpClientExecutor retryExecutor;
+
+    @Autowired
+    protected LowstateBatchSubmitter batchSubmitter;
+
+    @Autowired
+    protected SaltGsonFactory gsonFactory;
+
+    // Maximum delay in ms for polling salt minion response
+    @Autowired
+    @Value("${saltJobPolling.maximumRetryDelay}")
+    protected long maximumRetryDelay;
+
+    // Delay step in ms for polling salt minion response
+    @Autowired
+    @Value("${saltJobPolling.delayStep}")
+    protected long delayStep;
+
+    // Time in ms after submission before a minion is first asked whether it is still running a job, 0 disables
+    @Autowired
+    @Value("${saltJobPolling.findJobGracePeriod}")
+    protected long findJobGracePeriod;
+
+    // Initial time in ms between asking a minion whether it is still running a job
+    @Autowired
+    @Value("${saltJobPolling.findJobInterval}")
+    protected long findJobInterval;
+
+    // Maximum time in ms between asking a minion whether it is still running a job
+    @Autowired
+    @Value("${saltJobPolling.maximumFindJobInterval}")
+    protected long maximumFindJobInterval;
+
+    // Time in ms that killing a job may take once the step's deadline passed or the step was interrupted
+    @Autowired
+    @Value("${saltJobPolling.killJobTimeout}")
+    protected long killJobTimeout;
+
+    // Default number of retries for all http requests
+    @Autowired
+    @Value("${saltApi.http.numRetries}")
+    protected int numRetries;
+
+    // Size in bytes above which a minion's response is spilled to a temporary file before it is parsed
+    @Autowired
+    @Value("${outputSpill.threshold}")
+    protected int outputSpillThreshold;
+
+    // Directory responses are spilled to, the system temporary directory if blank
+    @Autowired
+    @Value("${outputSpill.directory}")
+    protected String outputSpillDirectory;
+
+    // Characters kept from the start of each string of a spilled response, 0 with no tail length keeps them whole
+    @Autowired
+    @Value("${outputSpill.headLength}")
+    protected int outputSpillHeadLength;
+
+    // Characters kept from the end of each string of a spilled response
+    @Autowired
+    @Value("${outputSpill.tailLength}")
+    protected int outputSpillTailLength;
+
+    // Time in ms that spilled responses kept for their full output are retained
+    @Autowired
+    @Value("${outputSpill.retention}")
+    protected long outputSpillRetention;
+
+    // Maximum characters per logged line of minion output, 0 logs each output whole
+    @Autowired
+    @Value("${outputLog.chunkSize}")
+    protected int outputLogChunkSize;
+
+    // Supported API protocols
+    protected String[] endPointSchemes;
+
+    @Autowired
+    protected ExponentialBackoffTimer.Factory timerFactory;
+
+    public AbstractSaltApiPlugin() {
+        new DependencyInjectionUtil().inject(this);
+    }
+
+    @Autowired
+    public void setEndPointSchemes(@Value("${saltApi.endPointSchemes}") String epSchemes) throws IllegalArgumentException {
+        endPointSchemes = epSchemes.split(",");
+    }
+
+    /**
+     * Authorizes subsequent requests, either by logging in or, if stateless execution was requested and is
+     * supported, by passing the credentials with every request.
+     * 
+     * @return the authorization or null if the credentials were rejected.
+     */
+    protected SaltApiAuthorization authorize(SaltApiCapability capability, HttpClient client, String user,
+            String password) throws IOException, HttpException, InterruptedException {
+        if (shouldExecuteStatelessly(capability)) {
+            logWrapper.debug("Passing credentials with each request to salt-api");
+            return SaltApiAuthorization.forCredentials(user, password, eAuth);
+        }
+        if (stateless) {
+            logWrapper.warn("salt-api version [%s] does not support stateless requests, logging in instead",
+                    capability.getId());
+        }
+        String authToken = authenticate(capability, client, user, password);
+        return authToken == null ? null : SaltApiAuthorization.forToken(authToken);
+    }
+
+    /**
+     * Logs out of salt-api if the given authorization was obtained by logging in and salt-api supports it.
+     */
+    protected void releaseAuthorization(SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization) {
+        if (!authorization.isStateless() && capability.getSupportsLogout()) {
+            logoutQuietly(client, authorization.getAuthToken());
+        }
+    }
+
+    /**
+     * Extracts the given function's return with the handler registered for that function and logs its output.
+     * Handlers that stream their output have it logged as they interpret the return.
+     * 
+     * @return the interpreted exit code, the output has already been logged.
+     */
+    protected SaltReturnResponse extractReturn(String functionName, MinionReturn minionReturn)
+            throws SaltReturnResponseParseException {
+        SaltTreeReturnHandler handler = returnHandlerRegistry.getTreeHandlerFor(functionName, defaultReturnHandler);
+        logWrapper.debug("Using [%s] as salt's response handler", handler);
+        LoggingReturnListener listener = new LoggingReturnListener();
+        if (handler instanceof SaltStreamingReturnHandler) {
+            ((SaltStreamingReturnHandler) handler).handleReturn(minionReturn, listener);
+        } else {
+            SaltReturnResponse response = handler.handleReturn(minionReturn);
+            for (String out : response.getStandardOutput()) {
+                SaltReturnLines.emitStdout(out, listener);
+                listener.flush();
+            }
+            for (String err : response.getStandardError()) {
+                SaltReturnLines.emitStderr(err, listener);
+                listener.flush();
+            }
+            listener.onExitCode(response.getExitCode());
+        }
+        return listener.getResponse();
+    }
+
+    /**
+     * Logs the lines it receives, joining consecutive lines of the same stream into messages of at most
+     * outputLogChunkSize characters until flushed.
+     */
+    protected class LoggingReturnListener implements SaltReturnListener {
+        protected final StringBuilder buffer = new StringBuilder();
+        protected int bufferedLines;
+        protected boolean bufferedError;
+        protected final SaltReturnResponse response = new SaltReturnResponse();
+
+        @Override
+        public void onStdoutLine(String line) {
+            append(line, false);
+        }
+
+        @Override
+        public void onStderrLine(String line) {
+            append(line, true);
+        }
+
+        @Override
+        public void onExitCode(Integer exitCode) {
+            flush();
+            response.setExitCode(exitCode);
+        }
+
+        protected void append(String line, boolean error) {
+            if (bufferedLines > 0 && (error != bufferedError || (outputLogChunkSize > 0
+                    && buffer.length() + 1 + line.length() > outputLogChunkSize))) {
+                flush();
+            }
+            if (bufferedLines > 0) {
+                buffer.append('\n');
+            }
+            buffer.append(line);
+            bufferedLines++;
+            bufferedError = error;
+        }
+
+        protected void flush() {
+            if (bufferedLines > 0) {
+                logOutput(buffer.toString(), bufferedError);
+                buffer.setLength(0);
+                bufferedLines = 0;
+            }
+        }
+
+        /**
+         * @return a response holding only the exit code.
+         */
+        public SaltReturnResponse getResponse() {
+            return response;
+        }
+    }
+
+    /**
+     * Logs the given output in chunks of at most outputLogChunkSize characters, broken at line ends where
+     * possible, so that a huge output is not handed to the logger as a single message.
+     */
+    protected void logOutput(String output, boolean error) {
+        if (outputLogChunkSize <= 0 || output.length() <= outputLogChunkSize) {
+            logOutputChunk(output, error);
+            return;
+        }
+        int start = 0;
+        while (start < output.length()) {
+            int end = Math.min(start + outputLogChunkSize, output.length());
+            int next = end;
+            if (end < output.length()) {
+                int lineEnd = output.lastIndexOf('\n', end);
+                if (lineEnd > start) {
+                    end = lineEnd;
+                    next = lineEnd + 1;
+                }
+            }
+            logOutputChunk(output.substring(start, end), error);
+            start = next;
+        }
+    }
+
+    protected void logOutputChunk(String chunk, boolean error) {
+        if (error) {
+            logWrapper.error(chunk);
+        } else {
+            logWrapper.info(chunk);
+        }
+    }
+
+    /**
+     * Copies the given entity's content into a buffer that spills to disk past outputSpillThreshold bytes. When it
+     * spills, responses spilled longer than outputSpillRetention ago are deleted.
+     */
+    protected SpillBuffer bufferEntity(HttpEntity entity) throws IOException {
+        File directory = StringUtils.isBlank(outputSpillDirectory) ? null : new File(outputSpillDirectory.trim());
+        SpillBuffer buffer = new SpillBuffer(outputSpillThreshold, directory);
+        InputStream content = entity.getContent();
+        try {
+            ByteStreams.copy(content, buffer);
+            buffer.close();
+        } catch (IOException e) {
+            buffer.delete();
+            throw e;
+        } finally {
+            content.close();
+        }
+        int deleted = buffer.deleteExpiredFiles(outputSpillRetention);
+        if (deleted > 0) {
+            logWrapper.debug("Deleted %d expired spilled responses", deleted);
+        }
+        return buffer;
+    }
+
+    /**
+     * Reads the given minions' returns out of each element of the response in the given entity. A response larger
+     * than outputSpillThreshold is spilled to disk before it is parsed. If truncation is configured, long strings
+     * of a spilled response are cut down to their head and tail as they are read, and the spilled file is kept
+     * for the full output.
+     * 
+     * @see #readMinionReturns(JsonReader, Set)
+     */
+    protected List<Map<String, MinionReturn>> readMinionReturns(HttpEntity entity, Set<String> minionIds)
+            throws IOException, SaltApiException {
+        SpillBuffer buffer = bufferEntity(entity);
+        JsonTruncatingReader truncation = null;
+        try {
+            Reader content = new InputStreamReader(buffer.openInputStream(), CHAR_SET_ENCODING);
+            if (buffer.isSpilled()) {
+                logWrapper.debug("Spilled %d byte response to %s", buffer.length(), buffer.getFile());
+                truncation = createOutputTruncation(buffer, content);
+            }
+            JsonReader reader = new JsonReader(truncation == null ? content : truncation);
+            try {
+                return readMinionReturns(reader, minionIds);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            if (truncation != null && truncation.getTruncatedValues() > 0) {
+                logWrapper.warn("Truncated %d outputs of minions %s, the full response is in %s",
+                        truncation.getTruncatedValues(), minionIds, buffer.getFile());
+            } else {
+                buffer.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the given minions' returns out of each element of a salt-api response of the form {"return":
+     * [{"minion": ...}, ...]}. Their returns are built straight from the response as it is read, while the returns
+     * of other minions are skipped.
+     * 
+     * @return the returns of the given minions that have returned, by minion, for each element of the response.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected List<Map<String, MinionReturn>> readMinionReturns(JsonReader reader, Set<String> minionIds)
+            throws IOException, SaltApiException {
+        // salt-api responses are decoded leniently like Gson does
+        reader.setLenient(true);
+        List<Map<String, MinionReturn>> responses = Lists.newArrayList();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!SALT_OUTPUT_RETURN_KEY.equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Map<String, MinionReturn> returns = Maps.newLinkedHashMap();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String minionId = reader.nextName();
+                        if (minionIds.contains(minionId)) {
+                            returns.put(minionId, MinionReturn.fromReader(reader));
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    responses.add(returns);
+                }
+                reader.endArray();
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw new SaltApiException("Unexpected salt-api response", e);
+        } catch (JsonParseException e) {
+            throw new SaltApiException("Unexpected salt-api response", e);
+        } catch (IllegalStateException e) {
+            throw new SaltApiException("Unexpected salt-api response", e);
+        }
+        return responses;
+    }
+
+    /**
+     * @return a reader truncating the strings of the given spilled response as it reads its content, or null if
+     *         truncation is disabled.
+     */
+    protected JsonTruncatingReader createOutputTruncation(SpillBuffer buffer, Reader content) {
+        if (!buffer.isSpilled() || (outputSpillHeadLength <= 0 && outputSpillTailLength <= 0)) {
+            return null;
+        }
+        return new JsonTruncatingReader(content, Math.max(outputSpillHeadLength, 0),
+                Math.max(outputSpillTailLength, 0), buffer.getFile().getPath());
+    }
+
+    /**
+     * @return collection of secure data values from data context.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    protected Set<String> extractSecureDataFromDataContext(Map dataContext) {
+        Map<String, String> secureContext = (Map<String, String>) dataContext.get(RUNDECK_SECURE_DATA_CONTEXT_OPTION_KEY);
+        if (secureContext != null) {
+            return ImmutableSet.copyOf(secureContext.values());
+        }
+        else {
+            return ImmutableSet.of();
+        }
+    }
+
+    /**
+     * Submits the chunk through the batch submitter, so that it shares a single request with the jobs other steps
+     * submit to the same endpoint with the same credentials at the same time.
+     * 
+     * @return the job submission output for the chunk
+     */
+    protected SaltApiResponseOutput submitBatchedLowstateChunk(final SaltApiCapability capability,
+            final HttpClient client, final SaltApiAuthorization authorization, LowstateChunk chunk)
+            throws HttpException, IOException, SaltApiException, InterruptedException {
+        List<String> batchKey = Arrays.asList(saltEndpoint, authorization.getAuthToken(), authorization.getUser(),
+                authorization.getEAuth(), authorization.getPassword());
+        logWrapper.debug("Adding job with arguments [%s] to lowstate batch", chunk.toPrintableLowstate());
+        return batchSubmitter.submit(batchKey, chunk, new LowstateBatchSubmitter.Submission() {
+            @Override
+            public List<SaltApiResponseOutput> submit(List<LowstateChunk> chunks) throws HttpException, IOException,
+                    SaltApiException, InterruptedException {
+                return submitLowstateBatch(capability, client, authorization, chunks);
+            }
+        });
+    }
+
+    /**
+     * Submits several lowstate chunks to salt-api in a single request.
+     * 
+     * @return the job submission outputs in the order of the given chunks
+     * @throws HttpException
+     *             if there was a communication failure with salt-api
+     * @throws SaltApiException
+     *             if salt-api did not return one job submission per chunk
+     * @throws InterruptedException
+     */
+    protected List<SaltApiResponseOutput> submitLowstateBatch(SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, List<LowstateChunk> chunks) throws HttpException, IOException,
+            SaltApiException, InterruptedException {
+        List<Map<String, Object>> lowstate = Lists.newArrayList();
+        List<Map<String, Object>> printableLowstate = Lists.newArrayList();
+        for (LowstateChunk chunk : chunks) {
+            lowstate.add(chunk.toLowstate());
+            printableLowstate.add(chunk.toPrintableLowstate());
+        }
+        HttpPost post = createJsonLowstatePost(authorization, lowstate, printableLowstate);
+
+        logWrapper.debug("Submitting lowstate batch %s", printableLowstate);
+        logWrapper.info("Submitting batch of %d jobs with salt-api endpoint: [%s]", chunks.size(), post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        try {
+            String entityResponse = extractBodyFromEntity(entity);
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new HttpException(String.format("Expected response code %d, received %d. %s",
+                        HttpStatus.SC_OK, statusCode, entityResponse));
+            }
+            logWrapper.debug("Received response for lowstate batch submission = %s", response);
+            SaltInteractionHandler interactionHandler = capability.getSaltInteractionHandler();
+            List<SaltApiResponseOutput> saltOutputs = interactionHandler
+                    .extractOutputsForLowstateBatchResponse(entityResponse);
+            if (saltOutputs.size() != chunks.size()) {
+                throw new SaltApiException(String.format("Expected %d job submissions, received %d. %s",
+                        chunks.size(), saltOutputs.size(), entityResponse));
+            }
+            return saltOutputs;
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Creates a post of the given lowstate parameters. Token authorized requests are sent to the root resource,
+     * stateless requests are sent to /run with the credentials added to the lowstate.
+     * 
+     * @param printableParams
+     *            a loggable copy of params, credentials added to it have the password masked out.
+     */
+    protected HttpPost createLowstatePost(SaltApiAuthorization authorization, List<NameValuePair> params,
+            List<NameValuePair> printableParams) throws UnsupportedEncodingException {
+        if (authorization.isStateless()) {
+            NameValuePair userParam = new BasicNameValuePair(SALT_API_USERNAME_PARAM_NAME, authorization.getUser());
+            NameValuePair eAuthParam = new BasicNameValuePair(SALT_API_EAUTH_PARAM_NAME, authorization.getEAuth());
+            params.add(userParam);
+            params.add(new BasicNameValuePair(SALT_API_PASSWORD_PARAM_NAME, authorization.getPassword()));
+            params.add(eAuthParam);
+            printableParams.add(userParam);
+            printableParams.add(new BasicNameValuePair(SALT_API_PASSWORD_PARAM_NAME, SECURE_OPTION_VALUE));
+            printableParams.add(eAuthParam);
+        }
+        UrlEncodedFormEntity postEntity = new UrlEncodedFormEntity(params, CHAR_SET_ENCODING);
+        postEntity.setContentEncoding(CHAR_SET_ENCODING);
+        postEntity.setContentType(REQUEST_CONTENT_TYPE);
+        HttpPost post = createLowstatePost(authorization);
+        post.setEntity(postEntity);
+        return post;
+    }
+
+    /**
+     * Creates a post of the given lowstate data encoded as json. Stateless requests have the credentials added to
+     * each chunk, the printable copy has the password masked out.
+     */
+    protected HttpPost createJsonLowstatePost(SaltApiAuthorization authorization, List<Map<String, Object>> lowstate,
+            List<Map<String, Object>> printableLowstate) throws UnsupportedEncodingException {
+        if (authorization.isStateless()) {
+            for (Map<String, Object> data : lowstate) {
+                data.put(SALT_API_USERNAME_PARAM_NAME, authorization.getUser());
+                data.put(SALT_API_PASSWORD_PARAM_NAME, authorization.getPassword());
+                data.put(SALT_API_EAUTH_PARAM_NAME, authorization.getEAuth());
+            }
+            for (Map<String, Object> data : printableLowstate) {
+                data.put(SALT_API_USERNAME_PARAM_NAME, authorization.getUser());
+                data.put(SALT_API_PASSWORD_PARAM_NAME, SECURE_OPTION_VALUE);
+                data.put(SALT_API_EAUTH_PARAM_NAME, authorization.getEAuth());
+            }
+        }
+        StringEntity postEntity = new StringEntity(gsonFactory.getGson().toJson(lowstate), CHAR_SET_ENCODING);
+        postEntity.setContentEncoding(CHAR_SET_ENCODING);
+        postEntity.setContentType(JSON_REQUEST_CONTENT_TYPE);
+        HttpPost post = createLowstatePost(authorization);
+        post.setEntity(postEntity);
+        return post;
+    }
+
+    /**
+     * Creates a post to the lowstate resource matching the given authorization, without an entity.
+     */
+    protected HttpPost createLowstatePost(SaltApiAuthorization authorization) {
+        HttpPost post;
+        if (authorization.isStateless()) {
+            post = httpFactory.createHttpPost(saltEndpoint + RUN_RESOURCE);
+        } else {
+            post = httpFactory.createHttpPost(saltEndpoint + LOWSTATE_RESOURCE);
+            post.setHeader(SALT_AUTH_TOKEN_HEADER, authorization.getAuthToken());
+        }
+        post.setHeader(REQUEST_ACCEPT_HEADER_NAME, JSON_RESPONSE_ACCEPT_TYPE);
+        return post;
+    }
+
+    /**
+     * Creates a lowstate chunk for the given client from the class function, targeting the given salt target.
+     * Printable arguments have any secure data masked out.
+     */
+    protected LowstateChunk createLowstateChunk(String saltClient, String target, Set<String> secureData) {
+        List<String> args = ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse(getFunction());
+        List<String> functionArgs = args.subList(1, args.size());
+        List<String> printableArgs = Lists.newArrayListWithCapacity(functionArgs.size());
+        for (String arg : functionArgs) {
+            printableArgs.add(maskSecureData(arg, secureData));
+        }
+        return new LowstateChunk(saltClient, args.get(0), target, functionArgs, printableArgs);
+    }
+
+    /**
+     * @return the given value with every occurrence of the given secure data masked out.
+     */
+    protected String maskSecureData(String value, Set<String> secureData) {
+        for (String s : secureData) {
+            value = StringUtils.replace(value, s, SECURE_OPTION_VALUE);
+        }
+        return value;
+    }
+
+    /**
+     * @return true if lowstate jobs should be coalesced with those of concurrently executing steps.
+     */
+    protected boolean shouldBatchLowstateSubmission(SaltApiCapability capability) {
+        return capability.getSupportsLowstateBatches() && batchSubmitter.isEnabled();
+    }
+
+    /**
+     * @return true if stateless execution was requested and salt-api supports passing credentials through /run.
+     */
+    protected boolean shouldExecuteStatelessly(SaltApiCapability capability) {
+        return stateless && capability.getSupportsRunEndpoint();
+    }
+
+    protected boolean isPositiveInteger(String value) {
+        try {
+            return Integer.parseInt(value) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Source of a minion's job response for polling.
+     */
+    protected interface JidResponseSource {
+        /**
+         * @return the host response or null if none is available yet.
+         */
+        MinionReturn extractOutput() throws IOException, SaltApiException, InterruptedException;
+    }
+
+    /**
+     * Polls the given source with an exponential backoff until a response is available, see
+     * {@link #pollForJobs(JobPoll, HttpClient, SaltApiAuthorization)}.
+     * 
+     * @throws SaltJobNotRunningException
+     *             if the minion has not returned and is not running the job.
+     */
+    protected MinionReturn pollForJidResponse(final JidResponseSource source, HttpClient client,
+            SaltApiAuthorization authorization, String jid, String minionId) throws IOException,
+            InterruptedException, SaltApiException, SaltJobNotRunningException {
+        class SingleJobPoll extends JobPoll {
+            MinionReturn response;
+
+            @Override
+            protected void collect() throws IOException, SaltApiException, InterruptedException {
+                response = source.extractOutput();
+                if (response != null) {
+                    pending.clear();
+                }
+            }
+        }
+        SingleJobPoll poll = new SingleJobPoll();
+        poll.pending.put(jid, minionId);
+        pollForJobs(poll, client, authorization);
+        return poll.response;
+    }
+
+    /**
+     * Jobs polled for by {@link AbstractSaltApiPlugin#pollForJobs(JobPoll, HttpClient, SaltApiAuthorization)},
+     * along with the minions that have not returned for them yet.
+     */
+    protected abstract class JobPoll {
+        /**
+         * Minions that have not returned yet, by jid.
+         */
+        protected final SetMultimap<String, String> pending = LinkedHashMultimap.create();
+
+        /**
+         * Looks up the returns of the pending jobs once, removing the minions that have returned from pending.
+         */
+        protected abstract void collect() throws IOException, SaltApiException, InterruptedException;
+
+        /**
+         * @return true once polling can stop, by default once no minion is pending.
+         */
+        protected boolean isDone() {
+            return pending.isEmpty();
+        }
+
+        /**
+         * Handles a minion that has neither returned nor is running the job, after it was removed from pending. By
+         * default polling fails.
+         * 
+         * @throws SaltJobNotRunningException
+         *             to stop polling.
+         */
+        protected void notRunning(String jid, String minionId) throws SaltJobNotRunningException {
+            throw new SaltJobNotRunningException(String.format(
+                    "Minion [%s] has not returned and is not running job [%s]", minionId, jid));
+        }
+    }
+
+    /**
+     * Collects the returns of the given poll with an exponential backoff until it is done.
+     * 
+     * Once the grace period has passed the pending minions are asked with saltutil.find_job whether they are still
+     * running their jobs, like the salt command line does. Each time they all are, the interval until they are
+     * asked again doubles up to the maximum interval, so long running jobs cost fewer checks. Minions that are not
+     * are handed to {@link JobPoll#notRunning(String, String)} unless they returned in the meantime.
+     * 
+     * @throws SaltJobNotRunningException
+     *             if a minion has not returned and is not running its job and the poll does not handle that.
+     */
+    protected void pollForJobs(JobPoll poll, HttpClient client, SaltApiAuthorization authorization)
+            throws IOException, InterruptedException, SaltApiException, SaltJobNotRunningException {
+        ExponentialBackoffTimer timer = timerFactory.newTimer(delayStep, maximumRetryDelay);
+        long interval = findJobInterval;
+        long nextCheck = findJobGracePeriod > 0 ? currentTimeMillis() + findJobGracePeriod : Long.MAX_VALUE;
+        do {
+            poll.collect();
+            if (poll.isDone()) {
+                return;
+            }
+            if (currentTimeMillis() >= nextCheck) {
+                SetMultimap<String, String> notRunning = LinkedHashMultimap.create();
+                for (String jid : poll.pending.keySet()) {
+                    notRunning.putAll(jid, findMinionsNotRunningJob(client, authorization, jid,
+                            ImmutableSet.copyOf(poll.pending.get(jid))));
+                }
+                if (!notRunning.isEmpty()) {
+                    // The minions may have returned between the last poll and the check.
+                    poll.collect();
+                    for (Map.Entry<String, String> job : notRunning.entries()) {
+                        if (poll.pending.remove(job.getKey(), job.getValue())) {
+                            poll.notRunning(job.getKey(), job.getValue());
+                        }
+                    }
+                    if (poll.isDone()) {
+                        return;
+                    }
+                } else {
+                    logWrapper.debug("Minions are still running jobs %s", poll.pending.keySet());
+                }
+                nextCheck = currentTimeMillis() + interval;
+                interval = Math.min(maximumFindJobInterval, interval * 2);
+            }
+            timer.waitForNext();
+        } while (true);
+    }
+
+    /**
+     * Asks the given minions with saltutil.find_job whether they are running the given job, with a single request
+     * targeting them as a list.
+     * 
+     * @return the minions that did not answer or answered that they are not running the job, none if salt-api
+     *         did not respond successfully.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected Set<String> findMinionsNotRunningJob(HttpClient client, SaltApiAuthorization authorization,
+            String jid, Set<String> minionIds) throws IOException, InterruptedException, SaltApiException {
+        if (minionIds.size() == 1) {
+            String minionId = Iterables.getOnlyElement(minionIds);
+            return isJobRunning(client, authorization, jid, minionId) ? Collections.<String>emptySet()
+                    : Collections.singleton(minionId);
+        }
+        Set<String> running = findMinionsRunningJob(client, authorization, jid, Joiner.on(',').join(minionIds),
+                SALT_LIST_EXPRESSION_FORM);
+        if (running == null) {
+            return Collections.emptySet();
+        }
+        return ImmutableSet.copyOf(Sets.difference(minionIds, running));
+    }
+
+    /**
+     * Asks the given minion with saltutil.find_job whether it is running the given job.
+     * 
+     * @return false if the minion did not answer or answered that it is not running the job. Also true if
+     *         salt-api did not respond successfully, since nothing is known about the job then.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected boolean isJobRunning(HttpClient client, SaltApiAuthorization authorization, String jid,
+            String minionId) throws IOException, InterruptedException, SaltApiException {
+        Set<String> running = findMinionsRunningJob(client, authorization, jid, minionId, null);
+        return running == null || running.contains(minionId);
+    }
+
+    /**
+     * Asks the given target with saltutil.find_job which of its minions are running the given job.
+     * 
+     * @param expressionForm
+     *            How salt matches the target against minions, or null to match it as a glob.
+     * @return the minions that answered that they are running the job, or null if salt-api did not respond
+     *         successfully.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected Set<String> findMinionsRunningJob(HttpClient client, SaltApiAuthorization authorization, String jid,
+            String target, String expressionForm) throws IOException, InterruptedException, SaltApiException {
+        List<NameValuePair> params = Lists.newArrayList();
+        params.add(new BasicNameValuePair(SALT_API_CLIENT_PARAM_NAME, SALT_LOCAL_CLIENT));
+        params.add(new BasicNameValuePair(SALT_API_TARGET_PARAM_NAME, target));
+        if (expressionForm != null) {
+            params.add(new BasicNameValuePair(SALT_API_EXPRESSION_FORM_PARAM_NAME, expressionForm));
+        }
+        params.add(new BasicNameValuePair(SALT_API_FUNCTION_PARAM_NAME, SALT_FIND_JOB_FUNCTION));
+        params.add(new BasicNameValuePair(SALT_API_ARGUMENTS_PARAM_NAME, jid));
+        HttpPost post = createLowstatePost(authorization, params, Lists.newArrayList(params));
+
+        logWrapper.info("Checking whether [%s] is running job [%s]", target, jid);
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+
+        HttpEntity entity = response.getEntity();
+        try {
+            String entityResponse = extractBodyFromEntity(entity);
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                logWrapper.warn("Could not check whether minions are running job: %s", entityResponse);
+                return null;
+            }
+            logWrapper.debug("Received response for %s = %s", SALT_FIND_JOB_FUNCTION, entityResponse);
+            try {
+                JsonArray returns = new JsonParser().parse(entityResponse).getAsJsonObject()
+                        .getAsJsonArray(SALT_OUTPUT_RETURN_KEY);
+                if (returns.size() != 1) {
+                    throw new SaltApiException(String.format("Could not understand salt response %s", entityResponse));
+                }
+                Set<String> running = Sets.newHashSet();
+                for (Map.Entry<String, JsonElement> job : returns.get(0).getAsJsonObject().entrySet()) {
+                    JsonElement value = job.getValue();
+                    if (value.isJsonObject() && value.getAsJsonObject().entrySet().size() > 0) {
+                        running.add(job.getKey());
+                    }
+                }
+                return running;
+            } catch (RuntimeException e) {
+                throw new SaltApiException(String.format("Could not understand salt response %s", entityResponse), e);
+            }
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Asks the given target with saltutil.kill_job to stop running the given job, so a job the step gave up on
+     * does not keep holding minion and master resources. The request runs under its own short deadline with any
+     * interruption cleared, both are restored afterwards. Failures are only logged.
+     * 
+     * @param expressionForm
+     *            How salt matches the target against minions, or null to match it as a glob.
+     */
+    protected void killJobQuietly(HttpClient client, SaltApiAuthorization authorization, String jid, String target,
+            String expressionForm) {
+        Deadline stepDeadline = Deadline.current();
+        boolean interrupted = Thread.interrupted();
+        Deadline.start(killJobTimeout);
+        try {
+            List<NameValuePair> params = Lists.newArrayList();
+            params.add(new BasicNameValuePair(SALT_API_CLIENT_PARAM_NAME, SALT_LOCAL_ASYNC_CLIENT));
+            params.add(new BasicNameValuePair(SALT_API_TARGET_PARAM_NAME, target));
+            if (expressionForm != null) {
+                params.add(new BasicNameValuePair(SALT_API_EXPRESSION_FORM_PARAM_NAME, expressionForm));
+            }
+            params.add(new BasicNameValuePair(SALT_API_FUNCTION_PARAM_NAME, SALT_KILL_JOB_FUNCTION));
+            params.add(new BasicNameValuePair(SALT_API_ARGUMENTS_PARAM_NAME, jid));
+            HttpPost post = createLowstatePost(authorization, params, Lists.newArrayList(params));
+
+            logWrapper.info("Killing job [%s] on [%s]", jid, target);
+            try {
+                HttpResponse response = retryExecutor.execute(logWrapper, client, post, 1, Predicates.<Integer>alwaysFalse());
+                if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                    logWrapper.warn("Could not kill job [%s]: %s", jid, response.getStatusLine());
+                }
+                closeResource(response.getEntity());
+            } finally {
+                post.releaseConnection();
+            }
+        } catch (IOException e) {
+            logWrapper.warn("Encountered exception (%s) while trying to kill job [%s]. Ignoring...", e.getMessage(), jid);
+        } catch (InterruptedException e) {
+            logWrapper.warn("Interrupted while trying to kill job [%s].", jid);
+        } finally {
+            Deadline.restore(stepDeadline);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Starts the step's deadline on the current thread if one was configured, see {@link Deadline}.
+     */
+    protected void startDeadline() {
+        if (StringUtils.isNotBlank(deadline)) {
+            Deadline.start(Integer.parseInt(deadline.trim()) * 1000L);
+        }
+    }
+
+    /**
+     * Authenticates the given username/password with the given eauth system
+     * against the salt-api endpoint
+     * 
+     * @param capability
+     *            The {@link SaltApiCapability} that describes the supported features of the saltEndpoint 
+     * @param user
+     *            The user to auth with
+     * @param password
+     *            The password for the given user
+     * @return X-Auth-Token for use in subsequent requests
+     */
+    protected String authenticate(final SaltApiCapability capability, HttpClient client, String user, String password) throws IOException, HttpException,
+            InterruptedException {
+        List<NameValuePair> params = Lists.newArrayListWithCapacity(3);
+        params.add(new BasicNameValuePair(SALT_API_USERNAME_PARAM_NAME, user));
+        params.add(new BasicNameValuePair(SALT_API_PASSWORD_PARAM_NAME, password));
+        params.add(new BasicNameValuePair(SALT_API_EAUTH_PARAM_NAME, eAuth));
+        UrlEncodedFormEntity postEntity = new UrlEncodedFormEntity(params, CHAR_SET_ENCODING);
+        postEntity.setContentEncoding(CHAR_SET_ENCODING);
+        postEntity.setContentType(REQUEST_CONTENT_TYPE);
+
+        HttpPost post = httpFactory.createHttpPost(saltEndpoint + LOGIN_RESOURCE);
+        post.setEntity(postEntity);
+        
+        logWrapper.info("Authenticating with salt-api endpoint: [%s]", post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, new Predicate<Integer>() {
+            @Override
+            public boolean apply(Integer input) {
+                return input != capability.getLoginFailureResponseCode();
+            }
+        });
+
+        try {
+            int responseCode = response.getStatusLine().getStatusCode();
+            if (responseCode == capability.getLoginSuccessResponseCode()) {
+                return response.getHeaders(SALT_AUTH_TOKEN_HEADER)[0].getValue();
+            } else if (responseCode == capability.getLoginFailureResponseCode()) {
+                return null;
+            } else {
+                throw new HttpException(String.format("Unexpected failure interacting with salt-api %s", response
+                        .getStatusLine().toString()));
+            }
+        } finally {
+            closeResource(response.getEntity());
+            post.releaseConnection();
+        }
+    }
+
+    protected void logoutQuietly(HttpClient client, String authToken) {
+        String logoutResource = String.format("%s%s", saltEndpoint, LOGOUT_RESOURCE);
+        HttpGet get = httpFactory.createHttpGet(logoutResource);
+        get.setHeader(SALT_AUTH_TOKEN_HEADER, authToken);
+        
+        logWrapper.info("Logging out with salt-api endpoint: [%s]", get.getURI());
+        
+        try {
+            retryExecutor.execute(logWrapper, client, get, numRetries);
+        } catch (IOException e) {
+            logWrapper.warn("Encountered exception (%s) while trying to logout. Ignoring...", e.getMessage());
+        } catch (InterruptedException e) {
+            logWrapper.warn("Interrupted while trying to logout.");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected SaltApiCapability getSaltApiCapability() {
+        return StringUtils.isBlank(saltApiVersion) ? capabilityRegistry.getDefault() : capabilityRegistry
+                .getCapability(saltApiVersion);
+    }
+
+    /**
+     * @return the configured function along with its args. Steps that describe the property differently declare
+     *         their own and override this.
+     */
+    protected String getFunction() {
+        return function;
+    }
+
+    // -- Isolating so tests can control the passage of time --
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    protected void setLogWrapper(PluginLogger logger) {
+        logWrapper = new LogWrapper(logger);
+    }
+
+    // -- Isolating so powermock doesn't kill permgen --
+    protected String extractBodyFromEntity(HttpEntity entity) throws ParseException, IOException {
+        return EntityUtils.toString(entity);
+    }
+
+    protected void closeResource(HttpEntity entity) {
+        EntityUtils.consumeQuietly(entity);
+    }
+}
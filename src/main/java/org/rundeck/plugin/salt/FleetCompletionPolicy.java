@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+/**
+ * Decides when a function executed across many minions has completed, so that the step does not have to wait on
+ * stragglers once its outcome is known.
+ */
+public class FleetCompletionPolicy {
+
+    public enum Decision {
+        UNDECIDED, SUCCEEDED, FAILED;
+    }
+
+    protected final Integer successPercentage;
+    protected final Integer maximumFailures;
+
+    /**
+     * @param successPercentage
+     *            The percentage of targeted minions that must succeed, or null if all of them must return and
+     *            succeed.
+     * @param maximumFailures
+     *            The number of failed minions at which the execution fails right away, or null to never fail
+     *            early.
+     */
+    public FleetCompletionPolicy(Integer successPercentage, Integer maximumFailures) {
+        this.successPercentage = successPercentage;
+        this.maximumFailures = maximumFailures;
+    }
+
+    /**
+     * @param targeted
+     *            The number of minions the function was executed on.
+     * @param summary
+     *            The outcomes recorded so far, minions without an outcome are considered pending.
+     * @return whether the execution has succeeded or failed, or UNDECIDED if pending minions may still change
+     *         the outcome.
+     */
+    public Decision decide(int targeted, FleetExecutionSummary summary) {
+        int succeeded = summary.getSucceeded().size();
+        int failed = summary.getFailed().size();
+        int pending = targeted - succeeded - failed;
+        int requiredSuccesses = getRequiredSuccesses(targeted);
+
+        if (maximumFailures != null && failed >= maximumFailures) {
+            return Decision.FAILED;
+        }
+        if (pending <= 0) {
+            return succeeded >= requiredSuccesses ? Decision.SUCCEEDED : Decision.FAILED;
+        }
+        if (successPercentage != null) {
+            if (succeeded >= requiredSuccesses) {
+                return Decision.SUCCEEDED;
+            } else if (succeeded + pending < requiredSuccesses) {
+                return Decision.FAILED;
+            }
+        }
+        return Decision.UNDECIDED;
+    }
+
+    /**
+     * @return the number of the given targeted minions that must succeed.
+     */
+    protected int getRequiredSuccesses(int targeted) {
+        if (successPercentage == null) {
+            return targeted;
+        }
+        return (int) Math.ceil(targeted * successPercentage / 100D);
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Tallies the outcome of a function executed across many minions.
+ */
+public class FleetExecutionSummary {
+
+    protected final Set<String> succeeded = Sets.newTreeSet();
+    protected final Map<String, String> failed = Maps.newTreeMap();
+    protected final Set<String> abandoned = Sets.newTreeSet();
+
+    public void recordSuccess(String minionId) {
+        succeeded.add(minionId);
+    }
+
+    /**
+     * @param reason A short human readable description of why the minion failed.
+     */
+    public void recordFailure(String minionId, String reason) {
+        failed.put(minionId, reason);
+    }
+
+    /**
+     * Records a minion that was not waited for or not executed on because the execution was decided without it.
+     */
+    public void recordAbandoned(String minionId) {
+        abandoned.add(minionId);
+    }
+
+    /**
+     * @return true if the given minion's outcome has already been recorded.
+     */
+    public boolean hasOutcome(String minionId) {
+        return succeeded.contains(minionId) || failed.containsKey(minionId) || abandoned.contains(minionId);
+    }
+
+    public Set<String> getSucceeded() {
+        return Collections.unmodifiableSet(succeeded);
+    }
+
+    /**
+     * @return the failed minions mapped to the reason they failed.
+     */
+    public Map<String, String> getFailed() {
+        return Collections.unmodifiableMap(failed);
+    }
+
+    public Set<String> getAbandoned() {
+        return Collections.unmodifiableSet(abandoned);
+    }
+
+    public int getMinionCount() {
+        return succeeded.size() + failed.size() + abandoned.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d of %d minions succeeded", succeeded.size(), getMinionCount()));
+        for (Map.Entry<String, String> entry : failed.entrySet()) {
+            sb.append(String.format(", [%s] %s", entry.getKey(), entry.getValue()));
+        }
+        if (!abandoned.isEmpty()) {
+            sb.append(String.format(", %d minions abandoned", abandoned.size()));
+        }
+        return sb.toString();
+    }
+}
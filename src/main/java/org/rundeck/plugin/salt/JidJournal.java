@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.plugin.salt.util.RundeckConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.gson.JsonParseException;
+
+/**
+ * An append-only journal of the jobs dispatched by steps that are still waiting for their return, so that a step
+ * rerun after rundeck restarted can wait for the job it dispatched before instead of dispatching it again.
+ * 
+ * A journaled job is claimed by the step waiting for it, so that a concurrent execution of the same rundeck job
+ * dispatches its own job rather than waiting for, and possibly killing, one that another step waits for. Jobs that
+ * are still claimed when the journal is closed on shutdown stay live for the rerun to resume.
+ * 
+ * Each dispatched job is appended as a json line and synced to disk before the step waits for it. Writers that
+ * append while another one syncs share the next sync rather than each syncing on their own. Completed jobs are
+ * appended without a sync, since a lost completion only causes a rerun to look up a job that already returned. The
+ * file is rewritten with only the live jobs when it is opened and once enough records became obsolete; a record
+ * torn by a crash is skipped when the file is read.
+ */
+@Component
+public class JidJournal {
+    protected static final String DISPATCHED = "dispatched";
+    protected static final String COMPLETED = "completed";
+    protected static final String CHAR_SET_ENCODING = "UTF-8";
+    protected static final String JOURNAL_FILE_PROPERTY_KEY = "saltStep.jidJournal";
+
+    // -- Rundeck data context identifying the job that reruns resume jobs for --
+    protected static final String RUNDECK_DATA_CONTEXT_JOB_KEY = "job";
+    protected static final String RUNDECK_JOB_ID_KEY = "id";
+
+    // The journal file, blank disables journaling unless it is configured in rundeck's configuration
+    @Autowired
+    @Value("${jidJournal.file}")
+    protected String file;
+
+    // Time in ms after which a dispatched job is no longer resumed
+    @Autowired
+    @Value("${jidJournal.retention}")
+    protected long retention;
+
+    // Number of obsolete records after which the journal is rewritten
+    @Autowired
+    @Value("${jidJournal.compactionThreshold}")
+    protected int compactionThreshold;
+
+    // Guarded by this
+    protected final Map<List<String>, Record> live = Maps.newHashMap();
+    protected final Set<String> claimedJids = Sets.newHashSet();
+    protected boolean closed;
+    protected FileOutputStream out;
+    protected long written;
+    protected int obsoleteRecords;
+
+    // Guarded by syncLock, acquired before this
+    protected final Object syncLock = new Object();
+    protected long synced;
+
+    @Autowired
+    protected SaltGsonFactory gsonFactory;
+
+    /**
+     * @return the part of the key that jobs dispatched to the given minion are journaled with that identifies the
+     *         rundeck job from the given data context, the endpoint, user and minion, or null if the data context
+     *         does not identify a rundeck job. The execution is left out, since every rerun is a new execution.
+     */
+    public static List<String> createScope(Map<String, Map<String, String>> dataContext, String saltEndpoint,
+            String user, String minionId) {
+        Map<String, String> jobData = dataContext.get(RUNDECK_DATA_CONTEXT_JOB_KEY);
+        if (jobData == null || StringUtils.isBlank(jobData.get(RUNDECK_JOB_ID_KEY))) {
+            return null;
+        }
+        return Arrays.asList(jobData.get(RUNDECK_JOB_ID_KEY), saltEndpoint, user, minionId);
+    }
+
+    public boolean isEnabled() {
+        return StringUtils.isNotBlank(file);
+    }
+
+    /**
+     * Reads the live jobs from the journal file and rewrites it with only those.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        configureFromRundeck();
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (syncLock) {
+            synchronized (this) {
+                replay();
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Stops journaling, leaving the claimed jobs live for the rerun after the restart. Called when the plugin's
+     * context is closed on shutdown.
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (closed || out == null) {
+                    closed = true;
+                    return;
+                }
+                closed = true;
+                out.getChannel().force(false);
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * @return true once the journal was closed, so that steps interrupted by the shutdown leave their jobs running
+     *         and journaled rather than killing them.
+     */
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    protected void configureFromRundeck() throws IOException {
+        String configuredFile = RundeckConfiguration.getProperty(JOURNAL_FILE_PROPERTY_KEY);
+        if (StringUtils.isNotBlank(configuredFile)) {
+            file = configuredFile.trim();
+        }
+    }
+
+    /**
+     * Claims the live job dispatched for the given key unless another step already waits for it. The claim is
+     * given up by {@link #recordCompleted} or {@link #release}.
+     * 
+     * @return the jid of the claimed job, or null if there is no live job or it is claimed.
+     */
+    public synchronized String claimLiveJid(List<String> key) {
+        String jid = getLiveJid(key);
+        if (closed || jid == null || !claimedJids.add(jid)) {
+            return null;
+        }
+        return jid;
+    }
+
+    /**
+     * @return the jid of the live job dispatched for the given key whether or not it is claimed, or null if there
+     *         is none.
+     */
+    protected synchronized String getLiveJid(List<String> key) {
+        Record record = live.get(key);
+        if (record == null || isExpired(record)) {
+            return null;
+        }
+        return record.jid;
+    }
+
+    /**
+     * Records the given job as dispatched and claimed for the given key and returns once the record is on disk.
+     */
+    public void recordDispatched(List<String> key, String jid) throws IOException {
+        Record record = new Record(DISPATCHED, key, jid, currentTimeMillis());
+        long position;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Journal is closed");
+            }
+            if (live.put(key, record) != null) {
+                obsoleteRecords++;
+            }
+            claimedJids.add(jid);
+            position = append(record);
+        }
+        sync(position);
+    }
+
+    /**
+     * Gives up the claim on the given job without completing it, e.g. because it may still return, so that a rerun
+     * can resume it.
+     */
+    public synchronized void release(String jid) {
+        claimedJids.remove(jid);
+    }
+
+    /**
+     * Records the given job as no longer waited for. Failures to write the record are ignored, as is completing a
+     * job once the journal is closed.
+     */
+    public void recordCompleted(List<String> key, String jid) {
+        try {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                claimedJids.remove(jid);
+                Record record = live.get(key);
+                if (record == null || !record.jid.equals(jid)) {
+                    return;
+                }
+                live.remove(key);
+                obsoleteRecords += 2;
+                append(new Record(COMPLETED, key, jid, currentTimeMillis()));
+            }
+            compactIfNeeded();
+        } catch (IOException e) {
+            // A rerun of the step looks up the job again.
+        }
+    }
+
+    /**
+     * @return the journal's length once the given record is appended.
+     */
+    protected long append(Record record) throws IOException {
+        byte[] line = (gsonFactory.getGson().toJson(record) + "\n").getBytes(CHAR_SET_ENCODING);
+        out.write(line);
+        written += line.length;
+        return written;
+    }
+
+    /**
+     * Syncs the journal up to at least the given position, unless a sync by another writer already covered it.
+     */
+    protected void sync(long position) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            long target;
+            synchronized (this) {
+                target = written;
+            }
+            out.getChannel().force(false);
+            synced = target;
+        }
+    }
+
+    protected void compactIfNeeded() throws IOException {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (!closed && obsoleteRecords >= compactionThreshold) {
+                    compact();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the live jobs, replacing the file once the rewrite is on disk. Callers must
+     * hold syncLock and this.
+     */
+    protected void compact() throws IOException {
+        File journal = new File(file);
+        File rewrite = new File(file + ".tmp");
+        FileOutputStream rewriteOut = new FileOutputStream(rewrite);
+        long length = 0;
+        try {
+            for (Record record : live.values()) {
+                if (!isExpired(record)) {
+                    byte[] line = (gsonFactory.getGson().toJson(record) + "\n").getBytes(CHAR_SET_ENCODING);
+                    rewriteOut.write(line);
+                    length += line.length;
+                }
+            }
+            rewriteOut.getChannel().force(false);
+        } finally {
+            rewriteOut.close();
+        }
+        if (out != null) {
+            out.close();
+        }
+        if (!rewrite.renameTo(journal)) {
+            throw new IOException(String.format("Could not replace journal %s", journal));
+        }
+        out = new FileOutputStream(journal, true);
+        written = length;
+        synced = length;
+        obsoleteRecords = 0;
+    }
+
+    protected void replay() throws IOException {
+        File journal = new File(file);
+        if (!journal.exists()) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal),
+                CHAR_SET_ENCODING));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record;
+                try {
+                    record = gsonFactory.getGson().fromJson(line, Record.class);
+                } catch (JsonParseException e) {
+                    // Torn by a crash while appending
+                    continue;
+                }
+                if (record == null || record.key == null || record.jid == null) {
+                    continue;
+                }
+                if (DISPATCHED.equals(record.type)) {
+                    live.put(record.key, record);
+                } else if (COMPLETED.equals(record.type)) {
+                    Record dispatched = live.get(record.key);
+                    if (dispatched != null && dispatched.jid.equals(record.jid)) {
+                        live.remove(record.key);
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    protected boolean isExpired(Record record) {
+        return currentTimeMillis() - record.time >= retention;
+    }
+
+    // -- Isolating so tests can control the passage of time --
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    protected static class Record {
+        protected String type;
+        protected List<String> key;
+        protected String jid;
+        protected long time;
+
+        protected Record() {
+        }
+
+        protected Record(String type, List<String> key, String jid, long time) {
+            this.type = type;
+            this.key = key;
+            this.jid = jid;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.http.HttpException;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.rundeck.plugin.salt.util.DeadlineExceededException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Coalesces lowstate chunks submitted concurrently by different callers into a single salt-api request.
+ * 
+ * The first caller for a given batch key opens a batch and waits up to the batch window for other callers to
+ * join it. It then submits every chunk of the batch at once and hands each caller the job submission output that
+ * corresponds to its own chunk. Callers may only share a batch key if their chunks can be submitted with the same
+ * endpoint and credentials.
+ */
+@Component
+public class LowstateBatchSubmitter {
+
+    /**
+     * Submits a batch of chunks to salt-api in a single request.
+     */
+    public interface Submission {
+        /**
+         * @return the job submission outputs, in the same order as the given chunks.
+         */
+        List<SaltApiResponseOutput> submit(List<LowstateChunk> chunks) throws HttpException, IOException,
+                SaltApiException, InterruptedException;
+    }
+
+    // Time in ms that an opened batch waits for more chunks, 0 disables batching
+    @Autowired
+    @Value("${lowstateBatchSubmitter.window}")
+    protected long window;
+
+    // Maximum number of chunks per batch, a full batch is submitted immediately
+    @Autowired
+    @Value("${lowstateBatchSubmitter.maximumChunks}")
+    protected int maximumChunks;
+
+    protected final Map<Object, Batch> openBatches = Maps.newHashMap();
+
+    /**
+     * @return true if chunks should be submitted through this batcher.
+     */
+    public boolean isEnabled() {
+        return window > 0 && maximumChunks > 1;
+    }
+
+    /**
+     * Adds the given chunk to the open batch for the given key and blocks until that batch was submitted.
+     * 
+     * @param batchKey
+     *            identifies the endpoint and credentials the chunk can be submitted with.
+     * @param submission
+     *            used to submit the batch if this caller opens it.
+     * @return the job submission output for the given chunk.
+     * @throws InterruptedException
+     *             if interrupted while waiting for the batch. The chunk may still be submitted.
+     */
+    public SaltApiResponseOutput submit(Object batchKey, LowstateChunk chunk, Submission submission)
+            throws HttpException, IOException, SaltApiException, InterruptedException {
+        Batch batch;
+        int index;
+        boolean opened = false;
+        synchronized (openBatches) {
+            batch = openBatches.get(batchKey);
+            if (batch == null) {
+                batch = new Batch();
+                openBatches.put(batchKey, batch);
+                opened = true;
+            }
+            index = batch.add(chunk);
+            if (batch.size() >= maximumChunks) {
+                openBatches.remove(batchKey);
+                openBatches.notifyAll();
+            }
+        }
+
+        if (opened) {
+            List<LowstateChunk> chunks;
+            try {
+                chunks = waitForChunks(batchKey, batch);
+            } catch (InterruptedException e) {
+                batch.fail(new SaltApiException("Interrupted while collecting lowstate batch"));
+                throw e;
+            }
+            batch.execute(chunks, submission);
+        }
+        return batch.await(index);
+    }
+
+    /**
+     * Waits until the batch window elapsed or the batch was filled up and closes the batch.
+     * 
+     * @return the chunks of the closed batch.
+     */
+    protected List<LowstateChunk> waitForChunks(Object batchKey, Batch batch) throws InterruptedException {
+        synchronized (openBatches) {
+            try {
+                long deadline = System.currentTimeMillis() + window;
+                long remaining = window;
+                while (openBatches.get(batchKey) == batch && remaining > 0) {
+                    openBatches.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } finally {
+                if (openBatches.get(batchKey) == batch) {
+                    openBatches.remove(batchKey);
+                }
+            }
+            return batch.getChunks();
+        }
+    }
+
+    /**
+     * Chunks collected for a single request along with the outcome of that request.
+     */
+    protected static class Batch {
+        protected final List<LowstateChunk> chunks = Lists.newArrayList();
+        protected final CountDownLatch submitted = new CountDownLatch(1);
+        protected List<SaltApiResponseOutput> outputs;
+        protected Exception failure;
+
+        protected int add(LowstateChunk chunk) {
+            chunks.add(chunk);
+            return chunks.size() - 1;
+        }
+
+        protected int size() {
+            return chunks.size();
+        }
+
+        protected List<LowstateChunk> getChunks() {
+            return ImmutableList.copyOf(chunks);
+        }
+
+        protected void execute(List<LowstateChunk> chunks, Submission submission) {
+            try {
+                List<SaltApiResponseOutput> result = submission.submit(chunks);
+                if (result.size() != chunks.size()) {
+                    failure = new SaltApiException(String.format(
+                            "Expected %d job submissions for lowstate batch, received %d", chunks.size(),
+                            result.size()));
+                } else {
+                    outputs = result;
+                }
+            } catch (DeadlineExceededException e) {
+                failure = new SaltApiException("Deadline exceeded while submitting lowstate batch");
+            } catch (InterruptedException e) {
+                failure = new SaltApiException("Interrupted while submitting lowstate batch");
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                submitted.countDown();
+            }
+        }
+
+        protected void fail(Exception e) {
+            failure = e;
+            submitted.countDown();
+        }
+
+        protected SaltApiResponseOutput await(int index) throws HttpException, IOException, SaltApiException,
+                InterruptedException {
+            Deadline.current().await(submitted);
+            if (failure instanceof HttpException) {
+                throw (HttpException) failure;
+            } else if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof SaltApiException) {
+                throw (SaltApiException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new SaltApiException(String.format("Lowstate batch submission failed: %s", failure));
+            }
+            return outputs.get(index);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * A single lowstate chunk, i.e. one salt function call against one target through one of salt-api's client
+ * interfaces. A compound chunk calls several functions in order within the same job. Several chunks can be
+ * submitted to salt-api in a single request.
+ */
+public class LowstateChunk {
+    protected static final String CLIENT_KEY = "client";
+    protected static final String FUNCTION_KEY = "fun";
+    protected static final String TARGET_KEY = "tgt";
+    protected static final String ARGUMENTS_KEY = "arg";
+
+    protected final String client;
+    protected final String target;
+    protected final List<String> functions;
+    protected final List<List<String>> args;
+    protected final List<List<String>> printableArgs;
+
+    /**
+     * @param printableArgs
+     *            the args with secure data masked out, used for logging.
+     */
+    public LowstateChunk(String client, String function, String target, List<String> args,
+            List<String> printableArgs) {
+        this(client, target, ImmutableList.of(function), ImmutableList.of(args), ImmutableList.of(printableArgs));
+    }
+
+    /**
+     * Creates a chunk that calls the given functions in order within a single job.
+     * 
+     * @param args
+     *            one list of args per function.
+     * @param printableArgs
+     *            the args with secure data masked out, used for logging.
+     */
+    public LowstateChunk(String client, String target, List<String> functions, List<List<String>> args,
+            List<List<String>> printableArgs) {
+        Preconditions.checkArgument(!functions.isEmpty(), "Expected at least one function");
+        Preconditions.checkArgument(functions.size() == args.size() && args.size() == printableArgs.size(),
+                "Expected one list of args per function");
+        this.client = client;
+        this.target = target;
+        this.functions = ImmutableList.copyOf(functions);
+        this.args = copyOf(args);
+        this.printableArgs = copyOf(printableArgs);
+    }
+
+    protected static List<List<String>> copyOf(List<List<String>> lists) {
+        ImmutableList.Builder<List<String>> builder = ImmutableList.builder();
+        for (List<String> list : lists) {
+            builder.add(ImmutableList.copyOf(list));
+        }
+        return builder.build();
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public List<String> getFunctions() {
+        return functions;
+    }
+
+    public List<List<String>> getArgs() {
+        return args;
+    }
+
+    /**
+     * @return true if this chunk calls more than one function.
+     */
+    public boolean isCompound() {
+        return functions.size() > 1;
+    }
+
+    /**
+     * @return a mutable map of this chunk's lowstate data, ready to be serialized as json.
+     */
+    public Map<String, Object> toLowstate() {
+        return toLowstate(args);
+    }
+
+    /**
+     * @return same as {@link #toLowstate()} but with secure data masked out.
+     */
+    public Map<String, Object> toPrintableLowstate() {
+        return toLowstate(printableArgs);
+    }
+
+    protected Map<String, Object> toLowstate(List<List<String>> arguments) {
+        Map<String, Object> lowstate = Maps.newLinkedHashMap();
+        lowstate.put(CLIENT_KEY, client);
+        if (isCompound()) {
+            // Salt matches compound args to functions by position, so every function needs an entry.
+            lowstate.put(FUNCTION_KEY, functions);
+            lowstate.put(TARGET_KEY, target);
+            lowstate.put(ARGUMENTS_KEY, arguments);
+        } else {
+            lowstate.put(FUNCTION_KEY, functions.get(0));
+            lowstate.put(TARGET_KEY, target);
+            if (!arguments.get(0).isEmpty()) {
+                lowstate.put(ARGUMENTS_KEY, arguments.get(0));
+            }
+        }
+        return lowstate;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.http.HttpException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Caches the presence of minions per salt master, so that steps can fail fast on minions that are unknown to the
+ * master instead of submitting a job and polling for a return that never arrives.
+ * 
+ * A snapshot is refreshed once it is older than the refresh interval. Since minions may have been accepted since, a
+ * snapshot missing the requested minion's key is also refreshed, but at most once per minimum refresh interval.
+ * Concurrent callers for the same key wait for a single refresh rather than each asking the master.
+ */
+@Component
+public class MinionPresenceCache {
+
+    /**
+     * Asks the salt master for the presence of its minions.
+     */
+    public interface Loader {
+        MinionPresence load() throws HttpException, IOException, SaltApiException, InterruptedException;
+    }
+
+    // Time in ms that a presence snapshot is used for, 0 disables presence checks
+    @Autowired
+    @Value("${minionPresence.refreshInterval}")
+    protected long refreshInterval;
+
+    // Time in ms within which a snapshot missing a minion is not refreshed again
+    @Autowired
+    @Value("${minionPresence.minimumRefreshInterval}")
+    protected long minimumRefreshInterval;
+
+    protected final Map<Object, Entry> entries = Maps.newHashMap();
+
+    /**
+     * @return true if presence should be checked through this cache.
+     */
+    public boolean isEnabled() {
+        return refreshInterval > 0;
+    }
+
+    /**
+     * @param key
+     *            identifies the master and the credentials the presence is looked up with.
+     * @param minionId
+     *            the minion the caller is about to target.
+     * @param loader
+     *            used to refresh the snapshot for the given key.
+     * @return the cached presence for the given key, refreshed if stale.
+     */
+    public MinionPresence get(Object key, String minionId, Loader loader) throws HttpException, IOException,
+            SaltApiException, InterruptedException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+        }
+        synchronized (entry) {
+            long age = currentTimeMillis() - entry.loadedAt;
+            if (entry.presence == null || age >= refreshInterval
+                    || (age >= minimumRefreshInterval && !isPresent(entry.presence, minionId))) {
+                entry.presence = loader.load();
+                entry.loadedAt = currentTimeMillis();
+            }
+            return entry.presence;
+        }
+    }
+
+    protected boolean isPresent(MinionPresence presence, String minionId) {
+        return presence.isAccepted(minionId);
+    }
+
+    // -- Isolating so tests can control the passage of time --
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    protected static class Entry {
+        protected MinionPresence presence;
+        protected long loadedAt;
+    }
+}
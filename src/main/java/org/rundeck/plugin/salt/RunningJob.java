@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A job a minion reported running through saltutil.running, or one the plugin just dispatched to it.
+ */
+public class RunningJob {
+
+    protected final String jid;
+    protected final String function;
+    protected final List<String> args;
+
+    /**
+     * @param args
+     *            The function's args, in a normalized order.
+     */
+    public RunningJob(String jid, String function, List<String> args) {
+        this.jid = jid;
+        this.function = function;
+        this.args = ImmutableList.copyOf(args);
+    }
+
+    public String getJid() {
+        return jid;
+    }
+
+    public String getFunction() {
+        return function;
+    }
+
+    public List<String> getArgs() {
+        return args;
+    }
+
+    /**
+     * @return true if this job runs the given function with the given normalized args.
+     */
+    public boolean matches(String function, List<String> args) {
+        return this.function.equals(function) && this.args.equals(args);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s", jid, function, args);
+    }
+}
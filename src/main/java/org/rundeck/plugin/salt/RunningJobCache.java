@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.http.HttpException;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Briefly caches the jobs running on each minion, so that steps about to dispatch a job can attach to an identical
+ * one already running instead, without every step asking the minion with saltutil.running.
+ * 
+ * Jobs dispatched by the plugin are added to a minion's cached jobs right away, so that overlapping steps see them
+ * before the next lookup. Concurrent callers for the same key wait for a single lookup. A step that finds no job to
+ * attach to claims the dispatch of its function, and identical steps wait for the job it dispatches rather than
+ * dispatching their own.
+ */
+@Component
+public class RunningJobCache {
+
+    /**
+     * Asks the minion for the jobs it is running.
+     */
+    public interface Loader {
+        List<RunningJob> load() throws HttpException, IOException, SaltApiException, InterruptedException;
+    }
+
+    // Time in ms that a minion's running jobs are cached for
+    @Autowired
+    @Value("${runningJobs.cacheInterval}")
+    protected long cacheInterval;
+
+    protected final Map<Object, Entry> entries = Maps.newHashMap();
+
+    protected final Map<List<Object>, Dispatch> dispatches = Maps.newHashMap();
+
+    /**
+     * @param key
+     *            identifies the master, the credentials and the minion the jobs are looked up for.
+     * @param loader
+     *            used to look up the jobs if the cached ones are stale.
+     * @return the jobs running on the minion.
+     */
+    public List<RunningJob> get(Object key, Loader loader) throws HttpException, IOException, SaltApiException,
+            InterruptedException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                removeStaleEntries();
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+        }
+        synchronized (entry) {
+            if (entry.jobs == null || currentTimeMillis() - entry.loadedAt >= cacheInterval) {
+                entry.jobs = ImmutableList.copyOf(loader.load());
+                entry.loadedAt = currentTimeMillis();
+            }
+            return entry.jobs;
+        }
+    }
+
+    /**
+     * Looks up the job running the given function with the given args on the minion, or claims the function's
+     * dispatch if there is none. A caller that is returned null must either {@link #record} the job it dispatched
+     * or {@link #abandon} the dispatch, other callers for the same function wait until it does.
+     * 
+     * @param key
+     *            identifies the master, the credentials and the minion the jobs are looked up for.
+     * @param args
+     *            the function's args, in a normalized order.
+     * @param loader
+     *            used to look up the jobs if the cached ones are stale.
+     * @return the running job, or null if the caller is to dispatch it.
+     */
+    public RunningJob findOrClaim(Object key, String functionName, List<String> args, Loader loader)
+            throws HttpException, IOException, SaltApiException, InterruptedException {
+        List<Object> dispatchKey = Arrays.<Object> asList(key, functionName, args);
+        while (true) {
+            RunningJob job = findJob(get(key, loader), functionName, args);
+            if (job != null) {
+                return job;
+            }
+            Dispatch dispatch;
+            synchronized (dispatches) {
+                dispatch = dispatches.get(dispatchKey);
+                if (dispatch == null) {
+                    // The job may have been recorded since the jobs were looked up
+                    job = findJob(getCachedJobs(key), functionName, args);
+                    if (job == null) {
+                        dispatches.put(dispatchKey, new Dispatch());
+                    }
+                    return job;
+                }
+            }
+            Deadline.current().await(dispatch.done);
+        }
+    }
+
+    /**
+     * Adds a job just dispatched to the minion identified by the given key to its cached jobs, if any are cached,
+     * and releases the callers waiting for its claimed dispatch.
+     */
+    public void record(Object key, RunningJob job) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.jobs != null) {
+                    entry.jobs = ImmutableList.<RunningJob> builder().addAll(entry.jobs).add(job).build();
+                }
+            }
+        }
+        abandon(key, job.getFunction(), job.getArgs());
+    }
+
+    /**
+     * Releases a claimed dispatch without a job, e.g. because submitting it failed. One of its waiters claims the
+     * dispatch in turn.
+     */
+    public void abandon(Object key, String functionName, List<String> args) {
+        Dispatch dispatch;
+        synchronized (dispatches) {
+            dispatch = dispatches.remove(Arrays.<Object> asList(key, functionName, args));
+        }
+        if (dispatch != null) {
+            dispatch.done.countDown();
+        }
+    }
+
+    protected List<RunningJob> getCachedJobs(Object key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        return entry == null || entry.jobs == null ? ImmutableList.<RunningJob> of() : entry.jobs;
+    }
+
+    protected RunningJob findJob(List<RunningJob> jobs, String functionName, List<String> args) {
+        for (RunningJob job : jobs) {
+            if (job.matches(functionName, args)) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops entries that would be looked up again anyway, so minions that are no longer targeted are not kept.
+     */
+    protected void removeStaleEntries() {
+        long now = currentTimeMillis();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.jobs != null && now - entry.loadedAt >= cacheInterval) {
+                it.remove();
+            }
+        }
+    }
+
+    // -- Isolating so tests can control the passage of time --
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    protected static class Entry {
+        protected volatile List<RunningJob> jobs;
+        protected volatile long loadedAt;
+    }
+
+    protected static class Dispatch {
+        protected final CountDownLatch done = new CountDownLatch(1);
+    }
+}
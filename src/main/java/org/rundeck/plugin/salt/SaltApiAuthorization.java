@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+/**
+ * Describes how a lowstate request to salt-api is authorized. Requests are either authorized by an auth token
+ * obtained from /login, or statelessly by passing eauth credentials inline with the lowstate chunk to /run.
+ */
+public class SaltApiAuthorization {
+
+    protected final String authToken;
+    protected final String user;
+    protected final String password;
+    protected final String eAuth;
+
+    protected SaltApiAuthorization(String authToken, String user, String password, String eAuth) {
+        this.authToken = authToken;
+        this.user = user;
+        this.password = password;
+        this.eAuth = eAuth;
+    }
+
+    /**
+     * @return an authorization using an auth token from a previous /login
+     */
+    public static SaltApiAuthorization forToken(String authToken) {
+        return new SaltApiAuthorization(authToken, null, null, null);
+    }
+
+    /**
+     * @return an authorization passing the given credentials with every request
+     */
+    public static SaltApiAuthorization forCredentials(String user, String password, String eAuth) {
+        return new SaltApiAuthorization(null, user, password, eAuth);
+    }
+
+    public boolean isStateless() {
+        return authToken == null;
+    }
+
+    public String getAuthToken() {
+        return authToken;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public String getEAuth() {
+        return eAuth;
+    }
+}
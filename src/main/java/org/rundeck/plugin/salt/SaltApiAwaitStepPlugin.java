@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.SubmittedJobRegistry.Submission;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltReturnResponseParseException;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.dtolabs.rundeck.core.common.INodeEntry;
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepException;
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.descriptions.PluginDescription;
+import com.dtolabs.rundeck.plugins.descriptions.PluginProperty;
+import com.dtolabs.rundeck.plugins.descriptions.TextArea;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Waits for the minion's returns of the jobs dispatched by {@link SaltApiSubmitStepPlugin} steps earlier in the same
+ * rundeck execution and handles each return with the handler registered for its function.
+ * 
+ * Each line of the class function names a submitted function along with its args. All of the jobs are polled for
+ * together, with a single backoff and, for stateless requests, a single salt-api request per poll.
+ */
+@NotThreadSafe
+@Plugin(name = SaltApiAwaitStepPlugin.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.WorkflowNodeStep)
+@PluginDescription(title = "Remote Salt Await", description = "Wait for the returns of jobs submitted earlier in the execution through salt-api.")
+public class SaltApiAwaitStepPlugin extends AbstractSaltApiNodeStepPlugin {
+
+    public static final String SERVICE_PROVIDER_NAME = "salt-api-await";
+
+    @TextArea
+    @PluginProperty(title = SALT_API_FUNCTION_OPTION_NAME, description = "Functions (including args) submitted earlier in the execution to wait for, one per line", required = true)
+    protected String function;
+
+    @Autowired
+    protected SubmittedJobRegistry submittedJobRegistry;
+
+    @Override
+    protected String getFunction() {
+        return function;
+    }
+
+    @Override
+    protected void executeOnMinion(PluginStepContext context, SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, String user, INodeEntry entry) throws HttpException, IOException,
+            SaltApiException, SaltJobNotRunningException, SaltReturnResponseParseException, InterruptedException,
+            NodeStepException {
+        String minionId = entry.getNodename();
+        Object submissionKey = SubmittedJobRegistry.createKey(context.getDataContext(), saltEndpoint, minionId);
+        if (submissionKey == null) {
+            throw new NodeStepException("Missing execution id in data context.",
+                    SaltApiNodeStepFailureReason.ARGUMENTS_MISSING, minionId);
+        }
+        List<Submission> submissions = Lists.newArrayList();
+        for (List<String> args : parseCompoundFunctions()) {
+            List<Submission> submitted = submittedJobRegistry.take(submissionKey, args.get(0),
+                    normalizeArguments(args.subList(1, args.size())));
+            if (submitted.isEmpty()) {
+                throw new NodeStepException(String.format("No job was submitted for function [%s] in this execution",
+                        Joiner.on(' ').join(args)), SaltApiNodeStepFailureReason.ARGUMENTS_INVALID, minionId);
+            }
+            submissions.addAll(submitted);
+        }
+
+        Map<String, MinionReturn> jobOutputs = waitForJobs(client, authorization, submissions, minionId);
+
+        List<String> failures = Lists.newArrayList();
+        for (Submission submission : submissions) {
+            RunningJob job = submission.getJob();
+            logWrapper.info("Return for job [%s] of function [%s]:", job.getJid(), job.getFunction());
+            SaltReturnResponse response = extractReturn(job.getFunction(), jobOutputs.get(job.getJid()));
+            if (!response.isSuccessful()) {
+                failures.add(String.format("%s (jid %s, exit code %d)", job.getFunction(), job.getJid(),
+                        response.getExitCode()));
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new NodeStepException(String.format("Execution failed on minion for functions %s", failures),
+                    SaltApiNodeStepFailureReason.EXIT_CODE, minionId);
+        }
+    }
+
+    /**
+     * Polls for the minion's returns of all the given jobs until each has returned, see
+     * {@link #pollForJobs(JobPoll, HttpClient, SaltApiAuthorization)}. Returns already in the result archive are
+     * used without polling, and the others are archived as they are received. If the step's deadline passes or the
+     * step is interrupted while waiting, the pending jobs this execution dispatched are killed on the minion. Jobs
+     * the submit step attached to belong to another execution and are left running.
+     * 
+     * @return the minion's return of each job, by jid.
+     * @throws SaltJobNotRunningException
+     *             if the minion has not returned and is not running one of the jobs.
+     */
+    protected Map<String, MinionReturn> waitForJobs(final HttpClient client, final SaltApiAuthorization authorization,
+            List<Submission> submissions, final String minionId) throws IOException, InterruptedException,
+            SaltApiException, SaltJobNotRunningException {
+        final Map<String, MinionReturn> jobOutputs = Maps.newHashMap();
+        Set<String> dispatched = Sets.newHashSet();
+        JobPoll poll = new JobPoll() {
+            @Override
+            protected void collect() throws IOException, SaltApiException, InterruptedException {
+                Set<String> jids = Sets.newLinkedHashSet(pending.keySet());
+                Map<String, MinionReturn> received = collectJobOutputs(client, authorization, jids, minionId);
+                for (Map.Entry<String, MinionReturn> jobOutput : received.entrySet()) {
+                    archiveReturn(jobOutput.getKey(), minionId, jobOutput.getValue());
+                }
+                pending.keySet().removeAll(received.keySet());
+                jobOutputs.putAll(received);
+            }
+        };
+        for (Submission submission : submissions) {
+            String jid = submission.getJob().getJid();
+            MinionReturn archived = getArchivedReturn(jid, minionId);
+            if (archived != null) {
+                logWrapper.info("Using archived return for job [%s]", jid);
+                jobOutputs.put(jid, archived);
+                continue;
+            }
+            poll.pending.put(jid, minionId);
+            if (submission.isDispatched()) {
+                dispatched.add(jid);
+            }
+        }
+        if (poll.isDone()) {
+            return jobOutputs;
+        }
+        logWrapper.info("Polling for the returns of jobs %s", poll.pending.keySet());
+
+        try {
+            pollForJobs(poll, client, authorization);
+            return jobOutputs;
+        } catch (InterruptedException e) {
+            for (String jid : poll.pending.keySet()) {
+                if (dispatched.contains(jid)) {
+                    killJobQuietly(client, authorization, jid, minionId, null);
+                } else {
+                    logWrapper.info("Leaving attached job [%s] running", jid);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Looks up the given pending jobs once.
+     * 
+     * @return the minion's return of the jobs it has returned for, by jid.
+     */
+    protected Map<String, MinionReturn> collectJobOutputs(HttpClient client, SaltApiAuthorization authorization,
+            Set<String> jids, String minionId) throws IOException, SaltApiException, InterruptedException {
+        Map<String, MinionReturn> received;
+        if (authorization.isStateless()) {
+            received = extractLowstateOutputsForJids(client, authorization, jids, minionId);
+        } else {
+            received = Maps.newHashMap();
+            for (String jid : jids) {
+                MinionReturn minionResponse = extractOutputForJid(client, authorization.getAuthToken(), jid, minionId);
+                if (minionResponse != null) {
+                    received.put(jid, minionResponse);
+                }
+            }
+        }
+        for (String jid : received.keySet()) {
+            logWrapper.info("Received return for job [%s]", jid);
+        }
+        return received;
+    }
+
+    /**
+     * Looks up all of the given jobs in a single request, with one jobs runner chunk per job.
+     * 
+     * @return the minion's return of the jobs it has returned for, by jid.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected Map<String, MinionReturn> extractLowstateOutputsForJids(HttpClient client,
+            SaltApiAuthorization authorization, Collection<String> jids, String minionId) throws IOException,
+            SaltApiException, InterruptedException {
+        List<Map<String, Object>> lowstate = Lists.newArrayList();
+        List<Map<String, Object>> printableLowstate = Lists.newArrayList();
+        for (String jid : jids) {
+            Map<String, Object> chunk = Maps.newLinkedHashMap();
+            chunk.put(SALT_API_CLIENT_PARAM_NAME, SALT_RUNNER_CLIENT);
+            chunk.put(SALT_API_FUNCTION_PARAM_NAME, SALT_LOOKUP_JID_FUNCTION);
+            chunk.put(SALT_API_JID_PARAM_NAME, jid);
+            lowstate.add(chunk);
+            printableLowstate.add(Maps.newLinkedHashMap(chunk));
+        }
+        HttpPost post = createJsonLowstatePost(authorization, lowstate, printableLowstate);
+
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries);
+
+        try {
+            Map<String, MinionReturn> minionResponses = Maps.newHashMap();
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                return minionResponses;
+            }
+            List<MinionReturn> returns = readMinionResponses(response.getEntity(), minionId);
+            if (returns.size() != jids.size()) {
+                throw new SaltApiException(String.format("Expected a return for each of the jobs %s, received %d",
+                        jids, returns.size()));
+            }
+            int i = 0;
+            for (String jid : jids) {
+                MinionReturn minionResponse = returns.get(i++);
+                if (minionResponse != null) {
+                    logWrapper.debug("Received response for jid %s = %s", jid, minionResponse);
+                    minionResponses.put(jid, minionResponse);
+                }
+            }
+            return minionResponses;
+        } finally {
+            closeResource(response.getEntity());
+            post.releaseConnection();
+        }
+    }
+}
@@ -33,4 +33,8 @@ public class SaltApiException extends Exception {
     public SaltApiException(String message) {
         super(message);
     }
+
+    public SaltApiException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
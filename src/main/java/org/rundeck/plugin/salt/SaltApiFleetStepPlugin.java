@@ -0,0 +1,669 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.validator.routines.UrlValidator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.message.BasicNameValuePair;
+import org.rundeck.plugin.salt.FleetCompletionPolicy.Decision;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+import org.rundeck.plugin.salt.output.SaltJobReturns;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltReturnResponseParseException;
+import org.rundeck.plugin.salt.util.AdaptiveBatchSizer;
+import org.rundeck.plugin.salt.util.ArgumentParser;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.rundeck.plugin.salt.util.DeadlineExceededException;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.descriptions.PluginDescription;
+import com.dtolabs.rundeck.plugins.descriptions.PluginProperty;
+import com.dtolabs.rundeck.plugins.descriptions.SelectValues;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.dtolabs.rundeck.plugins.step.StepPlugin;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * This plugin executes a salt function across every minion matching a salt target with a single salt job, rather
+ * than a job per rundeck node. If a batch size is given the job uses salt's own batch mode, so that salt rather
+ * than rundeck's node dispatcher limits how many minions run the function at once.
+ *
+ * Each minion's return is handled by the return handler registered for the function and logged as soon as it is
+ * read. The step fails if any minion fails.
+ *
+ * Pre-requisites:
+ * <ul>
+ * <li>Salt-api must be installed, batch execution requires salt-api 0.8.3 or later.</li>
+ * <li>SALT_USER and SALT_PASSWORD options must be configured and provided on the job.</li>
+ * </ul>
+ */
+@NotThreadSafe
+@Plugin(name = SaltApiFleetStepPlugin.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.WorkflowStep)
+@PluginDescription(title = "Remote Salt Fleet Execution", description = "Run a command across salt minions in batches through salt-api.")
+public class SaltApiFleetStepPlugin extends AbstractSaltApiPlugin implements StepPlugin {
+
+    public static final String SERVICE_PROVIDER_NAME = "salt-api-fleet-exec";
+
+    // -- Parameter names for REST calls to salt-api --
+    protected static final String SALT_API_BATCH_PARAM_NAME = "batch";
+
+    // -- Salt client interfaces, target types and functions used for lowstate requests --
+    protected static final String SALT_LOCAL_BATCH_CLIENT = "local_batch";
+    protected static final String SALT_GLOB_EXPRESSION_FORM = "glob";
+    protected static final String SALT_COMPOUND_EXPRESSION_FORM = "compound";
+    protected static final String SALT_GRAIN_EXPRESSION_FORM = "grain";
+    protected static final String SALT_NODEGROUP_EXPRESSION_FORM = "nodegroup";
+    protected static final Set<String> TARGET_TYPES = ImmutableSet.of(SALT_GLOB_EXPRESSION_FORM,
+            SALT_COMPOUND_EXPRESSION_FORM, SALT_GRAIN_EXPRESSION_FORM, SALT_NODEGROUP_EXPRESSION_FORM);
+    protected static final String SALT_PING_FUNCTION = "test.ping";
+
+    // -- Option names expected to be passed in from rundeck --
+    protected static final String SALT_API_TARGET_OPTION_NAME = "SALT_API_TARGET";
+    protected static final String SALT_API_TARGET_TYPE_OPTION_NAME = "SALT_API_TARGET_TYPE";
+    protected static final String SALT_API_BATCH_SIZE_OPTION_NAME = "SALT_API_BATCH_SIZE";
+    protected static final String SALT_API_ADAPTIVE_BATCHING_OPTION_NAME = "SALT_API_ADAPTIVE_BATCHING";
+    protected static final String SALT_API_SUCCESS_PERCENTAGE_OPTION_NAME = "SALT_API_SUCCESS_PERCENTAGE";
+    protected static final String SALT_API_MAXIMUM_FAILURES_OPTION_NAME = "SALT_API_MAXIMUM_FAILURES";
+    protected static final String SALT_API_MINION_TIMEOUT_OPTION_NAME = "SALT_API_MINION_TIMEOUT";
+
+    @PluginProperty(title = SALT_API_TARGET_OPTION_NAME, description = "Salt target matching the minions to execute on", required = true)
+    protected String target;
+
+    @SelectValues(values = { SALT_GLOB_EXPRESSION_FORM, SALT_COMPOUND_EXPRESSION_FORM, SALT_GRAIN_EXPRESSION_FORM,
+            SALT_NODEGROUP_EXPRESSION_FORM })
+    @PluginProperty(title = SALT_API_TARGET_TYPE_OPTION_NAME, description = "How salt matches the target against minions", required = false, defaultValue = SALT_GLOB_EXPRESSION_FORM)
+    protected String targetType;
+
+    @PluginProperty(title = SALT_API_BATCH_SIZE_OPTION_NAME, description = "Number or percentage of minions to execute on at once, all at once if empty", required = false)
+    protected String batchSize;
+
+    @PluginProperty(title = SALT_API_ADAPTIVE_BATCHING_OPTION_NAME, description = "Grow or shrink the batch size from observed minion latency and failures", required = false)
+    protected boolean adaptiveBatching;
+
+    @PluginProperty(title = SALT_API_SUCCESS_PERCENTAGE_OPTION_NAME, description = "Percentage of targeted minions that must succeed, the step completes as soon as they have", required = false)
+    protected String successPercentage;
+
+    @PluginProperty(title = SALT_API_MAXIMUM_FAILURES_OPTION_NAME, description = "Number of failed minions at which the step fails without waiting for the rest", required = false)
+    protected String maximumFailures;
+
+    @PluginProperty(title = SALT_API_MINION_TIMEOUT_OPTION_NAME, description = "Seconds to wait for a minion to return before marking it failed", required = false)
+    protected String minionTimeout;
+
+    // Batch duration in ms above which adaptive batching shrinks the batch size
+    @Autowired
+    @Value("${fleetBatching.targetLatency}")
+    protected long targetLatency;
+
+    // Fraction of failed minions in a batch above which adaptive batching shrinks the batch size
+    @Autowired
+    @Value("${fleetBatching.maximumFailureRate}")
+    protected double maximumFailureRate;
+
+    @Override
+    public void executeStep(PluginStepContext context, Map<String, Object> configuration) throws StepException {
+        // Initialize logger for all actions
+        setLogWrapper(context.getLogger());
+
+        // Extract options from context.
+        Map<String, String> optionData = context.getDataContext().get(RUNDECK_DATA_CONTEXT_OPTION_KEY);
+        if (optionData == null) {
+            throw new StepException("Missing data context.", SaltApiNodeStepFailureReason.ARGUMENTS_MISSING);
+        }
+        String user = optionData.get(SALT_USER_OPTION_NAME);
+        String password = optionData.get(SALT_PASSWORD_OPTION_NAME);
+
+        validate(user, password);
+
+        try {
+            startDeadline();
+            SaltApiCapability capability = getSaltApiCapability();
+            logWrapper.debug("Using salt-api version: [%s]", capability);
+            if (StringUtils.isNotBlank(batchSize) && !capability.getSupportsBatchClient()) {
+                throw new StepException(String.format("salt-api version [%s] does not support batch execution",
+                        capability.getId()), SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+            }
+
+            HttpClient client = httpFactory.createHttpClient();
+            SaltApiAuthorization authorization = authorize(capability, client, user, password);
+            if (authorization == null) {
+                throw new StepException("Authentication failure", SaltApiNodeStepFailureReason.AUTHENTICATION_FAILURE);
+            }
+
+            Set<String> secureData = extractSecureDataFromDataContext(context.getDataContext());
+            FleetExecutionSummary summary = new FleetExecutionSummary();
+            FleetCompletionPolicy policy = createCompletionPolicy();
+            if (StringUtils.isBlank(batchSize)) {
+                executeJob(capability, client, authorization, secureData, policy, summary);
+            } else if (adaptiveBatching) {
+                executeAdaptiveBatches(client, authorization, secureData, policy, summary);
+            } else {
+                executeSaltBatches(client, authorization, secureData, summary);
+            }
+
+            releaseAuthorization(capability, client, authorization);
+
+            logWrapper.info("%s", summary);
+            if (policy.decide(summary.getMinionCount(), summary) != Decision.SUCCEEDED) {
+                throw new StepException(summary.toString(), SaltApiNodeStepFailureReason.EXIT_CODE);
+            }
+        } catch (DeadlineExceededException e) {
+            throw new StepException(e, SaltApiNodeStepFailureReason.DEADLINE_EXCEEDED);
+        } catch (InterruptedException e) {
+            throw new StepException(e, SaltApiNodeStepFailureReason.INTERRUPTED);
+        } catch (SaltTargettingMismatchException e) {
+            throw new StepException(e, SaltApiNodeStepFailureReason.SALT_TARGET_MISMATCH);
+        } catch (SaltJobNotRunningException e) {
+            throw new StepException(e, SaltApiNodeStepFailureReason.JOB_NOT_RUNNING);
+        } catch (SaltApiException e) {
+            throw new StepException(e, SaltApiNodeStepFailureReason.SALT_API_FAILURE);
+        } catch (HttpException e) {
+            throw new StepException(e, SaltApiNodeStepFailureReason.COMMUNICATION_FAILURE);
+        } catch (IOException e) {
+            throw new StepException(e, SaltApiNodeStepFailureReason.COMMUNICATION_FAILURE);
+        } finally {
+            Deadline.clear();
+        }
+    }
+
+    /**
+     * Executes the class function on every targeted minion with a single asynchronous job, then polls the job
+     * until the completion policy is decided, handling each return as it becomes available. Minions that do not
+     * return within the minion timeout, or that have not returned and are no longer running the job according to
+     * saltutil.find_job, are marked failed. Minions still pending once the policy is decided are abandoned. If the
+     * step's deadline passes or the step is interrupted while polling, the job is killed on the pending minions.
+     */
+    protected void executeJob(SaltApiCapability capability, final HttpClient client,
+            final SaltApiAuthorization authorization, Set<String> secureData, final FleetCompletionPolicy policy,
+            final FleetExecutionSummary summary) throws HttpException, IOException, SaltApiException,
+            SaltTargettingMismatchException, SaltJobNotRunningException, InterruptedException {
+        SaltApiResponseOutput saltOutput = submitJob(capability, client, authorization, secureData);
+        if (saltOutput.getMinions() == null || saltOutput.getMinions().isEmpty()) {
+            throw new SaltTargettingMismatchException(String.format("No minions matched target [%s]", target));
+        }
+        final String jid = saltOutput.getJid();
+        logWrapper.info("Received jid [%s] for job dispatched to %d minions", jid, saltOutput.getMinions().size());
+
+        final String functionName = ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse(function).get(0);
+        final int targeted = saltOutput.getMinions().size();
+        final long minionDeadline = StringUtils.isBlank(minionTimeout) ? Long.MAX_VALUE : currentTimeMillis()
+                + Integer.parseInt(minionTimeout.trim()) * 1000L;
+        JobPoll poll = new JobPoll() {
+            @Override
+            protected void collect() throws IOException, SaltApiException, InterruptedException {
+                Set<String> minions = pending.get(jid);
+                Map<String, MinionReturn> returns = extractJobReturns(client, authorization, jid, minions);
+                for (Map.Entry<String, MinionReturn> entry : returns.entrySet()) {
+                    handleMinionReturn(functionName, entry.getKey(), entry.getValue(), summary);
+                }
+                minions.removeAll(returns.keySet());
+                if (!minions.isEmpty() && currentTimeMillis() >= minionDeadline) {
+                    for (String minionId : minions) {
+                        summary.recordFailure(minionId, String.format("no return within %s seconds", minionTimeout.trim()));
+                    }
+                    minions.clear();
+                }
+                logWrapper.debug("Waiting on returns from %d minions", minions.size());
+            }
+
+            @Override
+            protected boolean isDone() {
+                return pending.isEmpty() || policy.decide(targeted, summary) != Decision.UNDECIDED;
+            }
+
+            @Override
+            protected void notRunning(String jid, String minionId) {
+                summary.recordFailure(minionId, "no return and not running the job");
+            }
+        };
+        poll.pending.putAll(jid, saltOutput.getMinions());
+        try {
+            pollForJobs(poll, client, authorization);
+        } catch (InterruptedException e) {
+            killJobQuietly(client, authorization, jid, Joiner.on(',').join(poll.pending.values()),
+                    SALT_LIST_EXPRESSION_FORM);
+            throw e;
+        }
+        if (!poll.pending.isEmpty()) {
+            logWrapper.info("Completion policy decided, releasing jid [%s] with %d minions pending", jid,
+                    poll.pending.size());
+            for (String minionId : poll.pending.values()) {
+                summary.recordAbandoned(minionId);
+            }
+        }
+    }
+
+    /**
+     * Submits the class function as a single asynchronous job to every minion matching the class target.
+     * 
+     * @return the job id and the minions salt dispatched the job to.
+     */
+    protected SaltApiResponseOutput submitJob(SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, Set<String> secureData) throws HttpException, IOException,
+            SaltApiException, InterruptedException {
+        List<String> args = ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse(function);
+        List<NameValuePair> params = Lists.newArrayList();
+        List<NameValuePair> printableParams = Lists.newArrayList();
+        params.add(new BasicNameValuePair(SALT_API_CLIENT_PARAM_NAME, SALT_LOCAL_ASYNC_CLIENT));
+        params.add(new BasicNameValuePair(SALT_API_TARGET_PARAM_NAME, target));
+        if (getExpressionForm() != null) {
+            params.add(new BasicNameValuePair(SALT_API_EXPRESSION_FORM_PARAM_NAME, getExpressionForm()));
+        }
+        params.add(new BasicNameValuePair(SALT_API_FUNCTION_PARAM_NAME, args.get(0)));
+        printableParams.addAll(params);
+        for (String arg : args.subList(1, args.size())) {
+            params.add(new BasicNameValuePair(SALT_API_ARGUMENTS_PARAM_NAME, arg));
+            printableParams.add(new BasicNameValuePair(SALT_API_ARGUMENTS_PARAM_NAME, maskSecureData(arg, secureData)));
+        }
+        HttpPost post = createLowstatePost(authorization, params, printableParams);
+
+        logWrapper.debug("Submitting job with arguments [%s]", printableParams);
+        logWrapper.info("Submitting job with salt-api endpoint: [%s]", post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        try {
+            String entityResponse = extractBodyFromEntity(entity);
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new HttpException(String.format("Expected response code %d, received %d. %s",
+                        HttpStatus.SC_OK, statusCode, entityResponse));
+            }
+            logWrapper.debug("Received response for job submission = %s", entityResponse);
+            return capability.getSaltInteractionHandler().extractOutputForJobSubmissionResponse(entityResponse);
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Looks up the returns of the given job, through the jobs resource or, for stateless requests, the jobs
+     * runner. The response is streamed like node step responses are, and only the returns of the given minions
+     * are copied out of it, so minions already handled cost no more than skipping their returns.
+     * 
+     * @return the returns of the given minions received so far keyed by minion, empty if salt-api did not
+     *         respond successfully.
+     * @throws SaltApiException
+     *             if the salt-api response does not conform to the expected format.
+     */
+    protected Map<String, MinionReturn> extractJobReturns(HttpClient client, SaltApiAuthorization authorization,
+            String jid, Set<String> minionIds) throws IOException, SaltApiException, InterruptedException {
+        HttpRequestBase request;
+        if (authorization.isStateless()) {
+            List<NameValuePair> params = Lists.newArrayList();
+            params.add(new BasicNameValuePair(SALT_API_CLIENT_PARAM_NAME, SALT_RUNNER_CLIENT));
+            params.add(new BasicNameValuePair(SALT_API_FUNCTION_PARAM_NAME, SALT_LOOKUP_JID_FUNCTION));
+            params.add(new BasicNameValuePair(SALT_API_JID_PARAM_NAME, jid));
+            request = createLowstatePost(authorization, params, Lists.newArrayList(params));
+        } else {
+            request = httpFactory.createHttpGet(String.format("%s%s/%s", saltEndpoint, JOBS_RESOURCE, jid));
+            request.setHeader(SALT_AUTH_TOKEN_HEADER, authorization.getAuthToken());
+            request.setHeader(REQUEST_ACCEPT_HEADER_NAME, JSON_RESPONSE_ACCEPT_TYPE);
+        }
+
+        HttpResponse response = retryExecutor.execute(logWrapper, client, request, numRetries);
+        try {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+                return Collections.emptyMap();
+            }
+            Map<String, MinionReturn> returns = Maps.newLinkedHashMap();
+            for (Map<String, MinionReturn> element : readMinionReturns(response.getEntity(), minionIds)) {
+                returns.putAll(element);
+            }
+            return returns;
+        } finally {
+            closeResource(response.getEntity());
+            request.releaseConnection();
+        }
+    }
+
+    /**
+     * Resolves the targeted minions and executes the function on them through salt's batch client with the
+     * configured batch size. Targeted minions that do not return count as failed.
+     */
+    protected void executeSaltBatches(HttpClient client, SaltApiAuthorization authorization, Set<String> secureData,
+            FleetExecutionSummary summary) throws HttpException, IOException, SaltApiException,
+            SaltTargettingMismatchException, InterruptedException {
+        List<String> minions = findTargetedMinions(client, authorization);
+        if (minions.isEmpty()) {
+            throw new SaltTargettingMismatchException(String.format("No minions matched target [%s]", target));
+        }
+
+        executeBatch(client, authorization, target, getExpressionForm(), batchSize.trim(), secureData, summary);
+
+        for (String minionId : minions) {
+            if (!summary.hasOutcome(minionId)) {
+                summary.recordFailure(minionId, "no return");
+            }
+        }
+    }
+
+    /**
+     * Resolves the targeted minions and executes the function on them in successive batches, each sized from the
+     * latency and failures of the previous ones. Minions that do not return within their batch count as failed.
+     * No further batches are executed once the completion policy is decided.
+     */
+    protected void executeAdaptiveBatches(HttpClient client, SaltApiAuthorization authorization,
+            Set<String> secureData, FleetCompletionPolicy policy, FleetExecutionSummary summary)
+            throws HttpException, IOException, SaltApiException, SaltTargettingMismatchException,
+            InterruptedException {
+        List<String> minions = findTargetedMinions(client, authorization);
+        if (minions.isEmpty()) {
+            throw new SaltTargettingMismatchException(String.format("No minions matched target [%s]", target));
+        }
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(getInitialBatchSize(minions.size()), minions.size(),
+                targetLatency, maximumFailureRate);
+
+        int next = 0;
+        while (next < minions.size() && policy.decide(minions.size(), summary) == Decision.UNDECIDED) {
+            List<String> batch = minions.subList(next, Math.min(minions.size(), next + sizer.getBatchSize()));
+            next += batch.size();
+            int previousFailures = summary.getFailed().size();
+
+            long start = currentTimeMillis();
+            executeBatch(client, authorization, Joiner.on(',').join(batch), SALT_LIST_EXPRESSION_FORM,
+                    String.valueOf(batch.size()), secureData, summary);
+            long latency = currentTimeMillis() - start;
+
+            for (String minionId : batch) {
+                if (!summary.hasOutcome(minionId)) {
+                    summary.recordFailure(minionId, "no return");
+                }
+            }
+            sizer.record(batch.size(), summary.getFailed().size() - previousFailures, latency);
+            logWrapper.debug("Batch of %d minions took %d ms, next batch size is %d", batch.size(), latency,
+                    sizer.getBatchSize());
+        }
+
+        if (next < minions.size()) {
+            logWrapper.info("Completion policy decided, skipping the remaining %d minions", minions.size() - next);
+            for (String minionId : minions.subList(next, minions.size())) {
+                summary.recordAbandoned(minionId);
+            }
+        }
+    }
+
+    /**
+     * Executes the class function on the given target through salt's batch client and records each minion's
+     * return in the summary as it is read.
+     *
+     * @param expressionForm
+     *            how salt should interpret the target, or null to match it as a glob.
+     * @param batch
+     *            salt's batch size, a number or percentage of the targeted minions.
+     */
+    protected void executeBatch(HttpClient client, SaltApiAuthorization authorization, String saltTarget,
+            String expressionForm, String batch, Set<String> secureData, FleetExecutionSummary summary)
+            throws HttpException, IOException, SaltApiException, InterruptedException {
+        LowstateChunk chunk = createLowstateChunk(SALT_LOCAL_BATCH_CLIENT, saltTarget, secureData);
+        Map<String, Object> lowstate = chunk.toLowstate();
+        Map<String, Object> printableLowstate = chunk.toPrintableLowstate();
+        lowstate.put(SALT_API_BATCH_PARAM_NAME, batch);
+        printableLowstate.put(SALT_API_BATCH_PARAM_NAME, batch);
+        if (expressionForm != null) {
+            lowstate.put(SALT_API_EXPRESSION_FORM_PARAM_NAME, expressionForm);
+            printableLowstate.put(SALT_API_EXPRESSION_FORM_PARAM_NAME, expressionForm);
+        }
+        if (StringUtils.isNotBlank(minionTimeout)) {
+            // Salt stops waiting on the minions of a batch after its timeout and moves on to the next batch.
+            lowstate.put(SALT_API_TIMEOUT_PARAM_NAME, Integer.parseInt(minionTimeout.trim()));
+            printableLowstate.put(SALT_API_TIMEOUT_PARAM_NAME, Integer.parseInt(minionTimeout.trim()));
+        }
+        HttpPost post = createJsonLowstatePost(authorization, Collections.<Map<String, Object>>singletonList(lowstate),
+                Collections.<Map<String, Object>>singletonList(printableLowstate));
+
+        logWrapper.debug("Submitting batched job with arguments [%s]", printableLowstate);
+        logWrapper.info("Submitting batched job with salt-api endpoint: [%s]", post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        try {
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new HttpException(String.format("Expected response code %d, received %d. %s",
+                        HttpStatus.SC_OK, statusCode, extractBodyFromEntity(entity)));
+            }
+            JsonReader reader = new JsonReader(new InputStreamReader(entity.getContent(), CHAR_SET_ENCODING));
+            try {
+                readBatchReturns(reader, chunk.getFunctions().get(0), summary);
+            } catch (JsonParseException e) {
+                throw new SaltApiException("Unexpected salt-api response for batched job", e);
+            } catch (IllegalStateException e) {
+                throw new SaltApiException("Unexpected salt-api response for batched job", e);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Reads minion returns of the form {"return": [{"minion": return, ...}, ...]} one at a time, so that each is
+     * handled and logged without holding the whole response in memory.
+     */
+    protected void readBatchReturns(JsonReader reader, String functionName, FleetExecutionSummary summary)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!SALT_OUTPUT_RETURN_KEY.equals(reader.nextName())) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String minionId = reader.nextName();
+                    handleMinionReturn(functionName, minionId, MinionReturn.fromReader(reader), summary);
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Logs the given minion's return and records whether the function succeeded on it.
+     */
+    protected void handleMinionReturn(String functionName, String minionId, MinionReturn output,
+            FleetExecutionSummary summary) {
+        logWrapper.info("Received return from minion [%s]", minionId);
+        try {
+            SaltReturnResponse response = extractReturn(functionName, output);
+            if (response.isSuccessful()) {
+                summary.recordSuccess(minionId);
+            } else {
+                summary.recordFailure(minionId, String.format("exit code %d", response.getExitCode()));
+            }
+        } catch (SaltReturnResponseParseException e) {
+            logWrapper.error("Could not parse return from minion [%s]: %s", minionId, e.getMessage());
+            summary.recordFailure(minionId, "unparseable return");
+        }
+    }
+
+    /**
+     * @return the minions matching the class target that respond to a ping.
+     */
+    protected List<String> findTargetedMinions(HttpClient client, SaltApiAuthorization authorization)
+            throws HttpException, IOException, SaltApiException, InterruptedException {
+        LowstateChunk chunk = new LowstateChunk(SALT_LOCAL_CLIENT, SALT_PING_FUNCTION, target,
+                Lists.<String>newArrayList(), Lists.<String>newArrayList());
+        Map<String, Object> lowstate = chunk.toLowstate();
+        if (getExpressionForm() != null) {
+            lowstate.put(SALT_API_EXPRESSION_FORM_PARAM_NAME, getExpressionForm());
+        }
+        HttpPost post = createJsonLowstatePost(authorization, Collections.<Map<String, Object>>singletonList(lowstate),
+                Collections.<Map<String, Object>>singletonList(lowstate));
+
+        logWrapper.info("Resolving minions matching [%s] with salt-api endpoint: [%s]", target, post.getURI());
+        HttpResponse response = retryExecutor.execute(logWrapper, client, post, numRetries, Predicates.<Integer>alwaysFalse());
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        try {
+            String entityResponse = extractBodyFromEntity(entity);
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new HttpException(String.format("Expected response code %d, received %d. %s",
+                        HttpStatus.SC_OK, statusCode, entityResponse));
+            }
+            logWrapper.debug("Received response for minion resolution = %s", entityResponse);
+            try {
+                SaltJobReturns jobReturns = gsonFactory.getGson().fromJson(entityResponse, SaltJobReturns.class);
+                return Lists.newArrayList(jobReturns.getReturns().keySet());
+            } catch (RuntimeException e) {
+                throw new SaltApiException(String.format("Unexpected salt-api response for minion resolution %s",
+                        entityResponse), e);
+            }
+        } finally {
+            closeResource(entity);
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * @return the completion policy configured by the success percentage and maximum failures.
+     */
+    protected FleetCompletionPolicy createCompletionPolicy() {
+        Integer percentage = StringUtils.isBlank(successPercentage) ? null : Integer.valueOf(successPercentage.trim());
+        Integer failures = StringUtils.isBlank(maximumFailures) ? null : Integer.valueOf(maximumFailures.trim());
+        return new FleetCompletionPolicy(percentage, failures);
+    }
+
+    /**
+     * @return salt's expression form for the configured target type, or null to match the target as a glob.
+     */
+    protected String getExpressionForm() {
+        if (StringUtils.isBlank(targetType) || SALT_GLOB_EXPRESSION_FORM.equals(targetType.trim())) {
+            return null;
+        }
+        return targetType.trim();
+    }
+
+    /**
+     * @return the configured batch size as a number of minions out of the given total, at least 1.
+     */
+    protected int getInitialBatchSize(int minionCount) {
+        String size = batchSize.trim();
+        if (size.endsWith("%")) {
+            int percentage = Integer.parseInt(size.substring(0, size.length() - 1));
+            return Math.max(1, (int) Math.ceil(minionCount * percentage / 100D));
+        }
+        return Integer.parseInt(size);
+    }
+
+    protected void validate(String user, String password) throws StepException {
+        checkNotBlank(SALT_API_END_POINT_OPTION_NAME, saltEndpoint);
+        checkNotBlank(SALT_API_FUNCTION_OPTION_NAME, function);
+        checkNotBlank(SALT_API_EAUTH_OPTION_NAME, eAuth);
+        checkNotBlank(SALT_API_TARGET_OPTION_NAME, target);
+        if (adaptiveBatching) {
+            checkNotBlank(SALT_API_BATCH_SIZE_OPTION_NAME, batchSize);
+        }
+        checkNotBlank(SALT_USER_OPTION_NAME, user);
+        checkNotBlank(SALT_PASSWORD_OPTION_NAME, password);
+
+        UrlValidator urlValidator = new UrlValidator(endPointSchemes, UrlValidator.ALLOW_LOCAL_URLS);
+        if (!urlValidator.isValid(saltEndpoint)) {
+            throw new StepException(String.format("%s is not a valid endpoint.", saltEndpoint),
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+
+        if (StringUtils.isNotBlank(targetType) && !TARGET_TYPES.contains(targetType.trim())) {
+            throw new StepException(String.format("%s is not a supported target type.", targetType),
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+
+        if (StringUtils.isNotBlank(successPercentage)
+                && (!isPositiveInteger(successPercentage.trim()) || Integer.parseInt(successPercentage.trim()) > 100)) {
+            throw new StepException(String.format("%s is not a valid percentage.", successPercentage),
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+        if (StringUtils.isNotBlank(maximumFailures) && !isPositiveInteger(maximumFailures.trim())) {
+            throw new StepException(String.format("%s is not a valid number of minions.", maximumFailures),
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+        if (StringUtils.isNotBlank(minionTimeout) && !isPositiveInteger(minionTimeout.trim())) {
+            throw new StepException(String.format("%s is not a valid number of seconds.", minionTimeout),
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+        if (StringUtils.isNotBlank(deadline) && !isPositiveInteger(deadline.trim())) {
+            throw new StepException(String.format("%s is not a valid number of seconds.", deadline),
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+
+        if (StringUtils.isBlank(batchSize)) {
+            return;
+        }
+        String size = batchSize.trim();
+        boolean percentage = size.endsWith("%");
+        String count = percentage ? size.substring(0, size.length() - 1) : size;
+        if (!isPositiveInteger(count) || (percentage && Integer.parseInt(count) > 100)) {
+            throw new StepException(String.format("%s is not a valid number or percentage of minions.", batchSize),
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+    }
+
+    protected void checkNotBlank(String fieldName, String value) throws StepException {
+        if (StringUtils.isBlank(value)) {
+            throw new StepException(String.format("%s is a required property.", fieldName),
+                    SaltApiNodeStepFailureReason.ARGUMENTS_MISSING);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.http.HttpException;
+import org.apache.http.client.HttpClient;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.util.ArgumentParser;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.dtolabs.rundeck.core.common.INodeEntry;
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepException;
+import com.dtolabs.rundeck.core.plugins.Plugin;
+import com.dtolabs.rundeck.plugins.ServiceNameConstants;
+import com.dtolabs.rundeck.plugins.descriptions.PluginDescription;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+
+/**
+ * Dispatches the function to the minion and returns right away, without waiting for the minion's return. The job
+ * is handed over to a later {@link SaltApiAwaitStepPlugin} step of the same rundeck execution, so that independent
+ * salt jobs run while the workflow continues.
+ */
+@NotThreadSafe
+@Plugin(name = SaltApiSubmitStepPlugin.SERVICE_PROVIDER_NAME, service = ServiceNameConstants.WorkflowNodeStep)
+@PluginDescription(title = "Remote Salt Submission", description = "Submit a job to a remote salt master through salt-api without waiting for its return.")
+public class SaltApiSubmitStepPlugin extends AbstractSaltApiNodeStepPlugin {
+
+    public static final String SERVICE_PROVIDER_NAME = "salt-api-submit";
+
+    @Autowired
+    protected SubmittedJobRegistry submittedJobRegistry;
+
+    @Override
+    protected void executeOnMinion(PluginStepContext context, SaltApiCapability capability, HttpClient client,
+            SaltApiAuthorization authorization, String user, INodeEntry entry) throws HttpException, IOException,
+            SaltApiException, SaltTargettingMismatchException, InterruptedException, NodeStepException {
+        Object submissionKey = SubmittedJobRegistry.createKey(context.getDataContext(), saltEndpoint,
+                entry.getNodename());
+        if (submissionKey == null) {
+            throw new NodeStepException("Missing execution id in data context.",
+                    SaltApiNodeStepFailureReason.ARGUMENTS_MISSING, entry.getNodename());
+        }
+        String minionId = entry.getNodename();
+        List<String> args = ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse(function);
+        String functionName = args.get(0);
+        List<String> normalizedArgs = normalizeArguments(args.subList(1, args.size()));
+
+        List<Object> runningJobKey = Arrays.<Object> asList(saltEndpoint, user, eAuth, minionId);
+        RunningJob job = null;
+        boolean dispatched = false;
+        if (attachRunning) {
+            job = findRunningJob(client, authorization, runningJobKey, user, minionId, functionName, normalizedArgs);
+            if (job != null) {
+                logWrapper.info("Job [%s] is already running [%s] on minion", job.getJid(), functionName);
+            }
+        }
+        if (job == null) {
+            Set<String> secureData = extractSecureDataFromDataContext(context.getDataContext());
+            String dispatchedJid = null;
+            try {
+                if (authorization.isStateless()) {
+                    dispatchedJid = submitLowstateJob(capability, client, authorization, minionId, secureData);
+                } else {
+                    dispatchedJid = submitJob(capability, client, authorization.getAuthToken(), minionId,
+                            secureData);
+                }
+                logWrapper.info("Received jid [%s] for submitted job", dispatchedJid);
+            } finally {
+                if (attachRunning) {
+                    releaseRunningJobClaim(runningJobKey, dispatchedJid, functionName, normalizedArgs);
+                }
+            }
+            job = new RunningJob(dispatchedJid, functionName, normalizedArgs);
+            dispatched = true;
+        }
+        submittedJobRegistry.register(submissionKey, job, dispatched);
+    }
+}
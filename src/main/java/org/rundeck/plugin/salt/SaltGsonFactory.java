@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutputAdapter;
+import org.rundeck.plugin.salt.output.SaltJobReturns;
+import org.rundeck.plugin.salt.output.SaltJobReturnsAdapter;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltReturnResponseAdapter;
+import org.springframework.stereotype.Component;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+/**
+ * Owns the Gson instance shared by the plugin. Gson caches the type adapters it builds reflectively, so sharing one
+ * instance means each type is only inspected once per JVM rather than once per request or poll.
+ */
+@Component
+public class SaltGsonFactory {
+
+    protected volatile Gson gson;
+
+    /**
+     * @return the shared Gson instance, built on first use. Gson is thread safe.
+     */
+    public Gson getGson() {
+        Gson result = gson;
+        if (result == null) {
+            synchronized (this) {
+                result = gson;
+                if (result == null) {
+                    gson = result = createBuilder().create();
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a builder with the streaming adapters for salt-api's own types registered.
+     */
+    protected GsonBuilder createBuilder() {
+        return new GsonBuilder()
+                .registerTypeAdapter(SaltApiResponseOutput.class, new SaltApiResponseOutputAdapter())
+                .registerTypeAdapter(SaltJobReturns.class, new SaltJobReturnsAdapter())
+                .registerTypeAdapter(SaltReturnResponse.class, new SaltReturnResponseAdapter());
+    }
+}
@@ -0,0 +1,386 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.plugin.salt.util.RundeckConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Archives minion returns on local disk so that they can be read again by jid and minion without asking salt-api,
+ * whose job cache expires.
+ * 
+ * Returns are deflated and appended to segment files, a new one of which is started once the current one reaches
+ * the segment size; only the newest segments are kept. An index file that is memory mapped holds an open addressing
+ * hash table from the hash of jid and minion to the return's location. Once it is three quarters full, it is
+ * rewritten without the returns of dropped segments, doubling its capacity only if the kept returns fill half of
+ * it. Each record repeats its jid and minion, so a return is only read back if it belongs to the looked up job and
+ * was completely written.
+ */
+@Component
+public class SaltResultArchive {
+    protected static final String ARCHIVE_DIRECTORY_PROPERTY_KEY = "saltStep.resultArchive";
+    protected static final String CHAR_SET_ENCODING = "UTF-8";
+    protected static final String INDEX_FILE_NAME = "index";
+    protected static final String SEGMENT_FILE_PREFIX = "segment-";
+
+    protected static final int INDEX_MAGIC = 0x53524149;
+    protected static final int RECORD_MAGIC = 0x53524152;
+    protected static final int INDEX_HEADER_SIZE = 16;
+    protected static final int SLOT_SIZE = 24;
+    protected static final int RECORD_HEADER_SIZE = 8;
+
+    // The archive directory, blank disables archiving unless it is configured in rundeck's configuration
+    @Autowired
+    @Value("${resultArchive.directory}")
+    protected String directory;
+
+    // Size in bytes after which a new segment is started
+    @Autowired
+    @Value("${resultArchive.segmentSize}")
+    protected int segmentSize;
+
+    // Number of segments kept, older returns are dropped with their segment
+    @Autowired
+    @Value("${resultArchive.maximumSegments}")
+    protected int maximumSegments;
+
+    // Number of slots a new index is created with
+    @Autowired
+    @Value("${resultArchive.indexCapacity}")
+    protected int indexCapacity;
+
+    // Guarded by this
+    protected MappedByteBuffer index;
+    protected int capacity;
+    protected int size;
+    protected int segment;
+    protected RandomAccessFile segmentFile;
+
+    public boolean isEnabled() {
+        return StringUtils.isNotBlank(directory);
+    }
+
+    /**
+     * Maps the index, creating the archive if there is none, and starts a new segment.
+     */
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        configureFromRundeck();
+        if (!isEnabled()) {
+            return;
+        }
+        File archive = new File(directory);
+        if (!archive.isDirectory() && !archive.mkdirs()) {
+            throw new IOException(String.format("Could not create result archive %s", archive));
+        }
+        File indexFile = new File(archive, INDEX_FILE_NAME);
+        if (indexFile.exists()) {
+            mapIndex(indexFile);
+        } else {
+            createIndex(indexFile, indexCapacity);
+        }
+        segment = findNewestSegment() + 1;
+        startSegment();
+    }
+
+    /**
+     * Archives the given minion's return for the given job, replacing a return archived for them before.
+     */
+    public synchronized void store(String jid, String minionId, String output) throws IOException {
+        byte[] record = deflate(encode(jid, minionId, output));
+        if (segmentFile.length() > 0 && segmentFile.length() + RECORD_HEADER_SIZE + record.length > segmentSize) {
+            segmentFile.close();
+            segment++;
+            startSegment();
+        }
+        long offset = segmentFile.length();
+        segmentFile.seek(offset);
+        segmentFile.writeInt(RECORD_MAGIC);
+        segmentFile.writeInt(record.length);
+        segmentFile.write(record);
+
+        if ((size + 1) * 4L > capacity * 3L) {
+            // Slots of dropped segments are reclaimed first, the capacity only grows if live returns still fill
+            // half of it so that the index is not rewritten again after a few more returns
+            rehash((countLiveSlots() + 1) * 2L > capacity ? capacity * 2 : capacity);
+        }
+        putSlot(hash(jid, minionId), segment, (int) offset, record.length);
+    }
+
+    /**
+     * @return the archived return of the given minion for the given job, or null if none is archived or it was
+     *         dropped with its segment.
+     */
+    public synchronized String get(String jid, String minionId) throws IOException {
+        long hash = hash(jid, minionId);
+        int slot = findSlot(hash);
+        if (getSlotHash(slot) != hash) {
+            return null;
+        }
+        File file = getSegmentFile(index.getInt(slotPosition(slot) + 8));
+        if (!file.exists()) {
+            return null;
+        }
+        int offset = index.getInt(slotPosition(slot) + 12);
+        int length = index.getInt(slotPosition(slot) + 16);
+        byte[] record = new byte[length];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() < (long) offset + RECORD_HEADER_SIZE + length) {
+                return null;
+            }
+            in.seek(offset);
+            if (in.readInt() != RECORD_MAGIC || in.readInt() != length) {
+                return null;
+            }
+            in.readFully(record);
+        } finally {
+            in.close();
+        }
+        String[] fields;
+        try {
+            fields = inflate(record).split("\n", 3);
+        } catch (IOException e) {
+            // Not completely written
+            return null;
+        }
+        if (fields.length != 3 || !fields[0].equals(jid) || !fields[1].equals(minionId)) {
+            return null;
+        }
+        return fields[2];
+    }
+
+    protected void configureFromRundeck() throws IOException {
+        String configuredDirectory = RundeckConfiguration.getProperty(ARCHIVE_DIRECTORY_PROPERTY_KEY);
+        if (StringUtils.isNotBlank(configuredDirectory)) {
+            directory = configuredDirectory.trim();
+        }
+    }
+
+    protected void putSlot(long hash, int slotSegment, int offset, int length) {
+        int slot = findSlot(hash);
+        int position = slotPosition(slot);
+        if (getSlotHash(slot) != hash) {
+            size++;
+            index.putInt(8, size);
+        }
+        index.putInt(position + 8, slotSegment);
+        index.putInt(position + 12, offset);
+        index.putInt(position + 16, length);
+        // Written last so that a slot is only found once it is complete
+        index.putLong(position, hash);
+    }
+
+    /**
+     * @return the slot holding the given hash, or the empty slot it would be put in.
+     */
+    protected int findSlot(long hash) {
+        int slot = (int) ((hash >>> 1) % capacity);
+        while (true) {
+            long slotHash = getSlotHash(slot);
+            if (slotHash == 0 || slotHash == hash) {
+                return slot;
+            }
+            slot = (slot + 1) % capacity;
+        }
+    }
+
+    protected long getSlotHash(int slot) {
+        return index.getLong(slotPosition(slot));
+    }
+
+    protected int slotPosition(int slot) {
+        return INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * @return the number of slots holding returns whose segment is kept.
+     */
+    protected int countLiveSlots() {
+        int oldestSegment = segment - maximumSegments + 1;
+        int live = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (getSlotHash(slot) != 0 && index.getInt(slotPosition(slot) + 8) >= oldestSegment) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Rewrites the index with the given capacity, dropping the slots of returns whose segment was deleted.
+     */
+    protected void rehash(int newCapacity) throws IOException {
+        MappedByteBuffer oldIndex = index;
+        int oldCapacity = capacity;
+        int oldestSegment = segment - maximumSegments + 1;
+
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        File rehashed = new File(directory, INDEX_FILE_NAME + ".tmp");
+        createIndex(rehashed, newCapacity);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int position = INDEX_HEADER_SIZE + slot * SLOT_SIZE;
+            long hash = oldIndex.getLong(position);
+            int slotSegment = oldIndex.getInt(position + 8);
+            if (hash != 0 && slotSegment >= oldestSegment) {
+                putSlot(hash, slotSegment, oldIndex.getInt(position + 12), oldIndex.getInt(position + 16));
+            }
+        }
+        index.force();
+        if (!rehashed.renameTo(indexFile)) {
+            throw new IOException(String.format("Could not replace result archive index %s", indexFile));
+        }
+    }
+
+    protected void createIndex(File indexFile, int newCapacity) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            file.setLength(0);
+            index = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    INDEX_HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        } finally {
+            file.close();
+        }
+        capacity = newCapacity;
+        size = 0;
+        index.putInt(4, capacity);
+        index.putInt(8, size);
+        index.putInt(0, INDEX_MAGIC);
+    }
+
+    protected void mapIndex(File indexFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            if (file.length() < INDEX_HEADER_SIZE || file.readInt() != INDEX_MAGIC) {
+                throw new IOException(String.format("%s is not a result archive index", indexFile));
+            }
+            capacity = file.readInt();
+            index = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    INDEX_HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        } finally {
+            file.close();
+        }
+        size = index.getInt(8);
+    }
+
+    protected void startSegment() throws IOException {
+        segmentFile = new RandomAccessFile(getSegmentFile(segment), "rw");
+        File obsolete;
+        for (int i = segment - maximumSegments; (obsolete = getSegmentFile(i)).exists(); i--) {
+            obsolete.delete();
+        }
+    }
+
+    protected int findNewestSegment() {
+        int newest = 0;
+        String[] segments = new File(directory).list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_FILE_PREFIX);
+            }
+        });
+        for (String name : segments) {
+            try {
+                newest = Math.max(newest, Integer.parseInt(name.substring(SEGMENT_FILE_PREFIX.length())));
+            } catch (NumberFormatException e) {
+                // Not a segment
+            }
+        }
+        return newest;
+    }
+
+    protected File getSegmentFile(int segmentNumber) {
+        return new File(directory, String.format("%s%08d", SEGMENT_FILE_PREFIX, segmentNumber));
+    }
+
+    /**
+     * @return a hash of the given jid and minion that is never 0, which marks empty slots.
+     */
+    protected long hash(String jid, String minionId) throws IOException {
+        long hash = Hashing.murmur3_128().hashBytes(encode(jid, minionId, "")).asLong();
+        return hash == 0 ? 1 : hash;
+    }
+
+    protected byte[] encode(String jid, String minionId, String output) throws IOException {
+        return (jid + "\n" + minionId + "\n" + output).getBytes(CHAR_SET_ENCODING);
+    }
+
+    protected byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    protected String inflate(byte[] bytes) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated result archive record");
+                }
+                out.write(buffer, 0, inflated);
+            }
+            return out.toString(CHAR_SET_ENCODING);
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
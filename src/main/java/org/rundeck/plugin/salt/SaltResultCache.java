@@ -0,0 +1,279 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.rundeck.plugin.salt.util.RundeckConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.CustomClassLoaderConstructor;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Caches the successful returns of read-only functions, e.g. grains.items, per minion so that steps executing the
+ * same function with the same args share one job rather than each dispatching their own.
+ * 
+ * Only functions with a configured {@link ResultCachePolicy} are cached. Returns are reused until their policy's ttl
+ * expires, evicted least recently used first once more than the maximum number of entries are cached, and discarded
+ * when one of the policy's invalidating functions is executed on the minion. Callers for a return that is being
+ * loaded wait for that load rather than dispatching an identical job.
+ */
+@Component
+public class SaltResultCache {
+    protected static final String RESULT_CACHE_CONFIGURATION_PROPERTY_KEY = "saltStep.resultCaches";
+    protected static final String CACHED_FUNCTIONS_KEY = "cachedFunctions";
+
+    // Keys are fully qualified function names (i.e. module.function)
+    protected final Map<String, ResultCachePolicy> policies = Maps.newHashMap();
+
+    protected final String configurationFile;
+
+    // Maximum number of cached returns, 0 disables caching
+    @Autowired
+    @Value("${saltResultCache.maximumEntries}")
+    protected int maximumEntries;
+
+    // Iterates least recently used first, guarded by itself along with loads
+    protected final Map<List<Object>, CachedResult> results = new LinkedHashMap<List<Object>, CachedResult>(16,
+            0.75F, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, CachedResult> eldest) {
+            return size() > maximumEntries;
+        }
+    };
+
+    protected final Map<List<Object>, Load> loads = Maps.newHashMap();
+
+    @Autowired
+    public SaltResultCache(@Value("${saltResultCache.defaultConfiguration}") String configurationFile) {
+        this.configurationFile = configurationFile;
+    }
+
+    @PostConstruct
+    public void configure() {
+        try {
+            configureFromResource(configurationFile);
+
+            String files = RundeckConfiguration.getProperty(RESULT_CACHE_CONFIGURATION_PROPERTY_KEY);
+            if (files != null) {
+                for (String file : files.split(",")) {
+                    if (StringUtils.isNotEmpty(file)) {
+                        configureFromFile(file);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    /**
+     * @param functionName
+     *            fully qualified function name (i.e. module.function)
+     * @return the policy the function's returns are cached with, or null if they are not cached.
+     */
+    public ResultCachePolicy getPolicy(String functionName) {
+        if (maximumEntries <= 0) {
+            return null;
+        }
+        return policies.get(functionName);
+    }
+
+    /**
+     * Looks up the cached return of the given function, or claims its load if there is none. A caller that is
+     * returned null must either {@link #complete} or {@link #abandon} the load, other callers for the same return
+     * wait until it does.
+     * 
+     * @param target
+     *            identifies the master and the minion the function is executed on.
+     * @param credentials
+     *            identifies the credentials the function is executed with.
+     * @param args
+     *            the function's args, in a normalized order.
+     * @return the cached return, or null if the caller is to load it.
+     */
+    public String getOrClaim(Object target, Object credentials, String functionName, List<String> args)
+            throws InterruptedException {
+        List<Object> key = Arrays.<Object> asList(target, credentials, functionName, args);
+        while (true) {
+            Load load;
+            synchronized (results) {
+                CachedResult cached = results.get(key);
+                if (cached != null) {
+                    if (currentTimeMillis() < cached.expiresAt) {
+                        return cached.output;
+                    }
+                    results.remove(key);
+                }
+                load = loads.get(key);
+                if (load == null) {
+                    loads.put(key, new Load());
+                    return null;
+                }
+            }
+            Deadline.current().await(load.done);
+        }
+    }
+
+    /**
+     * Caches the return of a claimed load and releases its waiters. The return is not cached if the minion's
+     * returns were invalidated while it was loading.
+     */
+    public void complete(Object target, Object credentials, String functionName, List<String> args, String output) {
+        List<Object> key = Arrays.<Object> asList(target, credentials, functionName, args);
+        ResultCachePolicy policy = getPolicy(functionName);
+        Load load;
+        synchronized (results) {
+            load = loads.remove(key);
+            if (policy != null && (load == null || !load.invalidated)) {
+                results.put(key, new CachedResult(output, currentTimeMillis() + policy.getTtl() * 1000));
+            }
+        }
+        if (load != null) {
+            load.done.countDown();
+        }
+    }
+
+    /**
+     * Releases a claimed load without caching a return, e.g. because the function failed. One of its waiters
+     * claims the load in turn.
+     */
+    public void abandon(Object target, Object credentials, String functionName, List<String> args) {
+        Load load;
+        synchronized (results) {
+            load = loads.remove(Arrays.<Object> asList(target, credentials, functionName, args));
+        }
+        if (load != null) {
+            load.done.countDown();
+        }
+    }
+
+    /**
+     * Discards the returns of the given target whose policy lists the given function as invalidating them, including
+     * those being loaded. Returns cached for any credentials are discarded, since the function changed the minion
+     * itself.
+     */
+    public void invalidate(Object target, String executedFunction) {
+        synchronized (results) {
+            for (Iterator<List<Object>> it = results.keySet().iterator(); it.hasNext();) {
+                if (isInvalidatedBy(it.next(), target, executedFunction)) {
+                    it.remove();
+                }
+            }
+            for (Map.Entry<List<Object>, Load> entry : loads.entrySet()) {
+                if (isInvalidatedBy(entry.getKey(), target, executedFunction)) {
+                    entry.getValue().invalidated = true;
+                }
+            }
+        }
+    }
+
+    protected boolean isInvalidatedBy(List<Object> key, Object target, String executedFunction) {
+        ResultCachePolicy policy = policies.get(key.get(2));
+        return key.get(0).equals(target) && policy != null && policy.getInvalidatedBy().contains(executedFunction);
+    }
+
+    protected void configureFromResource(String resource) throws IOException {
+        InputStream is = getClass().getResourceAsStream(resource);
+        try {
+            configureFromInputStream(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    protected void configureFromFile(String file) throws FileNotFoundException, IOException {
+        FileInputStream fis = new FileInputStream(new File(file));
+        try {
+            configureFromInputStream(fis);
+        } finally {
+            fis.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void configureFromInputStream(InputStream is) {
+        Yaml yaml = new Yaml(new CustomClassLoaderConstructor(getClass().getClassLoader()));
+        Map<String, Object> document = (Map<String, Object>) yaml.load(is);
+        if (document == null || !document.containsKey(CACHED_FUNCTIONS_KEY)) {
+            throw new IllegalArgumentException(String.format("Expected yaml document with key: %s",
+                    CACHED_FUNCTIONS_KEY));
+        }
+        Map<String, ResultCachePolicy> configured = (Map<String, ResultCachePolicy>) document
+                .get(CACHED_FUNCTIONS_KEY);
+        if (configured == null) {
+            return;
+        }
+        for (Map.Entry<String, ResultCachePolicy> entry : configured.entrySet()) {
+            if (policies.containsKey(entry.getKey())) {
+                throw new IllegalStateException(String.format(
+                        "Already received a result cache configuration entry for %s", entry.getKey()));
+            }
+            policies.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // -- Isolating so tests can control the passage of time --
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    protected static class CachedResult {
+        protected final String output;
+        protected final long expiresAt;
+
+        protected CachedResult(String output, long expiresAt) {
+            this.output = output;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    protected static class Load {
+        protected final CountDownLatch done = new CountDownLatch(1);
+        protected boolean invalidated;
+    }
+}
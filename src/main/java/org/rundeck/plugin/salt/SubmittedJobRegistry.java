@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Hands the jobs dispatched by the asynchronous submit step over to the await step of the same rundeck execution.
+ * 
+ * Jobs that are never awaited, e.g. because the execution failed in between, are dropped once they are older than
+ * the retention time.
+ */
+@Component
+public class SubmittedJobRegistry {
+    // -- Rundeck data context identifying the execution jobs are handed over in --
+    protected static final String RUNDECK_DATA_CONTEXT_JOB_KEY = "job";
+    protected static final String RUNDECK_EXECUTION_ID_KEY = "execid";
+
+    // Time in ms that a submitted job is kept for an await step
+    @Autowired
+    @Value("${submittedJobs.retention}")
+    protected long retention;
+
+    protected final Map<Object, List<Submission>> submissions = Maps.newHashMap();
+
+    /**
+     * @return the key jobs dispatched to the given minion are handed over with, i.e. the rundeck execution from
+     *         the given data context, the endpoint and the minion, or null if the data context does not identify
+     *         the execution.
+     */
+    public static Object createKey(Map<String, Map<String, String>> dataContext, String saltEndpoint,
+            String minionId) {
+        Map<String, String> jobData = dataContext.get(RUNDECK_DATA_CONTEXT_JOB_KEY);
+        String executionId = jobData == null ? null : jobData.get(RUNDECK_EXECUTION_ID_KEY);
+        return executionId == null ? null : Arrays.asList(executionId, saltEndpoint, minionId);
+    }
+
+    /**
+     * @param key
+     *            identifies the rundeck execution and the minion the job was dispatched to.
+     * @param dispatched
+     *            true if the job was dispatched by this execution, false if it was attached to an identical job
+     *            another execution dispatched.
+     */
+    public synchronized void register(Object key, RunningJob job, boolean dispatched) {
+        removeExpiredSubmissions();
+        List<Submission> jobs = submissions.get(key);
+        if (jobs == null) {
+            jobs = Lists.newArrayList();
+            submissions.put(key, jobs);
+        }
+        jobs.add(new Submission(job, dispatched, currentTimeMillis()));
+    }
+
+    /**
+     * Removes and returns the submissions registered for the given key whose job runs the given function with the
+     * given normalized args, in the order they were submitted.
+     */
+    public synchronized List<Submission> take(Object key, String function, List<String> args) {
+        removeExpiredSubmissions();
+        List<Submission> taken = Lists.newArrayList();
+        List<Submission> jobs = submissions.get(key);
+        if (jobs == null) {
+            return taken;
+        }
+        for (Iterator<Submission> it = jobs.iterator(); it.hasNext();) {
+            Submission submission = it.next();
+            if (submission.job.matches(function, args)) {
+                taken.add(submission);
+                it.remove();
+            }
+        }
+        if (jobs.isEmpty()) {
+            submissions.remove(key);
+        }
+        return taken;
+    }
+
+    protected void removeExpiredSubmissions() {
+        long now = currentTimeMillis();
+        for (Iterator<List<Submission>> it = submissions.values().iterator(); it.hasNext();) {
+            List<Submission> jobs = it.next();
+            for (Iterator<Submission> jobIt = jobs.iterator(); jobIt.hasNext();) {
+                if (now - jobIt.next().submittedAt >= retention) {
+                    jobIt.remove();
+                }
+            }
+            if (jobs.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    // -- Isolating so tests can control the passage of time --
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    public static class Submission {
+        protected final RunningJob job;
+        protected final boolean dispatched;
+        protected final long submittedAt;
+
+        protected Submission(RunningJob job, boolean dispatched, long submittedAt) {
+            this.job = job;
+            this.dispatched = dispatched;
+            this.submittedAt = submittedAt;
+        }
+
+        public RunningJob getJob() {
+            return job;
+        }
+
+        /**
+         * @return true if the job was dispatched by the submitting execution, false if it was attached to.
+         */
+        public boolean isDispatched() {
+            return dispatched;
+        }
+    }
+}
@@ -35,7 +35,7 @@ import org.springframework.stereotype.Component;
  * the raw response in standard out.
  */
 @Component
-public class DefaultSaltReturnHandler implements SaltReturnHandler {
+public class DefaultSaltReturnHandler implements SaltReturnHandler, SaltStreamingReturnHandler {
     
     protected Integer exitCode;
     
@@ -54,11 +54,30 @@ public class DefaultSaltReturnHandler implements SaltReturnHandler {
     
     @Override
     public SaltReturnResponse extractResponse(String rawResponse) throws SaltReturnResponseParseException {
+        return handleReturn(MinionReturn.fromJson(rawResponse));
+    }
+
+    /**
+     * Never parses the return, it is output as received.
+     */
+    @Override
+    public SaltReturnResponse handleReturn(MinionReturn minionReturn) throws SaltReturnResponseParseException {
         SaltReturnResponse response = new SaltReturnResponse();
         response.setExitCode(exitCode);
+        String rawResponse = minionReturn.toJson();
         if (rawResponse != null) {
             response.addOutput(rawResponse);
         }
         return response;
     }
+
+    /**
+     * Same as {@link #handleReturn(MinionReturn)} but passes the output to the given listener line by line.
+     */
+    @Override
+    public void handleReturn(MinionReturn minionReturn, SaltReturnListener listener)
+            throws SaltReturnResponseParseException {
+        SaltReturnLines.emitStdout(minionReturn.toJson(), listener);
+        listener.onExitCode(exitCode);
+    }
 }
@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * A minion's return as received from salt-api, parsed into a json tree at most once and only when a handler asks
+ * for it, so handlers that only need the json text do not pay for parsing it.
+ */
+public class MinionReturn {
+    // -- Keys of the returns of salt's cmd execution functions --
+    public static final String RETCODE_KEY = "retcode";
+    public static final String STDOUT_KEY = "stdout";
+    public static final String STDERR_KEY = "stderr";
+
+    protected String json;
+    protected JsonElement tree;
+
+    protected MinionReturn(String json, JsonElement tree) {
+        this.json = json;
+        this.tree = tree;
+    }
+
+    /**
+     * @param json
+     *            the minion's return encoded in json, or null if there is none.
+     */
+    public static MinionReturn fromJson(String json) {
+        return new MinionReturn(json, null);
+    }
+
+    public static MinionReturn fromTree(JsonElement tree) {
+        return new MinionReturn(null, tree);
+    }
+
+    /**
+     * Reads the next value of the given reader as the minion's return, building its json tree as it is read
+     * rather than copying it out as json text to be parsed again.
+     * 
+     * @throws IOException
+     *             if the value could not be read.
+     * @throws JsonParseException
+     *             if the value is not valid json.
+     */
+    public static MinionReturn fromReader(JsonReader reader) throws IOException {
+        try {
+            return fromTree(new JsonParser().parse(reader));
+        } catch (JsonIOException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return the minion's return encoded in json, as received if it was received as json.
+     */
+    public String toJson() {
+        if (json == null && tree != null) {
+            json = tree.toString();
+        }
+        return json;
+    }
+
+    /**
+     * @throws SaltReturnResponseParseException
+     *             if the return is not valid json.
+     */
+    public JsonElement getTree() throws SaltReturnResponseParseException {
+        if (tree == null && json != null) {
+            try {
+                tree = new JsonParser().parse(json);
+            } catch (JsonParseException e) {
+                throw new SaltReturnResponseParseException(e);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * @throws SaltReturnResponseParseException
+     *             if the return is not a json object.
+     */
+    public JsonObject getObject() throws SaltReturnResponseParseException {
+        JsonElement element = getTree();
+        if (element == null || !element.isJsonObject()) {
+            throw new SaltReturnResponseParseException(String.format("Expected a json object, found %s", toJson()));
+        }
+        return element.getAsJsonObject();
+    }
+
+    public boolean has(String key) throws SaltReturnResponseParseException {
+        return getObject().has(key);
+    }
+
+    /**
+     * @return the integral part of the number, or numeric string, under the given key.
+     * @throws SaltReturnResponseParseException
+     *             if the return has no number under the key.
+     */
+    public Integer getInteger(String key) throws SaltReturnResponseParseException {
+        JsonElement element = getOrDie(key);
+        try {
+            if (element.isJsonPrimitive() && !element.getAsJsonPrimitive().isBoolean()) {
+                return new BigDecimal(element.getAsString().trim()).intValue();
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new SaltReturnResponseParseException(String.format("Expected a number for key %s in %s, found %s", key,
+                toJson(), element));
+    }
+
+    /**
+     * @return the string under the given key, the json encoding of any other value under it, or null if it is
+     *         null.
+     * @throws SaltReturnResponseParseException
+     *             if the return has no value under the key.
+     */
+    public String getString(String key) throws SaltReturnResponseParseException {
+        JsonElement element = getOrDie(key);
+        if (element.isJsonNull()) {
+            return null;
+        } else if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            return primitive.getAsString();
+        }
+        return element.toString();
+    }
+
+    public Integer getRetcode() throws SaltReturnResponseParseException {
+        return getInteger(RETCODE_KEY);
+    }
+
+    public String getStdout() throws SaltReturnResponseParseException {
+        return getString(STDOUT_KEY);
+    }
+
+    public String getStderr() throws SaltReturnResponseParseException {
+        return getString(STDERR_KEY);
+    }
+
+    protected JsonElement getOrDie(String key) throws SaltReturnResponseParseException {
+        JsonObject object = getObject();
+        if (!object.has(key)) {
+            throw new SaltReturnResponseParseException(String.format("Expected key %s in %s, found none.", key,
+                    toJson()));
+        }
+        return object.get(key);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(toJson());
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.IOException;
+
+import com.google.common.collect.Lists;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams a {@link SaltApiResponseOutput} to and from json without an intermediate tree. Fields other than jid and
+ * minions, e.g. the _links salt-api adds, are skipped.
+ */
+public class SaltApiResponseOutputAdapter extends TypeAdapter<SaltApiResponseOutput> {
+
+    protected static final String JID_KEY = "jid";
+    protected static final String MINIONS_KEY = "minions";
+
+    @Override
+    public SaltApiResponseOutput read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        SaltApiResponseOutput output = new SaltApiResponseOutput();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (JID_KEY.equals(name)) {
+                output.jid = in.nextString();
+            } else if (MINIONS_KEY.equals(name)) {
+                output.minions = Lists.newArrayList();
+                in.beginArray();
+                while (in.hasNext()) {
+                    output.minions.add(in.nextString());
+                }
+                in.endArray();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return output;
+    }
+
+    @Override
+    public void write(JsonWriter out, SaltApiResponseOutput output) throws IOException {
+        if (output == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name(JID_KEY).value(output.jid);
+        if (output.minions != null) {
+            out.name(MINIONS_KEY).beginArray();
+            for (String minion : output.minions) {
+                out.value(minion);
+            }
+            out.endArray();
+        }
+        out.endObject();
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.rundeck.plugin.salt.util.JsonStreams;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams {@link SaltJobReturns} to and from json. Each minion's return is copied out as json text without
+ * building a tree of it, and the objects of the return array are merged in order.
+ */
+public class SaltJobReturnsAdapter extends TypeAdapter<SaltJobReturns> {
+
+    protected static final String RETURN_KEY = "return";
+
+    @Override
+    public SaltJobReturns read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        SaltJobReturns jobReturns = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            if (!RETURN_KEY.equals(in.nextName())) {
+                in.skipValue();
+                continue;
+            }
+            jobReturns = new SaltJobReturns();
+            in.beginArray();
+            while (in.hasNext()) {
+                in.beginObject();
+                while (in.hasNext()) {
+                    String minionId = in.nextName();
+                    jobReturns.returns.put(minionId, JsonStreams.toJson(in));
+                }
+                in.endObject();
+            }
+            in.endArray();
+        }
+        in.endObject();
+        if (jobReturns == null) {
+            throw new JsonSyntaxException(String.format("Expected a %s array", RETURN_KEY));
+        }
+        return jobReturns;
+    }
+
+    @Override
+    public void write(JsonWriter out, SaltJobReturns jobReturns) throws IOException {
+        if (jobReturns == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name(RETURN_KEY).beginArray().beginObject();
+        for (Map.Entry<String, String> entry : jobReturns.returns.entrySet()) {
+            out.name(entry.getKey());
+            JsonReader reader = new JsonReader(new StringReader(entry.getValue()));
+            reader.setLenient(true);
+            JsonStreams.copyValue(reader, out);
+        }
+        out.endObject().endArray();
+        out.endObject();
+    }
+}
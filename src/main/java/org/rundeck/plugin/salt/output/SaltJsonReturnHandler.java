@@ -26,19 +26,10 @@
 
 package org.rundeck.plugin.salt.output;
 
-import java.lang.reflect.Type;
-import java.util.Map;
-
-import com.google.gson.Gson;
-import com.google.gson.JsonSyntaxException;
-import com.google.gson.reflect.TypeToken;
-
 /**
  * Handler for generating {@link SaltReturnResponse} from minion json responses.
  */
-public class SaltJsonReturnHandler implements SaltReturnHandler {
-
-    protected static final Type RETURN_RESPONSE_TYPE = new TypeToken<Map<String, String>>() {}.getType();
+public class SaltJsonReturnHandler implements SaltReturnHandler, SaltStreamingReturnHandler {
 
     protected String exitCodeKey;
     protected String standardOutputKey;
@@ -74,38 +65,48 @@ public class SaltJsonReturnHandler implements SaltReturnHandler {
      */
     @Override
     public SaltReturnResponse extractResponse(String rawResponse) throws SaltReturnResponseParseException {
-        try {
-            Gson gson = new Gson();
-            Map<String, String> result = gson.fromJson(rawResponse, RETURN_RESPONSE_TYPE);
-            SaltReturnResponse response = new SaltReturnResponse();
+        return handleReturn(MinionReturn.fromJson(rawResponse));
+    }
 
-            if (exitCodeKey != null) {
-                String exitCodeStringValue = extractOrDie(exitCodeKey, result);
-                Integer exitCode = Double.valueOf(exitCodeStringValue).intValue();
-                response.setExitCode(exitCode);
-            }
+    /**
+     * Reads a {@link SaltReturnResponse} from a salt minion return using the specified exit code, standard output,
+     * and standard error keys. The return is only parsed if one of the keys is specified.
+     * 
+     * @throws SaltReturnResponseParseException
+     *             if the return is not a json object or is missing one of the specified keys
+     */
+    @Override
+    public SaltReturnResponse handleReturn(MinionReturn minionReturn) throws SaltReturnResponseParseException {
+        SaltReturnResponse response = new SaltReturnResponse();
 
-            if (standardOutputKey != null) {
-                String output = extractOrDie(standardOutputKey, result);
-                response.addOutput(output);
-            }
+        if (exitCodeKey != null) {
+            response.setExitCode(minionReturn.getInteger(exitCodeKey));
+        }
 
-            if (standardErrorKey != null) {
-                String error = extractOrDie(standardErrorKey, result);
-                response.addError(error);
-            }
+        if (standardOutputKey != null) {
+            response.addOutput(minionReturn.getString(standardOutputKey));
+        }
 
-            return response;
-        } catch (JsonSyntaxException e) {
-            throw new SaltReturnResponseParseException(e);
+        if (standardErrorKey != null) {
+            response.addError(minionReturn.getString(standardErrorKey));
         }
+
+        return response;
     }
 
-    protected String extractOrDie(String key, Map<String, String> data) throws SaltReturnResponseParseException {
-        if (!data.containsKey(key)) {
-            throw new SaltReturnResponseParseException(String.format("Expected key %s in %s, found none.", key, data));
-        } else {
-            return data.get(key);
-        }
+    /**
+     * Same as {@link #handleReturn(MinionReturn)} but passes the output to the given listener line by line. All keys
+     * are read before any output is passed on.
+     */
+    @Override
+    public void handleReturn(MinionReturn minionReturn, SaltReturnListener listener)
+            throws SaltReturnResponseParseException {
+        Integer exitCode = exitCodeKey == null ? null : minionReturn.getInteger(exitCodeKey);
+        String standardOutput = standardOutputKey == null ? null : minionReturn.getString(standardOutputKey);
+        String standardError = standardErrorKey == null ? null : minionReturn.getString(standardErrorKey);
+
+        SaltReturnLines.emitStdout(standardOutput, listener);
+        SaltReturnLines.emitStderr(standardError, listener);
+        listener.onExitCode(exitCode);
     }
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.rundeck.plugin.salt.util.JsonPath;
+
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * Handler for minion returns whose exit code and output are nested inside the return, located by path expressions
+ * such as $.retcode or $.data.*.comment (see {@link JsonPath}). The paths are compiled once, when the handler is
+ * configured, and all of them are extracted in a single pass over the return's json text.
+ */
+public class SaltPathReturnHandler implements SaltReturnHandler, SaltStreamingReturnHandler {
+
+    protected JsonPath exitCodePath;
+    protected JsonPath standardOutputPath;
+    protected JsonPath standardErrorPath;
+
+    /**
+     * @param exitCodePath
+     *            The path to the exit code. If it matches several numbers, the first non-zero one is the exit code.
+     * @throws IllegalArgumentException
+     *             if the path is not valid.
+     */
+    public void setExitCodePath(String exitCodePath) {
+        this.exitCodePath = compile(exitCodePath);
+    }
+
+    /**
+     * @param standardOutputPath
+     *            The path to the standard output. Each value it matches is output in document order.
+     * @throws IllegalArgumentException
+     *             if the path is not valid.
+     */
+    public void setStandardOutputPath(String standardOutputPath) {
+        this.standardOutputPath = compile(standardOutputPath);
+    }
+
+    /**
+     * @param standardErrorPath
+     *            The path to the standard error. Each value it matches is output in document order.
+     * @throws IllegalArgumentException
+     *             if the path is not valid.
+     */
+    public void setStandardErrorPath(String standardErrorPath) {
+        this.standardErrorPath = compile(standardErrorPath);
+    }
+
+    protected JsonPath compile(String expression) {
+        return expression == null ? null : JsonPath.compile(expression);
+    }
+
+    @Override
+    public String toString() {
+        return "SaltPathReturnHandler [exitCodePath=" + exitCodePath + ", standardOutputPath=" + standardOutputPath
+                + ", standardErrorPath=" + standardErrorPath + "]";
+    }
+
+    @Override
+    public SaltReturnResponse extractResponse(String rawResponse) throws SaltReturnResponseParseException {
+        return handleReturn(MinionReturn.fromJson(rawResponse));
+    }
+
+    @Override
+    public SaltReturnResponse handleReturn(MinionReturn minionReturn) throws SaltReturnResponseParseException {
+        SaltReturnResponseListener listener = new SaltReturnResponseListener();
+        handleReturn(minionReturn, listener);
+        return listener.getResponse();
+    }
+
+    /**
+     * Passes the values matched by the output paths to the listener line by line. All paths are extracted before
+     * any output is passed on.
+     * 
+     * @throws SaltReturnResponseParseException
+     *             if the return is not json, or the exit code path is set and matches no number.
+     */
+    @Override
+    public void handleReturn(MinionReturn minionReturn, SaltReturnListener listener)
+            throws SaltReturnResponseParseException {
+        List<JsonPath> paths = Lists.newArrayListWithCapacity(3);
+        for (JsonPath path : new JsonPath[] { exitCodePath, standardOutputPath, standardErrorPath }) {
+            if (path != null) {
+                paths.add(path);
+            }
+        }
+        if (paths.isEmpty()) {
+            listener.onExitCode(null);
+            return;
+        }
+
+        String json = minionReturn.toJson();
+        List<List<String>> matches;
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json == null ? "" : json));
+            reader.setLenient(true);
+            matches = JsonPath.extract(reader, paths);
+        } catch (IOException e) {
+            throw new SaltReturnResponseParseException(e);
+        } catch (IllegalStateException e) {
+            throw new SaltReturnResponseParseException(e);
+        }
+
+        Integer exitCode = exitCodePath == null ? null : readExitCode(matches.get(paths.indexOf(exitCodePath)), json);
+        if (standardOutputPath != null) {
+            for (String output : matches.get(paths.indexOf(standardOutputPath))) {
+                SaltReturnLines.emitStdout(output, listener);
+            }
+        }
+        if (standardErrorPath != null) {
+            for (String error : matches.get(paths.indexOf(standardErrorPath))) {
+                SaltReturnLines.emitStderr(error, listener);
+            }
+        }
+        listener.onExitCode(exitCode);
+    }
+
+    protected Integer readExitCode(List<String> values, String json) throws SaltReturnResponseParseException {
+        Integer exitCode = null;
+        for (String value : values) {
+            try {
+                if (value != null) {
+                    int code = new BigDecimal(value.trim()).intValue();
+                    if (exitCode == null || exitCode == 0) {
+                        exitCode = code;
+                    }
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new SaltReturnResponseParseException(String.format("Expected a number at %s in %s, found %s",
+                    exitCodePath, json, value));
+        }
+        if (exitCode == null) {
+            throw new SaltReturnResponseParseException(String.format("Expected a number at %s in %s, found none",
+                    exitCodePath, json));
+        }
+        return exitCode;
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Handler for commands that report their status in their output rather than their exit code. Each output line is
+ * matched against precompiled patterns as it is passed on, to pick the exit code out of the output, fail the step
+ * on failure messages, move error messages to stderr and repeat summary lines once the output is done.
+ * <p>
+ * The lines come from the delegate handler if one is set, e.g. the cmd.run_all parser, otherwise from the return
+ * itself, which is decoded if it is a string as returned by cmd.run.
+ */
+public class SaltPatternReturnHandler implements SaltReturnHandler, SaltStreamingReturnHandler {
+
+    protected static final int MAXIMUM_SUMMARY_LINES = 100;
+
+    protected SaltStreamingReturnHandler delegate;
+    protected Pattern exitCodePattern;
+    protected List<Pattern> failurePatterns = Collections.emptyList();
+    protected List<Pattern> errorPatterns = Collections.emptyList();
+    protected List<Pattern> summaryPatterns = Collections.emptyList();
+    protected Integer failureExitCode = 1;
+
+    /**
+     * @param delegate
+     *            The handler interpreting the return into lines and an exit code, or null to output the return
+     *            as is with an exit code of 0.
+     */
+    public void setDelegate(SaltStreamingReturnHandler delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @param exitCodePattern
+     *            A pattern whose first group captures the exit code in an output line. The last line it matches
+     *            overrides the delegate's exit code.
+     */
+    public void setExitCodePattern(String exitCodePattern) {
+        this.exitCodePattern = exitCodePattern == null ? null : Pattern.compile(exitCodePattern);
+    }
+
+    /**
+     * @param failurePatterns
+     *            Patterns of output lines that fail the step with failureExitCode, unless the exit code already
+     *            signals a failure.
+     */
+    public void setFailurePatterns(List<String> failurePatterns) {
+        this.failurePatterns = compile(failurePatterns);
+    }
+
+    /**
+     * @param errorPatterns
+     *            Patterns of standard output lines that are logged as standard error.
+     */
+    public void setErrorPatterns(List<String> errorPatterns) {
+        this.errorPatterns = compile(errorPatterns);
+    }
+
+    /**
+     * @param summaryPatterns
+     *            Patterns of output lines that are repeated after the output, up to MAXIMUM_SUMMARY_LINES of them.
+     */
+    public void setSummaryPatterns(List<String> summaryPatterns) {
+        this.summaryPatterns = compile(summaryPatterns);
+    }
+
+    public void setFailureExitCode(Integer failureExitCode) {
+        this.failureExitCode = failureExitCode;
+    }
+
+    protected List<Pattern> compile(List<String> regexes) {
+        if (regexes == null) {
+            return Collections.emptyList();
+        }
+        List<Pattern> patterns = Lists.newArrayListWithCapacity(regexes.size());
+        for (String regex : regexes) {
+            patterns.add(Pattern.compile(regex));
+        }
+        return Collections.unmodifiableList(patterns);
+    }
+
+    @Override
+    public String toString() {
+        return "SaltPatternReturnHandler [delegate=" + delegate + ", exitCodePattern=" + exitCodePattern
+                + ", failurePatterns=" + failurePatterns + ", errorPatterns=" + errorPatterns + ", summaryPatterns="
+                + summaryPatterns + ", failureExitCode=" + failureExitCode + "]";
+    }
+
+    @Override
+    public SaltReturnResponse extractResponse(String rawResponse) throws SaltReturnResponseParseException {
+        return handleReturn(MinionReturn.fromJson(rawResponse));
+    }
+
+    @Override
+    public SaltReturnResponse handleReturn(MinionReturn minionReturn) throws SaltReturnResponseParseException {
+        SaltReturnResponseListener listener = new SaltReturnResponseListener();
+        handleReturn(minionReturn, listener);
+        return listener.getResponse();
+    }
+
+    /**
+     * Passes each line on to the given listener as soon as it has been matched against the patterns. Summary lines
+     * are repeated to stdout before the exit code.
+     */
+    @Override
+    public void handleReturn(MinionReturn minionReturn, SaltReturnListener listener)
+            throws SaltReturnResponseParseException {
+        PatternMatchingListener matchingListener = new PatternMatchingListener(listener);
+        if (delegate != null) {
+            delegate.handleReturn(minionReturn, matchingListener);
+        } else {
+            SaltReturnLines.emitStdout(decodeOutput(minionReturn.toJson()), matchingListener);
+            matchingListener.onExitCode(0);
+        }
+    }
+
+    /**
+     * @return the string returned by e.g. cmd.run, or the return as received if it is not a string.
+     */
+    protected String decodeOutput(String json) throws SaltReturnResponseParseException {
+        if (json == null) {
+            return null;
+        }
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            return reader.peek() == JsonToken.STRING ? reader.nextString() : json;
+        } catch (IOException e) {
+            throw new SaltReturnResponseParseException(e);
+        }
+    }
+
+    /**
+     * Matches the lines passed through it against the handler's patterns. Matchers are reset for each line rather
+     * than created, and are not shared between returns.
+     */
+    protected class PatternMatchingListener implements SaltReturnListener {
+        protected final SaltReturnListener listener;
+        protected final Matcher exitCodeMatcher;
+        protected final List<Matcher> failureMatchers;
+        protected final List<Matcher> errorMatchers;
+        protected final List<Matcher> summaryMatchers;
+        protected final List<String> summaryLines = Lists.newArrayList();
+        protected Integer matchedExitCode;
+        protected boolean failed;
+
+        protected PatternMatchingListener(SaltReturnListener listener) {
+            this.listener = listener;
+            this.exitCodeMatcher = exitCodePattern == null ? null : exitCodePattern.matcher("");
+            this.failureMatchers = matchers(failurePatterns);
+            this.errorMatchers = matchers(errorPatterns);
+            this.summaryMatchers = matchers(summaryPatterns);
+        }
+
+        protected List<Matcher> matchers(List<Pattern> patterns) {
+            List<Matcher> matchers = Lists.newArrayListWithCapacity(patterns.size());
+            for (Pattern pattern : patterns) {
+                matchers.add(pattern.matcher(""));
+            }
+            return matchers;
+        }
+
+        @Override
+        public void onStdoutLine(String line) {
+            match(line);
+            if (find(errorMatchers, line)) {
+                listener.onStderrLine(line);
+            } else {
+                listener.onStdoutLine(line);
+            }
+        }
+
+        @Override
+        public void onStderrLine(String line) {
+            match(line);
+            listener.onStderrLine(line);
+        }
+
+        @Override
+        public void onExitCode(Integer exitCode) {
+            for (String summaryLine : summaryLines) {
+                listener.onStdoutLine(summaryLine);
+            }
+            Integer derivedExitCode = matchedExitCode != null ? matchedExitCode : exitCode;
+            if (failed && (derivedExitCode == null || derivedExitCode == 0)) {
+                derivedExitCode = failureExitCode;
+            }
+            listener.onExitCode(derivedExitCode);
+        }
+
+        protected void match(String line) {
+            if (exitCodeMatcher != null && exitCodeMatcher.reset(line).find() && exitCodeMatcher.groupCount() > 0
+                    && exitCodeMatcher.group(1) != null) {
+                try {
+                    matchedExitCode = Integer.valueOf(exitCodeMatcher.group(1).trim());
+                } catch (NumberFormatException e) {
+                    // Not an exit code after all, the line is passed on as is
+                }
+            }
+            if (!failed && find(failureMatchers, line)) {
+                failed = true;
+            }
+            if (summaryLines.size() < MAXIMUM_SUMMARY_LINES && find(summaryMatchers, line)) {
+                summaryLines.add(line);
+            }
+        }
+
+        protected boolean find(List<Matcher> matchers, String line) {
+            for (Matcher matcher : matchers) {
+                if (matcher.reset(line).find()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
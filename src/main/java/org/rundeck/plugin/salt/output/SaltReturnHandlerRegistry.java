@@ -32,11 +32,11 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
-import java.util.Properties;
 
 import javax.annotation.PostConstruct;
 
 import org.apache.commons.lang.StringUtils;
+import org.rundeck.plugin.salt.util.RundeckConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -51,14 +51,15 @@ import com.google.common.collect.Maps;
 @Component
 public class SaltReturnHandlerRegistry {
     protected static final String RETURN_HANDLER_CONFIGURATION_PROPERTY_KEY = "saltStep.returnHandlers";
-    protected static final String RUNDECK_CONFIGURATION_LOCATION_KEY = "rundeck.config.location";
+    protected static final String RUNDECK_CONFIGURATION_LOCATION_KEY =
+            RundeckConfiguration.CONFIGURATION_LOCATION_KEY;
     protected static final String HANDLER_MAPPINGS_KEY = "handlerMappings";
 
     /**
      * Keys in this map are either the module name OR a fully qualified function name (i.e.
-     * module.function)
+     * module.function), values are {@link SaltReturnHandler}s or {@link SaltTreeReturnHandler}s.
      */
-    protected final Map<String, SaltReturnHandler> handlerMap = Maps.newHashMap();
+    protected final Map<String, Object> handlerMap = Maps.newHashMap();
 
     protected final String configurationFile;
 
@@ -72,26 +73,11 @@ public class SaltReturnHandlerRegistry {
         try {
             configureFromResource(configurationFile);
 
-            String configLocation = System.getProperty(RUNDECK_CONFIGURATION_LOCATION_KEY);
-            if (configLocation != null) {
-                Properties properties = new Properties();
-                FileInputStream fis = null;
-                try {
-                    fis = new FileInputStream(configLocation);
-                    properties.load(fis);
-                    if (properties.containsKey(RETURN_HANDLER_CONFIGURATION_PROPERTY_KEY)) {
-                        String files = (String) properties.get(RETURN_HANDLER_CONFIGURATION_PROPERTY_KEY);
-                        if (files != null) {
-                            for (String file : files.split(",")) {
-                                if (StringUtils.isNotEmpty(file)) {
-                                    configureFromFile(file);
-                                }
-                            }
-                        }
-                    }
-                } finally {
-                    if (fis != null) {
-                        fis.close();
+            String files = RundeckConfiguration.getProperty(RETURN_HANDLER_CONFIGURATION_PROPERTY_KEY);
+            if (files != null) {
+                for (String file : files.split(",")) {
+                    if (StringUtils.isNotEmpty(file)) {
+                        configureFromFile(file);
                     }
                 }
             }
@@ -114,16 +100,49 @@ public class SaltReturnHandlerRegistry {
      *            the default handler if no matching handler is found.
      */
     public SaltReturnHandler getHandlerFor(String fullyQualifiedFunctionName, SaltReturnHandler defaultHandler) {
+        final Object handler = lookupHandler(fullyQualifiedFunctionName);
+        if (handler == null) {
+            return defaultHandler;
+        } else if (handler instanceof SaltReturnHandler) {
+            return (SaltReturnHandler) handler;
+        }
+        return new SaltReturnHandler() {
+            @Override
+            public SaltReturnResponse extractResponse(String rawResponse) throws SaltReturnResponseParseException {
+                return ((SaltTreeReturnHandler) handler).handleReturn(MinionReturn.fromJson(rawResponse));
+            }
+
+            @Override
+            public String toString() {
+                return handler.toString();
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #getHandlerFor(String, SaltReturnHandler)}, but adapts handlers that only take the json text
+     * of minion returns.
+     */
+    public SaltTreeReturnHandler getTreeHandlerFor(String fullyQualifiedFunctionName,
+            SaltTreeReturnHandler defaultHandler) {
+        Object handler = lookupHandler(fullyQualifiedFunctionName);
+        if (handler == null) {
+            return defaultHandler;
+        } else if (handler instanceof SaltTreeReturnHandler) {
+            return (SaltTreeReturnHandler) handler;
+        }
+        return new SaltReturnHandlerAdapter((SaltReturnHandler) handler);
+    }
+
+    /**
+     * @return the handler configured for the function or its module, or null if there is none.
+     */
+    protected Object lookupHandler(String fullyQualifiedFunctionName) {
         if (handlerMap.containsKey(fullyQualifiedFunctionName)) {
             return handlerMap.get(fullyQualifiedFunctionName);
-        } else {
-            String[] decomposedFunction = fullyQualifiedFunctionName.split("\\.", 2);
-            if (handlerMap.containsKey(decomposedFunction[0])) {
-                return handlerMap.get(decomposedFunction[0]);
-            } else {
-                return defaultHandler;
-            }
         }
+        String[] decomposedFunction = fullyQualifiedFunctionName.split("\\.", 2);
+        return handlerMap.get(decomposedFunction[0]);
     }
 
     protected void configureFromResource(String resource) throws IOException {
@@ -152,13 +171,17 @@ public class SaltReturnHandlerRegistry {
             throw new IllegalArgumentException(String.format("Expected yaml document with key: %s",
                     HANDLER_MAPPINGS_KEY));
         } else {
-            Map<String, SaltReturnHandler> handlers = (Map<String, SaltReturnHandler>) document
-                    .get(HANDLER_MAPPINGS_KEY);
-            for (Map.Entry<String, SaltReturnHandler> entry : handlers.entrySet()) {
+            Map<String, Object> handlers = (Map<String, Object>) document.get(HANDLER_MAPPINGS_KEY);
+            for (Map.Entry<String, Object> entry : handlers.entrySet()) {
                 if (handlerMap.containsKey(entry.getKey())) {
                     throw new IllegalStateException(String.format(
                             "Already received a salt return handler configuration entry for %s", entry.getKey()));
                 }
+                if (!(entry.getValue() instanceof SaltReturnHandler)
+                        && !(entry.getValue() instanceof SaltTreeReturnHandler)) {
+                    throw new IllegalArgumentException(String.format("Expected a salt return handler for %s, found %s",
+                            entry.getKey(), entry.getValue()));
+                }
                 handlerMap.put(entry.getKey(), entry.getValue());
             }
         }
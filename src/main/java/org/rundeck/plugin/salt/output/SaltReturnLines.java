@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Splits output into the lines passed to a {@link SaltReturnListener}.
+ */
+public class SaltReturnLines {
+
+    /**
+     * Passes each line of the given output to the listener's stdout. Blank output is skipped, as it is by
+     * {@link SaltReturnResponse#addOutput(String)}.
+     */
+    public static void emitStdout(String output, SaltReturnListener listener) {
+        emit(output, listener, false);
+    }
+
+    /**
+     * Passes each line of the given output to the listener's stderr. Blank output is skipped, as it is by
+     * {@link SaltReturnResponse#addError(String)}.
+     */
+    public static void emitStderr(String output, SaltReturnListener listener) {
+        emit(output, listener, true);
+    }
+
+    protected static void emit(String output, SaltReturnListener listener, boolean error) {
+        if (StringUtils.isBlank(output)) {
+            return;
+        }
+        int start = 0;
+        while (start < output.length()) {
+            int end = output.indexOf('\n', start);
+            if (end < 0) {
+                end = output.length();
+            }
+            String line = output.substring(start, end);
+            if (error) {
+                listener.onStderrLine(line);
+            } else {
+                listener.onStdoutLine(line);
+            }
+            start = end + 1;
+        }
+    }
+}
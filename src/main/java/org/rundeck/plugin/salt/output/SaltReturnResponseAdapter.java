@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.IOException;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Streams a {@link SaltReturnResponse} to and from json, using the same field names reflective Gson would.
+ */
+public class SaltReturnResponseAdapter extends TypeAdapter<SaltReturnResponse> {
+
+    protected static final String EXIT_CODE_KEY = "exitCode";
+    protected static final String STANDARD_OUTPUT_KEY = "standardOutput";
+    protected static final String STANDARD_ERROR_KEY = "standardError";
+
+    @Override
+    public SaltReturnResponse read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        SaltReturnResponse response = new SaltReturnResponse();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (EXIT_CODE_KEY.equals(name)) {
+                response.setExitCode(in.nextInt());
+            } else if (STANDARD_OUTPUT_KEY.equals(name)) {
+                in.beginArray();
+                while (in.hasNext()) {
+                    response.addOutput(in.nextString());
+                }
+                in.endArray();
+            } else if (STANDARD_ERROR_KEY.equals(name)) {
+                in.beginArray();
+                while (in.hasNext()) {
+                    response.addError(in.nextString());
+                }
+                in.endArray();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return response;
+    }
+
+    @Override
+    public void write(JsonWriter out, SaltReturnResponse response) throws IOException {
+        if (response == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        if (response.exitCode != null) {
+            out.name(EXIT_CODE_KEY).value(response.exitCode);
+        }
+        out.name(STANDARD_OUTPUT_KEY).beginArray();
+        for (String line : response.standardOutput) {
+            out.value(line);
+        }
+        out.endArray();
+        out.name(STANDARD_ERROR_KEY).beginArray();
+        for (String line : response.standardError) {
+            out.value(line);
+        }
+        out.endArray();
+        out.endObject();
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.rundeck.plugin.salt.util.JsonStreams;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Handler for the returns of salt's state functions, e.g. state.apply, state.highstate and state.sls. The state
+ * results are read in one pass over the return's json text without building a tree of them. Only failed and
+ * changed states are output, one compact line each, followed by a count of ok, changed and failed states. The step
+ * fails with failureExitCode if any state failed or salt could not run the states at all.
+ */
+public class SaltStateReturnHandler implements SaltReturnHandler, SaltStreamingReturnHandler {
+
+    protected static final Pattern STATE_KEY_SEPARATOR = Pattern.compile(Pattern.quote("_|-"));
+    protected static final String RESULT_KEY = "result";
+    protected static final String COMMENT_KEY = "comment";
+    protected static final String CHANGES_KEY = "changes";
+    protected static final String RUN_NUM_KEY = "__run_num__";
+    protected static final int MAXIMUM_COMMENT_LENGTH = 500;
+    protected static final int MAXIMUM_CHANGE_KEYS = 5;
+
+    /**
+     * A failed or changed state, kept until the states can be output in the order salt ran them.
+     */
+    protected static class StateLine implements Comparable<StateLine> {
+        protected final long runNum;
+        protected final String line;
+        protected final boolean failed;
+
+        protected StateLine(long runNum, String line, boolean failed) {
+            this.runNum = runNum;
+            this.line = line;
+            this.failed = failed;
+        }
+
+        @Override
+        public int compareTo(StateLine other) {
+            return runNum < other.runNum ? -1 : (runNum == other.runNum ? 0 : 1);
+        }
+    }
+
+    protected Integer failureExitCode = 2;
+
+    public void setFailureExitCode(Integer failureExitCode) {
+        this.failureExitCode = failureExitCode;
+    }
+
+    @Override
+    public String toString() {
+        return "SaltStateReturnHandler [failureExitCode=" + failureExitCode + "]";
+    }
+
+    @Override
+    public SaltReturnResponse extractResponse(String rawResponse) throws SaltReturnResponseParseException {
+        return handleReturn(MinionReturn.fromJson(rawResponse));
+    }
+
+    @Override
+    public SaltReturnResponse handleReturn(MinionReturn minionReturn) throws SaltReturnResponseParseException {
+        SaltReturnResponseListener listener = new SaltReturnResponseListener();
+        handleReturn(minionReturn, listener);
+        return listener.getResponse();
+    }
+
+    /**
+     * Outputs failed states to stderr and changed states to stdout in the order salt ran them, followed by a
+     * summary. A return that is not a dictionary of state results holds the errors that kept salt from running the
+     * states, which are output to stderr.
+     */
+    @Override
+    public void handleReturn(MinionReturn minionReturn, SaltReturnListener listener)
+            throws SaltReturnResponseParseException {
+        String json = minionReturn.toJson();
+        if (json == null) {
+            throw new SaltReturnResponseParseException("Expected state results, found none.");
+        }
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        try {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readStates(reader, listener);
+            } else {
+                for (String error : readErrors(reader)) {
+                    listener.onStderrLine(error);
+                }
+                listener.onExitCode(failureExitCode);
+            }
+        } catch (IOException e) {
+            throw new SaltReturnResponseParseException(e);
+        } catch (IllegalStateException e) {
+            throw new SaltReturnResponseParseException(e);
+        }
+    }
+
+    protected void readStates(JsonReader reader, SaltReturnListener listener) throws IOException {
+        List<StateLine> lines = Lists.newArrayList();
+        int ok = 0;
+        int changed = 0;
+        int failed = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String stateKey = reader.nextName();
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new SaltReturnResponseParseException(String.format("Expected a result for state %s, found %s",
+                        stateKey, JsonStreams.toJson(reader)));
+            }
+            Boolean result = null;
+            String comment = null;
+            long runNum = Long.MAX_VALUE;
+            List<String> changeKeys = Collections.emptyList();
+            int changeCount = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                JsonToken token = reader.peek();
+                if (RESULT_KEY.equals(name) && token == JsonToken.BOOLEAN) {
+                    result = reader.nextBoolean();
+                } else if (COMMENT_KEY.equals(name) && token != JsonToken.NULL) {
+                    comment = token == JsonToken.STRING ? reader.nextString() : JsonStreams.toJson(reader);
+                } else if (RUN_NUM_KEY.equals(name) && token == JsonToken.NUMBER) {
+                    runNum = reader.nextLong();
+                } else if (CHANGES_KEY.equals(name) && token == JsonToken.BEGIN_OBJECT) {
+                    changeKeys = Lists.newArrayList();
+                    changeCount = 0;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String changeKey = reader.nextName();
+                        if (changeCount++ < MAXIMUM_CHANGE_KEYS) {
+                            changeKeys.add(changeKey);
+                        }
+                        reader.skipValue();
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (Boolean.FALSE.equals(result)) {
+                failed++;
+                lines.add(new StateLine(runNum, String.format("Failed: %s: %s", describeState(stateKey),
+                        compactComment(comment)), true));
+            } else if (changeCount > 0 || result == null) {
+                changed++;
+                String changes = changeCount > changeKeys.size() ? String.format("%s, %d more", Joiner.on(", ")
+                        .join(changeKeys), changeCount - changeKeys.size()) : Joiner.on(", ").join(changeKeys);
+                lines.add(new StateLine(runNum, String.format("Changed: %s%s", describeState(stateKey),
+                        changeCount > 0 ? String.format(" [%s]", changes) : String.format(": %s",
+                                compactComment(comment))), false));
+            } else {
+                ok++;
+            }
+        }
+        reader.endObject();
+
+        Collections.sort(lines);
+        for (StateLine line : lines) {
+            if (line.failed) {
+                listener.onStderrLine(line.line);
+            } else {
+                listener.onStdoutLine(line.line);
+            }
+        }
+        listener.onStdoutLine(String.format("States: %d ok, %d changed, %d failed", ok, changed, failed));
+        listener.onExitCode(failed > 0 ? failureExitCode : 0);
+    }
+
+    /**
+     * @return the errors salt returned instead of state results, either a string or a list of them.
+     */
+    protected List<String> readErrors(JsonReader reader) throws IOException {
+        List<String> errors = Lists.newArrayList();
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                errors.add(reader.peek() == JsonToken.STRING ? reader.nextString() : JsonStreams.toJson(reader));
+            }
+            reader.endArray();
+        } else {
+            errors.add(reader.peek() == JsonToken.STRING ? reader.nextString() : JsonStreams.toJson(reader));
+        }
+        return errors;
+    }
+
+    /**
+     * @return the state module and function followed by the state id, e.g. pkg.installed vim, for a state key of
+     *         the form module_|-id_|-name_|-function.
+     */
+    protected String describeState(String stateKey) {
+        String[] parts = STATE_KEY_SEPARATOR.split(stateKey, -1);
+        if (parts.length != 4) {
+            return stateKey;
+        }
+        String description = String.format("%s.%s %s", parts[0], parts[3], parts[1]);
+        return parts[1].equals(parts[2]) ? description : String.format("%s (%s)", description, parts[2]);
+    }
+
+    protected String compactComment(String comment) {
+        if (comment == null) {
+            return "no comment";
+        }
+        String compact = comment.replaceAll("\\s*\\n\\s*", " ").trim();
+        return compact.length() > MAXIMUM_COMMENT_LENGTH ? compact.substring(0, MAXIMUM_COMMENT_LENGTH) + "..."
+                : compact;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Sizes successive batches of minions from the latency and failure rate observed on previous batches.
+ *
+ * Batches grow additively by the initial size while minions respond in time and succeed, and are halved as soon
+ * as a batch is slower than the target latency or fails more often than allowed.
+ */
+public class AdaptiveBatchSizer {
+
+    protected final int initialSize;
+    protected final int minimumSize;
+    protected final int maximumSize;
+    protected final long targetLatency;
+    protected final double maximumFailureRate;
+
+    protected int batchSize;
+
+    /**
+     * @param initialSize The size of the first batch and the amount successive batches grow by.
+     * @param maximumSize The largest batch that will be handed out.
+     * @param targetLatency The longest a batch may take (in ms) before the batch size is reduced.
+     * @param maximumFailureRate The fraction of failed minions in a batch above which the batch size is reduced.
+     */
+    public AdaptiveBatchSizer(int initialSize, int maximumSize, long targetLatency, double maximumFailureRate) {
+        Preconditions.checkArgument(initialSize > 0, "initial batch size must be positive");
+        Preconditions.checkArgument(maximumSize > 0, "maximum batch size must be positive");
+        this.minimumSize = 1;
+        this.maximumSize = maximumSize;
+        this.initialSize = Math.min(initialSize, maximumSize);
+        this.targetLatency = targetLatency;
+        this.maximumFailureRate = maximumFailureRate;
+        this.batchSize = this.initialSize;
+    }
+
+    /**
+     * @return the number of minions to include in the next batch.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Records the outcome of a batch and adjusts the size of the next one.
+     *
+     * @param minions The number of minions in the batch.
+     * @param failures The number of those minions that failed or did not return.
+     * @param latency How long the batch took (in ms).
+     */
+    public void record(int minions, int failures, long latency) {
+        if (minions <= 0) {
+            return;
+        }
+        double failureRate = (double) failures / minions;
+        if (failureRate > maximumFailureRate || latency > targetLatency) {
+            batchSize = Math.max(minimumSize, batchSize / 2);
+        } else {
+            batchSize = Math.min(maximumSize, batchSize + initialSize);
+        }
+    }
+}
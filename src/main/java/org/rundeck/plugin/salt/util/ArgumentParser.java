@@ -27,7 +27,10 @@
 package org.rundeck.plugin.salt.util;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -46,6 +49,7 @@ public class ArgumentParser {
     protected static final char DEFAULT_ESCAPE_CHARACTER = '\\';
 
     protected final String separatorCharSetRegex;
+    protected final BitSet separators;
     protected final char[] quoteCharacters;
     protected final char escapeCharacter;
 
@@ -73,11 +77,27 @@ public class ArgumentParser {
         }
         Arrays.sort(quoteCharacters);
         this.separatorCharSetRegex = separatorCharSetRegex;
+        this.separators = compileSeparators(separatorCharSetRegex);
         this.quoteCharacters = quoteCharacters;
         this.escapeCharacter = escapeCharacter;
 
     }
 
+    /**
+     * @return the set of characters matched by the given character set regex, so that parsing looks separators up
+     *         instead of matching the regex once per character.
+     */
+    protected static BitSet compileSeparators(String separatorCharSetRegex) {
+        Matcher matcher = Pattern.compile(separatorCharSetRegex).matcher("");
+        BitSet separators = new BitSet(Character.MAX_VALUE + 1);
+        for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+            if (matcher.reset(String.valueOf((char) c)).matches()) {
+                separators.set(c);
+            }
+        }
+        return separators;
+    }
+
     /**
      * Parses the given line and returns all non-empty segments.
      * 
@@ -86,58 +106,47 @@ public class ArgumentParser {
      */
     public List<String> parse(String line) {
         boolean inQuote = false;
-        Character lastQuote = null;
+        char lastQuote = 0;
 
-        List<String> results = Lists.newLinkedList();
-        StringBuilder currentSegment = new StringBuilder();
+        List<String> results = Lists.newArrayList();
+        Segment currentSegment = new Segment(line);
 
         for (int i = 0; i < line.length(); i++) {
             char currentChar = line.charAt(i);
             // If this character is an escape and the next character is a valid quote, then add the quote character to the current segment
             if (currentChar == escapeCharacter && i + 1 < line.length() && isQuote(line.charAt(i + 1))) {
-                currentSegment.append(line.charAt(++i));
+                currentSegment.appendEscaped(i, line.charAt(++i));
             } else if (isQuote(currentChar)) {
                 if (inQuote) {
                     // If segment is quoted and this is a closing quote, then close off this segment
                     if (lastQuote == currentChar) {
-                        lastQuote = null;
+                        lastQuote = 0;
                         inQuote = false;
-                        if (currentSegment.length() > 0) {
-                            results.add(currentSegment.toString());
-                            currentSegment = new StringBuilder();
-                        }
+                        currentSegment.end(i, results);
                     } else {
                         // Otherwise, this is a quote character that wasn't used to open this segment so just add it.
-                        currentSegment.append(currentChar);
+                        currentSegment.append(i);
                     }
                 } else {
                     // If not currently in a quote, open a new segment
-                    if (currentSegment.length() > 0) {
-                        results.add(currentSegment.toString());
-                        currentSegment = new StringBuilder();
-                    }
+                    currentSegment.end(i, results);
                     lastQuote = currentChar;
                     inQuote = true;
                 }
-            } else if (String.valueOf(currentChar).matches(separatorCharSetRegex)) {
+            } else if (isSeparator(currentChar)) {
                 // If this is a separator, separate the segment if not in quotes
                 if (inQuote) {
-                    currentSegment.append(currentChar);
+                    currentSegment.append(i);
                 } else {
-                    if (currentSegment.length() > 0) {
-                        results.add(currentSegment.toString());
-                        currentSegment = new StringBuilder();
-                    }
+                    currentSegment.end(i, results);
                 }
             } else {
                 // Otherwise, this is a regular character, just add to current segment
-                currentSegment.append(currentChar);
+                currentSegment.append(i);
             }
         }
         
-        if (currentSegment.length() > 0) {
-            results.add(currentSegment.toString());
-        }
+        currentSegment.end(line.length(), results);
         
         if (inQuote) {
             throw new IllegalArgumentException("Quotes are unbalanced.");
@@ -149,4 +158,59 @@ public class ArgumentParser {
     protected boolean isQuote(char c) {
         return Arrays.binarySearch(quoteCharacters, c) >= 0;
     }
+
+    protected boolean isSeparator(char c) {
+        return separators.get(c);
+    }
+
+    /**
+     * The segment being parsed. Segments are kept as offsets into the line and cut out of it with a single
+     * substring, only segments containing escaped quotes are copied character by character.
+     */
+    protected static class Segment {
+        protected final String line;
+        protected int start = -1;
+        protected StringBuilder escaped;
+
+        protected Segment(String line) {
+            this.line = line;
+        }
+
+        /**
+         * Adds the line's character at the given index, which follows the segment's last character.
+         */
+        protected void append(int index) {
+            if (escaped != null) {
+                escaped.append(line.charAt(index));
+            } else if (start < 0) {
+                start = index;
+            }
+        }
+
+        /**
+         * Adds the given escaped character in place of the escape sequence starting at the given index.
+         */
+        protected void appendEscaped(int index, char c) {
+            if (escaped == null) {
+                escaped = new StringBuilder();
+                if (start >= 0) {
+                    escaped.append(line, start, index);
+                }
+            }
+            escaped.append(c);
+        }
+
+        /**
+         * Adds the segment ending before the given index to the results if it is not empty and starts a new one.
+         */
+        protected void end(int index, List<String> results) {
+            if (escaped != null) {
+                results.add(escaped.toString());
+                escaped = null;
+            } else if (start >= 0) {
+                results.add(line.substring(start, index));
+            }
+            start = -1;
+        }
+    }
 }
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time budget of the step executing on the current thread. Http requests, retry waits and poll waits made on
+ * behalf of a step consult the current deadline, so that none of them outlives what is left of the step's budget.
+ */
+public class Deadline {
+
+    protected static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+    // Deadline of threads that never started one
+    protected static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+    protected final long expiresAt;
+
+    protected Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Starts a deadline for the current thread that expires after the given budget, replacing any current one.
+     * 
+     * @param budget The time (in ms) until the deadline expires.
+     * @return the started deadline.
+     */
+    public static Deadline start(long budget) {
+        Deadline deadline = new Deadline(System.currentTimeMillis() + budget);
+        CURRENT.set(deadline);
+        return deadline;
+    }
+
+    /**
+     * @return the current thread's deadline, an unbounded one if none was started.
+     */
+    public static Deadline current() {
+        Deadline deadline = CURRENT.get();
+        return deadline == null ? NONE : deadline;
+    }
+
+    /**
+     * Makes the given deadline, e.g. one previously returned by {@link #current()}, the current thread's deadline.
+     */
+    public static void restore(Deadline deadline) {
+        if (deadline == NONE) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(deadline);
+        }
+    }
+
+    /**
+     * Removes the current thread's deadline.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @return false if this deadline never expires.
+     */
+    public boolean isBounded() {
+        return expiresAt != Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the time (in ms) until this deadline expires, 0 once it has and Long.MAX_VALUE if it is unbounded.
+     */
+    public long remaining() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, expiresAt - System.currentTimeMillis());
+    }
+
+    /**
+     * @throws DeadlineExceededException if this deadline has expired.
+     */
+    public void check() throws DeadlineExceededException {
+        if (remaining() <= 0) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    /**
+     * Waits for the given latch to count down, but never past this deadline.
+     * 
+     * @throws DeadlineExceededException if this deadline expired first.
+     */
+    public void await(CountDownLatch latch) throws InterruptedException {
+        if (!latch.await(remaining(), TimeUnit.MILLISECONDS)) {
+            throw new DeadlineExceededException();
+        }
+    }
+}
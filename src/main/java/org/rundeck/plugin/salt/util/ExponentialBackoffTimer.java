@@ -64,10 +64,15 @@ public class ExponentialBackoffTimer {
      * 
      *  Uses the default E(c) = (2^x-1)/2 formula.
      *  
+     *  Never sleeps past the current {@link Deadline}.
+     *  
      *  @throws InterruptedException if the thread is interrupted.
+     *  @throws DeadlineExceededException if the current deadline expired.
      */
     public void waitForNext() throws InterruptedException {
-        sleep(nextSleepAmount);
+        Deadline deadline = Deadline.current();
+        deadline.check();
+        sleep(Math.min(nextSleepAmount, deadline.remaining()));
         if (nextSleepAmount < maximumDelay) {
             nextSleepAmount = (long) ((Math.pow(2, ++count) - 1) / 2D * delayStep);
         }
@@ -76,6 +81,7 @@ public class ExponentialBackoffTimer {
             Thread.currentThread().interrupt();
             throw new InterruptedException();
         }
+        deadline.check();
     }
 
     protected void sleep(long l) throws InterruptedException {
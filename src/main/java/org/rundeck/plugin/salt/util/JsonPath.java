@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * A compiled path to values in a json document, e.g. $.retcode or $.data.*.comment. Paths start at the root ($)
+ * and descend through object keys (.key or ['key']), array indexes ([0]) or any key or index (.* or [*]).
+ * Values are extracted from a {@link JsonReader} in a single forward pass, without building a tree of the
+ * document.
+ */
+public class JsonPath {
+
+    /**
+     * A single step of a path, matching an object key, an array index or any of them.
+     */
+    protected static class Segment {
+        protected final String name;
+        protected final int index;
+
+        protected Segment(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        protected boolean isWildcard() {
+            return name == null && index < 0;
+        }
+
+        protected boolean matchesName(String key) {
+            return isWildcard() || key.equals(name);
+        }
+
+        protected boolean matchesIndex(int i) {
+            return isWildcard() || i == index;
+        }
+
+        @Override
+        public String toString() {
+            if (isWildcard()) {
+                return ".*";
+            }
+            return name == null ? "[" + index + "]" : "['" + name + "']";
+        }
+    }
+
+    protected static final Segment WILDCARD = new Segment(null, -1);
+
+    protected final String expression;
+    protected final List<Segment> segments;
+
+    protected JsonPath(String expression, List<Segment> segments) {
+        this.expression = expression;
+        this.segments = segments;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if the expression is not a valid path.
+     */
+    public static JsonPath compile(String expression) {
+        if (expression == null || !expression.startsWith("$")) {
+            throw new IllegalArgumentException(String.format("Expected a path starting with $, found %s",
+                    expression));
+        }
+        List<Segment> segments = Lists.newArrayList();
+        int position = 1;
+        while (position < expression.length()) {
+            char c = expression.charAt(position);
+            if (c == '.') {
+                int end = position + 1;
+                while (end < expression.length() && expression.charAt(end) != '.' && expression.charAt(end) != '[') {
+                    end++;
+                }
+                String name = expression.substring(position + 1, end);
+                if (name.isEmpty()) {
+                    throw invalid(expression, position);
+                }
+                segments.add("*".equals(name) ? WILDCARD : new Segment(name, -1));
+                position = end;
+            } else if (c == '[') {
+                int end = expression.indexOf(']', position);
+                if (end < 0) {
+                    throw invalid(expression, position);
+                }
+                segments.add(compileBracket(expression, position, expression.substring(position + 1, end)));
+                position = end + 1;
+            } else {
+                throw invalid(expression, position);
+            }
+        }
+        return new JsonPath(expression, Collections.unmodifiableList(segments));
+    }
+
+    protected static Segment compileBracket(String expression, int position, String content) {
+        if ("*".equals(content)) {
+            return WILDCARD;
+        }
+        if (content.length() >= 2 && (content.charAt(0) == '\'' || content.charAt(0) == '"')
+                && content.charAt(content.length() - 1) == content.charAt(0)) {
+            return new Segment(content.substring(1, content.length() - 1), -1);
+        }
+        try {
+            int index = Integer.parseInt(content);
+            if (index >= 0) {
+                return new Segment(null, index);
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw invalid(expression, position);
+    }
+
+    protected static IllegalArgumentException invalid(String expression, int position) {
+        return new IllegalArgumentException(String.format("Invalid path %s at position %d", expression, position));
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Extracts the values matched by each of the given paths in one pass over the reader's next value. Strings,
+     * numbers and booleans are extracted as text, objects and arrays as json and nulls as null.
+     * 
+     * @return the values matched by each path, in the order of the paths and, per path, in document order.
+     */
+    public static List<List<String>> extract(JsonReader reader, List<JsonPath> paths) throws IOException {
+        List<List<String>> matches = Lists.newArrayListWithCapacity(paths.size());
+        List<Integer> candidates = Lists.newArrayListWithCapacity(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            matches.add(Lists.<String> newArrayList());
+            candidates.add(i);
+        }
+        extract(reader, paths, candidates, 0, matches);
+        return matches;
+    }
+
+    protected static void extract(JsonReader reader, List<JsonPath> paths, List<Integer> candidates, int depth,
+            List<List<String>> matches) throws IOException {
+        List<Integer> matched = Lists.newArrayList();
+        List<Integer> descending = Lists.newArrayList();
+        JsonToken token = reader.peek();
+        boolean container = token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY;
+        for (Integer candidate : candidates) {
+            if (paths.get(candidate).segments.size() == depth) {
+                matched.add(candidate);
+            } else if (container) {
+                descending.add(candidate);
+            }
+        }
+
+        if (matched.isEmpty()) {
+            if (descending.isEmpty()) {
+                reader.skipValue();
+            } else {
+                extractChildren(reader, paths, descending, depth, matches);
+            }
+            return;
+        }
+
+        String value = readValue(reader);
+        for (Integer candidate : matched) {
+            matches.get(candidate).add(value);
+        }
+        if (!descending.isEmpty()) {
+            // Another path continues below the matched value, so it is walked again from its json
+            JsonReader valueReader = new JsonReader(new StringReader(value));
+            valueReader.setLenient(true);
+            extractChildren(valueReader, paths, descending, depth, matches);
+        }
+    }
+
+    protected static void extractChildren(JsonReader reader, List<JsonPath> paths, List<Integer> candidates,
+            int depth, List<List<String>> matches) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                List<Integer> next = Lists.newArrayListWithCapacity(candidates.size());
+                for (Integer candidate : candidates) {
+                    if (paths.get(candidate).segments.get(depth).matchesName(name)) {
+                        next.add(candidate);
+                    }
+                }
+                if (next.isEmpty()) {
+                    reader.skipValue();
+                } else {
+                    extract(reader, paths, next, depth + 1, matches);
+                }
+            }
+            reader.endObject();
+        } else {
+            reader.beginArray();
+            for (int i = 0; reader.hasNext(); i++) {
+                List<Integer> next = Lists.newArrayListWithCapacity(candidates.size());
+                for (Integer candidate : candidates) {
+                    if (paths.get(candidate).segments.get(depth).matchesIndex(i)) {
+                        next.add(candidate);
+                    }
+                }
+                if (next.isEmpty()) {
+                    reader.skipValue();
+                } else {
+                    extract(reader, paths, next, depth + 1, matches);
+                }
+            }
+            reader.endArray();
+        }
+    }
+
+    protected static String readValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+        case STRING:
+        case NUMBER:
+            return reader.nextString();
+        case BOOLEAN:
+            return String.valueOf(reader.nextBoolean());
+        case NULL:
+            reader.nextNull();
+            return null;
+        default:
+            return JsonStreams.toJson(reader);
+        }
+    }
+}
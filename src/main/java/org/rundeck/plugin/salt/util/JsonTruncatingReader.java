@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.BitSet;
+
+/**
+ * Reads json text from another reader, keeping only the head and tail of long string values and replacing the
+ * middle with a note of how much was omitted and where the full output can be found. Strings are cut down as they
+ * are read, so no more than the head and tail of a string is ever held in memory. Object names are passed through
+ * whole.
+ * 
+ * Lengths are counted in characters of the json text, an escape sequence counting as a single character that is
+ * never split. Instances count what they truncated and are not thread safe.
+ */
+public class JsonTruncatingReader extends Reader {
+
+    protected static final String OMISSION_FORMAT = "\n... [%d characters omitted, full output in %s] ...\n";
+
+    protected final Reader in;
+    protected final char[] chunk = new char[8192];
+    protected final int headLength;
+    protected final String location;
+    protected int truncatedValues;
+
+    // -- Text read and not yet returned --
+    protected final StringBuilder pending = new StringBuilder();
+    protected int pendingOffset;
+    protected boolean endOfInput;
+
+    // -- Containers enclosing the current position, set bits are objects --
+    protected final BitSet objects = new BitSet();
+    protected int depth;
+    protected boolean expectName;
+
+    // -- The string value being read --
+    protected boolean inString;
+    protected boolean inName;
+    protected boolean afterBackslash;
+    protected int escapeRemaining;
+    protected int headRead;
+    protected boolean inHead;
+    protected long omitted;
+
+    // -- Tail of the string value being read, flags mark the characters that start an escape sequence or character --
+    protected final char[] tail;
+    protected final boolean[] tailStarts;
+    protected int tailStart;
+    protected int tailCount;
+
+    /**
+     * @param headLength
+     *            The number of characters kept from the start of each string value.
+     * @param tailLength
+     *            The number of characters kept from the end of each string value.
+     * @param location
+     *            Where the full output can be found.
+     */
+    public JsonTruncatingReader(Reader in, int headLength, int tailLength, String location) {
+        this.in = in;
+        this.headLength = headLength;
+        this.location = location;
+        this.tail = new char[tailLength];
+        this.tailStarts = new boolean[tailLength];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (pendingOffset == pending.length()) {
+            pending.setLength(0);
+            pendingOffset = 0;
+            if (endOfInput) {
+                return -1;
+            }
+            fill();
+        }
+        int count = Math.min(len, pending.length() - pendingOffset);
+        pending.getChars(pendingOffset, pendingOffset + count, cbuf, off);
+        pendingOffset += count;
+        return count;
+    }
+
+    /**
+     * Reads a chunk of the underlying reader, appending what is to be returned of it to pending.
+     */
+    protected void fill() throws IOException {
+        int count = in.read(chunk);
+        if (count < 0) {
+            endOfInput = true;
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            if (inString) {
+                readStringCharacter(chunk[i]);
+            } else {
+                readStructureCharacter(chunk[i]);
+            }
+        }
+    }
+
+    protected void readStructureCharacter(char c) {
+        pending.append(c);
+        switch (c) {
+        case '{':
+            objects.set(depth++);
+            expectName = true;
+            break;
+        case '[':
+            objects.clear(depth++);
+            expectName = false;
+            break;
+        case '}':
+        case ']':
+            depth = Math.max(depth - 1, 0);
+            expectName = false;
+            break;
+        case ':':
+            expectName = false;
+            break;
+        case ',':
+            expectName = depth > 0 && objects.get(depth - 1);
+            break;
+        case '"':
+            inString = true;
+            inName = expectName;
+            inHead = true;
+            headRead = 0;
+            omitted = 0;
+            tailStart = 0;
+            tailCount = 0;
+            break;
+        default:
+            break;
+        }
+    }
+
+    protected void readStringCharacter(char c) {
+        boolean characterStart = !afterBackslash && escapeRemaining == 0;
+        if (afterBackslash) {
+            afterBackslash = false;
+            escapeRemaining = c == 'u' ? 4 : 0;
+        } else if (escapeRemaining > 0) {
+            escapeRemaining--;
+        } else if (c == '\\') {
+            afterBackslash = true;
+        } else if (c == '"') {
+            endString();
+            return;
+        }
+
+        if (inName) {
+            pending.append(c);
+            return;
+        }
+        if (inHead && characterStart && headRead >= headLength) {
+            inHead = false;
+        }
+        if (inHead) {
+            pending.append(c);
+            if (characterStart) {
+                headRead++;
+            }
+            return;
+        }
+        if (tail.length == 0) {
+            if (characterStart) {
+                omitted++;
+            }
+            return;
+        }
+        if (tailCount == tail.length) {
+            // The oldest tail character is omitted
+            if (tailStarts[tailStart]) {
+                omitted++;
+            }
+            tail[tailStart] = c;
+            tailStarts[tailStart] = characterStart;
+            tailStart = (tailStart + 1) % tail.length;
+        } else {
+            tail[(tailStart + tailCount) % tail.length] = c;
+            tailStarts[(tailStart + tailCount) % tail.length] = characterStart;
+            tailCount++;
+        }
+    }
+
+    protected void endString() {
+        inString = false;
+        if (!inName) {
+            int skip = 0;
+            if (omitted > 0) {
+                truncatedValues++;
+                // The tail may start within an escape sequence whose start was omitted
+                while (skip < tailCount && !tailStarts[(tailStart + skip) % tail.length]) {
+                    skip++;
+                }
+                appendEscaped(String.format(OMISSION_FORMAT, omitted, location));
+            }
+            for (int i = skip; i < tailCount; i++) {
+                pending.append(tail[(tailStart + i) % tail.length]);
+            }
+        }
+        pending.append('"');
+    }
+
+    protected void appendEscaped(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\n') {
+                pending.append("\\n");
+            } else if (c == '"' || c == '\\') {
+                pending.append('\\').append(c);
+            } else if (c < 0x20) {
+                pending.append(String.format("\\u%04x", (int) c));
+            } else {
+                pending.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return the number of string values that were truncated.
+     */
+    public int getTruncatedValues() {
+        return truncatedValues;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -37,6 +37,8 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -80,6 +82,8 @@ public class RetryingHttpClientExecutor {
      * This method will not try to distinguish between idempotent and non-idempotent requests. If
      * a caller is using this executor, the request will be retried.
      * 
+     * No attempt or wait between attempts outlives the current {@link Deadline}.
+     * 
      * @param log
      *            a {@link LogWrapper} instance to use for logging
      * @param client
@@ -91,6 +95,8 @@ public class RetryingHttpClientExecutor {
      * @param statusCodePredicate
      *            a predicate that is invoked after a non successful (i.e. non 2XX or 3XX)
      *            request to determine whether it should proceed. true means continue, false means abort.
+     * @throws DeadlineExceededException
+     *            if the current deadline expired before a response was received.
      */
     public HttpResponse execute(LogWrapper log, HttpClient client, HttpUriRequest request, int retryCount,
             Predicate<Integer> statusCodePredicate) throws IOException, InterruptedException {
@@ -99,8 +105,11 @@ public class RetryingHttpClientExecutor {
         int count = 0;
         HttpResponse lastResponse = null;
         IOException lastException = null;
+        Deadline deadline = Deadline.current();
         while (count++ < retryCount) {
             lastResponse = null;
+            deadline.check();
+            applyDeadline(request, deadline);
             try {
                 lastResponse = client.execute(request);
                 int code = lastResponse.getStatusLine().getStatusCode();
@@ -133,12 +142,28 @@ public class RetryingHttpClientExecutor {
             }
         }
         if (lastResponse == null) {
+            // A timeout caused by the deadline is reported as such rather than as an i/o failure.
+            deadline.check();
             throw lastException;
         } else {
             return lastResponse;
         }
     }
 
+    /**
+     * Limits the time the given request may take to connect and wait for data to the time remaining until the
+     * given deadline.
+     */
+    protected void applyDeadline(HttpUriRequest request, Deadline deadline) {
+        if (!deadline.isBounded()) {
+            return;
+        }
+        int timeout = (int) Math.max(1, Math.min(Integer.MAX_VALUE, deadline.remaining()));
+        HttpParams params = request.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, timeout);
+        HttpConnectionParams.setSoTimeout(params, timeout);
+    }
+
     protected boolean isSuccessfulStatusCode(int code) {
         int codeClass = code / 100;
         return codeClass != 4 && codeClass != 5;
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Buffers bytes in memory up to a threshold, past which the buffered bytes and everything written after them are
+ * spilled to a temporary file. This bounds the heap used to hold a response of any size.
+ */
+public class SpillBuffer extends OutputStream {
+
+    protected static final String SPILL_FILE_PREFIX = "salt-response";
+    protected static final String SPILL_FILE_SUFFIX = ".json";
+
+    /**
+     * Exposes the backing array so reading the buffer back does not copy it.
+     */
+    protected static class Memory extends ByteArrayOutputStream {
+        public InputStream openInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    protected final int threshold;
+    protected final File directory;
+    protected Memory memory = new Memory();
+    protected File file;
+    protected OutputStream fileOut;
+    protected long length;
+
+    /**
+     * @param threshold
+     *            The number of bytes kept in memory before spilling to disk.
+     * @param directory
+     *            The directory to spill to, or null for the system temporary directory.
+     */
+    public SpillBuffer(int threshold, File directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (file == null && length + len > threshold) {
+            spill();
+        }
+        if (file == null) {
+            memory.write(b, off, len);
+        } else {
+            fileOut.write(b, off, len);
+        }
+        length += len;
+    }
+
+    protected void spill() throws IOException {
+        file = File.createTempFile(SPILL_FILE_PREFIX, SPILL_FILE_SUFFIX, directory);
+        fileOut = new BufferedOutputStream(new FileOutputStream(file));
+        memory.writeTo(fileOut);
+        memory = null;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (fileOut != null) {
+            fileOut.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileOut != null) {
+            fileOut.close();
+        }
+    }
+
+    /**
+     * Closes the buffer to further writes and reads back everything written to it.
+     */
+    public InputStream openInputStream() throws IOException {
+        close();
+        return file == null ? memory.openInputStream() : new BufferedInputStream(new FileInputStream(file));
+    }
+
+    /**
+     * @return true if the buffer exceeded its threshold and was written to disk.
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * @return the file the buffer spilled to, or null if it is held in memory.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Deletes the files other buffers spilled to in the directory this buffer spilled to that were last modified
+     * longer than the given time ago. Does nothing if this buffer has not spilled.
+     * 
+     * @param retention
+     *            Time in ms that spilled files are kept.
+     * @return the number of files deleted.
+     */
+    public int deleteExpiredFiles(long retention) {
+        File[] files = file == null ? null : file.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long expiry = System.currentTimeMillis() - retention;
+        int deleted = 0;
+        for (File spilled : files) {
+            String name = spilled.getName();
+            if (name.startsWith(SPILL_FILE_PREFIX) && name.endsWith(SPILL_FILE_SUFFIX) && !name.equals(file.getName())
+                    && spilled.isFile() && spilled.lastModified() < expiry && spilled.delete()) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Releases the buffer, deleting the file it spilled to if any.
+     */
+    public void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Deleting regardless
+        }
+        if (file != null) {
+            file.delete();
+        }
+        memory = null;
+    }
+}
@@ -1,14 +1,17 @@
 package org.rundeck.plugin.salt.version;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.List;
-import java.util.Map;
 
 import org.rundeck.plugin.salt.SaltApiException;
 import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutputAdapter;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.common.collect.Lists;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 /**
  * The latest incarnation of the interaction handler.
@@ -16,8 +19,7 @@ import com.google.gson.reflect.TypeToken;
 public class LatestSaltInteractionHandler implements SaltInteractionHandler {
 
     protected static final String SALT_OUTPUT_RETURN_KEY = "return";
-    protected static final Type MINION_RESPONSE_TYPE = new TypeToken<Map<String, Object>>() {}.getType();
-    protected static final Type LIST_OF_SALT_API_RESPONSE_TYPE = new TypeToken<List<SaltApiResponseOutput>>() {}.getType();
+    protected static final TypeAdapter<SaltApiResponseOutput> OUTPUT_ADAPTER = new SaltApiResponseOutputAdapter();
 
     @Override
     public SaltApiResponseOutput extractOutputForJobSubmissionResponse(String json) throws SaltApiException {
@@ -26,14 +28,66 @@ public class LatestSaltInteractionHandler implements SaltInteractionHandler {
          * "/jobs/20130903200912838566"}]}, "return": [{"jid":
          * "20130903200912838566", "minions": ["host1", "host2"]}]}
          */
-        Gson gson = new Gson();
-        Map<String, Object> responses = gson.fromJson(json, MINION_RESPONSE_TYPE);
-        List<SaltApiResponseOutput> saltOutputs = gson.fromJson(responses.get(SALT_OUTPUT_RETURN_KEY).toString(),
-                                                                LIST_OF_SALT_API_RESPONSE_TYPE);
-        if (saltOutputs.size() != 1) {
+        List<SaltApiResponseOutput> saltOutputs = readReturn(json);
+        if (saltOutputs == null || saltOutputs.size() != 1) {
             throw new SaltApiException(String.format("Could not understand salt response %s", json));
         }
         
         return saltOutputs.get(0);
     }
+
+    @Override
+    public List<SaltApiResponseOutput> extractOutputsForLowstateBatchResponse(String json) throws SaltApiException {
+        /**
+         * The response looks like: {"return": [{"jid": "20130903200912838566", "minions": ["host1"]},
+         * {"jid": "20130903200912838567", "minions": ["host2"]}]}
+         */
+        List<SaltApiResponseOutput> saltOutputs = readReturn(json);
+        if (saltOutputs == null) {
+            throw new SaltApiException(String.format("Could not understand salt response %s", json));
+        }
+        return saltOutputs;
+    }
+
+    /**
+     * Decodes the return array of the given response in a single pass, skipping every other field.
+     * 
+     * @return the decoded outputs, or null if the response has no return array.
+     */
+    protected List<SaltApiResponseOutput> readReturn(String json) throws SaltApiException {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                return null;
+            }
+            List<SaltApiResponseOutput> saltOutputs = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (SALT_OUTPUT_RETURN_KEY.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    saltOutputs = Lists.newArrayList();
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        saltOutputs.add(readOutput(reader, json));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return saltOutputs;
+        } catch (IOException e) {
+            throw new SaltApiException(String.format("Could not understand salt response %s", json), e);
+        } catch (IllegalStateException e) {
+            throw new SaltApiException(String.format("Could not understand salt response %s", json), e);
+        }
+    }
+
+    /**
+     * Decodes a single element of the return array.
+     */
+    protected SaltApiResponseOutput readOutput(JsonReader reader, String json) throws IOException, SaltApiException {
+        return OUTPUT_ADAPTER.read(reader);
+    }
 }
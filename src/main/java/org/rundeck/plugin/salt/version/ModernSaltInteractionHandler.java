@@ -0,0 +1,38 @@
+package org.rundeck.plugin.salt.version;
+
+import java.io.IOException;
+
+import org.apache.commons.lang.StringUtils;
+import org.rundeck.plugin.salt.SaltApiException;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The interaction handler for salt-api as shipped with salt since 2014.7.
+ * 
+ * The response envelope is the same as {@link LatestSaltInteractionHandler}, but a chunk that targeted no minions
+ * returns an empty string or null instead of a job, and a chunk salt refused returns the reason as a string.
+ */
+public class ModernSaltInteractionHandler extends LatestSaltInteractionHandler {
+
+    @Override
+    protected SaltApiResponseOutput readOutput(JsonReader reader, String json) throws IOException, SaltApiException {
+        /**
+         * The response looks like: {"return": [{"jid": "20140903200912838566", "minions": ["host1"]}, ""],
+         * "_links": {"jobs": [{"href": "/jobs/20140903200912838566"}]}}
+         */
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return new SaltApiResponseOutput();
+        } else if (reader.peek() == JsonToken.STRING) {
+            String message = reader.nextString();
+            if (StringUtils.isBlank(message)) {
+                return new SaltApiResponseOutput();
+            }
+            throw new SaltApiException(String.format("salt-api refused the job submission: %s", message));
+        }
+        return super.readOutput(reader, json);
+    }
+}
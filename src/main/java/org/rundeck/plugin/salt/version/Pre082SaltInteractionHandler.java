@@ -1,14 +1,16 @@
 package org.rundeck.plugin.salt.version;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.List;
-import java.util.Map;
 
 import org.rundeck.plugin.salt.SaltApiException;
 import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutputAdapter;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.common.collect.Lists;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
 
 /**
  * The interaction handler responsible for dealing with salt-api responses pre
@@ -19,7 +21,7 @@ import com.google.gson.reflect.TypeToken;
 public class Pre082SaltInteractionHandler implements SaltInteractionHandler {
     
     protected static final String SALT_OUTPUT_RETURN_KEY = "return";
-    protected static final Type MINION_RESPONSE_TYPE = new TypeToken<List<Map<String, Object>>>() {}.getType();
+    protected static final TypeAdapter<SaltApiResponseOutput> OUTPUT_ADAPTER = new SaltApiResponseOutputAdapter();
     
     @Override
     public SaltApiResponseOutput extractOutputForJobSubmissionResponse(String json) throws SaltApiException {
@@ -27,12 +29,38 @@ public class Pre082SaltInteractionHandler implements SaltInteractionHandler {
          * The response looks like: 
          * [ { "return": { "jid" : "<jid>", "minions" : ["host1", "host2"] } } ]
          */
-        Gson gson = new Gson();
-        List<Map<String, Object>> responses = gson.fromJson(json, MINION_RESPONSE_TYPE);
-        if (responses.size() != 1) {
-            throw new SaltApiException(String.format("Could not understand salt response %s", json));
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        try {
+            List<SaltApiResponseOutput> saltOutputs = Lists.newArrayList();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                SaltApiResponseOutput saltOutput = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (SALT_OUTPUT_RETURN_KEY.equals(reader.nextName())) {
+                        saltOutput = OUTPUT_ADAPTER.read(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                saltOutputs.add(saltOutput);
+            }
+            reader.endArray();
+            if (saltOutputs.size() != 1 || saltOutputs.get(0) == null) {
+                throw new SaltApiException(String.format("Could not understand salt response %s", json));
+            }
+            return saltOutputs.get(0);
+        } catch (IOException e) {
+            throw new SaltApiException(String.format("Could not understand salt response %s", json), e);
+        } catch (IllegalStateException e) {
+            throw new SaltApiException(String.format("Could not understand salt response %s", json), e);
         }
-        Map<String, Object> responseMap = responses.get(0);
-        return gson.fromJson(responseMap.get(SALT_OUTPUT_RETURN_KEY).toString(), SaltApiResponseOutput.class);
+    }
+
+    @Override
+    public List<SaltApiResponseOutput> extractOutputsForLowstateBatchResponse(String json) throws SaltApiException {
+        throw new SaltApiException("Lowstate batches are not supported before salt-api 0.8.2");
     }
 }
@@ -64,6 +64,31 @@ public class SaltApiCapability implements Cloneable {
             return this;
         }
         
+        public Builder supportsSynchronousExecution() {
+            origin.supportsSynchronousExecution = true;
+            return this;
+        }
+        
+        public Builder supportsRunEndpoint() {
+            origin.supportsRunEndpoint = true;
+            return this;
+        }
+        
+        public Builder supportsLowstateBatches() {
+            origin.supportsLowstateBatches = true;
+            return this;
+        }
+        
+        public Builder supportsBatchClient() {
+            origin.supportsBatchClient = true;
+            return this;
+        }
+        
+        public Builder supportsPresenceQueries() {
+            origin.supportsPresenceQueries = true;
+            return this;
+        }
+        
         public Builder withSaltInteractionHandler(SaltInteractionHandler interactionHandler) {
             origin.interactionHandler = interactionHandler;
             return this;
@@ -78,6 +103,11 @@ public class SaltApiCapability implements Cloneable {
     private int loginSuccessResponseCode;
     private int loginFailureResponseCode;
     private boolean supportsLogout = false;
+    private boolean supportsSynchronousExecution = false;
+    private boolean supportsRunEndpoint = false;
+    private boolean supportsLowstateBatches = false;
+    private boolean supportsBatchClient = false;
+    private boolean supportsPresenceQueries = false;
     private SaltInteractionHandler interactionHandler;
     
     public String getId() {
@@ -96,6 +126,41 @@ public class SaltApiCapability implements Cloneable {
         return supportsLogout;
     }
     
+    /**
+     * @return true if the salt-api root resource accepts lowstate requests for the synchronous local client.
+     */
+    public boolean getSupportsSynchronousExecution() {
+        return supportsSynchronousExecution;
+    }
+    
+    /**
+     * @return true if salt-api exposes /run, which accepts eauth credentials inline with lowstate requests.
+     */
+    public boolean getSupportsRunEndpoint() {
+        return supportsRunEndpoint;
+    }
+    
+    /**
+     * @return true if salt-api accepts a json array of several lowstate chunks in a single request.
+     */
+    public boolean getSupportsLowstateBatches() {
+        return supportsLowstateBatches;
+    }
+    
+    /**
+     * @return true if salt-api exposes salt's batch mode through the local_batch client.
+     */
+    public boolean getSupportsBatchClient() {
+        return supportsBatchClient;
+    }
+    
+    /**
+     * @return true if salt-api exposes the wheel client, so accepted keys can be listed.
+     */
+    public boolean getSupportsPresenceQueries() {
+        return supportsPresenceQueries;
+    }
+    
     public SaltInteractionHandler getSaltInteractionHandler() {
         return interactionHandler;
     }
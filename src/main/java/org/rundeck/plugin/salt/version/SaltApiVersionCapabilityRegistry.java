@@ -57,7 +57,25 @@ public class SaltApiVersionCapabilityRegistry {
     public static final SaltApiCapability VERSION_0_8_2 = Builder.from(VERSION_0_8_0)
             .withId("0.8.2")
             .withSaltInteractionHandler(new LatestSaltInteractionHandler())
+            .supportsSynchronousExecution()
             .build();
+    
+    public static final SaltApiCapability VERSION_0_8_3 = Builder.from(VERSION_0_8_2)
+            .withId("0.8.3")
+            .supportsRunEndpoint()
+            .supportsLowstateBatches()
+            .supportsBatchClient()
+            .supportsPresenceQueries()
+            .build();
+
+    public static final SaltApiCapability VERSION_2014_7_0 = Builder.from(VERSION_0_8_3)
+            .withId("2014.7.0")
+            .withSaltInteractionHandler(new ModernSaltInteractionHandler())
+            .build();
+
+    // Assumed when no version is configured. Versions registered later must be asked for explicitly so that steps
+    // without a version keep their interaction handler and capabilities.
+    public static final SaltApiCapability DEFAULT_VERSION = VERSION_0_8_3;
 
     protected SortedMap<String, SaltApiCapability> versionRegistry;
 
@@ -71,6 +89,8 @@ public class SaltApiVersionCapabilityRegistry {
         register(VERSION_0_7_5);
         register(VERSION_0_8_0);
         register(VERSION_0_8_2);
+        register(VERSION_0_8_3);
+        register(VERSION_2014_7_0);
     }
 
     /**
@@ -82,6 +102,13 @@ public class SaltApiVersionCapabilityRegistry {
         return versionRegistry.get(key);
     }
 
+    /**
+     * @return the capability assumed when no version is configured
+     */
+    public SaltApiCapability getDefault() {
+        return DEFAULT_VERSION;
+    }
+
     /**
      * @return the highest versioned registered capability
      */
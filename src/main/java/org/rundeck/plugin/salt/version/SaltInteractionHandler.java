@@ -1,5 +1,7 @@
 package org.rundeck.plugin.salt.version;
 
+import java.util.List;
+
 import org.rundeck.plugin.salt.SaltApiException;
 import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
 
@@ -16,4 +18,13 @@ public interface SaltInteractionHandler {
      * @throws SaltApiException if no response is found. 
      */
     SaltApiResponseOutput extractOutputForJobSubmissionResponse(String json) throws SaltApiException;
+
+    /**
+     * Invoked to deserialize a json response for a batch of lowstate chunks submitted to an
+     * asynchronous client. The response contains one job submission per chunk.
+     * 
+     * @return the SaltApiResponseOutputs in the order the chunks were submitted
+     * @throws SaltApiException if the response could not be understood.
+     */
+    List<SaltApiResponseOutput> extractOutputsForLowstateBatchResponse(String json) throws SaltApiException;
 }
@@ -28,6 +28,7 @@ package org.rundeck.plugin.salt;
 
 import com.dtolabs.rundeck.core.common.INodeEntry;
 import com.dtolabs.rundeck.plugins.PluginLogger;
+import com.dtolabs.rundeck.plugins.descriptions.PluginProperty;
 import com.dtolabs.rundeck.plugins.step.PluginStepContext;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Maps;
@@ -46,8 +47,13 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.rundeck.plugin.salt.output.MinionReturn;
 import org.rundeck.plugin.salt.output.SaltReturnHandler;
+import org.rundeck.plugin.salt.output.SaltReturnHandlerAdapter;
 import org.rundeck.plugin.salt.output.SaltReturnHandlerRegistry;
+import org.rundeck.plugin.salt.output.SaltTreeReturnHandler;
 import org.rundeck.plugin.salt.util.ExponentialBackoffTimer;
 import org.rundeck.plugin.salt.util.ExponentialBackoffTimer.Factory;
 import org.rundeck.plugin.salt.util.HttpFactory;
@@ -55,6 +61,9 @@ import org.rundeck.plugin.salt.util.LogWrapper;
 import org.rundeck.plugin.salt.util.RetryingHttpClientExecutor;
 import org.rundeck.plugin.salt.version.SaltApiCapability;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.reflect.Field;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.util.Map;
@@ -82,7 +91,7 @@ public abstract class AbstractSaltApiNodeStepPluginTest {
     protected PluginLogger pluginLogger;
 
     // Unit under test
-    protected SaltApiNodeStepPlugin plugin;
+    protected AbstractSaltApiNodeStepPlugin plugin;
 
     // Http dependencies
     protected HttpClient client;
@@ -99,15 +108,20 @@ public abstract class AbstractSaltApiNodeStepPluginTest {
     protected Factory timerFactory;
     protected LogWrapper log;
     protected RetryingHttpClientExecutor retryingExecutor;
+    protected MinionPresenceCache presenceCache;
+    protected SaltResultCache resultCache;
+    protected RunningJobCache runningJobCache;
+    protected JidJournal jidJournal;
+    protected SaltResultArchive resultArchive;
 
     @Before
     public void setUp() {
-        plugin = new SaltApiNodeStepPlugin();
+        plugin = createPlugin();
         plugin.saltEndpoint = PARAM_ENDPOINT;
         plugin.eAuth = PARAM_EAUTH;
         plugin.function = PARAM_FUNCTION;
         plugin.setEndPointSchemes("https");
-        latestCapability = plugin.capabilityRegistry.getLatest();
+        latestCapability = plugin.capabilityRegistry.getDefault();
         client = Mockito.mock(HttpClient.class);
         post = Mockito.mock(HttpPost.class);
         get = Mockito.mock(HttpGet.class);
@@ -147,8 +161,8 @@ public abstract class AbstractSaltApiNodeStepPluginTest {
         returnHandlerRegistry = Mockito.mock(SaltReturnHandlerRegistry.class);
         plugin.returnHandlerRegistry = returnHandlerRegistry;
         returnHandler = Mockito.mock(SaltReturnHandler.class);
-        Mockito.when(returnHandlerRegistry.getHandlerFor(Mockito.anyString(), Mockito.any(SaltReturnHandler.class)))
-                .thenReturn(returnHandler);
+        Mockito.when(returnHandlerRegistry.getTreeHandlerFor(Mockito.anyString(),
+                Mockito.any(SaltTreeReturnHandler.class))).thenReturn(new SaltReturnHandlerAdapter(returnHandler));
 
         // Setup execute method's arguments
         pluginContext = Mockito.mock(PluginStepContext.class);
@@ -177,6 +191,53 @@ public abstract class AbstractSaltApiNodeStepPluginTest {
 
         retryingExecutor = Mockito.mock(RetryingHttpClientExecutor.class);
         plugin.retryExecutor = retryingExecutor;
+        plugin.gsonFactory = new SaltGsonFactory();
+        plugin.outputSpillThreshold = 1024 * 1024;
+
+        presenceCache = Mockito.mock(MinionPresenceCache.class);
+        plugin.presenceCache = presenceCache;
+
+        resultCache = Mockito.mock(SaltResultCache.class);
+        plugin.resultCache = resultCache;
+
+        runningJobCache = Mockito.mock(RunningJobCache.class);
+        plugin.runningJobCache = runningJobCache;
+        jidJournal = Mockito.mock(JidJournal.class);
+        plugin.jidJournal = jidJournal;
+        resultArchive = Mockito.mock(SaltResultArchive.class);
+        plugin.resultArchive = resultArchive;
+    }
+
+    /**
+     * @return the unit under test, tests of plugins extending the node step override this.
+     */
+    protected AbstractSaltApiNodeStepPlugin createPlugin() {
+        return new SaltApiNodeStepPlugin();
+    }
+
+    /**
+     * Asserts that rundeck offers no property with the given title for the given plugin class, i.e. that neither
+     * the class nor any of its superclasses declares such a property.
+     */
+    protected void assertNoPluginProperty(Class<?> pluginClass, String title) {
+        for (Class<?> c = pluginClass; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                PluginProperty property = field.getAnnotation(PluginProperty.class);
+                Assert.assertFalse(String.format("Expected no %s property on %s", title, pluginClass.getSimpleName()),
+                        property != null && title.equals(property.title()));
+            }
+        }
+    }
+
+    /**
+     * @return the given minion returns as json text, for comparing them against expected values.
+     */
+    protected static Map<String, String> toJson(Map<String, MinionReturn> returns) {
+        Map<String, String> json = Maps.newLinkedHashMap();
+        for (Map.Entry<String, MinionReturn> entry : returns.entrySet()) {
+            json.put(entry.getKey(), entry.getValue().toJson());
+        }
+        return json;
     }
 
     protected AbstractSaltApiNodeStepPluginTest spyPlugin() {
@@ -215,6 +276,15 @@ public abstract class AbstractSaltApiNodeStepPluginTest {
             Mockito.when(response.getStatusLine()).thenReturn(statusLine);
             Mockito.when(statusLine.getStatusCode()).thenReturn(code);
             Mockito.doReturn(responseBody).when(plugin).extractBodyFromEntity(Mockito.same(responseEntity));
+            if (responseBody != null) {
+                final byte[] content = responseBody.getBytes(SaltApiNodeStepPlugin.CHAR_SET_ENCODING);
+                Mockito.when(responseEntity.getContent()).thenAnswer(new Answer<InputStream>() {
+                    @Override
+                    public InputStream answer(InvocationOnMock invocation) {
+                        return new ByteArrayInputStream(content);
+                    }
+                });
+            }
             Mockito.when(
                     retryingExecutor.execute(Mockito.any(LogWrapper.class), Mockito.same(client), Mockito.same(method),
                             Mockito.anyInt())).thenReturn(response);
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.rundeck.plugin.salt.FleetCompletionPolicy.Decision;
+
+public class FleetCompletionPolicyTest {
+
+    @Test
+    public void testDefaultPolicyWaitsForAllMinions() {
+        FleetCompletionPolicy policy = new FleetCompletionPolicy(null, null);
+        FleetExecutionSummary summary = summary(2, 1);
+        Assert.assertEquals(Decision.UNDECIDED, policy.decide(4, summary));
+        summary.recordSuccess("s2");
+        Assert.assertEquals("Expected a failed minion to fail the execution", Decision.FAILED,
+                policy.decide(4, summary));
+    }
+
+    @Test
+    public void testDefaultPolicySucceedsWhenAllSucceed() {
+        Assert.assertEquals(Decision.SUCCEEDED, new FleetCompletionPolicy(null, null).decide(3, summary(3, 0)));
+    }
+
+    @Test
+    public void testSuccessPercentageReached() {
+        FleetCompletionPolicy policy = new FleetCompletionPolicy(80, null);
+        Assert.assertEquals(Decision.UNDECIDED, policy.decide(10, summary(7, 1)));
+        Assert.assertEquals(Decision.SUCCEEDED, policy.decide(10, summary(8, 1)));
+    }
+
+    @Test
+    public void testSuccessPercentageRoundsUp() {
+        FleetCompletionPolicy policy = new FleetCompletionPolicy(50, null);
+        Assert.assertEquals(Decision.UNDECIDED, policy.decide(5, summary(2, 0)));
+        Assert.assertEquals(Decision.SUCCEEDED, policy.decide(5, summary(3, 0)));
+    }
+
+    @Test
+    public void testSuccessPercentageUnreachable() {
+        FleetCompletionPolicy policy = new FleetCompletionPolicy(80, null);
+        Assert.assertEquals(Decision.UNDECIDED, policy.decide(10, summary(0, 2)));
+        Assert.assertEquals(Decision.FAILED, policy.decide(10, summary(0, 3)));
+    }
+
+    @Test
+    public void testMaximumFailures() {
+        FleetCompletionPolicy policy = new FleetCompletionPolicy(null, 2);
+        Assert.assertEquals(Decision.UNDECIDED, policy.decide(10, summary(5, 1)));
+        Assert.assertEquals(Decision.FAILED, policy.decide(10, summary(5, 2)));
+    }
+
+    @Test
+    public void testMaximumFailuresTakesPrecedence() {
+        Assert.assertEquals(Decision.FAILED, new FleetCompletionPolicy(50, 1).decide(4, summary(3, 1)));
+    }
+
+    protected FleetExecutionSummary summary(int succeeded, int failed) {
+        FleetExecutionSummary summary = new FleetExecutionSummary();
+        for (int i = 0; i < succeeded; i++) {
+            summary.recordSuccess("s" + i);
+        }
+        for (int i = 0; i < failed; i++) {
+            summary.recordFailure("f" + i, "exit code 1");
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+public class JidJournalTest {
+
+    protected static final List<String> KEY = ImmutableList.of("job", "endpoint", "user", "minion", "state.sls",
+            "webserver");
+    protected static final List<String> OTHER_KEY = ImmutableList.of("job", "endpoint", "user", "minion",
+            "test.ping");
+    protected static final String JID = "20130213093536481553";
+    protected static final String OTHER_JID = "20130213093536481554";
+
+    protected File file;
+    protected JidJournal journal;
+
+    @Before
+    public void setup() throws Exception {
+        file = File.createTempFile("jids", ".journal");
+        file.delete();
+        journal = createJournal();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        journal.out.close();
+        file.delete();
+    }
+
+    @Test
+    public void testCreateScope() {
+        Map<String, Map<String, String>> dataContext = Maps.newHashMap();
+        dataContext.put("job", ImmutableMap.of("execid", "42"));
+        Assert.assertNull("Expected no scope without a rundeck job", JidJournal.createScope(dataContext, "endpoint",
+                "user", "minion"));
+
+        dataContext.put("job", ImmutableMap.of("id", "uuid", "execid", "42"));
+        Assert.assertEquals(ImmutableList.of("uuid", "endpoint", "user", "minion"), JidJournal.createScope(
+                dataContext, "endpoint", "user", "minion"));
+    }
+
+    @Test
+    public void testCreateScopeIsStableAcrossReruns() {
+        Map<String, Map<String, String>> dataContext = Maps.newHashMap();
+        dataContext.put("job", ImmutableMap.of("id", "uuid", "execid", "42"));
+        List<String> first = JidJournal.createScope(dataContext, "endpoint", "user", "minion");
+        dataContext.put("job", ImmutableMap.of("id", "uuid", "execid", "43"));
+        Assert.assertEquals("Expected a rerun of the same job to share the scope", first, JidJournal.createScope(
+                dataContext, "endpoint", "user", "minion"));
+    }
+
+    @Test
+    public void testClaimedJobIsNotClaimedAgain() throws Exception {
+        journal.recordDispatched(KEY, JID);
+        Assert.assertNull("Expected job waited for by its dispatcher not to be claimed", journal.claimLiveJid(KEY));
+
+        journal.release(JID);
+        Assert.assertEquals(JID, journal.claimLiveJid(KEY));
+        Assert.assertNull("Expected resumed job not to be claimed twice", journal.claimLiveJid(KEY));
+    }
+
+    @Test
+    public void testCloseLeavesClaimedJobsLive() throws Exception {
+        journal.recordDispatched(KEY, JID);
+        journal.close();
+        Assert.assertTrue(journal.isClosed());
+        journal.recordCompleted(KEY, JID);
+
+        journal = createJournal();
+
+        Assert.assertFalse(journal.isClosed());
+        Assert.assertEquals("Expected job to be resumed after reopening", JID, journal.claimLiveJid(KEY));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRecordDispatchedWhenClosed() throws Exception {
+        journal.close();
+        journal.recordDispatched(KEY, JID);
+    }
+
+    @Test
+    public void testDisabledWithoutFile() {
+        journal.file = " ";
+        Assert.assertFalse(journal.isEnabled());
+    }
+
+    @Test
+    public void testDispatchedJobIsLiveUntilCompleted() throws Exception {
+        journal.recordDispatched(KEY, JID);
+        Assert.assertEquals(JID, journal.getLiveJid(KEY));
+        Assert.assertNull(journal.getLiveJid(OTHER_KEY));
+
+        journal.recordCompleted(KEY, OTHER_JID);
+        Assert.assertEquals("Expected completion of another job to be ignored", JID, journal.getLiveJid(KEY));
+
+        journal.recordCompleted(KEY, JID);
+        Assert.assertNull(journal.getLiveJid(KEY));
+    }
+
+    @Test
+    public void testDispatchedJobIsSyncedBeforeReturning() throws Exception {
+        journal.recordDispatched(KEY, JID);
+        Assert.assertEquals("Expected dispatched job to be synced", journal.written, journal.synced);
+        Assert.assertEquals(journal.written, file.length());
+    }
+
+    @Test
+    public void testSyncCoveredByAnotherWriter() throws Exception {
+        journal.recordDispatched(KEY, JID);
+        journal.out = Mockito.spy(journal.out);
+        journal.sync(journal.synced);
+        Mockito.verify(journal.out, Mockito.never()).getChannel();
+    }
+
+    @Test
+    public void testLiveJobsSurviveReopening() throws Exception {
+        journal.recordDispatched(KEY, JID);
+        journal.recordDispatched(OTHER_KEY, OTHER_JID);
+        journal.recordCompleted(OTHER_KEY, OTHER_JID);
+        journal.out.close();
+
+        journal = createJournal();
+
+        Assert.assertEquals(JID, journal.getLiveJid(KEY));
+        Assert.assertNull(journal.getLiveJid(OTHER_KEY));
+        Assert.assertEquals("Expected journal to be rewritten with live jobs only", 1,
+                FileUtils.readLines(file).size());
+    }
+
+    @Test
+    public void testTornRecordIsSkipped() throws Exception {
+        journal.recordDispatched(KEY, JID);
+        journal.out.close();
+        append("{\"type\":\"dispatched\",\"key\":[\"job\"");
+
+        journal = createJournal();
+
+        Assert.assertEquals(JID, journal.getLiveJid(KEY));
+        journal.recordDispatched(OTHER_KEY, OTHER_JID);
+        journal.out.close();
+        journal = createJournal();
+        Assert.assertEquals("Expected records appended after a torn record to be read", OTHER_JID,
+                journal.getLiveJid(OTHER_KEY));
+    }
+
+    @Test
+    public void testExpiredJobIsNotLive() throws Exception {
+        journal.recordDispatched(KEY, JID);
+        Mockito.doReturn(60000L).when(journal).currentTimeMillis();
+        Assert.assertNull(journal.getLiveJid(KEY));
+    }
+
+    @Test
+    public void testCompactsObsoleteRecords() throws Exception {
+        journal.compactionThreshold = 4;
+        journal.recordDispatched(KEY, JID);
+        journal.recordDispatched(OTHER_KEY, OTHER_JID);
+        journal.recordCompleted(OTHER_KEY, OTHER_JID);
+        Assert.assertEquals(3, FileUtils.readLines(file).size());
+
+        journal.recordDispatched(OTHER_KEY, OTHER_JID);
+        journal.recordCompleted(OTHER_KEY, OTHER_JID);
+
+        Assert.assertEquals("Expected journal to be compacted", 1, FileUtils.readLines(file).size());
+        Assert.assertEquals(JID, journal.getLiveJid(KEY));
+        journal.recordDispatched(OTHER_KEY, OTHER_JID);
+        Assert.assertEquals("Expected journal to be appended to after compaction", 2,
+                FileUtils.readLines(file).size());
+    }
+
+    protected JidJournal createJournal() throws IOException {
+        JidJournal journal = Mockito.spy(new JidJournal());
+        journal.file = file.getPath();
+        journal.retention = 60000;
+        journal.compactionThreshold = 1000;
+        journal.gsonFactory = new SaltGsonFactory();
+        Mockito.doReturn(0L).when(journal).currentTimeMillis();
+        journal.open();
+        return journal;
+    }
+
+    protected void append(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(content.getBytes(JidJournal.CHAR_SET_ENCODING));
+        } finally {
+            out.close();
+        }
+    }
+}
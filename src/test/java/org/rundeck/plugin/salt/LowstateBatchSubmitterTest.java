@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class LowstateBatchSubmitterTest {
+
+    protected static final String BATCH_KEY = "key";
+
+    protected LowstateBatchSubmitter submitter;
+    protected RecordingSubmission submission;
+    protected ExecutorService executor;
+
+    @Before
+    public void setup() {
+        submitter = new LowstateBatchSubmitter();
+        submitter.window = TimeUnit.SECONDS.toMillis(30);
+        submitter.maximumChunks = 2;
+        submission = new RecordingSubmission();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testIsEnabled() {
+        Assert.assertTrue("Expected batching to be enabled with a window", submitter.isEnabled());
+        submitter.window = 0;
+        Assert.assertFalse("Expected batching to be disabled without a window", submitter.isEnabled());
+    }
+
+    @Test
+    public void testConcurrentChunksShareSingleSubmission() throws Exception {
+        Future<SaltApiResponseOutput> first = submitAsync(BATCH_KEY, chunk("host1"));
+        Future<SaltApiResponseOutput> second = submitAsync(BATCH_KEY, chunk("host2"));
+
+        Assert.assertEquals("Expected jid of first chunk", "jid-host1", first.get(10, TimeUnit.SECONDS).getJid());
+        Assert.assertEquals("Expected jid of second chunk", "jid-host2", second.get(10, TimeUnit.SECONDS).getJid());
+        Assert.assertEquals("Expected a single submission for a full batch", 1, submission.batches.size());
+        Assert.assertEquals("Expected both chunks to be submitted together", 2, submission.batches.get(0).size());
+    }
+
+    @Test
+    public void testDifferentKeysAreNotBatchedTogether() throws Exception {
+        submitter.window = 10;
+
+        Assert.assertEquals("Expected jid of first chunk", "jid-host1",
+                submitter.submit("key1", chunk("host1"), submission).getJid());
+        Assert.assertEquals("Expected jid of second chunk", "jid-host2",
+                submitter.submit("key2", chunk("host2"), submission).getJid());
+        Assert.assertEquals("Expected one submission per key", 2, submission.batches.size());
+    }
+
+    @Test
+    public void testBatchSubmittedAfterWindow() throws Exception {
+        submitter.window = 10;
+        submitter.maximumChunks = 10;
+
+        Assert.assertEquals("Expected jid of lone chunk", "jid-host1",
+                submitter.submit(BATCH_KEY, chunk("host1"), submission).getJid());
+        Assert.assertEquals("Expected the lone chunk to be submitted by itself", 1,
+                submission.batches.get(0).size());
+    }
+
+    @Test
+    public void testFailurePropagatedToEveryChunk() throws Exception {
+        submission.failure = new HttpException("some failure");
+        Future<SaltApiResponseOutput> first = submitAsync(BATCH_KEY, chunk("host1"));
+        Future<SaltApiResponseOutput> second = submitAsync(BATCH_KEY, chunk("host2"));
+
+        assertFailsWith(first, HttpException.class);
+        assertFailsWith(second, HttpException.class);
+    }
+
+    @Test
+    public void testMismatchedOutputCountFailsEveryChunk() throws Exception {
+        submitter.window = 10;
+        submission.truncate = true;
+
+        try {
+            submitter.submit(BATCH_KEY, chunk("host1"), submission);
+            Assert.fail("Expected missing output to fail");
+        } catch (SaltApiException e) {
+            // expected
+        }
+    }
+
+    protected void assertFailsWith(Future<SaltApiResponseOutput> future, Class<? extends Exception> failureClass)
+            throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("Expected submission to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue("Expected submission failure to be propagated", failureClass.isInstance(e.getCause()));
+        }
+    }
+
+    protected Future<SaltApiResponseOutput> submitAsync(final Object key, final LowstateChunk chunk) {
+        return executor.submit(new Callable<SaltApiResponseOutput>() {
+            @Override
+            public SaltApiResponseOutput call() throws Exception {
+                return submitter.submit(key, chunk, submission);
+            }
+        });
+    }
+
+    protected LowstateChunk chunk(String target) {
+        return new LowstateChunk("local_async", "test.ping", target, ImmutableList.<String> of(),
+                ImmutableList.<String> of());
+    }
+
+    /**
+     * Records the submitted batches and answers with one jid per chunk derived from its target.
+     */
+    protected static class RecordingSubmission implements LowstateBatchSubmitter.Submission {
+        protected final List<List<LowstateChunk>> batches = Lists.newCopyOnWriteArrayList();
+        protected HttpException failure;
+        protected boolean truncate;
+
+        @Override
+        public List<SaltApiResponseOutput> submit(List<LowstateChunk> chunks) throws HttpException {
+            batches.add(chunks);
+            if (failure != null) {
+                throw failure;
+            }
+            List<SaltApiResponseOutput> outputs = Lists.newArrayList();
+            for (LowstateChunk chunk : chunks) {
+                SaltApiResponseOutput output = Mockito.mock(SaltApiResponseOutput.class);
+                Mockito.when(output.getJid()).thenReturn("jid-" + chunk.getTarget());
+                outputs.add(output);
+            }
+            return truncate ? outputs.subList(0, outputs.size() - 1) : outputs;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class LowstateChunkTest {
+
+    @Test
+    public void testToLowstate() {
+        LowstateChunk chunk = new LowstateChunk("local_async", "cmd.run", "host1", ImmutableList.of("echo secret"),
+                ImmutableList.of("echo ****"));
+        Map<String, Object> lowstate = chunk.toLowstate();
+        Assert.assertEquals("Expected client to be set", "local_async", lowstate.get("client"));
+        Assert.assertEquals("Expected function to be set", "cmd.run", lowstate.get("fun"));
+        Assert.assertEquals("Expected target to be set", "host1", lowstate.get("tgt"));
+        Assert.assertEquals("Expected args to be set", ImmutableList.of("echo secret"), lowstate.get("arg"));
+        Assert.assertEquals("Expected printable args to be masked", ImmutableList.of("echo ****"),
+                chunk.toPrintableLowstate().get("arg"));
+    }
+
+    @Test
+    public void testToLowstateWithoutArgs() {
+        LowstateChunk chunk = new LowstateChunk("local_async", "test.ping", "host1", ImmutableList.<String> of(),
+                ImmutableList.<String> of());
+        Assert.assertFalse("Expected no args key without args", chunk.toLowstate().containsKey("arg"));
+    }
+
+    @Test
+    public void testToLowstateForCompoundChunk() {
+        List<List<String>> args = ImmutableList.<List<String>> of(ImmutableList.<String> of(),
+                ImmutableList.of("ls"));
+        LowstateChunk chunk = new LowstateChunk("local_async", "host1", ImmutableList.of("test.ping", "cmd.run"),
+                args, args);
+        Map<String, Object> lowstate = chunk.toLowstate();
+        Assert.assertTrue("Expected chunk to be compound", chunk.isCompound());
+        Assert.assertEquals("Expected function list", ImmutableList.of("test.ping", "cmd.run"), lowstate.get("fun"));
+        Assert.assertEquals("Expected one list of args per function", args, lowstate.get("arg"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompoundChunkRequiresArgsPerFunction() {
+        new LowstateChunk("local_async", "host1", ImmutableList.of("test.ping", "cmd.run"),
+                ImmutableList.<List<String>> of(), ImmutableList.<List<String>> of());
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableList;
+
+public class MinionPresenceCacheTest {
+
+    protected static final String KEY = "key";
+
+    protected MinionPresenceCache cache;
+    protected CountingLoader loader;
+    protected ExecutorService executor;
+
+    @Before
+    public void setup() {
+        cache = Mockito.spy(new MinionPresenceCache());
+        cache.refreshInterval = 30000;
+        cache.minimumRefreshInterval = 5000;
+        loader = new CountingLoader(new MinionPresence(ImmutableList.of("minion1", "minion2")));
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testIsEnabled() {
+        Assert.assertTrue("Expected presence checks to be enabled with a refresh interval", cache.isEnabled());
+        cache.refreshInterval = 0;
+        Assert.assertFalse("Expected presence checks to be disabled without a refresh interval", cache.isEnabled());
+    }
+
+    @Test
+    public void testPresence() {
+        MinionPresence presence = loader.presence;
+        Assert.assertTrue(presence.isAccepted("minion2"));
+        Assert.assertFalse(presence.isAccepted("minion3"));
+        Assert.assertTrue("Expected unknown presence to accept any minion", MinionPresence.UNKNOWN.isAccepted("minion3"));
+    }
+
+    @Test
+    public void testSnapshotIsReused() throws Exception {
+        Mockito.doReturn(0L).doReturn(0L).doReturn(29999L).when(cache).currentTimeMillis();
+
+        Assert.assertSame(loader.presence, cache.get(KEY, "minion1", loader));
+        Assert.assertSame(loader.presence, cache.get(KEY, "minion1", loader));
+        Assert.assertEquals("Expected a single lookup within the refresh interval", 1, loader.loads.get());
+    }
+
+    @Test
+    public void testSnapshotIsRefreshedAfterInterval() throws Exception {
+        Mockito.doReturn(0L).doReturn(0L).doReturn(30000L).when(cache).currentTimeMillis();
+
+        cache.get(KEY, "minion1", loader);
+        cache.get(KEY, "minion1", loader);
+        Assert.assertEquals("Expected a stale snapshot to be refreshed", 2, loader.loads.get());
+    }
+
+    @Test
+    public void testSnapshotMissingMinionIsRefreshedAfterMinimumInterval() throws Exception {
+        Mockito.doReturn(0L).doReturn(0L).doReturn(4999L).doReturn(5000L).when(cache).currentTimeMillis();
+
+        cache.get(KEY, "minion1", loader);
+        cache.get(KEY, "minion3", loader);
+        Assert.assertEquals("Expected no refresh within the minimum interval", 1, loader.loads.get());
+        cache.get(KEY, "minion3", loader);
+        Assert.assertEquals("Expected a refresh for a missing minion", 2, loader.loads.get());
+    }
+
+    @Test
+    public void testSnapshotMissingConnectedMinionIsReused() throws Exception {
+        Mockito.doReturn(0L).doReturn(0L).doReturn(5000L).when(cache).currentTimeMillis();
+
+        cache.get(KEY, "minion1", loader);
+        cache.get(KEY, "minion2", loader);
+        Assert.assertEquals("Expected no refresh for an accepted minion that is not up", 1, loader.loads.get());
+    }
+
+    @Test
+    public void testSnapshotsAreKeyed() throws Exception {
+        cache.get(KEY, "minion1", loader);
+        cache.get("otherKey", "minion1", loader);
+        Assert.assertEquals("Expected a lookup per key", 2, loader.loads.get());
+    }
+
+    @Test
+    public void testConcurrentCallersShareLookup() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingLoader blockingLoader = new CountingLoader(loader.presence) {
+            @Override
+            public MinionPresence load() throws InterruptedException {
+                release.await();
+                return super.load();
+            }
+        };
+        Callable<MinionPresence> get = new Callable<MinionPresence>() {
+            @Override
+            public MinionPresence call() throws Exception {
+                return cache.get(KEY, "minion1", blockingLoader);
+            }
+        };
+        Future<MinionPresence> first = executor.submit(get);
+        Future<MinionPresence> second = executor.submit(get);
+        release.countDown();
+
+        Assert.assertSame(loader.presence, first.get(5, TimeUnit.SECONDS));
+        Assert.assertSame(loader.presence, second.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals("Expected concurrent callers to share a single lookup", 1, blockingLoader.loads.get());
+    }
+
+    protected static class CountingLoader implements MinionPresenceCache.Loader {
+        protected final MinionPresence presence;
+        protected final AtomicInteger loads = new AtomicInteger();
+
+        protected CountingLoader(MinionPresence presence) {
+            this.presence = presence;
+        }
+
+        @Override
+        public MinionPresence load() throws InterruptedException {
+            loads.incrementAndGet();
+            return presence;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableList;
+
+public class RunningJobCacheTest {
+
+    protected static final String KEY = "key";
+
+    protected static final List<String> NO_ARGS = ImmutableList.of();
+
+    protected RunningJobCache cache;
+    protected CountingLoader loader;
+    protected ExecutorService executor;
+
+    @Before
+    public void setup() {
+        cache = Mockito.spy(new RunningJobCache());
+        cache.cacheInterval = 2000;
+        Mockito.doReturn(0L).when(cache).currentTimeMillis();
+        loader = new CountingLoader(new RunningJob("1", "state.sls", ImmutableList.of("webserver")));
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testJobsAreCached() throws Exception {
+        List<RunningJob> jobs = cache.get(KEY, loader);
+        Assert.assertEquals(loader.jobs, jobs);
+        Assert.assertEquals(jobs, cache.get(KEY, loader));
+        Assert.assertEquals("Expected a single lookup within the interval", 1, loader.loads.get());
+    }
+
+    @Test
+    public void testStaleJobsAreLookedUpAgain() throws Exception {
+        Mockito.doReturn(0L).doReturn(0L).doReturn(1999L).doReturn(2000L).when(cache).currentTimeMillis();
+
+        cache.get(KEY, loader);
+        cache.get(KEY, loader);
+        Assert.assertEquals(1, loader.loads.get());
+        cache.get(KEY, loader);
+        Assert.assertEquals("Expected stale jobs to be looked up again", 2, loader.loads.get());
+    }
+
+    @Test
+    public void testJobsAreKeyed() throws Exception {
+        cache.get(KEY, loader);
+        cache.get("otherKey", loader);
+        Assert.assertEquals("Expected a lookup per key", 2, loader.loads.get());
+    }
+
+    @Test
+    public void testRecordedJobIsCached() throws Exception {
+        cache.get(KEY, loader);
+        RunningJob dispatched = new RunningJob("2", "test.ping", ImmutableList.<String> of());
+        cache.record(KEY, dispatched);
+
+        List<RunningJob> jobs = cache.get(KEY, loader);
+        Assert.assertEquals(2, jobs.size());
+        Assert.assertSame("Expected dispatched job to be added", dispatched, jobs.get(1));
+    }
+
+    @Test
+    public void testRecordWithoutCachedJobs() throws Exception {
+        cache.record(KEY, new RunningJob("2", "test.ping", ImmutableList.<String> of()));
+        Assert.assertTrue("Expected nothing to be cached", cache.entries.isEmpty());
+    }
+
+    @Test
+    public void testFindOrClaimFindsRunningJob() throws Exception {
+        Assert.assertSame(loader.jobs.get(0), cache.findOrClaim(KEY, "state.sls", ImmutableList.of("webserver"),
+                loader));
+        Assert.assertTrue("Expected nothing to be claimed", cache.dispatches.isEmpty());
+    }
+
+    @Test
+    public void testFindOrClaimClaimsDispatch() throws Exception {
+        Assert.assertNull(cache.findOrClaim(KEY, "test.ping", NO_ARGS, loader));
+        Assert.assertTrue("Expected dispatch to be claimed", cache.dispatches.containsKey(ImmutableList.of(KEY,
+                "test.ping", NO_ARGS)));
+        Assert.assertNull("Expected other functions to be claimed separately", cache.findOrClaim(KEY,
+                "state.sls", ImmutableList.of("database"), loader));
+    }
+
+    @Test
+    public void testConcurrentCallersAttachToRecordedJob() throws Exception {
+        Assert.assertNull(cache.findOrClaim(KEY, "test.ping", NO_ARGS, loader));
+        Future<RunningJob> waiter = submitFindOrClaim();
+        try {
+            waiter.get(100, TimeUnit.MILLISECONDS);
+            Assert.fail("Expected caller to wait for the claimed dispatch");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        RunningJob dispatched = new RunningJob("2", "test.ping", NO_ARGS);
+        cache.record(KEY, dispatched);
+        Assert.assertSame("Expected waiting caller to attach to the dispatched job", dispatched,
+                waiter.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue("Expected claim to be released", cache.dispatches.isEmpty());
+    }
+
+    @Test
+    public void testAbandonedDispatchIsClaimedByWaiter() throws Exception {
+        Assert.assertNull(cache.findOrClaim(KEY, "test.ping", NO_ARGS, loader));
+        Future<RunningJob> waiter = submitFindOrClaim();
+        Thread.sleep(50);
+
+        cache.abandon(KEY, "test.ping", NO_ARGS);
+        Assert.assertNull("Expected waiting caller to claim the abandoned dispatch", waiter.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue("Expected dispatch to be claimed", cache.dispatches.containsKey(ImmutableList.of(KEY,
+                "test.ping", NO_ARGS)));
+    }
+
+    @Test
+    public void testStaleEntriesAreRemoved() throws Exception {
+        cache.get(KEY, loader);
+        Mockito.doReturn(2000L).when(cache).currentTimeMillis();
+        cache.get("otherKey", loader);
+        Assert.assertFalse("Expected stale entry to be removed", cache.entries.containsKey(KEY));
+    }
+
+    protected Future<RunningJob> submitFindOrClaim() {
+        return executor.submit(new Callable<RunningJob>() {
+            @Override
+            public RunningJob call() throws Exception {
+                return cache.findOrClaim(KEY, "test.ping", NO_ARGS, loader);
+            }
+        });
+    }
+
+    protected static class CountingLoader implements RunningJobCache.Loader {
+        protected final List<RunningJob> jobs;
+        protected final AtomicInteger loads = new AtomicInteger();
+
+        protected CountingLoader(RunningJob... jobs) {
+            this.jobs = ImmutableList.copyOf(jobs);
+        }
+
+        @Override
+        public List<RunningJob> load() {
+            loads.incrementAndGet();
+            return jobs;
+        }
+    }
+}
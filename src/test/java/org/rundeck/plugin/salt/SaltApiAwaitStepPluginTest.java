@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.entity.StringEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.SubmittedJobRegistry.Submission;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltTreeReturnHandler;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepException;
+import com.dtolabs.rundeck.plugins.descriptions.PluginProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiAwaitStepPluginTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final String EXECUTION_ID = "42";
+    protected static final Object SUBMISSION_KEY = ImmutableList.of(EXECUTION_ID, PARAM_ENDPOINT, PARAM_MINION_NAME);
+    protected static final String OTHER_JID = "20130213093536481554";
+
+    protected SubmittedJobRegistry submittedJobRegistry;
+    protected SaltApiAwaitStepPlugin awaitPlugin;
+
+    @Override
+    protected AbstractSaltApiNodeStepPlugin createPlugin() {
+        return new SaltApiAwaitStepPlugin();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        submittedJobRegistry = new SubmittedJobRegistry();
+        submittedJobRegistry.retention = 60000;
+        ((SaltApiAwaitStepPlugin) plugin).submittedJobRegistry = submittedJobRegistry;
+        ((SaltApiAwaitStepPlugin) plugin).function = "state.sls webserver\ntest.sleep 30";
+        dataContext.put("job", ImmutableMap.of("execid", EXECUTION_ID));
+        submittedJobRegistry.register(SUBMISSION_KEY, new RunningJob(OUTPUT_JID, "state.sls",
+                ImmutableList.of("webserver")), true);
+        submittedJobRegistry.register(SUBMISSION_KEY, new RunningJob(OTHER_JID, "test.sleep",
+                ImmutableList.of("30")), true);
+        spyPlugin();
+        awaitPlugin = (SaltApiAwaitStepPlugin) plugin;
+        Mockito.when(returnHandler.extractResponse(Mockito.anyString())).thenReturn(response(0));
+    }
+
+    @Test
+    public void testAwaitHandlesEachReturn() throws Exception {
+        Mockito.doReturn(null).doReturn(MinionReturn.fromJson("\"state\"")).when(plugin)
+                .extractOutputForJid(Mockito.same(client),
+                Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.doReturn(MinionReturn.fromJson("\"sleep\"")).when(plugin).extractOutputForJid(Mockito.same(client),
+                Mockito.eq(AUTH_TOKEN), Mockito.eq(OTHER_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        executeOnMinion(SaltApiAuthorization.forToken(AUTH_TOKEN));
+
+        Mockito.verify(timer, Mockito.times(1)).waitForNext();
+        Mockito.verify(plugin, Mockito.times(1)).extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.eq(OTHER_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("\"state\"");
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("\"sleep\"");
+        Mockito.verify(returnHandlerRegistry, Mockito.times(1)).getTreeHandlerFor(Mockito.eq("state.sls"),
+                Mockito.any(SaltTreeReturnHandler.class));
+        Assert.assertTrue("Expected awaited jobs to be taken", submittedJobRegistry.submissions.isEmpty());
+    }
+
+    @Test
+    public void testAwaitWithFailedFunction() throws Exception {
+        Mockito.doReturn(MinionReturn.fromJson("\"out\"")).when(plugin)
+                .extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.anyString(), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.when(returnHandler.extractResponse(Mockito.anyString())).thenReturn(response(0)).thenReturn(
+                response(2));
+
+        try {
+            executeOnMinion(SaltApiAuthorization.forToken(AUTH_TOKEN));
+            Assert.fail("Expected node step failure");
+        } catch (NodeStepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+            Assert.assertTrue("Expected failed job to be reported", e.getMessage().contains(OTHER_JID));
+        }
+    }
+
+    @Test
+    public void testAwaitWithoutSubmittedJob() throws Exception {
+        ((SaltApiAwaitStepPlugin) plugin).function = "state.sls database";
+        try {
+            executeOnMinion(SaltApiAuthorization.forToken(AUTH_TOKEN));
+            Assert.fail("Expected node step failure");
+        } catch (NodeStepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.ARGUMENTS_INVALID, e.getFailureReason());
+        }
+    }
+
+    @Test
+    public void testExtractLowstateOutputsForJids() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format("{\"return\": [{\"%s\": true}, {}]}", PARAM_MINION_NAME));
+
+        Map<String, MinionReturn> outputs = awaitPlugin.extractLowstateOutputsForJids(client,
+                SaltApiAuthorization.forToken(AUTH_TOKEN), ImmutableList.of(OUTPUT_JID, OTHER_JID), PARAM_MINION_NAME);
+
+        Assert.assertEquals(ImmutableMap.of(OUTPUT_JID, "true"), toJson(outputs));
+        ArgumentCaptor<StringEntity> captor = ArgumentCaptor.forClass(StringEntity.class);
+        Mockito.verify(post, Mockito.times(1)).setEntity(captor.capture());
+        Assert.assertEquals("Expected all jobs to be looked up in a single request", String.format(
+                "[{\"client\":\"runner\",\"fun\":\"jobs.lookup_jid\",\"jid\":\"%s\"},"
+                        + "{\"client\":\"runner\",\"fun\":\"jobs.lookup_jid\",\"jid\":\"%s\"}]", OUTPUT_JID, OTHER_JID),
+                IOUtils.toString(captor.getValue().getContent()));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testExtractLowstateOutputsForJidsWithMissingReturn() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\": [{}]}");
+
+        try {
+            awaitPlugin.extractLowstateOutputsForJids(client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                    ImmutableList.of(OUTPUT_JID, OTHER_JID), PARAM_MINION_NAME);
+            Assert.fail("Expected salt-api exception");
+        } catch (SaltApiException e) {
+            // expected
+        }
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testWaitForJobsStatelessPollsTogether() throws Exception {
+        SaltApiAuthorization authorization = SaltApiAuthorization.forCredentials(PARAM_USER, PARAM_PASSWORD,
+                PARAM_EAUTH);
+        Mockito.doReturn(ImmutableMap.of(OTHER_JID, MinionReturn.fromJson("1"))).doReturn(
+                ImmutableMap.of(OUTPUT_JID, MinionReturn.fromJson("2"))).when(
+                awaitPlugin).extractLowstateOutputsForJids(Mockito.same(client), Mockito.same(authorization),
+                Mockito.<Set<String>> any(), Mockito.eq(PARAM_MINION_NAME));
+
+        Map<String, MinionReturn> outputs = awaitPlugin.waitForJobs(client, authorization,
+                submissions(true), PARAM_MINION_NAME);
+
+        Assert.assertEquals(ImmutableMap.of(OUTPUT_JID, "2", OTHER_JID, "1"), toJson(outputs));
+        Mockito.verify(awaitPlugin, Mockito.times(2)).extractLowstateOutputsForJids(Mockito.same(client),
+                Mockito.same(authorization), Mockito.<Set<String>> any(), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.verify(timer, Mockito.times(1)).waitForNext();
+    }
+
+    @Test
+    public void testWaitForJobsUsesArchivedReturns() throws Exception {
+        Mockito.when(resultArchive.isEnabled()).thenReturn(true);
+        Mockito.when(resultArchive.get(OUTPUT_JID, PARAM_MINION_NAME)).thenReturn("\"archived\"");
+        Mockito.doReturn(MinionReturn.fromJson("1")).when(plugin)
+                .extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.eq(OTHER_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        Map<String, MinionReturn> outputs = awaitPlugin.waitForJobs(client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                submissions(true), PARAM_MINION_NAME);
+
+        Assert.assertEquals(ImmutableMap.of(OUTPUT_JID, "\"archived\"", OTHER_JID, "1"), toJson(outputs));
+        Mockito.verify(plugin, Mockito.never()).extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.verify(resultArchive, Mockito.times(1)).store(OTHER_JID, PARAM_MINION_NAME, "1");
+        Mockito.verify(resultArchive, Mockito.never()).store(Mockito.eq(OUTPUT_JID), Mockito.anyString(),
+                Mockito.anyString());
+        Mockito.verifyZeroInteractions(timer);
+    }
+
+    @Test
+    public void testWaitForJobsNotRunning() throws Exception {
+        plugin.findJobGracePeriod = 1;
+        Mockito.doReturn(0L).doReturn(1000L).when(plugin).currentTimeMillis();
+        Mockito.doReturn(null).when(plugin).extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.anyString(), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.doReturn(true).when(plugin).isJobRunning(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.doReturn(false).when(plugin).isJobRunning(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OTHER_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        try {
+            awaitPlugin.waitForJobs(client, SaltApiAuthorization.forToken(AUTH_TOKEN), submissions(true), PARAM_MINION_NAME);
+            Assert.fail("Expected job not running exception");
+        } catch (SaltJobNotRunningException e) {
+            Assert.assertTrue("Expected job that is not running to be reported", e.getMessage().contains(OTHER_JID));
+        }
+    }
+
+    @Test
+    public void testWaitForJobsKillsPendingJobsWhenInterrupted() throws Exception {
+        Mockito.doReturn(null).when(plugin).extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.doReturn(MinionReturn.fromJson("1")).when(plugin)
+                .extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.eq(OTHER_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.doNothing().when(plugin).killJobQuietly(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+        Mockito.doThrow(new InterruptedException()).when(timer).waitForNext();
+
+        try {
+            awaitPlugin.waitForJobs(client, SaltApiAuthorization.forToken(AUTH_TOKEN), submissions(true), PARAM_MINION_NAME);
+            Assert.fail("Expected to be interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        Mockito.verify(plugin, Mockito.times(1)).killJobQuietly(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME),
+                Mockito.anyString());
+        Mockito.verify(plugin, Mockito.never()).killJobQuietly(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OTHER_JID), Mockito.anyString(),
+                Mockito.anyString());
+    }
+
+    @Test
+    public void testWaitForJobsLeavesAttachedJobsRunningWhenInterrupted() throws Exception {
+        Mockito.doReturn(null).when(plugin).extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.anyString(), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.doThrow(new InterruptedException()).when(timer).waitForNext();
+
+        try {
+            awaitPlugin.waitForJobs(client, SaltApiAuthorization.forToken(AUTH_TOKEN), submissions(false),
+                    PARAM_MINION_NAME);
+            Assert.fail("Expected to be interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        Mockito.verify(plugin, Mockito.never()).killJobQuietly(Mockito.any(HttpClient.class),
+                Mockito.any(SaltApiAuthorization.class), Mockito.anyString(), Mockito.anyString(),
+                Mockito.anyString());
+    }
+
+    @Test
+    public void testFunctionPropertyDescribesAwaitedFunctions() throws Exception {
+        PluginProperty property = SaltApiAwaitStepPlugin.class.getDeclaredField("function").getAnnotation(
+                PluginProperty.class);
+        Assert.assertEquals(SaltApiAwaitStepPlugin.SALT_API_FUNCTION_OPTION_NAME, property.title());
+        Assert.assertTrue("Expected description of the awaited functions", property.description().contains(
+                "submitted earlier"));
+    }
+
+    @Test
+    public void testNodeStepOnlyPropertiesAreNotInherited() {
+        assertNoPluginProperty(SaltApiAwaitStepPlugin.class, SaltApiNodeStepPlugin.SALT_API_SYNC_TIMEOUT_OPTION_NAME);
+        assertNoPluginProperty(SaltApiAwaitStepPlugin.class, SaltApiNodeStepPlugin.SALT_API_COMPOUND_OPTION_NAME);
+    }
+
+    /**
+     * @param dispatched
+     *            whether the jobs were dispatched by this execution or attached to.
+     */
+    protected ImmutableList<Submission> submissions(boolean dispatched) {
+        return ImmutableList.of(
+                new Submission(new RunningJob(OUTPUT_JID, "state.sls", ImmutableList.of("webserver")), dispatched, 0),
+                new Submission(new RunningJob(OTHER_JID, "test.sleep", ImmutableList.of("30")), dispatched, 0));
+    }
+
+    protected void executeOnMinion(SaltApiAuthorization authorization) throws Exception {
+        plugin.executeOnMinion(pluginContext, latestCapability, client, authorization, PARAM_USER, node);
+    }
+
+    protected SaltReturnResponse response(int exitCode) {
+        SaltReturnResponse response = new SaltReturnResponse();
+        response.setExitCode(exitCode);
+        return response;
+    }
+}
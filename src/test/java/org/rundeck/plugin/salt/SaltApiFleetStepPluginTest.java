@@ -0,0 +1,763 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltReturnHandler;
+import org.rundeck.plugin.salt.output.SaltReturnHandlerAdapter;
+import org.rundeck.plugin.salt.output.SaltReturnHandlerRegistry;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltTreeReturnHandler;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.rundeck.plugin.salt.util.DeadlineExceededException;
+import org.rundeck.plugin.salt.util.ExponentialBackoffTimer;
+import org.rundeck.plugin.salt.util.ExponentialBackoffTimer.Factory;
+import org.rundeck.plugin.salt.util.HttpFactory;
+import org.rundeck.plugin.salt.util.LogWrapper;
+import org.rundeck.plugin.salt.util.RetryingHttpClientExecutor;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.plugins.PluginLogger;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.google.common.base.Joiner;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
+
+public class SaltApiFleetStepPluginTest {
+
+    protected static final String PARAM_ENDPOINT = "https://localhost";
+    protected static final String PARAM_EAUTH = "pam";
+    protected static final String PARAM_TARGET = "web*";
+    protected static final String PARAM_FUNCTION = "some.function";
+    protected static final String PARAM_USER = "user";
+    protected static final String PARAM_PASSWORD = "password&!@$*";
+    protected static final String AUTH_TOKEN = "123qwe";
+
+    protected SaltApiFleetStepPlugin plugin;
+    protected PluginStepContext pluginContext;
+    protected Map<String, Object> configuration;
+    protected Map<String, Map<String, String>> dataContext;
+    protected Map<String, String> optionContext;
+
+    protected HttpClient client;
+    protected HttpPost post;
+    protected HttpGet get;
+    protected HttpResponse response;
+    protected HttpEntity responseEntity;
+    protected RetryingHttpClientExecutor retryingExecutor;
+    protected SaltReturnHandler returnHandler;
+    protected ExponentialBackoffTimer timer;
+
+    @Before
+    public void setUp() throws Exception {
+        plugin = new SaltApiFleetStepPlugin();
+        plugin.saltEndpoint = PARAM_ENDPOINT;
+        plugin.eAuth = PARAM_EAUTH;
+        plugin.function = PARAM_FUNCTION;
+        plugin.target = PARAM_TARGET;
+        plugin.batchSize = "10%";
+        plugin.setEndPointSchemes("https");
+
+        client = Mockito.mock(HttpClient.class);
+        post = Mockito.mock(HttpPost.class);
+        get = Mockito.mock(HttpGet.class);
+        plugin.httpFactory = new HttpFactory() {
+            @Override
+            public HttpClient createHttpClient() {
+                return client;
+            }
+
+            @Override
+            public HttpPost createHttpPost(String uri) {
+                return post;
+            }
+
+            @Override
+            public HttpGet createHttpGet(String uri) {
+                try {
+                    Mockito.when(get.getURI()).thenReturn(new URI(uri));
+                } catch (Exception e) {
+                    throw new IllegalStateException();
+                }
+                return get;
+            }
+        };
+        response = Mockito.mock(HttpResponse.class);
+        responseEntity = Mockito.mock(HttpEntity.class);
+        Mockito.when(response.getEntity()).thenReturn(responseEntity);
+        retryingExecutor = Mockito.mock(RetryingHttpClientExecutor.class);
+        plugin.retryExecutor = retryingExecutor;
+        plugin.gsonFactory = new SaltGsonFactory();
+
+        SaltReturnHandlerRegistry returnHandlerRegistry = Mockito.mock(SaltReturnHandlerRegistry.class);
+        returnHandler = Mockito.mock(SaltReturnHandler.class);
+        Mockito.when(returnHandlerRegistry.getTreeHandlerFor(Mockito.anyString(),
+                Mockito.any(SaltTreeReturnHandler.class))).thenReturn(new SaltReturnHandlerAdapter(returnHandler));
+        plugin.returnHandlerRegistry = returnHandlerRegistry;
+
+        Factory timerFactory = Mockito.mock(Factory.class);
+        timer = Mockito.mock(ExponentialBackoffTimer.class);
+        Mockito.when(timerFactory.newTimer(Mockito.anyLong(), Mockito.anyLong())).thenReturn(timer);
+        plugin.timerFactory = timerFactory;
+
+        pluginContext = Mockito.mock(PluginStepContext.class);
+        Mockito.when(pluginContext.getLogger()).thenReturn(Mockito.mock(PluginLogger.class));
+        configuration = Maps.newHashMap();
+        dataContext = Maps.newHashMap();
+        optionContext = Maps.newHashMap();
+        optionContext.put(SaltApiFleetStepPlugin.SALT_USER_OPTION_NAME, PARAM_USER);
+        optionContext.put(SaltApiFleetStepPlugin.SALT_PASSWORD_OPTION_NAME, PARAM_PASSWORD);
+        dataContext.put(SaltApiFleetStepPlugin.RUNDECK_DATA_CONTEXT_OPTION_KEY, optionContext);
+        Mockito.when(pluginContext.getDataContext()).thenReturn(dataContext);
+
+        plugin = Mockito.spy(plugin);
+        Mockito.doReturn(AUTH_TOKEN)
+                .when(plugin)
+                .authenticate(Mockito.any(SaltApiCapability.class), Mockito.same(client), Mockito.eq(PARAM_USER),
+                        Mockito.eq(PARAM_PASSWORD));
+        Mockito.doNothing().when(plugin).logoutQuietly(Mockito.same(client), Mockito.eq(AUTH_TOKEN));
+        Mockito.doReturn(ImmutableList.of("web1", "web2")).when(plugin)
+                .findTargetedMinions(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+    }
+
+    @Test
+    public void testExecuteStep() throws Exception {
+        setupResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\", \"web2\": \"out2\"}]}");
+        setupReturn("\"out1\"", 0);
+        setupReturn("\"out2\"", 0);
+
+        plugin.executeStep(pluginContext, configuration);
+
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("\"out1\"");
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("\"out2\"");
+        Assert.assertEquals("Expected a single local_batch lowstate chunk",
+                "[{\"client\":\"local_batch\",\"fun\":\"some.function\",\"tgt\":\"web*\",\"batch\":\"10%\"}]",
+                capturePostBody());
+        Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiFleetStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(responseEntity);
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+        Mockito.verify(plugin, Mockito.times(1)).logoutQuietly(client, AUTH_TOKEN);
+    }
+
+    @Test
+    public void testExecuteStepAsSingleJob() throws Exception {
+        plugin.batchSize = null;
+        setupResponse(HttpStatus.SC_OK, null);
+        Mockito.doReturn("{\"return\": [{\"jid\": \"20130903200912838566\", \"minions\": [\"web1\", \"web2\"]}]}")
+                .when(plugin).extractBodyFromEntity(responseEntity);
+        setupJobResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\"}]}",
+                "{\"return\": [{\"web1\": \"out1\", \"web2\": \"out2\"}]}");
+        setupReturn("\"out1\"", 0);
+        setupReturn("\"out2\"", 0);
+
+        plugin.executeStep(pluginContext, configuration);
+
+        Assert.assertEquals("Expected a single asynchronous job for the target",
+                "client=local_async&tgt=web*&fun=some.function", capturePostBody());
+        Assert.assertEquals("Expected job to be polled", PARAM_ENDPOINT + "/jobs/20130903200912838566", get.getURI()
+                .toString());
+        Mockito.verify(get, Mockito.times(2)).setHeader(SaltApiFleetStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("\"out1\"");
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("\"out2\"");
+        Mockito.verify(timer, Mockito.times(1)).waitForNext();
+        Mockito.verify(get, Mockito.times(2)).releaseConnection();
+    }
+
+    @Test
+    public void testExecuteStepAsSingleJobWithCompoundTarget() throws Exception {
+        plugin.batchSize = " ";
+        plugin.targetType = "compound";
+        plugin.target = "G@os:Ubuntu and web*";
+        plugin.function = "cmd.run \"ls /\"";
+        setupResponse(HttpStatus.SC_OK, null);
+        Mockito.doReturn("{\"return\": [{\"jid\": \"20130903200912838566\", \"minions\": [\"web1\"]}]}")
+                .when(plugin).extractBodyFromEntity(responseEntity);
+        setupJobResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\"}]}");
+        setupReturn("\"out1\"", 0);
+
+        plugin.executeStep(pluginContext, configuration);
+
+        Assert.assertEquals("Expected the compound expression form to be passed along",
+                "client=local_async&tgt=G%40os%3AUbuntu+and+web*&expr_form=compound&fun=cmd.run&arg=ls+%2F",
+                capturePostBody());
+    }
+
+    @Test
+    public void testExecuteStepAsSingleJobReleasesJidOnceSuccessPercentageReached() throws Exception {
+        plugin.batchSize = null;
+        plugin.successPercentage = "60";
+        setupSingleJob("web1", "web2", "web3");
+        setupJobResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\", \"web2\": \"out2\"}]}");
+        setupReturn("\"out1\"", 0);
+        setupReturn("\"out2\"", 0);
+
+        plugin.executeStep(pluginContext, configuration);
+
+        Mockito.verify(retryingExecutor, Mockito.times(1)).execute(Mockito.any(LogWrapper.class), Mockito.same(client),
+                Mockito.same(get), Mockito.anyInt());
+        Mockito.verifyZeroInteractions(timer);
+    }
+
+    @Test
+    public void testExecuteStepAsSingleJobFailsFast() throws Exception {
+        plugin.batchSize = null;
+        plugin.maximumFailures = "1";
+        setupSingleJob("web1", "web2", "web3");
+        setupJobResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\"}]}");
+        setupReturn("\"out1\"", 1);
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected step failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+            Assert.assertEquals("0 of 3 minions succeeded, [web1] exit code 1, 2 minions abandoned", e.getMessage());
+        }
+        Mockito.verifyZeroInteractions(timer);
+    }
+
+    @Test
+    public void testExecuteStepAsSingleJobWithMinionTimeout() throws Exception {
+        plugin.batchSize = null;
+        plugin.minionTimeout = "30";
+        Mockito.doReturn(0L).doReturn(0L).doReturn(5000L).doReturn(5000L).doReturn(30000L).when(plugin)
+                .currentTimeMillis();
+        setupSingleJob("web1", "web2");
+        setupJobResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\"}]}");
+        setupReturn("\"out1\"", 0);
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected step failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+            Assert.assertEquals("1 of 2 minions succeeded, [web2] no return within 30 seconds", e.getMessage());
+        }
+        Mockito.verify(timer, Mockito.times(1)).waitForNext();
+    }
+
+    @Test
+    public void testExecuteStepAsSingleJobFailsMinionsNotRunningJob() throws Exception {
+        plugin.batchSize = null;
+        Mockito.doReturn(0L).doReturn(10000L).when(plugin).currentTimeMillis();
+        setupSingleJob("web1", "web2", "web3");
+        setupJobResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\"}]}",
+                "{\"return\": [{\"web1\": \"out1\"}]}",
+                "{\"return\": [{\"web1\": \"out1\", \"web3\": \"out3\"}]}");
+        setupReturn("\"out1\"", 0);
+        setupReturn("\"out3\"", 0);
+        Mockito.doReturn(ImmutableSet.of("web3")).when(plugin).findMinionsRunningJob(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq("20130903200912838566"), Mockito.eq("web2,web3"),
+                Mockito.eq("list"));
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected step failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+            Assert.assertEquals("2 of 3 minions succeeded, [web2] no return and not running the job", e.getMessage());
+        }
+        Mockito.verify(timer, Mockito.times(1)).waitForNext();
+    }
+
+    @Test
+    public void testExecuteStepAsSingleJobKillsPendingMinionsOnDeadline() throws Exception {
+        plugin.batchSize = null;
+        plugin.deadline = "60";
+        setupSingleJob("web1", "web2", "web3");
+        setupJobResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\"}]}");
+        setupReturn("\"out1\"", 0);
+        Mockito.doThrow(new DeadlineExceededException()).when(timer).waitForNext();
+        Mockito.doNothing().when(plugin).killJobQuietly(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected step failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.DEADLINE_EXCEEDED, e.getFailureReason());
+        }
+        Mockito.verify(plugin, Mockito.times(1)).killJobQuietly(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq("20130903200912838566"), Mockito.eq("web2,web3"),
+                Mockito.eq("list"));
+        Assert.assertFalse("Expected deadline to be cleared once the step completed", Deadline.current().isBounded());
+    }
+
+    @Test
+    public void testExecuteStepAsSingleJobWithNoMatchingMinions() throws Exception {
+        plugin.batchSize = null;
+        setupResponse(HttpStatus.SC_OK, null);
+        Mockito.doReturn("{\"return\": [{\"jid\": \"20130903200912838566\", \"minions\": []}]}")
+                .when(plugin).extractBodyFromEntity(responseEntity);
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected targetting mismatch");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.SALT_TARGET_MISMATCH, e.getFailureReason());
+        }
+        Mockito.verifyZeroInteractions(get);
+    }
+
+    @Test
+    public void testExtractJobReturnsSkipsOtherMinions() throws Exception {
+        setupJobResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": {\"big\": [1, 2]}, \"web2\": \"out2\"}, "
+                + "{\"web3\": {\"retcode\": 0}}]}");
+
+        Map<String, MinionReturn> returns = plugin.extractJobReturns(client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                "1", ImmutableSet.of("web2", "web3"));
+
+        Assert.assertEquals(ImmutableSet.of("web2", "web3"), returns.keySet());
+        Assert.assertEquals("\"out2\"", returns.get("web2").toJson());
+        Assert.assertEquals("{\"retcode\":0}", returns.get("web3").toJson());
+        Mockito.verify(plugin, Mockito.never()).extractBodyFromEntity(Mockito.any(HttpEntity.class));
+        Mockito.verify(get, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testExtractJobReturnsWithErrorResponse() throws Exception {
+        plugin.logWrapper = Mockito.mock(LogWrapper.class);
+        setupJobResponse(HttpStatus.SC_NOT_FOUND);
+
+        Assert.assertTrue("Expected no returns",
+                plugin.extractJobReturns(client, SaltApiAuthorization.forToken(AUTH_TOKEN), "1",
+                        ImmutableSet.of("web1")).isEmpty());
+        Mockito.verify(get, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testGetExpressionForm() {
+        plugin.targetType = null;
+        Assert.assertNull(plugin.getExpressionForm());
+        plugin.targetType = "glob";
+        Assert.assertNull(plugin.getExpressionForm());
+        plugin.targetType = "grain";
+        Assert.assertEquals("grain", plugin.getExpressionForm());
+    }
+
+    @Test
+    public void testExecuteStepWithMinionFailure() throws Exception {
+        setupResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\", \"web2\": \"out2\"}]}");
+        setupReturn("\"out1\"", 0);
+        setupReturn("\"out2\"", 2);
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected step failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+            Assert.assertEquals("1 of 2 minions succeeded, [web2] exit code 2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testExecuteStepWithMissingMinion() throws Exception {
+        setupResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\"}]}");
+        setupReturn("\"out1\"", 0);
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected step failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+            Assert.assertEquals("1 of 2 minions succeeded, [web2] no return", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testExecuteStepWithNoMatchingMinions() throws Exception {
+        Mockito.doReturn(ImmutableList.of()).when(plugin).findTargetedMinions(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected targetting mismatch");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.SALT_TARGET_MISMATCH, e.getFailureReason());
+        }
+    }
+
+    @Test
+    public void testExecuteStepWithMalformedResponse() throws Exception {
+        setupResponse(HttpStatus.SC_OK, "{\"return\": {\"web1\": \"out1\"}}");
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected salt-api failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.SALT_API_FAILURE, e.getFailureReason());
+        }
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(responseEntity);
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testExecuteStepWithErrorResponse() throws Exception {
+        setupResponse(HttpStatus.SC_INTERNAL_SERVER_ERROR, "error");
+        Mockito.doReturn("error").when(plugin).extractBodyFromEntity(responseEntity);
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected communication failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.COMMUNICATION_FAILURE, e.getFailureReason());
+        }
+    }
+
+    @Test
+    public void testExecuteStepWithUnsupportedVersion() throws Exception {
+        plugin.saltApiVersion = "0.7.5";
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected invalid arguments");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.ARGUMENTS_INVALID, e.getFailureReason());
+        }
+        Mockito.verifyZeroInteractions(client, post);
+    }
+
+    @Test
+    public void testExecuteStepWithAuthenticationFailure() throws Exception {
+        Mockito.doReturn(null)
+                .when(plugin)
+                .authenticate(Mockito.any(SaltApiCapability.class), Mockito.same(client), Mockito.eq(PARAM_USER),
+                        Mockito.eq(PARAM_PASSWORD));
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected authentication failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.AUTHENTICATION_FAILURE, e.getFailureReason());
+        }
+    }
+
+    @Test
+    public void testExecuteStepWithMissingDataContext() throws Exception {
+        dataContext.clear();
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected missing arguments");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.ARGUMENTS_MISSING, e.getFailureReason());
+        }
+    }
+
+    @Test
+    public void testValidateMissingTarget() throws Exception {
+        plugin.target = " ";
+        assertValidationFailure(SaltApiNodeStepFailureReason.ARGUMENTS_MISSING);
+    }
+
+    @Test
+    public void testValidateInvalidTargetType() throws Exception {
+        plugin.targetType = "pcre";
+        assertValidationFailure(SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+    }
+
+    @Test
+    public void testValidateInvalidCompletionPolicy() throws Exception {
+        for (String percentage : new String[] { "0", "101", "abc" }) {
+            plugin.successPercentage = percentage;
+            assertValidationFailure(SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+        plugin.successPercentage = "100";
+        plugin.maximumFailures = "0";
+        assertValidationFailure(SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        plugin.maximumFailures = "3";
+        plugin.minionTimeout = "-5";
+        assertValidationFailure(SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        plugin.minionTimeout = "5";
+        plugin.deadline = "soon";
+        assertValidationFailure(SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        plugin.deadline = "600";
+        plugin.validate(PARAM_USER, PARAM_PASSWORD);
+    }
+
+    @Test
+    public void testValidateMissingBatchSizeForAdaptiveBatching() throws Exception {
+        plugin.adaptiveBatching = true;
+        plugin.batchSize = null;
+        assertValidationFailure(SaltApiNodeStepFailureReason.ARGUMENTS_MISSING);
+    }
+
+    @Test
+    public void testValidateInvalidBatchSize() throws Exception {
+        for (String size : new String[] { "0", "-1", "abc", "10%%", "101%", "0%" }) {
+            plugin.batchSize = size;
+            assertValidationFailure(SaltApiNodeStepFailureReason.ARGUMENTS_INVALID);
+        }
+    }
+
+    @Test
+    public void testValidateValidBatchSize() throws Exception {
+        for (String size : new String[] { "1", "25", "1%", "100%", " 10% ", "", null }) {
+            plugin.batchSize = size;
+            plugin.validate(PARAM_USER, PARAM_PASSWORD);
+        }
+    }
+
+    @Test
+    public void testGetInitialBatchSize() {
+        plugin.batchSize = "10%";
+        Assert.assertEquals(1, plugin.getInitialBatchSize(5));
+        Assert.assertEquals(3, plugin.getInitialBatchSize(21));
+        plugin.batchSize = "4";
+        Assert.assertEquals(4, plugin.getInitialBatchSize(21));
+    }
+
+    @Test
+    public void testExecuteAdaptiveBatches() throws Exception {
+        plugin.adaptiveBatching = true;
+        plugin.batchSize = "2";
+        plugin.targetLatency = Long.MAX_VALUE;
+        plugin.maximumFailureRate = 0.5;
+        List<String> minions = ImmutableList.of("m0", "m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8", "m9");
+        Mockito.doReturn(minions).when(plugin).findTargetedMinions(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+        setupBatchOutcome(ImmutableSet.<String>of());
+
+        plugin.executeStep(pluginContext, configuration);
+
+        Mockito.verify(plugin, Mockito.times(1)).executeBatch(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq("m0,m1"), Mockito.eq("list"), Mockito.eq("2"),
+                Mockito.anySetOf(String.class), Mockito.any(FleetExecutionSummary.class));
+        Mockito.verify(plugin, Mockito.times(1)).executeBatch(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq("m2,m3,m4,m5"), Mockito.eq("list"),
+                Mockito.eq("4"), Mockito.anySetOf(String.class), Mockito.any(FleetExecutionSummary.class));
+        Mockito.verify(plugin, Mockito.times(1)).executeBatch(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq("m6,m7,m8,m9"), Mockito.eq("list"),
+                Mockito.eq("4"), Mockito.anySetOf(String.class), Mockito.any(FleetExecutionSummary.class));
+    }
+
+    @Test
+    public void testExecuteAdaptiveBatchesShrinksOnMissingReturns() throws Exception {
+        plugin.adaptiveBatching = true;
+        plugin.batchSize = "4";
+        plugin.targetLatency = Long.MAX_VALUE;
+        plugin.maximumFailureRate = 0.1;
+        List<String> minions = ImmutableList.of("m0", "m1", "m2", "m3", "m4", "m5");
+        Mockito.doReturn(minions).when(plugin).findTargetedMinions(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+        setupBatchOutcome(ImmutableSet.of("m1"));
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected step failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+            Assert.assertEquals("5 of 6 minions succeeded, [m1] no return", e.getMessage());
+        }
+        Mockito.verify(plugin, Mockito.times(1)).executeBatch(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq("m4,m5"), Mockito.eq("list"), Mockito.eq("2"),
+                Mockito.anySetOf(String.class), Mockito.any(FleetExecutionSummary.class));
+    }
+
+    @Test
+    public void testExecuteAdaptiveBatchesStopsOnceFailed() throws Exception {
+        plugin.adaptiveBatching = true;
+        plugin.batchSize = "2";
+        plugin.maximumFailures = "1";
+        plugin.targetLatency = Long.MAX_VALUE;
+        List<String> minions = ImmutableList.of("m0", "m1", "m2", "m3", "m4", "m5");
+        Mockito.doReturn(minions).when(plugin).findTargetedMinions(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+        setupBatchOutcome(ImmutableSet.of("m1"));
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected step failure");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+            Assert.assertEquals("1 of 6 minions succeeded, [m1] no return, 4 minions abandoned", e.getMessage());
+        }
+        Mockito.verify(plugin, Mockito.times(1)).executeBatch(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.anyString(), Mockito.anyString(),
+                Mockito.anyString(), Mockito.anySetOf(String.class), Mockito.any(FleetExecutionSummary.class));
+    }
+
+    @Test
+    public void testExecuteStepPassesMinionTimeoutToBatches() throws Exception {
+        plugin.minionTimeout = "30";
+        Mockito.doReturn(ImmutableList.of("web1")).when(plugin).findTargetedMinions(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+        setupResponse(HttpStatus.SC_OK, "{\"return\": [{\"web1\": \"out1\"}]}");
+        setupReturn("\"out1\"", 0);
+
+        plugin.executeStep(pluginContext, configuration);
+
+        Assert.assertEquals("Expected salt's batch timeout to be set",
+                "[{\"client\":\"local_batch\",\"fun\":\"some.function\",\"tgt\":\"web*\",\"batch\":\"10%\",\"timeout\":30}]",
+                capturePostBody());
+    }
+
+    @Test
+    public void testExecuteAdaptiveBatchesWithNoMatchingMinions() throws Exception {
+        plugin.adaptiveBatching = true;
+        Mockito.doReturn(ImmutableList.of()).when(plugin).findTargetedMinions(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+
+        try {
+            plugin.executeStep(pluginContext, configuration);
+            Assert.fail("Expected targetting mismatch");
+        } catch (StepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.SALT_TARGET_MISMATCH, e.getFailureReason());
+        }
+    }
+
+    @Test
+    public void testFindTargetedMinions() throws Exception {
+        Mockito.doCallRealMethod().when(plugin)
+                .findTargetedMinions(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+        setupResponse(HttpStatus.SC_OK, null);
+        Mockito.doReturn("{\"return\": [{\"web1\": true, \"web2\": true}]}").when(plugin)
+                .extractBodyFromEntity(responseEntity);
+        plugin.logWrapper = Mockito.mock(LogWrapper.class);
+
+        Assert.assertEquals(ImmutableList.of("web1", "web2"),
+                plugin.findTargetedMinions(client, SaltApiAuthorization.forToken(AUTH_TOKEN)));
+        Assert.assertEquals("Expected a ping of the target",
+                "[{\"client\":\"local\",\"fun\":\"test.ping\",\"tgt\":\"web*\"}]", capturePostBody());
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(responseEntity);
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    protected void assertValidationFailure(SaltApiNodeStepFailureReason reason) {
+        try {
+            plugin.validate(PARAM_USER, PARAM_PASSWORD);
+            Assert.fail("Expected validation failure");
+        } catch (StepException e) {
+            Assert.assertEquals(reason, e.getFailureReason());
+        }
+    }
+
+    /**
+     * Records every minion of each executed batch as successful, except for the given ones which do not return.
+     */
+    @SuppressWarnings("unchecked")
+    protected void setupBatchOutcome(final Set<String> missingMinions) throws Exception {
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                FleetExecutionSummary summary = (FleetExecutionSummary) invocation.getArguments()[6];
+                for (String minionId : ((String) invocation.getArguments()[2]).split(",")) {
+                    if (!missingMinions.contains(minionId)) {
+                        summary.recordSuccess(minionId);
+                    }
+                }
+                return null;
+            }
+        }).when(plugin).executeBatch(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.anyString(), Mockito.anyString(), Mockito.anyString(), Mockito.any(Set.class),
+                Mockito.any(FleetExecutionSummary.class));
+    }
+
+    protected void setupReturn(String output, int exitCode) throws Exception {
+        SaltReturnResponse saltResponse = new SaltReturnResponse();
+        saltResponse.setExitCode(exitCode);
+        Mockito.when(returnHandler.extractResponse(output)).thenReturn(saltResponse);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected void setupResponse(int code, String body) throws Exception {
+        StatusLine statusLine = Mockito.mock(StatusLine.class);
+        Mockito.when(response.getStatusLine()).thenReturn(statusLine);
+        Mockito.when(statusLine.getStatusCode()).thenReturn(code);
+        if (body != null) {
+            Mockito.when(responseEntity.getContent()).thenReturn(new ByteArrayInputStream(body.getBytes("UTF-8")));
+        }
+        Mockito.when(
+                retryingExecutor.execute(Mockito.any(LogWrapper.class), Mockito.same(client), Mockito.same(post),
+                        Mockito.anyInt(), Mockito.any(Predicate.class))).thenReturn(response);
+    }
+
+    protected void setupSingleJob(String... minions) throws Exception {
+        setupResponse(HttpStatus.SC_OK, null);
+        Mockito.doReturn(String.format("{\"return\": [{\"jid\": \"20130903200912838566\", \"minions\": [\"%s\"]}]}",
+                Joiner.on("\", \"").join(minions))).when(plugin).extractBodyFromEntity(responseEntity);
+    }
+
+    /**
+     * Sets up the responses of the job lookups, one body per lookup with the last one repeating.
+     */
+    protected void setupJobResponse(int code, String... bodies) throws Exception {
+        HttpResponse jobResponse = Mockito.mock(HttpResponse.class);
+        StatusLine statusLine = Mockito.mock(StatusLine.class);
+        Mockito.when(jobResponse.getStatusLine()).thenReturn(statusLine);
+        Mockito.when(statusLine.getStatusCode()).thenReturn(code);
+        HttpEntity jobEntity = Mockito.mock(HttpEntity.class);
+        Mockito.when(jobResponse.getEntity()).thenReturn(jobEntity);
+        if (bodies.length > 0) {
+            final Iterator<String> content = Iterators.forArray(bodies);
+            Mockito.when(jobEntity.getContent()).thenAnswer(new Answer<InputStream>() {
+                String body;
+
+                @Override
+                public InputStream answer(InvocationOnMock invocation) throws Throwable {
+                    if (content.hasNext()) {
+                        body = content.next();
+                    }
+                    return new ByteArrayInputStream(body.getBytes("UTF-8"));
+                }
+            });
+        }
+        Mockito.when(
+                retryingExecutor.execute(Mockito.any(LogWrapper.class), Mockito.same(client), Mockito.same(get),
+                        Mockito.anyInt())).thenReturn(jobResponse);
+    }
+
+    protected String capturePostBody() throws Exception {
+        ArgumentCaptor<StringEntity> captor = ArgumentCaptor.forClass(StringEntity.class);
+        Mockito.verify(post, Mockito.times(1)).setEntity(captor.capture());
+        return IOUtils.toString(captor.getValue().getContent());
+    }
+}
@@ -32,6 +32,7 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.rundeck.plugin.salt.output.MinionReturn;
 import org.rundeck.plugin.salt.output.SaltReturnResponse;
 
 public class SaltApiNodeStepPlugin_0_7_5_Test extends AbstractSaltApiNodeStepPlugin_BackwardsCompatabilityTest {
@@ -70,7 +71,8 @@ public class SaltApiNodeStepPlugin_0_7_5_Test extends AbstractSaltApiNodeStepPlu
     public void testDoesNotAttemptToLogout() throws Exception {
         setupAuthenticate();
         Mockito.doReturn("foo").when(plugin).submitJob(Mockito.same(legacyCapability), Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.anySet());
-        Mockito.doReturn("foo").when(plugin).waitForJidResponse(Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+        Mockito.doReturn(MinionReturn.fromJson("foo")).when(plugin)
+                .waitForJidResponse(Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
         SaltReturnResponse response = new SaltReturnResponse();
         response.setExitCode(0);
         Mockito.doReturn(response).when(returnHandler).extractResponse(Mockito.anyString());
@@ -0,0 +1,198 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiNodeStepPlugin_AttachRunningTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final List<String> KEY = ImmutableList.of(PARAM_ENDPOINT, PARAM_USER, PARAM_EAUTH,
+            PARAM_MINION_NAME);
+    protected static final String RUNNING_JID = "20130213093536481554";
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        runningJobCache = Mockito.spy(new RunningJobCache());
+        runningJobCache.cacheInterval = 2000;
+        plugin.runningJobCache = runningJobCache;
+        plugin.function = "state.sls webserver test=True";
+        plugin.attachRunning = true;
+    }
+
+    @Test
+    public void testLoadRunningJobs() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format("{\"return\": [{\"%s\": ["
+                + "{\"jid\": \"%s\", \"fun\": \"state.sls\", \"user\": \"%s\","
+                + " \"arg\": [\"webserver\", {\"__kwarg__\": true, \"test\": true}]},"
+                + "{\"jid\": \"%s\", \"fun\": \"test.sleep\", \"user\": \"%s\", \"arg\": [30]},"
+                + "{\"jid\": \"1\", \"fun\": \"state.sls\", \"user\": \"other\", \"arg\": [\"webserver\"]},"
+                + "{\"jid\": \"2\", \"fun\": \"state.sls\", \"arg\": [\"webserver\"]}]}]}", PARAM_MINION_NAME,
+                RUNNING_JID, PARAM_USER, OUTPUT_JID, PARAM_USER));
+
+        List<RunningJob> jobs = plugin.loadRunningJobs(client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                PARAM_USER, PARAM_MINION_NAME);
+
+        Assert.assertEquals("Expected jobs of other or unknown users to be left out", 2, jobs.size());
+        Assert.assertEquals(RUNNING_JID, jobs.get(0).getJid());
+        Assert.assertTrue("Expected keyword args to be given as key=value",
+                jobs.get(0).matches("state.sls", ImmutableList.of("webserver", "test=true")));
+        Assert.assertTrue(jobs.get(1).matches("test.sleep", ImmutableList.of("30")));
+
+        assertPostBody("client=local&tgt=%s&fun=saltutil.running", PARAM_MINION_NAME);
+        Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiNodeStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(Mockito.same(responseEntity));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testLoadRunningJobsWhenMinionDidNotAnswer() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\": [{}]}");
+
+        Assert.assertTrue("Expected no running jobs", plugin.loadRunningJobs(client,
+                SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER, PARAM_MINION_NAME).isEmpty());
+    }
+
+    @Test
+    public void testLoadRunningJobsWithErrorResponse() throws Exception {
+        setupResponse(post, HttpStatus.SC_INTERNAL_SERVER_ERROR, "error");
+
+        Assert.assertTrue("Expected no running jobs", plugin.loadRunningJobs(client,
+                SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER, PARAM_MINION_NAME).isEmpty());
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testLoadRunningJobsWithMalformedResponse() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format(
+                "{\"return\": [{\"%s\": [{\"user\": \"%s\", \"arg\": []}]}]}", PARAM_MINION_NAME, PARAM_USER));
+
+        try {
+            plugin.loadRunningJobs(client, SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER, PARAM_MINION_NAME);
+            Assert.fail("Expected salt-api exception");
+        } catch (SaltApiException e) {
+            // expected
+        }
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testDispatchAttachesToRunningJob() throws Exception {
+        setupRunningJobs(new RunningJob(OUTPUT_JID, "state.sls", ImmutableList.of("other")), new RunningJob(
+                RUNNING_JID, "state.sls", ImmutableList.of("webserver", "test=True")));
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .awaitJob(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(RUNNING_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        Assert.assertEquals("{}", dispatchJob().toJson());
+
+        Mockito.verify(runningJobCache, Mockito.times(1)).get(Mockito.eq(KEY),
+                Mockito.any(RunningJobCache.Loader.class));
+        Mockito.verify(plugin, Mockito.never()).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.<Set<String>> any());
+        Mockito.verify(plugin, Mockito.never()).waitForJob(Mockito.any(HttpClient.class),
+                Mockito.any(SaltApiAuthorization.class), Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void testDispatchRecordsSubmittedJob() throws Exception {
+        setupRunningJobs(new RunningJob(RUNNING_JID, "state.sls", ImmutableList.of("webserver")));
+        Mockito.doReturn(OUTPUT_JID).when(plugin).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.<Set<String>> any());
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .waitForJob(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        Assert.assertEquals("{}", dispatchJob().toJson());
+
+        Mockito.verify(runningJobCache, Mockito.times(1)).record(Mockito.eq(KEY), Mockito.argThat(
+                new ArgumentMatcher<RunningJob>() {
+                    @Override
+                    public boolean matches(Object argument) {
+                        return ((RunningJob) argument).getJid().equals(OUTPUT_JID)
+                                && ((RunningJob) argument).matches("state.sls", ImmutableList.of("webserver",
+                                        "test=True"));
+                    }
+                }));
+    }
+
+    @Test
+    public void testDispatchAbandonsClaimWhenSubmitFails() throws Exception {
+        setupRunningJobs();
+        Mockito.doThrow(new SaltApiException("failed")).when(plugin).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.<Set<String>> any());
+
+        try {
+            dispatchJob();
+            Assert.fail("Expected salt-api exception");
+        } catch (SaltApiException e) {
+            // expected
+        }
+
+        Mockito.verify(runningJobCache, Mockito.times(1)).abandon(KEY, "state.sls", ImmutableList.of("webserver",
+                "test=True"));
+        Assert.assertTrue("Expected the claim to be released", runningJobCache.dispatches.isEmpty());
+    }
+
+    @Test
+    public void testDispatchWithoutAttaching() throws Exception {
+        plugin.attachRunning = false;
+        Mockito.doReturn(OUTPUT_JID).when(plugin).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.<Set<String>> any());
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .waitForJob(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        Assert.assertEquals("{}", dispatchJob().toJson());
+
+        Mockito.verifyZeroInteractions(runningJobCache);
+    }
+
+    protected MinionReturn dispatchJob() throws Exception {
+        return plugin.dispatchJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER,
+                PARAM_MINION_NAME, ImmutableSet.<String> of(), null);
+    }
+
+    protected void setupRunningJobs(RunningJob... jobs) throws Exception {
+        Mockito.doReturn(ImmutableList.copyOf(jobs)).when(runningJobCache).get(Mockito.any(),
+                Mockito.any(RunningJobCache.Loader.class));
+    }
+}
@@ -46,9 +46,9 @@ public class SaltApiNodeStepPlugin_CapabilityTest extends AbstractSaltApiNodeSte
     @Test
     public void testGetCapabilityWithNoVersionSupplied() {
         SaltApiCapability capability = new SaltApiCapability();
-        Mockito.when(registry.getLatest()).thenReturn(capability);
+        Mockito.when(registry.getDefault()).thenReturn(capability);
 
-        Assert.assertSame("Expected unset version to return latest known capability", capability,
+        Assert.assertSame("Expected unset version to return default capability", capability,
                 plugin.getSaltApiCapability());
     }
 
@@ -56,9 +56,9 @@ public class SaltApiNodeStepPlugin_CapabilityTest extends AbstractSaltApiNodeSte
     public void testGetCapabilityWithBlankVersionSupplied() {
         plugin.saltApiVersion = "   ";
         SaltApiCapability capability = new SaltApiCapability();
-        Mockito.when(registry.getLatest()).thenReturn(capability);
+        Mockito.when(registry.getDefault()).thenReturn(capability);
 
-        Assert.assertSame("Expected blank version to return latest known capability", capability,
+        Assert.assertSame("Expected blank version to return default capability", capability,
                 plugin.getSaltApiCapability());
     }
 
@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.StringEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltReturnHandler;
+import org.rundeck.plugin.salt.output.SaltReturnHandlerAdapter;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltTreeReturnHandler;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiNodeStepPlugin_CompoundTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final String COMPOUND_FUNCTION = "test.ping\n\n  cmd.run \"echo secret\"  \r\nstate.sls web";
+    protected static final String COMPOUND_RETURN = "{\"test.ping\":true,\"cmd.run\":\"secret\",\"state.sls\":{}}";
+
+    protected SaltReturnHandler cmdHandler;
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        ((SaltApiNodeStepPlugin) plugin).compound = true;
+        plugin.function = COMPOUND_FUNCTION;
+        cmdHandler = Mockito.mock(SaltReturnHandler.class);
+        Mockito.when(returnHandlerRegistry.getTreeHandlerFor(Mockito.eq("cmd.run"),
+                Mockito.any(SaltTreeReturnHandler.class))).thenReturn(new SaltReturnHandlerAdapter(cmdHandler));
+    }
+
+    @Test
+    public void testShouldExecuteCompound() {
+        Assert.assertTrue("Expected multiple lines to execute as compound job", plugin.shouldExecuteCompound());
+        plugin.function = "test.ping\n";
+        Assert.assertFalse("Expected a single function to execute as regular job", plugin.shouldExecuteCompound());
+        plugin.function = COMPOUND_FUNCTION;
+        ((SaltApiNodeStepPlugin) plugin).compound = false;
+        Assert.assertFalse("Expected regular job unless compound execution is requested",
+                plugin.shouldExecuteCompound());
+    }
+
+    @Test
+    public void testCreateCompoundLowstateChunk() {
+        LowstateChunk chunk = plugin.createCompoundLowstateChunk(PARAM_MINION_NAME, ImmutableSet.of("secret"));
+
+        Assert.assertEquals("Expected one function per non-blank line",
+                ImmutableList.of("test.ping", "cmd.run", "state.sls"), chunk.getFunctions());
+        Assert.assertEquals("Expected args to be parsed per function", ImmutableList.of(ImmutableList.of(),
+                ImmutableList.of("echo secret"), ImmutableList.of("web")), chunk.getArgs());
+        Assert.assertEquals("Expected secure data to be masked in printable args",
+                ImmutableList.of(ImmutableList.of(), ImmutableList.of("echo ****"), ImmutableList.of("web")),
+                chunk.toPrintableLowstate().get("arg"));
+        Assert.assertEquals("Expected minion to be targeted", PARAM_MINION_NAME, chunk.getTarget());
+    }
+
+    @Test
+    public void testSubmitCompoundJob() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format("{\"return\":[{\"jid\":\"%s\",\"minions\":[\"%s\"]}]}",
+                OUTPUT_JID, PARAM_MINION_NAME));
+        LowstateChunk chunk = plugin.createCompoundLowstateChunk(PARAM_MINION_NAME, ImmutableSet.<String> of());
+
+        Assert.assertEquals("Expected jid of compound job", OUTPUT_JID, plugin.submitCompoundJob(latestCapability,
+                client, SaltApiAuthorization.forToken(AUTH_TOKEN), chunk));
+
+        ArgumentCaptor<StringEntity> captor = ArgumentCaptor.forClass(StringEntity.class);
+        Mockito.verify(post, Mockito.times(1)).setEntity(captor.capture());
+        Assert.assertEquals("Expected compound lowstate in post body", String.format(
+                "[{\"client\":\"local_async\",\"fun\":[\"test.ping\",\"cmd.run\",\"state.sls\"],\"tgt\":\"%s\","
+                        + "\"arg\":[[],[\"echo secret\"],[\"web\"]]}]", PARAM_MINION_NAME),
+                IOUtils.toString(captor.getValue().getContent()));
+        Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiNodeStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+    }
+
+    @Test(expected = SaltTargettingMismatchException.class)
+    public void testSubmitCompoundJobTargettingMismatch() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format("{\"return\":[{\"jid\":\"%s\",\"minions\":[]}]}",
+                OUTPUT_JID));
+        LowstateChunk chunk = plugin.createCompoundLowstateChunk(PARAM_MINION_NAME, ImmutableSet.<String> of());
+
+        plugin.submitCompoundJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN), chunk);
+    }
+
+    @Test
+    public void testSplitCompoundReturn() throws Exception {
+        Map<String, MinionReturn> returns = plugin.splitCompoundReturn(MinionReturn.fromJson(COMPOUND_RETURN),
+                ImmutableList.of("test.ping", "cmd.run", "state.sls"));
+
+        Assert.assertEquals("Expected each function's return in order", ImmutableMap.of("test.ping", "true",
+                "cmd.run", "\"secret\"", "state.sls", "{}"), toJson(returns));
+        Assert.assertEquals("Expected functions in submission order", ImmutableList.of("test.ping", "cmd.run",
+                "state.sls"), ImmutableList.copyOf(returns.keySet()));
+    }
+
+    @Test(expected = SaltApiException.class)
+    public void testSplitCompoundReturnMissingFunction() throws Exception {
+        plugin.splitCompoundReturn(MinionReturn.fromJson("{\"test.ping\":true}"),
+                ImmutableList.of("test.ping", "cmd.run"));
+    }
+
+    @Test(expected = SaltApiException.class)
+    public void testSplitCompoundReturnNotAnObject() throws Exception {
+        plugin.splitCompoundReturn(MinionReturn.fromJson("\"'cmd.run' is not available.\""),
+                ImmutableList.of("test.ping", "cmd.run"));
+    }
+
+    @Test
+    public void testExecuteCompoundJob() throws Exception {
+        setupCompoundJob();
+        Mockito.when(returnHandler.extractResponse(Mockito.anyString())).thenReturn(response(0));
+        Mockito.when(cmdHandler.extractResponse(Mockito.anyString())).thenReturn(response(0));
+
+        plugin.executeCompoundJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                PARAM_MINION_NAME, ImmutableSet.<String> of());
+
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("true");
+        Mockito.verify(cmdHandler, Mockito.times(1)).extractResponse("\"secret\"");
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("{}");
+    }
+
+    @Test
+    public void testExecuteCompoundJobWithFailedFunction() throws Exception {
+        setupCompoundJob();
+        Mockito.when(returnHandler.extractResponse(Mockito.anyString())).thenReturn(response(0));
+        Mockito.when(cmdHandler.extractResponse(Mockito.anyString())).thenReturn(response(2));
+
+        try {
+            plugin.executeCompoundJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                    PARAM_MINION_NAME, ImmutableSet.<String> of());
+            Assert.fail("Expected node step failure for failed function");
+        } catch (NodeStepException e) {
+            Assert.assertEquals("Expected exit code failure", SaltApiNodeStepFailureReason.EXIT_CODE,
+                    e.getFailureReason());
+            Assert.assertTrue("Expected failed function to be reported", e.getMessage().contains("cmd.run"));
+        }
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse("{}");
+    }
+
+    @Test
+    public void testExecuteWithCompoundFunctionUnsupported() throws Exception {
+        setupAuthenticate();
+        plugin.saltApiVersion = "0.8.2";
+
+        try {
+            plugin.executeNodeStep(pluginContext, configuration, node);
+            Assert.fail("Expected node step failure for unsupported compound functions");
+        } catch (NodeStepException e) {
+            Assert.assertEquals("Expected invalid arguments failure", SaltApiNodeStepFailureReason.ARGUMENTS_INVALID,
+                    e.getFailureReason());
+        }
+    }
+
+    protected void setupCompoundJob() throws Exception {
+        Mockito.doReturn(OUTPUT_JID)
+                .when(plugin)
+                .submitCompoundJob(Mockito.same(latestCapability), Mockito.same(client),
+                        Mockito.any(SaltApiAuthorization.class), Mockito.any(LowstateChunk.class));
+        Mockito.doReturn(MinionReturn.fromJson(COMPOUND_RETURN)).when(plugin)
+                .waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME);
+    }
+
+    protected SaltReturnResponse response(int exitCode) {
+        SaltReturnResponse response = new SaltReturnResponse();
+        response.setExitCode(exitCode);
+        return response;
+    }
+}
@@ -36,9 +36,13 @@ import org.junit.Test;
 import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.output.MinionReturn;
 import org.rundeck.plugin.salt.output.SaltReturnResponse;
 import org.rundeck.plugin.salt.output.SaltReturnResponseParseException;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.rundeck.plugin.salt.util.DeadlineExceededException;
 import org.rundeck.plugin.salt.validation.SaltStepValidationException;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
 
 import java.util.Set;
 
@@ -169,7 +173,7 @@ public class SaltApiNodeStepPlugin_ExecuteTest extends AbstractSaltApiNodeStepPl
 
         plugin.executeNodeStep(pluginContext, configuration, node);
 
-        Mockito.verify(returnHandlerRegistry, Mockito.times(1)).getHandlerFor(Mockito.eq(PARAM_FUNCTION),
+        Mockito.verify(returnHandlerRegistry, Mockito.times(1)).getTreeHandlerFor(Mockito.eq(PARAM_FUNCTION),
                 Mockito.same(plugin.defaultReturnHandler));
         Mockito.verify(returnHandler, Mockito.times(1)).extractResponse(Mockito.eq(HOST_RESPONSE));
 
@@ -202,7 +206,7 @@ public class SaltApiNodeStepPlugin_ExecuteTest extends AbstractSaltApiNodeStepPl
                     SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
         }
 
-        Mockito.verify(returnHandlerRegistry, Mockito.times(1)).getHandlerFor(Mockito.eq(PARAM_FUNCTION),
+        Mockito.verify(returnHandlerRegistry, Mockito.times(1)).getTreeHandlerFor(Mockito.eq(PARAM_FUNCTION),
                 Mockito.same(plugin.defaultReturnHandler));
         Mockito.verify(returnHandler, Mockito.times(1)).extractResponse(Mockito.eq(HOST_RESPONSE));
 
@@ -231,7 +235,7 @@ public class SaltApiNodeStepPlugin_ExecuteTest extends AbstractSaltApiNodeStepPl
             Assert.assertSame("Expected parse exception to be set as root cause", pe, e.getCause());
         }
 
-        Mockito.verify(returnHandlerRegistry, Mockito.times(1)).getHandlerFor(Mockito.eq(PARAM_FUNCTION),
+        Mockito.verify(returnHandlerRegistry, Mockito.times(1)).getTreeHandlerFor(Mockito.eq(PARAM_FUNCTION),
                 Mockito.same(plugin.defaultReturnHandler));
         Mockito.verify(returnHandler, Mockito.times(1)).extractResponse(Mockito.eq(HOST_RESPONSE));
     }
@@ -250,6 +254,24 @@ public class SaltApiNodeStepPlugin_ExecuteTest extends AbstractSaltApiNodeStepPl
         }
     }
 
+    @Test
+    public void testExecuteWithJobNotRunning() throws Exception {
+        setupAuthenticate();
+        setupDoReturnJidWhenSubmitJob();
+        Mockito.doThrow(new SaltJobNotRunningException("Some message"))
+                .when(plugin)
+                .waitForJidResponse(Mockito.same(client), Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID),
+                        Mockito.eq(PARAM_MINION_NAME));
+
+        try {
+            plugin.executeNodeStep(pluginContext, configuration, node);
+            Assert.fail("Expected node step failure.");
+        } catch (NodeStepException e) {
+            Assert.assertEquals("Expected failure reason to be set based on exception type",
+                    SaltApiNodeStepFailureReason.JOB_NOT_RUNNING, e.getFailureReason());
+        }
+    }
+
     @Test
     public void testExecuteWithSaltTargettingException() {
         setupAuthenticate();
@@ -296,6 +318,86 @@ public class SaltApiNodeStepPlugin_ExecuteTest extends AbstractSaltApiNodeStepPl
         }
     }
 
+    @Test
+    public void testExecuteWithSynchronousFunction() throws Exception {
+        setupAuthenticate();
+        setupDoReturnSaltResponseWhenExtractResponse(0, new String[0], new String[0]);
+        plugin.function = "test.ping";
+        Mockito.doReturn(MinionReturn.fromJson(HOST_RESPONSE)).when(plugin)
+                .submitSynchronousJob(Mockito.same(latestCapability), Mockito.same(client),
+                        Mockito.any(SaltApiAuthorization.class), Mockito.eq(PARAM_MINION_NAME), Mockito.anySet());
+
+        plugin.executeNodeStep(pluginContext, configuration, node);
+
+        Mockito.verify(plugin, Mockito.never()).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.anySet());
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse(Mockito.eq(HOST_RESPONSE));
+    }
+
+    @Test
+    public void testExecuteWithSynchronousTimeoutDispatchesOnce() throws Exception {
+        setupAuthenticate();
+        setupDoReturnJidWhenSubmitJob();
+        setupDoReturnHostResponseWhenWaitForResponse();
+        setupDoReturnSaltResponseWhenExtractResponse(0, new String[0], new String[0]);
+        ((SaltApiNodeStepPlugin) plugin).syncTimeout = "5";
+
+        plugin.executeNodeStep(pluginContext, configuration, node);
+
+        Mockito.verify(plugin, Mockito.never()).submitSynchronousJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.any(SaltApiAuthorization.class), Mockito.anyString(),
+                Mockito.anySet());
+        Mockito.verify(plugin, Mockito.times(1)).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.anySet());
+        Mockito.verify(plugin, Mockito.times(1)).waitForJidResponse(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse(Mockito.eq(HOST_RESPONSE));
+    }
+
+    @Test
+    public void testExecuteWithSynchronousFunctionTimeoutFallsBackToPolling() throws Exception {
+        setupAuthenticate();
+        setupDoReturnJidWhenSubmitJob();
+        setupDoReturnHostResponseWhenWaitForResponse();
+        setupDoReturnSaltResponseWhenExtractResponse(0, new String[0], new String[0]);
+        plugin.function = "test.ping";
+        Mockito.doReturn(null).when(plugin)
+                .submitSynchronousJob(Mockito.same(latestCapability), Mockito.same(client),
+                        Mockito.any(SaltApiAuthorization.class), Mockito.eq(PARAM_MINION_NAME), Mockito.anySet());
+
+        plugin.executeNodeStep(pluginContext, configuration, node);
+
+        InOrder ordering = Mockito.inOrder(plugin);
+        ordering.verify(plugin, Mockito.times(1)).submitSynchronousJob(Mockito.same(latestCapability),
+                Mockito.same(client), Mockito.any(SaltApiAuthorization.class), Mockito.eq(PARAM_MINION_NAME),
+                Mockito.anySet());
+        ordering.verify(plugin, Mockito.times(1)).submitJob(Mockito.same(latestCapability), Mockito.same(client),
+                Mockito.eq(AUTH_TOKEN), Mockito.eq(PARAM_MINION_NAME), Mockito.anySet());
+        ordering.verify(plugin, Mockito.times(1)).waitForJidResponse(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+    }
+
+    @Test
+    public void testExecuteStatelessly() throws Exception {
+        plugin.stateless = true;
+        setupDoReturnSaltResponseWhenExtractResponse(0, new String[0], new String[0]);
+        Mockito.doReturn(OUTPUT_JID)
+                .when(plugin)
+                .submitLowstateJob(Mockito.same(latestCapability), Mockito.same(client),
+                        Mockito.any(SaltApiAuthorization.class), Mockito.eq(PARAM_MINION_NAME), Mockito.anySet());
+        Mockito.doReturn(MinionReturn.fromJson(HOST_RESPONSE))
+                .when(plugin)
+                .waitForLowstateJidResponse(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                        Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        plugin.executeNodeStep(pluginContext, configuration, node);
+
+        Mockito.verify(plugin, Mockito.never()).authenticate(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(plugin, Mockito.never()).logoutQuietly(Mockito.any(HttpClient.class), Mockito.anyString());
+        Mockito.verify(returnHandler, Mockito.times(1)).extractResponse(Mockito.eq(HOST_RESPONSE));
+    }
+
     @Test
     public void testExecuteWithInterruptedException() throws Exception {
         setupAuthenticate();
@@ -305,6 +407,7 @@ public class SaltApiNodeStepPlugin_ExecuteTest extends AbstractSaltApiNodeStepPl
                 .when(plugin)
                 .waitForJidResponse(Mockito.same(client), Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID),
                         Mockito.eq(PARAM_MINION_NAME));
+        setupDoNothingWhenKillJob();
 
         try {
             plugin.executeNodeStep(pluginContext, configuration, node);
@@ -313,6 +416,38 @@ public class SaltApiNodeStepPlugin_ExecuteTest extends AbstractSaltApiNodeStepPl
             Assert.assertEquals("Expected failure reason to be set based on exception type",
                     SaltApiNodeStepFailureReason.INTERRUPTED, e.getFailureReason());
         }
+        Mockito.verify(plugin, Mockito.times(1)).killJobQuietly(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME), Mockito.isNull(String.class));
+    }
+
+    @Test
+    public void testExecuteWithDeadlineExceeded() throws Exception {
+        setupAuthenticate();
+        setupDoReturnJidWhenSubmitJob();
+        Mockito.doThrow(new DeadlineExceededException())
+                .when(plugin)
+                .waitForJidResponse(Mockito.same(client), Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID),
+                        Mockito.eq(PARAM_MINION_NAME));
+        setupDoNothingWhenKillJob();
+        plugin.deadline = "30";
+
+        try {
+            plugin.executeNodeStep(pluginContext, configuration, node);
+            Assert.fail("Expected node step failure.");
+        } catch (NodeStepException e) {
+            Assert.assertEquals("Expected failure reason to be set based on exception type",
+                    SaltApiNodeStepFailureReason.DEADLINE_EXCEEDED, e.getFailureReason());
+        }
+        Mockito.verify(plugin, Mockito.times(1)).killJobQuietly(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME), Mockito.isNull(String.class));
+        Assert.assertFalse("Expected deadline to be cleared once the step completed", Deadline.current().isBounded());
+    }
+
+    protected void setupDoNothingWhenKillJob() {
+        Mockito.doNothing()
+                .when(plugin)
+                .killJobQuietly(Mockito.any(HttpClient.class), Mockito.any(SaltApiAuthorization.class),
+                        Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
     }
 
     protected SaltApiNodeStepPlugin_ExecuteTest setupDoReturnSaltResponseWhenExtractResponse(int exitCode,
@@ -331,7 +466,7 @@ public class SaltApiNodeStepPlugin_ExecuteTest extends AbstractSaltApiNodeStepPl
 
     protected SaltApiNodeStepPlugin_ExecuteTest setupDoReturnHostResponseWhenWaitForResponse() {
         try {
-            Mockito.doReturn(HOST_RESPONSE)
+            Mockito.doReturn(MinionReturn.fromJson(HOST_RESPONSE))
                     .when(plugin)
                     .waitForJidResponse(Mockito.same(client), Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID),
                             Mockito.eq(PARAM_MINION_NAME));
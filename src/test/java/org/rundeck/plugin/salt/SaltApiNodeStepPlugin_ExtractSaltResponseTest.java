@@ -48,7 +48,34 @@ public class SaltApiNodeStepPlugin_ExtractSaltResponseTest extends AbstractSaltA
         setupResponse(get, HttpStatus.SC_OK, HOST_JSON_RESPONSE);
 
         Assert.assertEquals("Expected host response to be parsed out from json response", HOST_RESPONSE,
-                plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME));
+                plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
+
+        assertThatJobPollAttemptedSuccessfully();
+    }
+
+    @Test
+    public void testExtractOutputForJidSkipsOtherMinions() throws Exception {
+        setupResponse(get, HttpStatus.SC_OK, String.format("{\"return\":[{\"other\":{\"x\":[1,{\"y\":2}]},"
+                + "\"%s\":{\"retcode\":0,\"stdout\":\"ok\"},\"last\":\"z\"}]}", PARAM_MINION_NAME));
+
+        Assert.assertEquals("Expected only the minion's return to be read",
+                "{\"retcode\":0,\"stdout\":\"ok\"}",
+                plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
+
+        Mockito.verify(plugin, Mockito.never()).extractBodyFromEntity(Mockito.same(responseEntity));
+        assertThatJobPollAttemptedSuccessfully();
+    }
+
+    @Test
+    public void testExtractOutputForJidMalformedResponse() throws Exception {
+        setupResponse(get, HttpStatus.SC_OK, "{\"return\":{}}");
+
+        try {
+            plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME);
+            Assert.fail("Expected exception for malformed response.");
+        } catch (SaltApiException e) {
+            // expected
+        }
 
         assertThatJobPollAttemptedSuccessfully();
     }
@@ -69,7 +96,7 @@ public class SaltApiNodeStepPlugin_ExtractSaltResponseTest extends AbstractSaltA
         setupResponse(get, HttpStatus.SC_OK, emptyHostResponse);
 
         Assert.assertEquals("Expected empty response for empty minion response", "\"\"",
-                plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME));
+                plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
 
         assertThatJobPollAttemptedSuccessfully();
     }
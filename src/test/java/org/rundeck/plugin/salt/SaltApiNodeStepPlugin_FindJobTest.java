@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import org.apache.http.HttpStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiNodeStepPlugin_FindJobTest extends AbstractSaltApiNodeStepPluginTest {
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+    }
+
+    @Test
+    public void testIsJobRunning() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format(
+                "{\"return\": [{\"%s\": {\"jid\": \"%s\", \"fun\": \"%s\"}}]}", PARAM_MINION_NAME, OUTPUT_JID,
+                PARAM_FUNCTION));
+
+        Assert.assertTrue("Expected job to be running",
+                plugin.isJobRunning(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, PARAM_MINION_NAME));
+
+        assertPostBody("client=local&tgt=%s&fun=saltutil.find_job&arg=%s", PARAM_MINION_NAME, OUTPUT_JID);
+        Assert.assertEquals("Expected lowstate endpoint to be used", PARAM_ENDPOINT + "/", post.getURI().toString());
+        Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiNodeStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(Mockito.same(responseEntity));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testIsJobRunningWhenMinionNotRunningJob() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format("{\"return\": [{\"%s\": {}}]}", PARAM_MINION_NAME));
+
+        Assert.assertFalse("Expected job not to be running",
+                plugin.isJobRunning(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, PARAM_MINION_NAME));
+    }
+
+    @Test
+    public void testIsJobRunningWhenMinionDidNotAnswer() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\": [{}]}");
+
+        Assert.assertFalse("Expected job not to be running",
+                plugin.isJobRunning(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, PARAM_MINION_NAME));
+    }
+
+    @Test
+    public void testFindMinionsNotRunningJob() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format(
+                "{\"return\": [{\"web1\": {\"jid\": \"%s\"}, \"web2\": {}}]}", OUTPUT_JID));
+
+        Assert.assertEquals(ImmutableSet.of("web2", "web3"), plugin.findMinionsNotRunningJob(client,
+                SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, ImmutableSet.of("web1", "web2", "web3")));
+
+        assertPostBody("client=local&tgt=web1%%2Cweb2%%2Cweb3&expr_form=list&fun=saltutil.find_job&arg=%s",
+                OUTPUT_JID);
+    }
+
+    @Test
+    public void testFindMinionsNotRunningJobWithErrorResponse() throws Exception {
+        setupResponse(post, HttpStatus.SC_INTERNAL_SERVER_ERROR, "error");
+
+        Assert.assertTrue("Expected jobs to be assumed running", plugin.findMinionsNotRunningJob(client,
+                SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, ImmutableSet.of("web1", "web2")).isEmpty());
+    }
+
+    @Test
+    public void testIsJobRunningWithErrorResponse() throws Exception {
+        setupResponse(post, HttpStatus.SC_INTERNAL_SERVER_ERROR, "error");
+
+        Assert.assertTrue("Expected job to be assumed running",
+                plugin.isJobRunning(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, PARAM_MINION_NAME));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testIsJobRunningWithMalformedResponse() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\": {}}");
+
+        try {
+            plugin.isJobRunning(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, PARAM_MINION_NAME);
+            Assert.fail("Expected salt-api exception");
+        } catch (SaltApiException e) {
+            // expected
+        }
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.client.HttpClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiNodeStepPlugin_JournalTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final List<String> SCOPE = ImmutableList.of("uuid", PARAM_ENDPOINT, PARAM_USER,
+            PARAM_MINION_NAME);
+    protected static final List<String> KEY = ImmutableList.of("uuid", PARAM_ENDPOINT, PARAM_USER,
+            PARAM_MINION_NAME, "state.sls", "webserver");
+    protected static final String JOURNALED_JID = "20130213093536481554";
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        plugin.function = "state.sls webserver";
+        Mockito.doReturn(OUTPUT_JID).when(plugin).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.<Set<String>> any());
+    }
+
+    @Test
+    public void testExecuteOnMinionJournalsForRundeckJob() throws Exception {
+        Mockito.when(jidJournal.isEnabled()).thenReturn(true);
+        dataContext.put("job", ImmutableMap.of("id", "uuid", "execid", "42"));
+        Mockito.doNothing().when(plugin).executeJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.any(SaltApiAuthorization.class), Mockito.anyString(),
+                Mockito.anyString(), Mockito.<Set<String>> any(), Mockito.<List<String>> any());
+
+        plugin.executeOnMinion(pluginContext, latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                PARAM_USER, node);
+
+        Mockito.verify(plugin, Mockito.times(1)).executeJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.any(SaltApiAuthorization.class), Mockito.eq(PARAM_USER),
+                Mockito.eq(PARAM_MINION_NAME), Mockito.<Set<String>> any(), Mockito.eq(SCOPE));
+    }
+
+    @Test
+    public void testDispatchJournalsJobUntilReturned() throws Exception {
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .awaitJob(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        Assert.assertEquals("{}", dispatchJob().toJson());
+
+        Mockito.verify(jidJournal, Mockito.times(1)).recordDispatched(KEY, OUTPUT_JID);
+        Mockito.verify(jidJournal, Mockito.times(1)).recordCompleted(KEY, OUTPUT_JID);
+    }
+
+    @Test
+    public void testDispatchKeepsJobJournaledWhenSaltApiUnreachable() throws Exception {
+        Mockito.doThrow(new IOException("unreachable")).when(plugin).awaitJob(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        try {
+            dispatchJob();
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+            // expected
+        }
+        Mockito.verify(jidJournal, Mockito.times(1)).recordDispatched(KEY, OUTPUT_JID);
+        Mockito.verify(jidJournal, Mockito.never()).recordCompleted(Mockito.<List<String>> any(),
+                Mockito.anyString());
+        Mockito.verify(jidJournal, Mockito.times(1)).release(OUTPUT_JID);
+    }
+
+    @Test
+    public void testDispatchKillsAndCompletesJobWhenAborted() throws Exception {
+        Mockito.doThrow(new InterruptedException()).when(plugin).awaitJob(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.doNothing().when(plugin).killJobQuietly(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.anyString(), Mockito.anyString(), Mockito.anyString());
+
+        try {
+            dispatchJob();
+            Assert.fail("Expected to be interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        Mockito.verify(plugin, Mockito.times(1)).killJobQuietly(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME),
+                Mockito.anyString());
+        Mockito.verify(jidJournal, Mockito.times(1)).recordCompleted(KEY, OUTPUT_JID);
+    }
+
+    @Test
+    public void testDispatchLeavesJobRunningAndJournaledOnShutdown() throws Exception {
+        Mockito.when(jidJournal.isClosed()).thenReturn(true);
+        Mockito.doThrow(new InterruptedException()).when(plugin).awaitJob(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        try {
+            dispatchJob();
+            Assert.fail("Expected to be interrupted");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        Mockito.verify(plugin, Mockito.never()).killJobQuietly(Mockito.any(HttpClient.class),
+                Mockito.any(SaltApiAuthorization.class), Mockito.anyString(), Mockito.anyString(),
+                Mockito.anyString());
+        Mockito.verify(jidJournal, Mockito.never()).recordCompleted(Mockito.<List<String>> any(),
+                Mockito.anyString());
+    }
+
+    @Test
+    public void testDispatchKeepsJobJournaledOnSaltApiFailure() throws Exception {
+        Mockito.doThrow(new SaltApiException("garbled")).when(plugin).awaitJob(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        try {
+            dispatchJob();
+            Assert.fail("Expected SaltApiException");
+        } catch (SaltApiException e) {
+            // expected
+        }
+        Mockito.verify(jidJournal, Mockito.never()).recordCompleted(Mockito.<List<String>> any(),
+                Mockito.anyString());
+    }
+
+    @Test
+    public void testDispatchResumesJournaledJob() throws Exception {
+        Mockito.when(jidJournal.claimLiveJid(KEY)).thenReturn(JOURNALED_JID);
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .awaitJob(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(JOURNALED_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        Assert.assertEquals("{}", dispatchJob().toJson());
+
+        Mockito.verify(plugin, Mockito.never()).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.<Set<String>> any());
+        Mockito.verify(jidJournal, Mockito.times(1)).recordCompleted(KEY, JOURNALED_JID);
+    }
+
+    @Test
+    public void testDispatchAgainWhenJournaledJobIsGone() throws Exception {
+        Mockito.when(jidJournal.claimLiveJid(KEY)).thenReturn(JOURNALED_JID);
+        Mockito.doThrow(new SaltJobNotRunningException("gone")).when(plugin).awaitJob(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(JOURNALED_JID), Mockito.eq(PARAM_MINION_NAME));
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .awaitJob(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        Assert.assertEquals("{}", dispatchJob().toJson());
+
+        Mockito.verify(jidJournal, Mockito.times(1)).recordCompleted(KEY, JOURNALED_JID);
+        Mockito.verify(jidJournal, Mockito.times(1)).recordDispatched(KEY, OUTPUT_JID);
+    }
+
+    @Test
+    public void testDispatchWithoutJournalScope() throws Exception {
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .awaitJob(Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+
+        Assert.assertEquals("{}", plugin.dispatchJob(latestCapability, client, SaltApiAuthorization.forToken(
+                AUTH_TOKEN), PARAM_USER, PARAM_MINION_NAME, ImmutableSet.<String> of(), null).toJson());
+
+        Mockito.verifyZeroInteractions(jidJournal);
+    }
+
+    protected MinionReturn dispatchJob() throws Exception {
+        return plugin.dispatchJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER,
+                PARAM_MINION_NAME, ImmutableSet.<String> of(), SCOPE);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.rundeck.plugin.salt.util.Deadline;
+import org.rundeck.plugin.salt.util.LogWrapper;
+
+import com.google.common.base.Predicate;
+
+public class SaltApiNodeStepPlugin_KillJobTest extends AbstractSaltApiNodeStepPluginTest {
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+    }
+
+    @After
+    public void teardown() {
+        Deadline.clear();
+        Thread.interrupted();
+    }
+
+    @Test
+    public void testKillJob() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\": [{\"jid\": \"1\", \"minions\": []}]}");
+
+        plugin.killJobQuietly(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, PARAM_MINION_NAME, null);
+
+        assertPostBody("client=local_async&tgt=%s&fun=saltutil.kill_job&arg=%s", PARAM_MINION_NAME, OUTPUT_JID);
+        Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiNodeStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(Mockito.same(responseEntity));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testKillJobWithExpressionForm() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\": [{\"jid\": \"1\", \"minions\": []}]}");
+
+        plugin.killJobQuietly(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, "minion1,minion2", "list");
+
+        assertPostBody("client=local_async&tgt=%s&expr_form=list&fun=saltutil.kill_job&arg=%s", "minion1,minion2",
+                OUTPUT_JID);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testKillJobRunsOutsideOfExpiredDeadlineAndInterruption() throws Exception {
+        Deadline stepDeadline = Deadline.start(0);
+        Thread.currentThread().interrupt();
+        Mockito.when(
+                retryingExecutor.execute(Mockito.any(LogWrapper.class), Mockito.same(client), Mockito.same(post),
+                        Mockito.eq(1), Mockito.any(Predicate.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                Assert.assertFalse("Expected interruption to be cleared while killing the job", Thread.currentThread()
+                        .isInterrupted());
+                Assert.assertTrue("Expected the kill request to have its own deadline",
+                        Deadline.current().remaining() > 0);
+                throw new IOException("Some message");
+            }
+        });
+
+        plugin.killJobQuietly(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, PARAM_MINION_NAME, null);
+
+        Assert.assertTrue("Expected interruption to be restored", Thread.currentThread().isInterrupted());
+        Assert.assertSame("Expected step deadline to be restored", stepDeadline, Deadline.current());
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+}
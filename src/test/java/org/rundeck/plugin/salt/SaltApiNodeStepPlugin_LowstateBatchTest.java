@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpException;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.StringEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiNodeStepPlugin_LowstateBatchTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final String RUN_ENDPOINT = String.format("%s/run", PARAM_ENDPOINT);
+    protected static final String OTHER_MINION_NAME = "otherMinion";
+    protected static final String OTHER_JID = "20130213093536481554";
+
+    protected SaltApiAuthorization authorization;
+    protected List<LowstateChunk> chunks;
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        authorization = SaltApiAuthorization.forCredentials(PARAM_USER, PARAM_PASSWORD, PARAM_EAUTH);
+        chunks = ImmutableList.of(
+                new LowstateChunk("local_async", PARAM_FUNCTION, PARAM_MINION_NAME, ImmutableList.of("secret"),
+                        ImmutableList.of("****")),
+                new LowstateChunk("local_async", PARAM_FUNCTION, OTHER_MINION_NAME, ImmutableList.<String> of(),
+                        ImmutableList.<String> of()));
+    }
+
+    @Test
+    public void testSubmitLowstateBatch() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format(
+                "{\"return\":[{\"jid\":\"%s\",\"minions\":[\"%s\"]},{\"jid\":\"%s\",\"minions\":[\"%s\"]}]}",
+                OUTPUT_JID, PARAM_MINION_NAME, OTHER_JID, OTHER_MINION_NAME));
+
+        List<SaltApiResponseOutput> outputs = plugin.submitLowstateBatch(latestCapability, client, authorization,
+                chunks);
+
+        Assert.assertEquals("Expected jid of first chunk", OUTPUT_JID, outputs.get(0).getJid());
+        Assert.assertEquals("Expected jid of second chunk", OTHER_JID, outputs.get(1).getJid());
+        Assert.assertEquals("Expected /run endpoint to be used", RUN_ENDPOINT, post.getURI().toString());
+        String credentials = String.format("\"username\":\"%s\",\"password\":\"%s\",\"eauth\":\"%s\"", PARAM_USER,
+                PARAM_PASSWORD, PARAM_EAUTH).replace("&", "\\u0026");
+        assertJsonPostBody(String.format(
+                "[{\"client\":\"local_async\",\"fun\":\"%s\",\"tgt\":\"%s\",\"arg\":[\"secret\"],%s},"
+                        + "{\"client\":\"local_async\",\"fun\":\"%s\",\"tgt\":\"%s\",%s}]", PARAM_FUNCTION,
+                PARAM_MINION_NAME, credentials, PARAM_FUNCTION, OTHER_MINION_NAME, credentials));
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(Mockito.same(responseEntity));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testSubmitLowstateBatchMissingSubmission() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK,
+                String.format("{\"return\":[{\"jid\":\"%s\",\"minions\":[\"%s\"]}]}", OUTPUT_JID, PARAM_MINION_NAME));
+
+        try {
+            plugin.submitLowstateBatch(latestCapability, client, authorization, chunks);
+            Assert.fail("Expected salt api exception for missing job submission");
+        } catch (SaltApiException e) {
+            // expected
+        }
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testSubmitLowstateBatchResponseCodeError() throws Exception {
+        setupResponse(post, HttpStatus.SC_INTERNAL_SERVER_ERROR, "");
+
+        try {
+            plugin.submitLowstateBatch(latestCapability, client, authorization, chunks);
+            Assert.fail("Expected http exception due to bad response code.");
+        } catch (HttpException e) {
+            // expected
+        }
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testSubmitLowstateJobThroughBatchSubmitter() throws Exception {
+        plugin.batchSubmitter = Mockito.mock(LowstateBatchSubmitter.class);
+        Mockito.when(plugin.batchSubmitter.isEnabled()).thenReturn(true);
+        SaltApiResponseOutput output = Mockito.mock(SaltApiResponseOutput.class);
+        Mockito.when(output.getJid()).thenReturn(OUTPUT_JID);
+        Mockito.when(output.getMinions()).thenReturn(ImmutableList.of(PARAM_MINION_NAME));
+        Mockito.when(
+                plugin.batchSubmitter.submit(Mockito.any(), Mockito.any(LowstateChunk.class),
+                        Mockito.any(LowstateBatchSubmitter.Submission.class))).thenReturn(output);
+
+        Assert.assertEquals("Expected jid from batch submission", OUTPUT_JID, plugin.submitLowstateJob(
+                latestCapability, client, authorization, PARAM_MINION_NAME, ImmutableSet.<String> of()));
+
+        ArgumentCaptor<LowstateChunk> captor = ArgumentCaptor.forClass(LowstateChunk.class);
+        Mockito.verify(plugin.batchSubmitter, Mockito.times(1)).submit(Mockito.any(), captor.capture(),
+                Mockito.any(LowstateBatchSubmitter.Submission.class));
+        Assert.assertEquals("Expected chunk to target the minion", PARAM_MINION_NAME, captor.getValue().getTarget());
+        Assert.assertEquals("Expected chunk to use the async client", "local_async", captor.getValue().getClient());
+        Mockito.verifyZeroInteractions(client);
+    }
+
+    @Test
+    public void testShouldBatchLowstateSubmission() {
+        plugin.batchSubmitter = Mockito.mock(LowstateBatchSubmitter.class);
+        Assert.assertFalse("Expected batching to be off when the submitter is disabled",
+                plugin.shouldBatchLowstateSubmission(latestCapability));
+        Mockito.when(plugin.batchSubmitter.isEnabled()).thenReturn(true);
+        Assert.assertTrue("Expected batching when enabled and supported",
+                plugin.shouldBatchLowstateSubmission(latestCapability));
+        Assert.assertFalse("Expected no batching for salt-api versions without lowstate batches",
+                plugin.shouldBatchLowstateSubmission(plugin.capabilityRegistry.getCapability("0.8.2")));
+    }
+
+    protected void assertJsonPostBody(String expected) throws Exception {
+        ArgumentCaptor<StringEntity> captor = ArgumentCaptor.forClass(StringEntity.class);
+        Mockito.verify(post, Mockito.times(1)).setEntity(captor.capture());
+        Assert.assertEquals("Expected correctly formatted/populated post body", expected,
+                IOUtils.toString(captor.getValue().getContent()));
+        Assert.assertEquals("Expected json content type on request", SaltApiNodeStepPlugin.JSON_REQUEST_CONTENT_TYPE,
+                captor.getValue().getContentType().getValue());
+    }
+}
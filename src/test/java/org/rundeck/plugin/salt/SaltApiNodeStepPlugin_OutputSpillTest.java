@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.File;
+
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiNodeStepPlugin_OutputSpillTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final String LONG_OUTPUT = Strings.repeat("x", 100);
+
+    protected File directory;
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        directory = File.createTempFile("spill", "");
+        directory.delete();
+        directory.mkdir();
+        plugin.outputSpillDirectory = directory.getPath();
+        plugin.outputSpillThreshold = 16;
+    }
+
+    @After
+    public void teardown() throws Exception {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void testSpilledResponseParsedAndDeleted() throws Exception {
+        setupResponse(get, HttpStatus.SC_OK, String.format("{\"return\":[{\"%s\":{\"stdout\":\"%s\"}}]}",
+                PARAM_MINION_NAME, LONG_OUTPUT));
+
+        Assert.assertEquals(String.format("{\"stdout\":\"%s\"}", LONG_OUTPUT),
+                plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
+        Assert.assertEquals("Expected spilled response to be deleted", 0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testSpilledResponseTruncated() throws Exception {
+        plugin.outputSpillHeadLength = 2;
+        plugin.outputSpillTailLength = 3;
+        setupResponse(get, HttpStatus.SC_OK, String.format("{\"return\":[{\"%s\":{\"retcode\":1,\"stdout\":\"%s\"}}]}",
+                PARAM_MINION_NAME, "ab" + LONG_OUTPUT + "xyz"));
+
+        String output = plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson();
+
+        File[] spilled = directory.listFiles();
+        Assert.assertEquals("Expected spilled response to be kept", 1, spilled.length);
+        Assert.assertEquals(String.format("{\"retcode\":1,\"stdout\":\"ab\\n... [100 characters omitted, full "
+                + "output in %s] ...\\nxyz\"}", spilled[0].getPath()), output);
+        Mockito.verify(log, Mockito.times(1)).warn(Mockito.anyString(), Mockito.eq(1),
+                Mockito.eq(ImmutableSet.of(PARAM_MINION_NAME)), Mockito.eq(spilled[0]));
+    }
+
+    @Test
+    public void testExpiredSpilledResponsesDeleted() throws Exception {
+        plugin.outputSpillRetention = 60000;
+        File expired = File.createTempFile("salt-response", ".json", directory);
+        expired.setLastModified(System.currentTimeMillis() - 120000);
+        File recent = File.createTempFile("salt-response", ".json", directory);
+        setupResponse(get, HttpStatus.SC_OK, String.format("{\"return\":[{\"%s\":\"%s\"}]}", PARAM_MINION_NAME,
+                LONG_OUTPUT));
+
+        plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME);
+
+        Assert.assertFalse("Expected expired spilled response to be deleted", expired.exists());
+        Assert.assertTrue("Expected recent spilled response to be kept", recent.exists());
+    }
+
+    @Test
+    public void testSmallResponseNotTruncated() throws Exception {
+        plugin.outputSpillThreshold = 1024;
+        plugin.outputSpillHeadLength = 2;
+        setupResponse(get, HttpStatus.SC_OK, String.format("{\"return\":[{\"%s\":\"%s\"}]}", PARAM_MINION_NAME,
+                LONG_OUTPUT));
+
+        Assert.assertEquals(String.format("\"%s\"", LONG_OUTPUT),
+                plugin.extractOutputForJid(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
+        Assert.assertEquals(0, directory.listFiles().length);
+    }
+
+    @Test
+    public void testLogOutputInChunks() {
+        plugin.outputLogChunkSize = 4;
+        plugin.logOutput("ab\ncdefghij\nk", false);
+
+        InOrder inOrder = Mockito.inOrder(log);
+        inOrder.verify(log).info("ab");
+        inOrder.verify(log).info("cdef");
+        inOrder.verify(log).info("ghij");
+        inOrder.verify(log).info("k");
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    @Test
+    public void testLogOutputUnchunked() {
+        plugin.outputLogChunkSize = 0;
+        plugin.logOutput(LONG_OUTPUT, true);
+
+        ArgumentCaptor<String> captor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(log, Mockito.times(1)).error(captor.capture());
+        Assert.assertEquals(LONG_OUTPUT, captor.getValue());
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltReturnListener;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltStreamingReturnHandler;
+import org.rundeck.plugin.salt.output.SaltTreeReturnHandler;
+
+public class SaltApiNodeStepPlugin_OutputStreamingTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected SaltStreamingReturnHandler streamingHandler;
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        streamingHandler = Mockito.mock(SaltStreamingReturnHandler.class);
+        Mockito.when(returnHandlerRegistry.getTreeHandlerFor(Mockito.eq(PARAM_FUNCTION),
+                Mockito.any(SaltTreeReturnHandler.class))).thenReturn(streamingHandler);
+    }
+
+    protected void setupStreamedLines(final int exitCode, final String... lines) {
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                SaltReturnListener listener = (SaltReturnListener) invocation.getArguments()[1];
+                for (String line : lines) {
+                    if (line.startsWith("!")) {
+                        listener.onStderrLine(line.substring(1));
+                    } else {
+                        listener.onStdoutLine(line);
+                    }
+                }
+                listener.onExitCode(exitCode);
+                return null;
+            }
+        }).when(streamingHandler).handleReturn(Mockito.any(MinionReturn.class), Mockito.any(SaltReturnListener.class));
+    }
+
+    @Test
+    public void testStreamedLinesLoggedPerStream() throws Exception {
+        setupStreamedLines(1, "a", "b", "!c", "!d");
+
+        SaltReturnResponse response = plugin.extractReturn(PARAM_FUNCTION,
+                MinionReturn.fromJson(HOST_RESPONSE));
+
+        Assert.assertEquals(Integer.valueOf(1), response.getExitCode());
+        Assert.assertTrue("Expected output not to be collected", response.getStandardOutput().isEmpty());
+        InOrder ordering = Mockito.inOrder(log);
+        ordering.verify(log).info("a\nb");
+        ordering.verify(log).error("c\nd");
+        Mockito.verify(streamingHandler, Mockito.never()).handleReturn(Mockito.any(MinionReturn.class));
+    }
+
+    @Test
+    public void testStreamedLinesBufferBounded() throws Exception {
+        plugin.outputLogChunkSize = 5;
+        setupStreamedLines(0, "ab", "cd", "ef", "ghijklm");
+
+        plugin.extractReturn(PARAM_FUNCTION, MinionReturn.fromJson(HOST_RESPONSE));
+
+        InOrder ordering = Mockito.inOrder(log);
+        ordering.verify(log).info("ab\ncd");
+        ordering.verify(log).info("ef");
+        ordering.verify(log).info("ghijk");
+        ordering.verify(log).info("lm");
+    }
+}
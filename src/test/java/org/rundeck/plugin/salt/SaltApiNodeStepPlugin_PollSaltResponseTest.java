@@ -27,13 +27,16 @@
 package org.rundeck.plugin.salt;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.http.client.HttpClient;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.rundeck.plugin.salt.output.MinionReturn;
 
 public class SaltApiNodeStepPlugin_PollSaltResponseTest extends AbstractSaltApiNodeStepPluginTest {
 
@@ -46,11 +49,11 @@ public class SaltApiNodeStepPlugin_PollSaltResponseTest extends AbstractSaltApiN
     public void testWaitForJidResponse() throws Exception {
         // Workaround for mockito spy stubbing and vararg returns.
         final AtomicInteger counter = new AtomicInteger(2);
-        Mockito.doAnswer(new Answer<String>() {
+        Mockito.doAnswer(new Answer<MinionReturn>() {
             @Override
-            public String answer(InvocationOnMock invocation) throws Throwable {
+            public MinionReturn answer(InvocationOnMock invocation) throws Throwable {
                 if (counter.decrementAndGet() == 0) {
-                    return HOST_RESPONSE;
+                    return MinionReturn.fromJson(HOST_RESPONSE);
                 }
                 return null;
             }
@@ -60,13 +63,95 @@ public class SaltApiNodeStepPlugin_PollSaltResponseTest extends AbstractSaltApiN
                         Mockito.eq(PARAM_MINION_NAME));
 
         Assert.assertEquals("Expected mocked host response to be returned", HOST_RESPONSE,
-                plugin.waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME));
+                plugin.waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
 
         Mockito.verify(plugin, Mockito.times(2)).extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
                 Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
         Mockito.verify(timer, Mockito.times(1)).waitForNext();
     }
 
+    @Test
+    public void testWaitForJidResponseFailsWhenJobNotRunning() throws Exception {
+        setupClock();
+        Mockito.doReturn(null)
+                .when(plugin)
+                .extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID),
+                        Mockito.eq(PARAM_MINION_NAME));
+        setupJobRunning(false);
+
+        try {
+            plugin.waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME);
+            Assert.fail("Expected job not running failure.");
+        } catch (SaltJobNotRunningException e) {
+            // expected
+        }
+
+        Mockito.verify(plugin, Mockito.times(1)).isJobRunning(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+        // Polls until the grace period passes, then once more after the job was found not running.
+        Mockito.verify(plugin, Mockito.times(3)).extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
+                Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+    }
+
+    @Test
+    public void testWaitForJidResponseReturnedWhileCheckingJob() throws Exception {
+        setupClock();
+        Mockito.doReturn(null).doReturn(null).doReturn(MinionReturn.fromJson(HOST_RESPONSE))
+                .when(plugin)
+                .extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID),
+                        Mockito.eq(PARAM_MINION_NAME));
+        setupJobRunning(false);
+
+        Assert.assertEquals("Expected mocked host response to be returned", HOST_RESPONSE,
+                plugin.waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
+    }
+
+    @Test
+    public void testWaitForJidResponseBacksOffJobChecks() throws Exception {
+        setupClock();
+        plugin.maximumFindJobInterval = 3000;
+        final AtomicInteger counter = new AtomicInteger(8);
+        Mockito.doAnswer(new Answer<MinionReturn>() {
+            @Override
+            public MinionReturn answer(InvocationOnMock invocation) throws Throwable {
+                return counter.decrementAndGet() == 0 ? MinionReturn.fromJson(HOST_RESPONSE) : null;
+            }
+        })
+                .when(plugin)
+                .extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID),
+                        Mockito.eq(PARAM_MINION_NAME));
+        setupJobRunning(true);
+
+        Assert.assertEquals("Expected mocked host response to be returned", HOST_RESPONSE,
+                plugin.waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
+
+        // Checked at 1000, 2000 and 4000ms, the next check would have been at 7000ms.
+        Mockito.verify(plugin, Mockito.times(3)).isJobRunning(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
+    }
+
+    @Test
+    public void testWaitForJidResponseWithJobChecksDisabled() throws Exception {
+        setupClock();
+        plugin.findJobGracePeriod = 0;
+        final AtomicInteger counter = new AtomicInteger(10);
+        Mockito.doAnswer(new Answer<MinionReturn>() {
+            @Override
+            public MinionReturn answer(InvocationOnMock invocation) throws Throwable {
+                return counter.decrementAndGet() == 0 ? MinionReturn.fromJson(HOST_RESPONSE) : null;
+            }
+        })
+                .when(plugin)
+                .extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN), Mockito.eq(OUTPUT_JID),
+                        Mockito.eq(PARAM_MINION_NAME));
+
+        Assert.assertEquals("Expected mocked host response to be returned", HOST_RESPONSE,
+                plugin.waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME).toJson());
+
+        Mockito.verify(plugin, Mockito.never()).isJobRunning(Mockito.any(HttpClient.class),
+                Mockito.any(SaltApiAuthorization.class), Mockito.anyString(), Mockito.anyString());
+    }
+
     @Test
     public void testWaitForJidResponseInterrupted() throws Exception {
         Mockito.doReturn(null)
@@ -86,4 +171,34 @@ public class SaltApiNodeStepPlugin_PollSaltResponseTest extends AbstractSaltApiN
         Mockito.verify(plugin, Mockito.times(1)).extractOutputForJid(Mockito.same(client), Mockito.eq(AUTH_TOKEN),
                 Mockito.eq(OUTPUT_JID), Mockito.eq(PARAM_MINION_NAME));
     }
+
+    /**
+     * Starts the clock at 0 and advances it by a second each time the poll timer waits, with job checks after a
+     * second and then every second.
+     */
+    protected void setupClock() throws Exception {
+        plugin.findJobGracePeriod = 1000;
+        plugin.findJobInterval = 1000;
+        final AtomicLong clock = new AtomicLong();
+        Mockito.doAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws Throwable {
+                return clock.get();
+            }
+        }).when(plugin).currentTimeMillis();
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                clock.addAndGet(1000);
+                return null;
+            }
+        }).when(timer).waitForNext();
+    }
+
+    protected void setupJobRunning(boolean running) throws Exception {
+        Mockito.doReturn(running)
+                .when(plugin)
+                .isJobRunning(Mockito.same(client), Mockito.any(SaltApiAuthorization.class), Mockito.eq(OUTPUT_JID),
+                        Mockito.eq(PARAM_MINION_NAME));
+    }
 }
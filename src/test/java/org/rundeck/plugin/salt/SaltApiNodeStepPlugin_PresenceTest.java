@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.entity.StringEntity;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+
+import com.google.common.collect.ImmutableList;
+
+public class SaltApiNodeStepPlugin_PresenceTest extends AbstractSaltApiNodeStepPluginTest {
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        Mockito.when(presenceCache.isEnabled()).thenReturn(true);
+    }
+
+    @Test
+    public void testLoadMinionPresence() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format(
+                "{\"return\": [{\"minions\": [\"%s\", \"other\"]}]}", PARAM_MINION_NAME));
+
+        MinionPresence presence = plugin.loadMinionPresence(client, SaltApiAuthorization.forToken(AUTH_TOKEN));
+
+        Assert.assertTrue(presence.isAccepted(PARAM_MINION_NAME));
+        Assert.assertTrue(presence.isAccepted("other"));
+        Assert.assertFalse(presence.isAccepted("unknown"));
+
+        ArgumentCaptor<StringEntity> captor = ArgumentCaptor.forClass(StringEntity.class);
+        Mockito.verify(post, Mockito.times(1)).setEntity(captor.capture());
+        Assert.assertEquals("Expected only the accepted keys to be listed",
+                "[{\"client\":\"wheel\",\"fun\":\"key.list_accepted\"}]",
+                IOUtils.toString(captor.getValue().getContent()));
+        Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiNodeStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(Mockito.same(responseEntity));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testLoadMinionPresenceWithWrappedWheelReturn() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, String.format(
+                "{\"return\": [{\"tag\": \"salt/wheel/1\", \"data\": {\"return\": {\"minions\": [\"%s\"]}}}]}",
+                PARAM_MINION_NAME));
+
+        MinionPresence presence = plugin.loadMinionPresence(client, SaltApiAuthorization.forToken(AUTH_TOKEN));
+
+        Assert.assertTrue(presence.isAccepted(PARAM_MINION_NAME));
+        Assert.assertFalse(presence.isAccepted("other"));
+    }
+
+    @Test
+    public void testLoadMinionPresenceWithDeniedFunction() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\": [\"Permission denied\"]}");
+
+        MinionPresence presence = plugin.loadMinionPresence(client, SaltApiAuthorization.forToken(AUTH_TOKEN));
+
+        Assert.assertTrue("Expected accepted keys to be unknown", presence.isAccepted("other"));
+    }
+
+    @Test
+    public void testLoadMinionPresenceWithErrorResponse() throws Exception {
+        setupResponse(post, HttpStatus.SC_UNAUTHORIZED, "denied");
+
+        Assert.assertSame("Expected presence to be unknown", MinionPresence.UNKNOWN,
+                plugin.loadMinionPresence(client, SaltApiAuthorization.forToken(AUTH_TOKEN)));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testLoadMinionPresenceWithMalformedResponse() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\": [[], []]}");
+
+        try {
+            plugin.loadMinionPresence(client, SaltApiAuthorization.forToken(AUTH_TOKEN));
+            Assert.fail("Expected salt-api exception");
+        } catch (SaltApiException e) {
+            // expected
+        }
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testCheckMinionPresence() throws Exception {
+        setupPresence(ImmutableList.of(PARAM_MINION_NAME));
+        plugin.checkMinionPresence(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER,
+                PARAM_MINION_NAME);
+        Mockito.verify(presenceCache, Mockito.times(1)).get(
+                Mockito.eq(ImmutableList.of(PARAM_ENDPOINT, PARAM_USER, PARAM_EAUTH)), Mockito.eq(PARAM_MINION_NAME),
+                Mockito.any(MinionPresenceCache.Loader.class));
+    }
+
+    @Test
+    public void testCheckMinionPresenceLoadsThroughPlugin() throws Exception {
+        Mockito.when(presenceCache.get(Mockito.any(), Mockito.anyString(), Mockito.any(MinionPresenceCache.Loader.class)))
+                .thenAnswer(new Answer<MinionPresence>() {
+                    @Override
+                    public MinionPresence answer(InvocationOnMock invocation) throws Throwable {
+                        return ((MinionPresenceCache.Loader) invocation.getArguments()[2]).load();
+                    }
+                });
+        Mockito.doReturn(MinionPresence.UNKNOWN).when(plugin)
+                .loadMinionPresence(Mockito.same(client), Mockito.any(SaltApiAuthorization.class));
+
+        plugin.checkMinionPresence(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER,
+                PARAM_MINION_NAME);
+        Mockito.verify(plugin, Mockito.times(1)).loadMinionPresence(Mockito.same(client),
+                Mockito.any(SaltApiAuthorization.class));
+    }
+
+    @Test(expected = SaltTargettingMismatchException.class)
+    public void testCheckMinionPresenceWithoutAcceptedKey() throws Exception {
+        setupPresence(ImmutableList.of("other"));
+        plugin.checkMinionPresence(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER,
+                PARAM_MINION_NAME);
+    }
+
+    @Test
+    public void testCheckMinionPresenceSkippedWhenUnsupported() throws Exception {
+        setupPresence(ImmutableList.<String> of());
+        plugin.checkMinionPresence(plugin.capabilityRegistry.getCapability("0.8.2"), client,
+                SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER, PARAM_MINION_NAME);
+        Mockito.when(presenceCache.isEnabled()).thenReturn(false);
+        plugin.checkMinionPresence(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER,
+                PARAM_MINION_NAME);
+        Mockito.verify(presenceCache, Mockito.never()).get(Mockito.any(), Mockito.anyString(),
+                Mockito.any(MinionPresenceCache.Loader.class));
+    }
+
+    @Test
+    public void testExecuteWhenMinionAccepted() throws Exception {
+        setupAuthenticate();
+        setupPresence(ImmutableList.of(PARAM_MINION_NAME));
+        Mockito.doNothing().when(plugin).executeOnMinion(Mockito.same(pluginContext),
+                Mockito.any(SaltApiCapability.class), Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(PARAM_USER), Mockito.same(node));
+
+        plugin.executeNodeStep(pluginContext, configuration, node);
+
+        Mockito.verify(plugin, Mockito.times(1)).executeOnMinion(Mockito.same(pluginContext),
+                Mockito.any(SaltApiCapability.class), Mockito.same(client), Mockito.any(SaltApiAuthorization.class),
+                Mockito.eq(PARAM_USER), Mockito.same(node));
+    }
+
+    protected void setupPresence(ImmutableList<String> accepted) throws Exception {
+        Mockito.when(presenceCache.get(Mockito.any(), Mockito.anyString(), Mockito.any(MinionPresenceCache.Loader.class)))
+                .thenReturn(new MinionPresence(accepted));
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.output.MinionReturn;
+
+public class SaltApiNodeStepPlugin_ResultArchiveTest extends AbstractSaltApiNodeStepPluginTest {
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        Mockito.when(resultArchive.isEnabled()).thenReturn(true);
+    }
+
+    @Test
+    public void testAwaitJobArchivesReturn() throws Exception {
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME);
+
+        Assert.assertEquals("{}", plugin.awaitJob(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID,
+                PARAM_MINION_NAME).toJson());
+
+        Mockito.verify(resultArchive, Mockito.times(1)).store(OUTPUT_JID, PARAM_MINION_NAME, "{}");
+    }
+
+    @Test
+    public void testAwaitJobUsesArchivedReturn() throws Exception {
+        Mockito.when(resultArchive.get(OUTPUT_JID, PARAM_MINION_NAME)).thenReturn("{}");
+
+        Assert.assertEquals("{}", plugin.awaitJob(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID,
+                PARAM_MINION_NAME).toJson());
+
+        Mockito.verify(plugin, Mockito.never()).waitForJidResponse(Mockito.same(client), Mockito.anyString(),
+                Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(resultArchive, Mockito.never()).store(Mockito.anyString(), Mockito.anyString(),
+                Mockito.anyString());
+    }
+
+    @Test
+    public void testArchiveFailureDoesNotFailStep() throws Exception {
+        Mockito.when(resultArchive.get(OUTPUT_JID, PARAM_MINION_NAME)).thenThrow(new IOException("unreadable"));
+        Mockito.doThrow(new IOException("full")).when(resultArchive).store(OUTPUT_JID, PARAM_MINION_NAME, "{}");
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME);
+
+        Assert.assertEquals("{}", plugin.awaitJob(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID,
+                PARAM_MINION_NAME).toJson());
+    }
+
+    @Test
+    public void testArchiveDisabled() throws Exception {
+        Mockito.when(resultArchive.isEnabled()).thenReturn(false);
+        Mockito.doReturn(MinionReturn.fromJson("{}")).when(plugin)
+                .waitForJidResponse(client, AUTH_TOKEN, OUTPUT_JID, PARAM_MINION_NAME);
+
+        plugin.awaitJob(client, SaltApiAuthorization.forToken(AUTH_TOKEN), OUTPUT_JID, PARAM_MINION_NAME);
+
+        Mockito.verify(resultArchive, Mockito.never()).get(Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(resultArchive, Mockito.never()).store(Mockito.anyString(), Mockito.anyString(),
+                Mockito.anyString());
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.client.HttpClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.output.MinionReturn;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiNodeStepPlugin_ResultCacheTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final List<String> SCOPE = ImmutableList.of(PARAM_ENDPOINT, PARAM_USER, PARAM_EAUTH,
+            PARAM_MINION_NAME);
+
+    @Before
+    public void setup() throws Exception {
+        resultCache = new SaltResultCache("/testResultCaches.yaml");
+        resultCache.maximumEntries = 10;
+        resultCache.configure();
+        plugin.resultCache = resultCache;
+        spyPlugin();
+        Mockito.when(returnHandler.extractResponse(Mockito.anyString())).thenReturn(response(0));
+    }
+
+    @Test
+    public void testCachedFunctionDispatchedOnce() throws Exception {
+        plugin.function = "grains.items";
+        Mockito.doReturn(MinionReturn.fromJson("{\"os\": \"Linux\"}")).when(plugin)
+                .dispatchJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.any(SaltApiAuthorization.class), Mockito.anyString(),
+                Mockito.anyString(), Mockito.<Set<String>> any(), Mockito.<List<String>> any());
+
+        executeJob();
+        executeJob();
+
+        Mockito.verify(plugin, Mockito.times(1)).dispatchJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.any(SaltApiAuthorization.class), Mockito.eq(PARAM_USER),
+                Mockito.eq(PARAM_MINION_NAME), Mockito.<Set<String>> any(), Mockito.<List<String>> any());
+        Mockito.verify(returnHandler, Mockito.times(2)).extractResponse("{\"os\": \"Linux\"}");
+    }
+
+    @Test
+    public void testUncachedFunctionDispatchedEachTime() throws Exception {
+        setupDispatchReturns("{}");
+
+        executeJob();
+        executeJob();
+
+        verifyDispatched(2);
+    }
+
+    @Test
+    public void testCachedWithNormalizedArguments() throws Exception {
+        plugin.function = "grains.items b=2 a=1 x";
+        setupDispatchReturns("{}");
+        executeJob();
+
+        plugin.function = "grains.items x a=1 b=2";
+        executeJob();
+
+        verifyDispatched(1);
+    }
+
+    @Test
+    public void testFailedReturnIsNotCached() throws Exception {
+        plugin.function = "grains.items";
+        setupDispatchReturns("{}");
+        Mockito.when(returnHandler.extractResponse(Mockito.anyString())).thenReturn(response(1)).thenReturn(
+                response(0));
+
+        try {
+            executeJob();
+            Assert.fail("Expected node step failure");
+        } catch (NodeStepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.EXIT_CODE, e.getFailureReason());
+        }
+        executeJob();
+
+        verifyDispatched(2);
+        Assert.assertTrue("Expected no load to remain claimed", resultCache.loads.isEmpty());
+    }
+
+    @Test
+    public void testFailedDispatchAbandonsLoad() throws Exception {
+        plugin.function = "grains.items";
+        Mockito.doThrow(new SaltApiException("failed")).when(plugin).dispatchJob(
+                Mockito.any(SaltApiCapability.class), Mockito.any(HttpClient.class),
+                Mockito.any(SaltApiAuthorization.class), Mockito.anyString(), Mockito.anyString(),
+                Mockito.<Set<String>> any(), Mockito.<List<String>> any());
+
+        try {
+            executeJob();
+            Assert.fail("Expected salt-api exception");
+        } catch (SaltApiException e) {
+            // expected
+        }
+        Assert.assertTrue("Expected load to be abandoned", resultCache.loads.isEmpty());
+    }
+
+    @Test
+    public void testInvalidatingFunctionDiscardsCachedReturn() throws Exception {
+        plugin.function = "grains.items";
+        setupDispatchReturns("{}");
+        executeJob();
+
+        plugin.function = "saltutil.refresh_grains";
+        executeJob();
+
+        plugin.function = "grains.items";
+        executeJob();
+
+        verifyDispatched(3);
+    }
+
+    @Test
+    public void testNormalizeArguments() {
+        Assert.assertEquals(ImmutableList.of("x", "y", "a=1", "b=2"), plugin.normalizeArguments(ImmutableList.of(
+                "b=2", "x", "a=1", "y")));
+        Assert.assertEquals("Expected leading '=' to be a positional arg", ImmutableList.of("=x"),
+                plugin.normalizeArguments(ImmutableList.of("=x")));
+    }
+
+    protected void executeJob() throws Exception {
+        plugin.executeJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN), PARAM_USER,
+                PARAM_MINION_NAME, ImmutableSet.<String> of(), null);
+    }
+
+    protected void setupDispatchReturns(String jobOutput) throws Exception {
+        Mockito.doReturn(MinionReturn.fromJson(jobOutput)).when(plugin)
+                .dispatchJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.any(SaltApiAuthorization.class), Mockito.anyString(),
+                Mockito.anyString(), Mockito.<Set<String>> any(), Mockito.<List<String>> any());
+    }
+
+    protected void verifyDispatched(int times) throws Exception {
+        Mockito.verify(plugin, Mockito.times(times)).dispatchJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.any(SaltApiAuthorization.class), Mockito.anyString(),
+                Mockito.anyString(), Mockito.<Set<String>> any(), Mockito.<List<String>> any());
+    }
+
+    protected SaltReturnResponse response(int exitCode) {
+        SaltReturnResponse response = new SaltReturnResponse();
+        response.setExitCode(exitCode);
+        return response;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+public class SaltApiNodeStepPlugin_StatelessTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final String RUN_ENDPOINT = String.format("%s/run", PARAM_ENDPOINT);
+    protected static final String LOWSTATE_ENDPOINT = String.format("%s/", PARAM_ENDPOINT);
+    protected static final String SUBMISSION_RESPONSE = String.format(
+            "{\"return\":[{\"jid\":\"%s\",\"minions\":[\"%s\"]}]}", OUTPUT_JID, PARAM_MINION_NAME);
+    protected static final String HOST_JSON_RESPONSE = String.format("{\"return\":[{\"%s\":%s}]}",
+            PARAM_MINION_NAME, HOST_RESPONSE);
+
+    protected SaltApiAuthorization authorization;
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+        authorization = SaltApiAuthorization.forCredentials(PARAM_USER, PARAM_PASSWORD, PARAM_EAUTH);
+    }
+
+    @Test
+    public void testSubmitLowstateJob() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, SUBMISSION_RESPONSE);
+
+        Assert.assertEquals("Expected jid to be parsed out of lowstate response", OUTPUT_JID,
+                plugin.submitLowstateJob(latestCapability, client, authorization, PARAM_MINION_NAME,
+                        ImmutableSet.<String> of()));
+
+        assertThatStatelessPostAttemptedSuccessfully(
+                "client=local_async&fun=%s&tgt=%s&username=%s&password=%s&eauth=%s", PARAM_FUNCTION,
+                PARAM_MINION_NAME, PARAM_USER, PARAM_PASSWORD, PARAM_EAUTH);
+    }
+
+    @Test
+    public void testSubmitLowstateJobResponseCodeError() throws Exception {
+        setupResponse(post, HttpStatus.SC_UNAUTHORIZED, "");
+
+        try {
+            plugin.submitLowstateJob(latestCapability, client, authorization, PARAM_MINION_NAME,
+                    ImmutableSet.<String> of());
+            Assert.fail("Expected http exception due to bad response code.");
+        } catch (HttpException e) {
+            // expected
+        }
+
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testSubmitLowstateJobTargettingMismatch() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK,
+                String.format("{\"return\":[{\"jid\":\"%s\",\"minions\":[]}]}", OUTPUT_JID));
+
+        try {
+            plugin.submitLowstateJob(latestCapability, client, authorization, PARAM_MINION_NAME,
+                    ImmutableSet.<String> of());
+            Assert.fail("Expected targetting mismatch exception.");
+        } catch (SaltTargettingMismatchException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testExtractLowstateOutputForJid() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, HOST_JSON_RESPONSE);
+
+        Assert.assertEquals("Expected host response to be parsed out of jobs runner response", HOST_RESPONSE,
+                plugin.extractLowstateOutputForJid(client, authorization, OUTPUT_JID, PARAM_MINION_NAME).toJson());
+
+        assertThatStatelessPostAttemptedSuccessfully(
+                "client=runner&fun=jobs.lookup_jid&jid=%s&username=%s&password=%s&eauth=%s", OUTPUT_JID,
+                PARAM_USER, PARAM_PASSWORD, PARAM_EAUTH);
+    }
+
+    @Test
+    public void testExtractLowstateOutputForJidNoResponseYet() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\":[{}]}");
+
+        Assert.assertNull("Expected no response while the minion has not returned",
+                plugin.extractLowstateOutputForJid(client, authorization, OUTPUT_JID, PARAM_MINION_NAME));
+    }
+
+    @Test
+    public void testExtractLowstateOutputForJidBadResponseCode() throws Exception {
+        setupResponse(post, HttpStatus.SC_INTERNAL_SERVER_ERROR, null);
+
+        Assert.assertNull("Expected no response for a bad response code",
+                plugin.extractLowstateOutputForJid(client, authorization, OUTPUT_JID, PARAM_MINION_NAME));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+
+    @Test
+    public void testCreateLowstatePostWithToken() throws Exception {
+        plugin.createLowstatePost(SaltApiAuthorization.forToken(AUTH_TOKEN), Lists.<NameValuePair> newArrayList(),
+                Lists.<NameValuePair> newArrayList());
+
+        Assert.assertEquals("Expected lowstate endpoint to be used", LOWSTATE_ENDPOINT, post.getURI().toString());
+        Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiNodeStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+    }
+
+    @Test
+    public void testShouldExecuteStatelessly() {
+        plugin.stateless = true;
+        Assert.assertTrue("Expected stateless execution when requested and supported",
+                plugin.shouldExecuteStatelessly(latestCapability));
+        Assert.assertFalse("Expected salt-api versions without /run to log in",
+                plugin.shouldExecuteStatelessly(plugin.capabilityRegistry.getCapability("0.8.2")));
+    }
+
+    @Test
+    public void testShouldNotExecuteStatelesslyByDefault() {
+        Assert.assertFalse("Expected token authentication by default",
+                plugin.shouldExecuteStatelessly(latestCapability));
+    }
+
+    protected void assertThatStatelessPostAttemptedSuccessfully(String template, String... args) {
+        Assert.assertEquals("Expected /run endpoint to be used", RUN_ENDPOINT, post.getURI().toString());
+        assertPostBody(template, args);
+        Mockito.verify(post, Mockito.never()).setHeader(Mockito.eq(SaltApiNodeStepPlugin.SALT_AUTH_TOKEN_HEADER),
+                Mockito.anyString());
+        Mockito.verify(plugin, Mockito.times(1)).closeResource(Mockito.same(responseEntity));
+        Mockito.verify(post, Mockito.times(1)).releaseConnection();
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+
+public class SaltApiNodeStepPlugin_SubmitSynchronousJobTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final String LOWSTATE_ENDPOINT = String.format("%s/", PARAM_ENDPOINT);
+    protected static final String HOST_JSON_RESPONSE = String.format("{\"return\":[{%s:%s}]}", PARAM_MINION_NAME,
+            HOST_RESPONSE);
+
+    @Before
+    public void setup() throws Exception {
+        spyPlugin();
+    }
+
+    @Test
+    public void testSubmitSynchronousJob() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, HOST_JSON_RESPONSE);
+
+        Assert.assertEquals("Expected host response to be parsed out from synchronous response", HOST_RESPONSE,
+                plugin.submitSynchronousJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                        PARAM_MINION_NAME, ImmutableSet.<String> of()).toJson());
+
+        assertThatSubmitSynchronousJobAttemptedSuccessfully("client=local&fun=%s&tgt=%s", PARAM_FUNCTION,
+                PARAM_MINION_NAME);
+    }
+
+    @Test
+    public void testSubmitSynchronousJobWithArgsAndTimeout() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, HOST_JSON_RESPONSE);
+        String arg = "adsf asdf";
+        plugin.function = String.format("%s \"%s\"", PARAM_FUNCTION, arg);
+        ((SaltApiNodeStepPlugin) plugin).syncTimeout = "10";
+
+        Assert.assertEquals("Expected host response to be parsed out from synchronous response", HOST_RESPONSE,
+                plugin.submitSynchronousJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                        PARAM_MINION_NAME, ImmutableSet.<String> of()).toJson());
+
+        assertThatSubmitSynchronousJobAttemptedSuccessfully("client=local&fun=%s&tgt=%s&arg=%s&timeout=%s",
+                PARAM_FUNCTION, PARAM_MINION_NAME, arg, "10");
+    }
+
+    @Test
+    public void testSubmitSynchronousJobMinionDidNotReturn() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, "{\"return\":[{}]}");
+
+        Assert.assertNull("Expected no response when the minion did not return in time",
+                plugin.submitSynchronousJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                        PARAM_MINION_NAME, ImmutableSet.<String> of()));
+
+        assertThatSubmitSynchronousJobAttemptedSuccessfully("client=local&fun=%s&tgt=%s", PARAM_FUNCTION,
+                PARAM_MINION_NAME);
+    }
+
+    @Test
+    public void testSubmitSynchronousJobResponseCodeError() throws Exception {
+        setupResponse(post, HttpStatus.SC_INTERNAL_SERVER_ERROR, "");
+
+        try {
+            plugin.submitSynchronousJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                    PARAM_MINION_NAME, ImmutableSet.<String> of());
+            Assert.fail("Expected http exception due to bad response code.");
+        } catch (HttpException e) {
+            // expected
+        }
+
+        assertThatSubmitSynchronousJobAttemptedSuccessfully("client=local&fun=%s&tgt=%s", PARAM_FUNCTION,
+                PARAM_MINION_NAME);
+    }
+
+    @Test
+    public void testShouldExecuteSynchronouslyForConfiguredFunction() {
+        plugin.function = "test.ping";
+        Assert.assertTrue("Expected configured function to execute synchronously",
+                plugin.shouldExecuteSynchronously(latestCapability));
+    }
+
+    @Test
+    public void testShouldNotExecuteSynchronouslyWithTimeout() {
+        ((SaltApiNodeStepPlugin) plugin).syncTimeout = "5";
+        Assert.assertFalse("Expected unconfigured function with explicit timeout to be polled",
+                plugin.shouldExecuteSynchronously(latestCapability));
+    }
+
+    @Test
+    public void testSubmitSynchronousJobIsNotRetried() throws Exception {
+        setupResponse(post, HttpStatus.SC_OK, HOST_JSON_RESPONSE);
+
+        plugin.submitSynchronousJob(latestCapability, client, SaltApiAuthorization.forToken(AUTH_TOKEN),
+                PARAM_MINION_NAME, ImmutableSet.<String> of());
+
+        Mockito.verify(retryingExecutor, Mockito.times(1)).execute(Mockito.same(log), Mockito.same(client),
+                Mockito.same(post), Mockito.eq(1), Mockito.<Predicate<Integer>> any());
+    }
+
+    @Test
+    public void testShouldNotExecuteSynchronouslyByDefault() {
+        Assert.assertFalse("Expected unconfigured function without timeout to be polled",
+                plugin.shouldExecuteSynchronously(latestCapability));
+    }
+
+    @Test
+    public void testShouldNotExecuteSynchronouslyWithoutCapability() {
+        plugin.function = "test.ping";
+        Assert.assertFalse("Expected legacy salt-api versions to be polled",
+                plugin.shouldExecuteSynchronously(plugin.capabilityRegistry.getCapability("0.8.0")));
+    }
+
+    protected void assertThatSubmitSynchronousJobAttemptedSuccessfully(String template, String... args) {
+        try {
+            Assert.assertEquals("Expected lowstate endpoint to be used", LOWSTATE_ENDPOINT, post.getURI().toString());
+            assertPostBody(template, args);
+            Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiNodeStepPlugin.SALT_AUTH_TOKEN_HEADER, AUTH_TOKEN);
+            Mockito.verify(post, Mockito.times(1)).setHeader(SaltApiNodeStepPlugin.REQUEST_ACCEPT_HEADER_NAME,
+                    SaltApiNodeStepPlugin.JSON_RESPONSE_ACCEPT_TYPE);
+            Mockito.verify(plugin, Mockito.times(1)).closeResource(Mockito.same(responseEntity));
+            Mockito.verify(post, Mockito.times(1)).releaseConnection();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
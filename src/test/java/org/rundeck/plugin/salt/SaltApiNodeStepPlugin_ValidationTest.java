@@ -112,4 +112,60 @@ public class SaltApiNodeStepPlugin_ValidationTest extends AbstractSaltApiNodeSte
                     SaltApiNodeStepPlugin.SALT_API_END_POINT_OPTION_NAME, e.getFieldName());
         }
     }
+
+    @Test
+    public void testValidateChecksValidSyncTimeout() throws NodeStepException {
+        ((SaltApiNodeStepPlugin) plugin).syncTimeout = "30";
+        plugin.validate(PARAM_USER, PARAM_PASSWORD, node);
+    }
+
+    @Test
+    public void testValidateChecksInvalidSyncTimeout() throws NodeStepException {
+        ((SaltApiNodeStepPlugin) plugin).syncTimeout = "soon";
+        try {
+            plugin.validate(PARAM_USER, PARAM_PASSWORD, node);
+            Assert.fail("Expected failure.");
+        } catch (SaltStepValidationException e) {
+            Assert.assertEquals("Expected correct failure type due to validation failure",
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID, e.getFailureReason());
+            Assert.assertEquals("Expected field name to be filled out properly",
+                    SaltApiNodeStepPlugin.SALT_API_SYNC_TIMEOUT_OPTION_NAME, e.getFieldName());
+        }
+    }
+
+    @Test
+    public void testValidateChecksInvalidDeadline() throws NodeStepException {
+        plugin.deadline = "0";
+        try {
+            plugin.validate(PARAM_USER, PARAM_PASSWORD, node);
+            Assert.fail("Expected failure.");
+        } catch (SaltStepValidationException e) {
+            Assert.assertEquals("Expected correct failure type due to validation failure",
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID, e.getFailureReason());
+            Assert.assertEquals("Expected field name to be filled out properly",
+                    SaltApiNodeStepPlugin.SALT_API_DEADLINE_OPTION_NAME, e.getFieldName());
+        }
+    }
+
+    @Test
+    public void testValidateChecksUniqueCompoundFunctions() throws NodeStepException {
+        ((SaltApiNodeStepPlugin) plugin).compound = true;
+        plugin.function = "test.ping\ncmd.run \"ls /\"";
+        plugin.validate(PARAM_USER, PARAM_PASSWORD, node);
+    }
+
+    @Test
+    public void testValidateChecksRepeatedCompoundFunctions() throws NodeStepException {
+        ((SaltApiNodeStepPlugin) plugin).compound = true;
+        plugin.function = "cmd.run ls\ncmd.run pwd";
+        try {
+            plugin.validate(PARAM_USER, PARAM_PASSWORD, node);
+            Assert.fail("Expected failure.");
+        } catch (SaltStepValidationException e) {
+            Assert.assertEquals("Expected correct failure type due to validation failure",
+                    SaltApiNodeStepFailureReason.ARGUMENTS_INVALID, e.getFailureReason());
+            Assert.assertEquals("Expected field name to be filled out properly",
+                    SaltApiNodeStepPlugin.SALT_API_FUNCTION_OPTION_NAME, e.getFieldName());
+        }
+    }
 }
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.client.HttpClient;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.SaltApiNodeStepPlugin.SaltApiNodeStepFailureReason;
+import org.rundeck.plugin.salt.SubmittedJobRegistry.Submission;
+import org.rundeck.plugin.salt.version.SaltApiCapability;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.node.NodeStepException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class SaltApiSubmitStepPluginTest extends AbstractSaltApiNodeStepPluginTest {
+
+    protected static final String EXECUTION_ID = "42";
+    protected static final Object SUBMISSION_KEY = ImmutableList.of(EXECUTION_ID, PARAM_ENDPOINT, PARAM_MINION_NAME);
+
+    protected SubmittedJobRegistry submittedJobRegistry;
+
+    @Override
+    protected AbstractSaltApiNodeStepPlugin createPlugin() {
+        return new SaltApiSubmitStepPlugin();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        submittedJobRegistry = new SubmittedJobRegistry();
+        submittedJobRegistry.retention = 60000;
+        ((SaltApiSubmitStepPlugin) plugin).submittedJobRegistry = submittedJobRegistry;
+        plugin.function = "state.sls webserver";
+        dataContext.put("job", ImmutableMap.of("execid", EXECUTION_ID));
+        spyPlugin();
+    }
+
+    @Test
+    public void testSubmitRegistersJob() throws Exception {
+        Mockito.doReturn(OUTPUT_JID).when(plugin).submitJob(Mockito.same(latestCapability), Mockito.same(client),
+                Mockito.eq(AUTH_TOKEN), Mockito.eq(PARAM_MINION_NAME), Mockito.<Set<String>> any());
+
+        executeOnMinion(SaltApiAuthorization.forToken(AUTH_TOKEN));
+
+        assertRegistered(OUTPUT_JID, true);
+        Mockito.verify(plugin, Mockito.never()).waitForJob(Mockito.any(HttpClient.class),
+                Mockito.any(SaltApiAuthorization.class), Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void testSubmitStatelessRegistersJob() throws Exception {
+        SaltApiAuthorization authorization = SaltApiAuthorization.forCredentials(PARAM_USER, PARAM_PASSWORD,
+                PARAM_EAUTH);
+        Mockito.doReturn(OUTPUT_JID).when(plugin).submitLowstateJob(Mockito.same(latestCapability),
+                Mockito.same(client), Mockito.same(authorization), Mockito.eq(PARAM_MINION_NAME),
+                Mockito.<Set<String>> any());
+
+        executeOnMinion(authorization);
+
+        assertRegistered(OUTPUT_JID, true);
+    }
+
+    @Test
+    public void testSubmitRegistersAlreadyRunningJob() throws Exception {
+        plugin.attachRunning = true;
+        Mockito.when(runningJobCache.findOrClaim(Mockito.any(), Mockito.eq("state.sls"),
+                Mockito.eq(ImmutableList.of("webserver")), Mockito.any(RunningJobCache.Loader.class))).thenReturn(
+                new RunningJob("running", "state.sls", ImmutableList.of("webserver")));
+
+        executeOnMinion(SaltApiAuthorization.forToken(AUTH_TOKEN));
+
+        assertRegistered("running", false);
+        Mockito.verify(plugin, Mockito.never()).submitJob(Mockito.any(SaltApiCapability.class),
+                Mockito.any(HttpClient.class), Mockito.anyString(), Mockito.anyString(), Mockito.<Set<String>> any());
+    }
+
+    @Test
+    public void testSubmitRecordsClaimedJob() throws Exception {
+        plugin.attachRunning = true;
+        Mockito.doReturn(OUTPUT_JID).when(plugin).submitJob(Mockito.same(latestCapability), Mockito.same(client),
+                Mockito.eq(AUTH_TOKEN), Mockito.eq(PARAM_MINION_NAME), Mockito.<Set<String>> any());
+
+        executeOnMinion(SaltApiAuthorization.forToken(AUTH_TOKEN));
+
+        assertRegistered(OUTPUT_JID, true);
+        Mockito.verify(runningJobCache, Mockito.times(1)).record(Mockito.eq(ImmutableList.of(PARAM_ENDPOINT,
+                PARAM_USER, PARAM_EAUTH, PARAM_MINION_NAME)), Mockito.any(RunningJob.class));
+    }
+
+    @Test
+    public void testSubmitWithoutExecutionId() throws Exception {
+        dataContext.remove("job");
+        try {
+            executeOnMinion(SaltApiAuthorization.forToken(AUTH_TOKEN));
+            Assert.fail("Expected node step failure");
+        } catch (NodeStepException e) {
+            Assert.assertEquals(SaltApiNodeStepFailureReason.ARGUMENTS_MISSING, e.getFailureReason());
+        }
+    }
+
+    @Test
+    public void testNodeStepOnlyPropertiesAreNotInherited() {
+        assertNoPluginProperty(SaltApiSubmitStepPlugin.class, SaltApiNodeStepPlugin.SALT_API_SYNC_TIMEOUT_OPTION_NAME);
+        assertNoPluginProperty(SaltApiSubmitStepPlugin.class, SaltApiNodeStepPlugin.SALT_API_COMPOUND_OPTION_NAME);
+    }
+
+    protected void executeOnMinion(SaltApiAuthorization authorization) throws Exception {
+        plugin.executeOnMinion(pluginContext, latestCapability, client, authorization, PARAM_USER, node);
+    }
+
+    protected void assertRegistered(String jid, boolean dispatched) {
+        List<Submission> submissions = submittedJobRegistry.take(SUBMISSION_KEY, "state.sls",
+                ImmutableList.of("webserver"));
+        Assert.assertEquals("Expected job to be handed over to the await step", 1, submissions.size());
+        Assert.assertEquals(jid, submissions.get(0).getJob().getJid());
+        Assert.assertEquals(dispatched, submissions.get(0).isDispatched());
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutputAdapter;
+import org.rundeck.plugin.salt.output.SaltJobReturns;
+import org.rundeck.plugin.salt.output.SaltJobReturnsAdapter;
+import org.rundeck.plugin.salt.output.SaltReturnResponse;
+import org.rundeck.plugin.salt.output.SaltReturnResponseAdapter;
+
+import com.google.gson.Gson;
+
+public class SaltGsonFactoryTest {
+
+    @Test
+    public void testGetGsonBuiltOnce() {
+        SaltGsonFactory factory = new SaltGsonFactory();
+        Assert.assertNull("Expected gson to be built lazily", factory.gson);
+        Gson gson = factory.getGson();
+        Assert.assertSame("Expected the same instance", gson, factory.getGson());
+    }
+
+    @Test
+    public void testAdaptersRegistered() {
+        Gson gson = new SaltGsonFactory().getGson();
+        Assert.assertTrue(gson.getAdapter(SaltApiResponseOutput.class) instanceof SaltApiResponseOutputAdapter);
+        Assert.assertTrue(gson.getAdapter(SaltJobReturns.class) instanceof SaltJobReturnsAdapter);
+        Assert.assertTrue(gson.getAdapter(SaltReturnResponse.class) instanceof SaltReturnResponseAdapter);
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+
+public class SaltResultArchiveTest {
+
+    protected static final String JID = "20130213093536481553";
+    protected static final String OTHER_JID = "20130213093536481554";
+    protected static final String MINION = "minion";
+    protected static final String OTHER_MINION = "other";
+
+    protected File directory;
+    protected SaltResultArchive archive;
+
+    @Before
+    public void setup() throws Exception {
+        directory = Files.createTempDir();
+        archive = createArchive();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        archive.segmentFile.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testDisabledWithoutDirectory() {
+        archive.directory = "";
+        Assert.assertFalse(archive.isEnabled());
+    }
+
+    @Test
+    public void testStoreAndGet() throws Exception {
+        archive.store(JID, MINION, "{\"minion\": true}");
+        archive.store(JID, OTHER_MINION, "{\"other\": false}");
+
+        Assert.assertEquals("{\"minion\": true}", archive.get(JID, MINION));
+        Assert.assertEquals("{\"other\": false}", archive.get(JID, OTHER_MINION));
+        Assert.assertNull(archive.get(OTHER_JID, MINION));
+        Assert.assertEquals(2, archive.size);
+    }
+
+    @Test
+    public void testStoreReplacesReturn() throws Exception {
+        archive.store(JID, MINION, "first");
+        archive.store(JID, MINION, "second");
+
+        Assert.assertEquals("second", archive.get(JID, MINION));
+        Assert.assertEquals("Expected replaced return to keep its slot", 1, archive.size);
+    }
+
+    @Test
+    public void testReturnsAreCompressed() throws Exception {
+        String output = Strings.repeat("{\"changes\": {}, \"result\": true}", 1000);
+        archive.store(JID, MINION, output);
+
+        Assert.assertEquals(output, archive.get(JID, MINION));
+        Assert.assertTrue("Expected return to be compressed", archive.segmentFile.length() < output.length() / 10);
+    }
+
+    @Test
+    public void testReturnsSurviveReopening() throws Exception {
+        archive.store(JID, MINION, "archived");
+        archive.segmentFile.close();
+
+        archive = createArchive();
+
+        Assert.assertEquals("archived", archive.get(JID, MINION));
+        Assert.assertEquals("Expected a new segment to be started", 2, archive.segment);
+    }
+
+    @Test
+    public void testIndexGrows() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            archive.store(JID + i, MINION, "return " + i);
+        }
+
+        Assert.assertTrue("Expected index to grow", archive.capacity > 8);
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("return " + i, archive.get(JID + i, MINION));
+        }
+        archive.segmentFile.close();
+        archive = createArchive();
+        Assert.assertEquals("Expected grown index to be reopened", "return 19", archive.get(JID + 19, MINION));
+    }
+
+    @Test
+    public void testOldSegmentsAreDropped() throws Exception {
+        archive.segmentSize = 1;
+        for (int i = 0; i < 5; i++) {
+            archive.store(JID + i, MINION, "return " + i);
+        }
+
+        Assert.assertNull("Expected return to be dropped with its segment", archive.get(JID + 0, MINION));
+        Assert.assertEquals("return 4", archive.get(JID + 4, MINION));
+        Assert.assertEquals(archive.maximumSegments, directory.list().length - 1);
+    }
+
+    @Test
+    public void testIndexReclaimsSlotsOfDroppedSegments() throws Exception {
+        archive.segmentSize = 1;
+        for (int i = 0; i < 100; i++) {
+            archive.store(JID + i, MINION, "return " + i);
+        }
+
+        Assert.assertEquals("Expected index not to grow with dropped returns", 8, archive.capacity);
+        Assert.assertEquals("return 99", archive.get(JID + 99, MINION));
+    }
+
+    @Test
+    public void testTornRecordIsNotRead() throws Exception {
+        archive.store(JID, MINION, Strings.repeat("x", 10000));
+        RandomAccessFile segment = archive.segmentFile;
+        segment.setLength(segment.length() - 1);
+
+        Assert.assertNull(archive.get(JID, MINION));
+    }
+
+    protected SaltResultArchive createArchive() throws IOException {
+        SaltResultArchive archive = new SaltResultArchive();
+        archive.directory = directory.getPath();
+        archive.segmentSize = 1024 * 1024;
+        archive.maximumSegments = 3;
+        archive.indexCapacity = 8;
+        archive.open();
+        return archive;
+    }
+}
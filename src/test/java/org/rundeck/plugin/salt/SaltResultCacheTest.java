@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.ImmutableList;
+
+public class SaltResultCacheTest {
+
+    protected static final List<String> TARGET = ImmutableList.of("endpoint", "minion");
+    protected static final List<String> OTHER_TARGET = ImmutableList.of("endpoint", "other");
+    protected static final List<String> CREDENTIALS = ImmutableList.of("user", "pam");
+    protected static final List<String> OTHER_CREDENTIALS = ImmutableList.of("other-user", "pam");
+    protected static final List<String> NO_ARGS = ImmutableList.of();
+
+    protected SaltResultCache cache;
+    protected ExecutorService executor;
+
+    @Before
+    public void setup() {
+        cache = new SaltResultCache("/testResultCaches.yaml");
+        cache.maximumEntries = 10;
+        cache.configure();
+        cache = Mockito.spy(cache);
+        Mockito.doReturn(0L).when(cache).currentTimeMillis();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConfigure() {
+        ResultCachePolicy policy = cache.getPolicy("grains.items");
+        Assert.assertEquals(60, policy.getTtl());
+        Assert.assertEquals(ImmutableList.of("saltutil.refresh_grains"), policy.getInvalidatedBy());
+        Assert.assertTrue("Expected no invalidating functions", cache.getPolicy("test.ping").getInvalidatedBy()
+                .isEmpty());
+        Assert.assertNull("Expected unconfigured function not to be cached", cache.getPolicy("cmd.run"));
+    }
+
+    @Test
+    public void testDefaultConfigurationCachesNothing() {
+        SaltResultCache defaultCache = new SaltResultCache("/defaultResultCaches.yaml");
+        defaultCache.maximumEntries = 10;
+        defaultCache.configure();
+        Assert.assertTrue("Expected caching to be opt-in", defaultCache.policies.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testConfigureWithDuplicateFunction() throws Exception {
+        cache.configureFromResource("/testResultCaches.yaml");
+    }
+
+    @Test
+    public void testGetPolicyWithoutEntries() {
+        cache.maximumEntries = 0;
+        Assert.assertNull("Expected caching to be disabled without entries", cache.getPolicy("grains.items"));
+    }
+
+    @Test
+    public void testCompletedReturnIsCached() throws Exception {
+        Assert.assertNull("Expected first caller to claim the load", cache.getOrClaim(TARGET, CREDENTIALS,
+                "grains.items", NO_ARGS));
+        cache.complete(TARGET, CREDENTIALS, "grains.items", NO_ARGS, "{}");
+
+        Assert.assertEquals("{}", cache.getOrClaim(TARGET, CREDENTIALS, "grains.items", NO_ARGS));
+        Assert.assertNull("Expected returns to be cached per target", cache.getOrClaim(OTHER_TARGET, CREDENTIALS,
+                "grains.items", NO_ARGS));
+        Assert.assertNull("Expected returns to be cached per credentials", cache.getOrClaim(TARGET,
+                OTHER_CREDENTIALS, "grains.items", NO_ARGS));
+        Assert.assertNull("Expected returns to be cached per args", cache.getOrClaim(TARGET, CREDENTIALS,
+                "grains.items", ImmutableList.of("os")));
+    }
+
+    @Test
+    public void testReturnExpires() throws Exception {
+        cache.getOrClaim(TARGET, CREDENTIALS, "test.ping", NO_ARGS);
+        cache.complete(TARGET, CREDENTIALS, "test.ping", NO_ARGS, "true");
+
+        Mockito.doReturn(9999L).when(cache).currentTimeMillis();
+        Assert.assertEquals("true", cache.getOrClaim(TARGET, CREDENTIALS, "test.ping", NO_ARGS));
+        Mockito.doReturn(10000L).when(cache).currentTimeMillis();
+        Assert.assertNull("Expected expired return to be loaded again", cache.getOrClaim(TARGET, CREDENTIALS,
+                "test.ping", NO_ARGS));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedReturnIsEvicted() throws Exception {
+        cache = new SaltResultCache("/testResultCaches.yaml");
+        cache.maximumEntries = 2;
+        cache.configure();
+        for (String scope : ImmutableList.of("a", "b")) {
+            cache.getOrClaim(scope, CREDENTIALS, "test.ping", NO_ARGS);
+            cache.complete(scope, CREDENTIALS, "test.ping", NO_ARGS, scope);
+        }
+        Assert.assertEquals("a", cache.getOrClaim("a", CREDENTIALS, "test.ping", NO_ARGS));
+        cache.getOrClaim("c", CREDENTIALS, "test.ping", NO_ARGS);
+        cache.complete("c", CREDENTIALS, "test.ping", NO_ARGS, "c");
+
+        Assert.assertEquals("a", cache.getOrClaim("a", CREDENTIALS, "test.ping", NO_ARGS));
+        Assert.assertEquals("c", cache.getOrClaim("c", CREDENTIALS, "test.ping", NO_ARGS));
+        Assert.assertNull("Expected least recently used return to be evicted", cache.getOrClaim("b", CREDENTIALS,
+                "test.ping", NO_ARGS));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        for (String function : ImmutableList.of("grains.items", "test.ping")) {
+            cache.getOrClaim(TARGET, CREDENTIALS, function, NO_ARGS);
+            cache.complete(TARGET, CREDENTIALS, function, NO_ARGS, function);
+        }
+        cache.getOrClaim(OTHER_TARGET, CREDENTIALS, "grains.items", NO_ARGS);
+        cache.complete(OTHER_TARGET, CREDENTIALS, "grains.items", NO_ARGS, "other");
+
+        cache.invalidate(TARGET, "saltutil.refresh_grains");
+
+        Assert.assertNull("Expected invalidated return to be discarded", cache.getOrClaim(TARGET, CREDENTIALS,
+                "grains.items", NO_ARGS));
+        Assert.assertEquals("test.ping", cache.getOrClaim(TARGET, CREDENTIALS, "test.ping", NO_ARGS));
+        Assert.assertEquals("other", cache.getOrClaim(OTHER_TARGET, CREDENTIALS, "grains.items", NO_ARGS));
+    }
+
+    @Test
+    public void testInvalidateForAllCredentials() throws Exception {
+        cache.getOrClaim(TARGET, CREDENTIALS, "grains.items", NO_ARGS);
+        cache.complete(TARGET, CREDENTIALS, "grains.items", NO_ARGS, "{}");
+        cache.getOrClaim(TARGET, OTHER_CREDENTIALS, "grains.items", NO_ARGS);
+
+        cache.invalidate(TARGET, "saltutil.refresh_grains");
+        cache.complete(TARGET, OTHER_CREDENTIALS, "grains.items", NO_ARGS, "stale");
+
+        Assert.assertNull("Expected other user's return to be discarded", cache.getOrClaim(TARGET, CREDENTIALS,
+                "grains.items", NO_ARGS));
+        Assert.assertNull("Expected other user's load not to be cached", cache.getOrClaim(TARGET,
+                OTHER_CREDENTIALS, "grains.items", NO_ARGS));
+    }
+
+    @Test
+    public void testInvalidateDuringLoad() throws Exception {
+        cache.getOrClaim(TARGET, CREDENTIALS, "grains.items", NO_ARGS);
+        cache.invalidate(TARGET, "saltutil.refresh_grains");
+        cache.complete(TARGET, CREDENTIALS, "grains.items", NO_ARGS, "stale");
+
+        Assert.assertNull("Expected return loaded before invalidation not to be cached", cache.getOrClaim(TARGET,
+                CREDENTIALS, "grains.items", NO_ARGS));
+    }
+
+    @Test
+    public void testConcurrentCallersWaitForLoad() throws Exception {
+        Assert.assertNull(cache.getOrClaim(TARGET, CREDENTIALS, "grains.items", NO_ARGS));
+        Future<String> waiter = submitGetOrClaim();
+        try {
+            waiter.get(100, TimeUnit.MILLISECONDS);
+            Assert.fail("Expected caller to wait for the load in progress");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        cache.complete(TARGET, CREDENTIALS, "grains.items", NO_ARGS, "{}");
+        Assert.assertEquals("Expected waiting caller to receive loaded return", "{}",
+                waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAbandonedLoadIsClaimedByWaiter() throws Exception {
+        Assert.assertNull(cache.getOrClaim(TARGET, CREDENTIALS, "grains.items", NO_ARGS));
+        Future<String> waiter = submitGetOrClaim();
+        Thread.sleep(50);
+
+        cache.abandon(TARGET, CREDENTIALS, "grains.items", NO_ARGS);
+        Assert.assertNull("Expected waiting caller to claim the abandoned load", waiter.get(5, TimeUnit.SECONDS));
+        Assert.assertTrue("Expected load to be claimed", cache.loads.containsKey(ImmutableList.of(TARGET, CREDENTIALS,
+                "grains.items", NO_ARGS)));
+    }
+
+    protected Future<String> submitGetOrClaim() {
+        return executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return cache.getOrClaim(TARGET, CREDENTIALS, "grains.items", NO_ARGS);
+            }
+        });
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.rundeck.plugin.salt.SubmittedJobRegistry.Submission;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class SubmittedJobRegistryTest {
+
+    protected static final String KEY = "key";
+
+    protected SubmittedJobRegistry registry;
+
+    @Before
+    public void setup() {
+        registry = Mockito.spy(new SubmittedJobRegistry());
+        registry.retention = 1000;
+        Mockito.doReturn(0L).when(registry).currentTimeMillis();
+    }
+
+    @Test
+    public void testCreateKey() {
+        Map<String, Map<String, String>> dataContext = ImmutableMap.<String, Map<String, String>> of("job",
+                ImmutableMap.of("execid", "12"));
+        Assert.assertEquals(ImmutableList.of("12", "endpoint", "minion"),
+                SubmittedJobRegistry.createKey(dataContext, "endpoint", "minion"));
+        Assert.assertNull("Expected no key without an execution id", SubmittedJobRegistry.createKey(
+                ImmutableMap.<String, Map<String, String>> of(), "endpoint", "minion"));
+    }
+
+    @Test
+    public void testTakeMatchingJobs() {
+        RunningJob first = new RunningJob("1", "state.sls", ImmutableList.of("webserver"));
+        RunningJob other = new RunningJob("2", "state.sls", ImmutableList.of("database"));
+        RunningJob second = new RunningJob("3", "state.sls", ImmutableList.of("webserver"));
+        registry.register(KEY, first, true);
+        registry.register(KEY, other, true);
+        registry.register(KEY, second, false);
+
+        List<Submission> taken = registry.take(KEY, "state.sls", ImmutableList.of("webserver"));
+        Assert.assertEquals(2, taken.size());
+        Assert.assertSame(first, taken.get(0).getJob());
+        Assert.assertTrue("Expected dispatched job to be recorded as such", taken.get(0).isDispatched());
+        Assert.assertSame(second, taken.get(1).getJob());
+        Assert.assertFalse("Expected attached job to be recorded as such", taken.get(1).isDispatched());
+        Assert.assertTrue("Expected jobs to be taken once", registry.take(KEY, "state.sls",
+                ImmutableList.of("webserver")).isEmpty());
+        Assert.assertTrue("Expected jobs to be registered per key", registry.take("otherKey", "state.sls",
+                ImmutableList.of("database")).isEmpty());
+
+        taken = registry.take(KEY, "state.sls", ImmutableList.of("database"));
+        Assert.assertEquals(1, taken.size());
+        Assert.assertSame(other, taken.get(0).getJob());
+        Assert.assertTrue("Expected empty keys to be removed", registry.submissions.isEmpty());
+    }
+
+    @Test
+    public void testExpiredJobsAreDropped() {
+        registry.register(KEY, new RunningJob("1", "test.ping", ImmutableList.<String> of()), true);
+        Mockito.doReturn(1000L).when(registry).currentTimeMillis();
+
+        Assert.assertTrue("Expected expired job to be dropped", registry.take(KEY, "test.ping",
+                ImmutableList.<String> of()).isEmpty());
+        Assert.assertTrue(registry.submissions.isEmpty());
+    }
+}
@@ -28,6 +28,8 @@ package org.rundeck.plugin.salt.output;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
 import org.rundeck.plugin.salt.output.DefaultSaltReturnHandler;
 import org.rundeck.plugin.salt.output.SaltReturnHandler;
 import org.rundeck.plugin.salt.output.SaltReturnResponse;
@@ -88,4 +90,15 @@ public class DefaultSaltReturnHandlerTest {
         Assert.assertTrue("Expected stdout to be empty", response.getStandardOutput().isEmpty());
         Assert.assertTrue("Expected stderr to be empty", response.getStandardError().isEmpty());
     }
+
+    @Test
+    public void testHandleReturnStreamsLines() {
+        SaltReturnListener listener = Mockito.mock(SaltReturnListener.class);
+        new DefaultSaltReturnHandler(3).handleReturn(MinionReturn.fromJson("\"a\\nb\""), listener);
+
+        InOrder ordering = Mockito.inOrder(listener);
+        ordering.verify(listener).onStdoutLine("\"a\\nb\"");
+        ordering.verify(listener).onExitCode(3);
+        ordering.verifyNoMoreInteractions();
+    }
 }
@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+public class MinionReturnTest {
+
+    protected static final String JSON = "{\"retcode\": 0, \"stdout\": \"out\", \"stderr\": \"\", \"pid\": \"12\", "
+            + "\"data\": {\"a\": [1]}, \"flag\": true}";
+
+    @Test
+    public void testTypedAccessors() {
+        MinionReturn minionReturn = MinionReturn.fromJson(JSON);
+        Assert.assertEquals(Integer.valueOf(0), minionReturn.getRetcode());
+        Assert.assertEquals("out", minionReturn.getStdout());
+        Assert.assertEquals("", minionReturn.getStderr());
+        Assert.assertEquals("Expected numeric string to be read as a number", Integer.valueOf(12),
+                minionReturn.getInteger("pid"));
+        Assert.assertEquals("Expected nested value as json", "{\"a\":[1]}", minionReturn.getString("data"));
+        Assert.assertTrue(minionReturn.has("flag"));
+        Assert.assertFalse(minionReturn.has("missing"));
+    }
+
+    @Test
+    public void testToJsonKeepsReceivedText() {
+        Assert.assertSame(JSON, MinionReturn.fromJson(JSON).toJson());
+    }
+
+    @Test
+    public void testToJsonFromTree() {
+        JsonObject tree = new JsonObject();
+        tree.addProperty("retcode", 1);
+        MinionReturn minionReturn = MinionReturn.fromTree(tree);
+        Assert.assertEquals("{\"retcode\":1}", minionReturn.toJson());
+        Assert.assertSame("Expected tree not to be parsed again", tree, minionReturn.getTree());
+    }
+
+    @Test
+    public void testFromReaderReadsOnlyNextValue() throws Exception {
+        JsonReader reader = new JsonReader(new StringReader("{\"web1\": {\"retcode\": 2}, \"web2\": true}"));
+        reader.beginObject();
+        reader.nextName();
+
+        MinionReturn minionReturn = MinionReturn.fromReader(reader);
+
+        Assert.assertEquals(Integer.valueOf(2), minionReturn.getRetcode());
+        Assert.assertEquals("Expected reader to be left at the next minion", "web2", reader.nextName());
+    }
+
+    @Test
+    public void testNullReturn() {
+        MinionReturn minionReturn = MinionReturn.fromJson(null);
+        Assert.assertNull(minionReturn.toJson());
+        Assert.assertNull(minionReturn.getTree());
+    }
+
+    @Test
+    public void testGetOrDieExtractsProperly() {
+        Assert.assertEquals("Expected keyed value", "out", MinionReturn.fromJson(JSON).getOrDie("stdout")
+                .getAsString());
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testGetOrDieDies() {
+        MinionReturn.fromJson("{}").getOrDie("key");
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testMissingKey() {
+        MinionReturn.fromJson(JSON).getString("missing");
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testNonNumericInteger() {
+        MinionReturn.fromJson(JSON).getInteger("stdout");
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testBooleanInteger() {
+        MinionReturn.fromJson(JSON).getInteger("flag");
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testMalformedJson() {
+        MinionReturn.fromJson("{\"retcode\": ").getRetcode();
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testNonObject() {
+        MinionReturn.fromJson("[1, 2]").getRetcode();
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.stream.JsonReader;
+
+public class SaltApiResponseOutputAdapterTest {
+
+    protected SaltApiResponseOutputAdapter adapter = new SaltApiResponseOutputAdapter();
+
+    @Test
+    public void testRead() throws Exception {
+        SaltApiResponseOutput output = read("{\"jid\": \"123\", \"minions\": [\"host1\", \"host2\"]}");
+        Assert.assertEquals("Expected jid to match", "123", output.getJid());
+        Assert.assertEquals("Expected minions to match", ImmutableList.of("host1", "host2"), output.getMinions());
+    }
+
+    @Test
+    public void testReadSkipsUnknownFields() throws Exception {
+        SaltApiResponseOutput output = read("{\"_links\": {\"jobs\": [{\"href\": \"/jobs/123\"}]}, \"jid\": \"123\", "
+                + "\"extra\": [1, {\"a\": null}], \"minions\": [\"host1\"]}");
+        Assert.assertEquals("Expected jid to match", "123", output.getJid());
+        Assert.assertEquals("Expected minions to match", ImmutableList.of("host1"), output.getMinions());
+    }
+
+    @Test
+    public void testReadNumericJid() throws Exception {
+        Assert.assertEquals("Expected numeric jid as a string", "20130903200912838566",
+                read("{\"jid\": 20130903200912838566}").getJid());
+    }
+
+    @Test
+    public void testReadMinionIdsVerbatim() throws Exception {
+        String minion = "web=1, {db}: \\\"x\\\"";
+        SaltApiResponseOutput output = read(String.format("{\"minions\": [\"%s\"]}", minion));
+        Assert.assertEquals("Expected minion id unchanged", ImmutableList.of("web=1, {db}: \"x\""),
+                output.getMinions());
+    }
+
+    @Test
+    public void testReadNulls() throws Exception {
+        Assert.assertNull("Expected null output", read("null"));
+        SaltApiResponseOutput output = read("{\"jid\": null, \"minions\": null}");
+        Assert.assertNull("Expected no jid", output.getJid());
+        Assert.assertTrue("Expected no minions", output.getMinions().isEmpty());
+    }
+
+    @Test
+    public void testWriteRoundTrip() throws Exception {
+        SaltApiResponseOutput output = read("{\"jid\": \"123\", \"minions\": [\"host1\"]}");
+        Assert.assertEquals("Expected round trip", "{\"jid\":\"123\",\"minions\":[\"host1\"]}",
+                adapter.toJson(output));
+    }
+
+    protected SaltApiResponseOutput read(String json) throws Exception {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        return adapter.read(reader);
+    }
+}
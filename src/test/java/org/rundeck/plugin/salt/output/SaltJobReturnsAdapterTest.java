@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gson.JsonSyntaxException;
+
+public class SaltJobReturnsAdapterTest {
+
+    protected SaltJobReturnsAdapter adapter = new SaltJobReturnsAdapter();
+
+    @Test
+    public void testRead() throws Exception {
+        SaltJobReturns jobReturns = adapter.fromJson("{\"_links\": {}, \"return\": [{\"host1\": {\"retcode\": 0}, "
+                + "\"host2\": \"out\"}, {\"host3\": [1.50, true, null]}]}");
+        Assert.assertEquals("Expected returns merged in order", ImmutableMap.of("host1", "{\"retcode\":0}", "host2",
+                "\"out\"", "host3", "[1.50,true,null]"), jobReturns.getReturns());
+    }
+
+    @Test
+    public void testReadEmptyReturn() throws Exception {
+        Assert.assertTrue("Expected no returns", adapter.fromJson("{\"return\": [{}]}").getReturns().isEmpty());
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testReadMissingReturn() throws Exception {
+        adapter.fromJson("{\"_links\": {}}");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReadUnexpectedElement() throws Exception {
+        adapter.fromJson("{\"return\": [\"host1\"]}");
+    }
+
+    @Test
+    public void testWriteRoundTrip() throws Exception {
+        String json = "{\"return\":[{\"host1\":{\"retcode\":0},\"host2\":\"out\"}]}";
+        Assert.assertEquals("Expected round trip", json, adapter.toJson(adapter.fromJson(json)));
+    }
+}
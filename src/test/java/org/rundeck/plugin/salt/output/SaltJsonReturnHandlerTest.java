@@ -26,12 +26,14 @@
 
 package org.rundeck.plugin.salt.output;
 
-import java.util.Map;
-
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
 
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableList;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
 
 public class SaltJsonReturnHandlerTest {
 
@@ -117,19 +119,94 @@ public class SaltJsonReturnHandlerTest {
     }
 
     @Test
-    public void testExtractOrDieExtractsProperly() {
+    public void testExtractResponseWithFloatingPointExitCode() {
+        SaltJsonReturnHandler handler = new SaltJsonReturnHandler();
+        handler.setExitCodeKey(EXIT_CODE_KEY);
+
+        SaltReturnResponse response = handler.extractResponse("{\"" + EXIT_CODE_KEY + "\": 2.0}");
+        Assert.assertEquals("Expected exit code to be truncated to an integer", Integer.valueOf(2),
+                response.getExitCode());
+    }
+
+    @Test
+    public void testExtractResponseWithStringValues() {
+        SaltJsonReturnHandler handler = new SaltJsonReturnHandler();
+        handler.setExitCodeKey(EXIT_CODE_KEY);
+        handler.setStandardOutputKey(OUT_KEY);
+
+        SaltReturnResponse response = handler.extractResponse("{\"" + EXIT_CODE_KEY + "\": \"3\", \"" + OUT_KEY
+                + "\": 42}");
+        Assert.assertEquals("Expected numeric string exit code to be extracted", Integer.valueOf(3),
+                response.getExitCode());
+        Assert.assertEquals("Expected number output to be extracted as written", ImmutableList.of("42"),
+                response.getStandardOutput());
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testExtractResponseFromMalformedJson() {
         SaltJsonReturnHandler handler = new SaltJsonReturnHandler();
-        Map<String, String> data = Maps.newHashMap();
-        String key = "key";
-        String value = "value";
-        data.put(key, value);
-        Assert.assertEquals("Expected handler to extract keyed value", value, handler.extractOrDie(key, data));
+        handler.setStandardOutputKey(OUT_KEY);
+        handler.extractResponse("{\"" + OUT_KEY + "\": \"some output\", ");
     }
 
     @Test(expected = SaltReturnResponseParseException.class)
-    public void testExtractOrDieDies() {
+    public void testExtractResponseFromNonObject() {
+        SaltJsonReturnHandler handler = new SaltJsonReturnHandler();
+        handler.setExitCodeKey(EXIT_CODE_KEY);
+        handler.extractResponse("\"some response\"");
+    }
+
+    @Test
+    public void testHandleReturnFromTree() {
         SaltJsonReturnHandler handler = new SaltJsonReturnHandler();
-        Map<String, String> data = Maps.newHashMap();
-        handler.extractOrDie("key", data);
+        handler.setExitCodeKey(EXIT_CODE_KEY);
+        handler.setStandardOutputKey(OUT_KEY);
+        handler.setStandardErrorKey(ERR_KEY);
+
+        JsonObject tree = new JsonObject();
+        tree.addProperty(EXIT_CODE_KEY, 1);
+        tree.addProperty(OUT_KEY, "out");
+        tree.add(ERR_KEY, JsonNull.INSTANCE);
+        SaltReturnResponse response = handler.handleReturn(MinionReturn.fromTree(tree));
+        Assert.assertEquals(Integer.valueOf(1), response.getExitCode());
+        Assert.assertEquals(ImmutableList.of("out"), response.getStandardOutput());
+        Assert.assertTrue("Expected null stderr to be ignored", response.getStandardError().isEmpty());
+    }
+
+    @Test
+    public void testHandleReturnStreamsLines() {
+        SaltJsonReturnHandler handler = new SaltJsonReturnHandler();
+        handler.setExitCodeKey(EXIT_CODE_KEY);
+        handler.setStandardOutputKey(OUT_KEY);
+        handler.setStandardErrorKey(ERR_KEY);
+        SaltReturnListener listener = Mockito.mock(SaltReturnListener.class);
+
+        handler.handleReturn(MinionReturn.fromJson(String.format(SAMPLE_JSON_TEMPLATE, 2, "a\\n\\nb\\n", "c")),
+                listener);
+
+        InOrder ordering = Mockito.inOrder(listener);
+        ordering.verify(listener).onStdoutLine("a");
+        ordering.verify(listener).onStdoutLine("");
+        ordering.verify(listener).onStdoutLine("b");
+        ordering.verify(listener).onStderrLine("c");
+        ordering.verify(listener).onExitCode(2);
+        ordering.verifyNoMoreInteractions();
+    }
+
+    @Test
+    public void testHandleReturnStreamsNothingOnMissingKey() {
+        SaltJsonReturnHandler handler = new SaltJsonReturnHandler();
+        handler.setStandardOutputKey(OUT_KEY);
+        handler.setStandardErrorKey("missing");
+        SaltReturnListener listener = Mockito.mock(SaltReturnListener.class);
+
+        try {
+            handler.handleReturn(MinionReturn.fromJson(String.format(SAMPLE_JSON_TEMPLATE, 0, "out", "err")),
+                    listener);
+            Assert.fail("Expected exception for missing key");
+        } catch (SaltReturnResponseParseException e) {
+            // expected
+        }
+        Mockito.verifyZeroInteractions(listener);
     }
 }
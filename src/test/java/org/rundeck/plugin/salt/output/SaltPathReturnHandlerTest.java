@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class SaltPathReturnHandlerTest {
+
+    protected static final String JSON = "{\"data\": {\"a\": {\"retcode\": 0, \"comment\": \"one\\ntwo\"}, "
+            + "\"b\": {\"retcode\": 3, \"comment\": \"three\"}}, \"errors\": [\"bad\"]}";
+
+    @Test
+    public void testExtractResponse() {
+        SaltPathReturnHandler handler = handler("$.data.*.retcode", "$.data.*.comment", "$.errors[*]");
+        SaltReturnResponse response = handler.extractResponse(JSON);
+        Assert.assertEquals("Expected the first non-zero exit code", 3, response.getExitCode().intValue());
+        Assert.assertEquals(Arrays.asList("one", "two", "three"), response.getStandardOutput());
+        Assert.assertEquals(Arrays.asList("bad"), response.getStandardError());
+    }
+
+    @Test
+    public void testExtractResponseZeroExitCodes() {
+        SaltReturnResponse response = handler("$.data.a.retcode", null, null).extractResponse(JSON);
+        Assert.assertTrue("Expected a zero exit code to succeed", response.isSuccessful());
+        Assert.assertTrue("Expected no stdout", response.getStandardOutput().isEmpty());
+    }
+
+    @Test
+    public void testExtractResponseNoPaths() {
+        SaltReturnResponse response = new SaltPathReturnHandler().extractResponse("not json");
+        Assert.assertNull("Expected no exit code", response.getExitCode());
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testExtractResponseMissingExitCode() {
+        handler("$.retcode", null, null).extractResponse(JSON);
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testExtractResponseNonNumericExitCode() {
+        handler("$.errors[0]", null, null).extractResponse(JSON);
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testExtractResponseInvalidJson() {
+        handler("$.retcode", null, null).extractResponse("{\"retcode\": ");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetInvalidPath() {
+        new SaltPathReturnHandler().setStandardOutputPath("data.comment");
+    }
+
+    @Test
+    public void testHandleReturnStreamsLinesBeforeExitCode() {
+        SaltReturnListener listener = Mockito.mock(SaltReturnListener.class);
+        handler("$.data.b.retcode", "$.data.a.comment", "$.errors[0]").handleReturn(MinionReturn.fromJson(JSON),
+                listener);
+        InOrder inOrder = Mockito.inOrder(listener);
+        inOrder.verify(listener).onStdoutLine("one");
+        inOrder.verify(listener).onStdoutLine("two");
+        inOrder.verify(listener).onStderrLine("bad");
+        inOrder.verify(listener).onExitCode(3);
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    @Test
+    public void testToString() {
+        Assert.assertEquals("SaltPathReturnHandler [exitCodePath=$.retcode, standardOutputPath=$.stdout, "
+                + "standardErrorPath=null]", handler("$.retcode", "$.stdout", null).toString());
+    }
+
+    protected SaltPathReturnHandler handler(String exitCodePath, String standardOutputPath, String standardErrorPath) {
+        SaltPathReturnHandler handler = new SaltPathReturnHandler();
+        handler.setExitCodePath(exitCodePath);
+        handler.setStandardOutputPath(standardOutputPath);
+        handler.setStandardErrorPath(standardErrorPath);
+        return handler;
+    }
+}
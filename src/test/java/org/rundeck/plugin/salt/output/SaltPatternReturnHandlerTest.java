@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class SaltPatternReturnHandlerTest {
+
+    @Test
+    public void testExtractResponseDecodesStringReturn() {
+        SaltReturnResponse response = new SaltPatternReturnHandler().extractResponse("\"first\\nsecond\"");
+        Assert.assertTrue("Expected no patterns to succeed", response.isSuccessful());
+        Assert.assertEquals(Arrays.asList("first", "second"), response.getStandardOutput());
+    }
+
+    @Test
+    public void testExtractResponseOutputsOtherReturnsAsIs() {
+        SaltReturnResponse response = new SaltPatternReturnHandler().extractResponse("{\"a\":1}");
+        Assert.assertEquals(Arrays.asList("{\"a\":1}"), response.getStandardOutput());
+    }
+
+    @Test
+    public void testExtractResponseFailurePattern() {
+        SaltPatternReturnHandler handler = new SaltPatternReturnHandler();
+        handler.setFailurePatterns(Arrays.asList("^ERROR", "(?i)deploy failed"));
+        handler.setFailureExitCode(4);
+        Assert.assertTrue(handler.extractResponse("\"all good\\nno errors\"").isSuccessful());
+        SaltReturnResponse response = handler.extractResponse("\"step 1\\nDeploy FAILED\\nstep 2\"");
+        Assert.assertEquals("Expected the failure exit code", 4, response.getExitCode().intValue());
+        Assert.assertEquals("Expected lines to be passed on", Arrays.asList("step 1", "Deploy FAILED", "step 2"),
+                response.getStandardOutput());
+    }
+
+    @Test
+    public void testExtractResponseExitCodePattern() {
+        SaltPatternReturnHandler handler = new SaltPatternReturnHandler();
+        handler.setExitCodePattern("^exit status: (\\d+)$");
+        handler.setFailurePatterns(Arrays.asList("^ERROR"));
+        Assert.assertEquals("Expected the last matched exit code", 7, handler.extractResponse(
+                "\"exit status: 3\\nexit status: 7\"").getExitCode().intValue());
+        Assert.assertEquals("Expected a matched failure to keep a non-zero exit code", 3, handler.extractResponse(
+                "\"ERROR\\nexit status: 3\"").getExitCode().intValue());
+        Assert.assertEquals("Expected a matched failure to override a zero exit code", 1, handler.extractResponse(
+                "\"ERROR\\nexit status: 0\"").getExitCode().intValue());
+    }
+
+    @Test
+    public void testExtractResponseErrorAndSummaryPatterns() {
+        SaltPatternReturnHandler handler = new SaltPatternReturnHandler();
+        handler.setErrorPatterns(Arrays.asList("^WARN"));
+        handler.setSummaryPatterns(Arrays.asList("^Total"));
+        SaltReturnResponse response = handler.extractResponse("\"Total: 3 files\\nWARN: disk low\\ncopied\"");
+        Assert.assertEquals(Arrays.asList("Total: 3 files", "copied", "Total: 3 files"),
+                response.getStandardOutput());
+        Assert.assertEquals(Arrays.asList("WARN: disk low"), response.getStandardError());
+        Assert.assertTrue("Expected error lines not to fail the step", response.isSuccessful());
+    }
+
+    @Test
+    public void testHandleReturnMatchesDelegateLinesAsTheyStream() {
+        SaltJsonReturnHandler delegate = new SaltJsonReturnHandler();
+        delegate.setExitCodeKey("retcode");
+        delegate.setStandardOutputKey("stdout");
+        delegate.setStandardErrorKey("stderr");
+        SaltPatternReturnHandler handler = new SaltPatternReturnHandler();
+        handler.setDelegate(delegate);
+        handler.setFailurePatterns(Arrays.asList("refused"));
+        handler.setSummaryPatterns(Arrays.asList("^done"));
+
+        SaltReturnListener listener = Mockito.mock(SaltReturnListener.class);
+        handler.handleReturn(MinionReturn.fromJson("{\"retcode\": 0, \"stdout\": \"start\\ndone in 2s\", "
+                + "\"stderr\": \"connection refused\"}"), listener);
+        InOrder inOrder = Mockito.inOrder(listener);
+        inOrder.verify(listener).onStdoutLine("start");
+        inOrder.verify(listener).onStdoutLine("done in 2s");
+        inOrder.verify(listener).onStderrLine("connection refused");
+        inOrder.verify(listener).onStdoutLine("done in 2s");
+        inOrder.verify(listener).onExitCode(1);
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    @Test
+    public void testSummaryLinesAreLimited() {
+        SaltPatternReturnHandler handler = new SaltPatternReturnHandler();
+        handler.setSummaryPatterns(Arrays.asList("."));
+        StringBuilder output = new StringBuilder("\"");
+        for (int i = 0; i < SaltPatternReturnHandler.MAXIMUM_SUMMARY_LINES + 5; i++) {
+            output.append("line\\n");
+        }
+        SaltReturnResponse response = handler.extractResponse(output.append("\"").toString());
+        Assert.assertEquals(2 * SaltPatternReturnHandler.MAXIMUM_SUMMARY_LINES + 5, response.getStandardOutput()
+                .size());
+    }
+
+    @Test
+    public void testConfigureFromYaml() {
+        SaltReturnHandlerRegistry registry = new SaltReturnHandlerRegistry(null);
+        registry.configureFromInputStream(new ByteArrayInputStream(("handlerMappings:\n    cmd.run: "
+                + "!!org.rundeck.plugin.salt.output.SaltPatternReturnHandler {exitCodePattern: 'rc=(\\d+)', "
+                + "failurePatterns: ['^ERROR'], failureExitCode: 9}\n").getBytes()));
+        SaltReturnHandler handler = (SaltReturnHandler) registry.handlerMap.get("cmd.run");
+        Assert.assertEquals(9, handler.extractResponse("\"ERROR: broken\"").getExitCode().intValue());
+        Assert.assertEquals(5, handler.extractResponse("\"rc=5\"").getExitCode().intValue());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testConfigureInvalidPatternFromYaml() {
+        new SaltReturnHandlerRegistry(null).configureFromInputStream(new ByteArrayInputStream(("handlerMappings:\n"
+                + "    cmd.run: !!org.rundeck.plugin.salt.output.SaltPatternReturnHandler {failurePatterns: ['(']}\n")
+                .getBytes()));
+    }
+}
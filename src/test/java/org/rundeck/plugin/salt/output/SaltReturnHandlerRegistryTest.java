@@ -27,6 +27,7 @@
 package org.rundeck.plugin.salt.output;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
@@ -35,6 +36,7 @@ import java.io.InputStream;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 import org.rundeck.plugin.salt.output.DefaultSaltReturnHandler;
 import org.rundeck.plugin.salt.output.SaltReturnHandler;
@@ -129,6 +131,72 @@ public class SaltReturnHandlerRegistryTest {
         Assert.assertSame("Expected default handler to be returned", handler3, registry.getHandlerFor("module2.function", handler3));
     }
 
+    @Test
+    public void testGetTreeHandlerAdaptsStringHandler() {
+        SaltReturnHandlerRegistry registry = new SaltReturnHandlerRegistry(null);
+        SaltReturnHandler handler = Mockito.mock(SaltReturnHandler.class);
+        SaltTreeReturnHandler defaultHandler = new DefaultSaltReturnHandler();
+        registry.handlerMap.put("module", handler);
+
+        SaltTreeReturnHandler treeHandler = registry.getTreeHandlerFor("module.function", defaultHandler);
+        treeHandler.handleReturn(MinionReturn.fromJson("{\"a\": 1}"));
+
+        Mockito.verify(handler, Mockito.times(1)).extractResponse("{\"a\": 1}");
+        Assert.assertSame("Expected default handler to be returned", defaultHandler,
+                registry.getTreeHandlerFor("module2.function", defaultHandler));
+    }
+
+    @Test
+    public void testGetTreeHandlerReturnsTreeHandler() {
+        SaltReturnHandlerRegistry registry = new SaltReturnHandlerRegistry(null);
+        SaltTreeReturnHandler handler = Mockito.mock(SaltTreeReturnHandler.class);
+        registry.handlerMap.put("module.function", handler);
+
+        Assert.assertSame(handler, registry.getTreeHandlerFor("module.function", new DefaultSaltReturnHandler()));
+    }
+
+    @Test
+    public void testGetHandlerAdaptsTreeHandler() {
+        SaltReturnHandlerRegistry registry = new SaltReturnHandlerRegistry(null);
+        SaltTreeReturnHandler handler = Mockito.mock(SaltTreeReturnHandler.class);
+        registry.handlerMap.put("module", handler);
+
+        registry.getHandlerFor("module.function", new DefaultSaltReturnHandler()).extractResponse("{}");
+
+        Mockito.verify(handler, Mockito.times(1)).handleReturn(Mockito.argThat(new ArgumentMatcher<MinionReturn>() {
+            @Override
+            public boolean matches(Object argument) {
+                return "{}".equals(((MinionReturn) argument).toJson());
+            }
+        }));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConfigureWithNonHandlerThrowsException() {
+        SaltReturnHandlerRegistry registry = new SaltReturnHandlerRegistry(null);
+        registry.configureFromInputStream(new ByteArrayInputStream("handlerMappings:\n    cmd: notahandler\n"
+                .getBytes()));
+    }
+
+    @Test
+    public void testConfigureCompilesPaths() {
+        SaltReturnHandlerRegistry registry = new SaltReturnHandlerRegistry(null);
+        registry.configureFromInputStream(new ByteArrayInputStream(("handlerMappings:\n    test.nested: "
+                + "!!org.rundeck.plugin.salt.output.SaltPathReturnHandler {exitCodePath: $.data.retcode, "
+                + "standardOutputPath: '$.data.*.comment'}\n").getBytes()));
+
+        SaltPathReturnHandler handler = (SaltPathReturnHandler) registry.handlerMap.get("test.nested");
+        Assert.assertEquals("$.data.retcode", handler.exitCodePath.getExpression());
+        Assert.assertEquals("$.data.*.comment", handler.standardOutputPath.getExpression());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testConfigureWithInvalidPathThrowsException() {
+        SaltReturnHandlerRegistry registry = new SaltReturnHandlerRegistry(null);
+        registry.configureFromInputStream(new ByteArrayInputStream(("handlerMappings:\n    test.nested: "
+                + "!!org.rundeck.plugin.salt.output.SaltPathReturnHandler {exitCodePath: retcode}\n").getBytes()));
+    }
+
     @Test
     public void testConfigureFromResource() throws IOException {
         SaltReturnHandlerRegistry registry = new SaltReturnHandlerRegistry(null);
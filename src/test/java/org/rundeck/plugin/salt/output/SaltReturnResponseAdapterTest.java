@@ -0,0 +1,73 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+
+public class SaltReturnResponseAdapterTest {
+
+    protected SaltReturnResponseAdapter adapter = new SaltReturnResponseAdapter();
+
+    @Test
+    public void testRead() throws Exception {
+        SaltReturnResponse response = adapter.fromJson("{\"exitCode\": 2, \"standardOutput\": [\"a\", \"b\"], "
+                + "\"standardError\": [\"c\"], \"other\": {}}");
+        Assert.assertEquals(Integer.valueOf(2), response.getExitCode());
+        Assert.assertEquals(ImmutableList.of("a", "b"), response.getStandardOutput());
+        Assert.assertEquals(ImmutableList.of("c"), response.getStandardError());
+    }
+
+    @Test
+    public void testReadNullExitCode() throws Exception {
+        SaltReturnResponse response = adapter.fromJson("{\"exitCode\": null}");
+        Assert.assertNull("Expected no exit code", response.getExitCode());
+        Assert.assertTrue("Expected no output", response.getStandardOutput().isEmpty());
+    }
+
+    @Test
+    public void testWriteMatchesReflectiveGson() throws Exception {
+        SaltReturnResponse response = new SaltReturnResponse();
+        response.setExitCode(0);
+        response.addOutput("out");
+        response.addError("err");
+        Assert.assertEquals("Expected the reflective field names", new Gson().toJson(response),
+                adapter.toJson(response));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SaltReturnResponse response = new SaltReturnResponse();
+        response.addOutput("out");
+        SaltReturnResponse read = adapter.fromJson(adapter.toJson(response));
+        Assert.assertNull("Expected no exit code", read.getExitCode());
+        Assert.assertEquals(ImmutableList.of("out"), read.getStandardOutput());
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.output;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+public class SaltStateReturnHandlerTest {
+
+    protected static final String VIM_KEY = "pkg_|-vim_|-vim_|-installed";
+    protected static final String MOTD_KEY = "file_|-motd_|-/etc/motd_|-managed";
+    protected static final String NTP_KEY = "service_|-ntp_|-ntpd_|-running";
+
+    @Test
+    public void testExtractResponseAllOk() {
+        SaltReturnResponse response = new SaltStateReturnHandler().extractResponse("{"
+                + state(VIM_KEY, "true", "Package vim is already installed", "{}", 0) + ","
+                + state(NTP_KEY, "true", "The service ntpd is already running", "{}", 1) + "}");
+        Assert.assertTrue("Expected ok states to succeed", response.isSuccessful());
+        Assert.assertEquals(Arrays.asList("States: 2 ok, 0 changed, 0 failed"), response.getStandardOutput());
+        Assert.assertTrue("Expected no stderr", response.getStandardError().isEmpty());
+    }
+
+    @Test
+    public void testExtractResponseOrdersByRunNum() {
+        SaltReturnResponse response = new SaltStateReturnHandler().extractResponse("{"
+                + state(NTP_KEY, "false", "Service ntpd failed\n  to start", "{}", 2) + ","
+                + state(MOTD_KEY, "true", "File updated", "{\"diff\": \"--- \\n+++ \\n\", \"mode\": \"0644\"}", 1)
+                + "," + state(VIM_KEY, "true", "Installed", "{\"vim\": {\"new\": \"7.4\", \"old\": \"\"}}", 0)
+                + "}");
+        Assert.assertEquals("Expected the failure exit code", 2, response.getExitCode().intValue());
+        Assert.assertEquals(Arrays.asList("Changed: pkg.installed vim [vim]",
+                "Changed: file.managed motd (/etc/motd) [diff, mode]", "States: 0 ok, 2 changed, 1 failed"),
+                response.getStandardOutput());
+        Assert.assertEquals(Arrays.asList("Failed: service.running ntp (ntpd): Service ntpd failed to start"),
+                response.getStandardError());
+    }
+
+    @Test
+    public void testExtractResponseTestRunCountsAsChanged() {
+        SaltReturnResponse response = new SaltStateReturnHandler().extractResponse("{"
+                + state(VIM_KEY, "null", "The following packages would be installed: vim", "{}", 0) + "}");
+        Assert.assertTrue("Expected test runs to succeed", response.isSuccessful());
+        Assert.assertEquals(Arrays.asList("Changed: pkg.installed vim: The following packages would be installed: vim",
+                "States: 0 ok, 1 changed, 0 failed"), response.getStandardOutput());
+    }
+
+    @Test
+    public void testExtractResponseLimitsChangeKeysAndComments() {
+        StringBuilder changes = new StringBuilder("{");
+        for (int i = 0; i < 7; i++) {
+            changes.append(i == 0 ? "" : ",").append("\"pkg").append(i).append("\": {}");
+        }
+        changes.append("}");
+        StringBuilder comment = new StringBuilder();
+        for (int i = 0; i < SaltStateReturnHandler.MAXIMUM_COMMENT_LENGTH + 10; i++) {
+            comment.append('x');
+        }
+        SaltReturnResponse response = new SaltStateReturnHandler().extractResponse("{"
+                + state(VIM_KEY, "true", "Installed", changes.toString(), 0) + ","
+                + state(NTP_KEY, "false", comment.toString(), "{}", 1) + "}");
+        Assert.assertEquals("Changed: pkg.installed vim [pkg0, pkg1, pkg2, pkg3, pkg4, 2 more]", response
+                .getStandardOutput().get(0));
+        Assert.assertEquals("Failed: service.running ntp (ntpd): "
+                + comment.substring(0, SaltStateReturnHandler.MAXIMUM_COMMENT_LENGTH) + "...", response
+                .getStandardError().get(0));
+    }
+
+    @Test
+    public void testExtractResponseErrors() {
+        SaltStateReturnHandler handler = new SaltStateReturnHandler();
+        handler.setFailureExitCode(5);
+        SaltReturnResponse response = handler.extractResponse("[\"No matching sls found for 'web' in env 'base'\"]");
+        Assert.assertEquals("Expected the configured failure exit code", 5, response.getExitCode().intValue());
+        Assert.assertEquals(Arrays.asList("No matching sls found for 'web' in env 'base'"),
+                response.getStandardError());
+        Assert.assertTrue("Expected no stdout", response.getStandardOutput().isEmpty());
+    }
+
+    @Test
+    public void testExtractResponseStringError() {
+        SaltReturnResponse response = new SaltStateReturnHandler().extractResponse("\"Pillar failed to render\"");
+        Assert.assertFalse("Expected an error to fail", response.isSuccessful());
+        Assert.assertEquals(Arrays.asList("Pillar failed to render"), response.getStandardError());
+    }
+
+    @Test
+    public void testExtractResponseUnknownStateKey() {
+        SaltReturnResponse response = new SaltStateReturnHandler().extractResponse("{"
+                + state("some state", "false", null, "{}", 0) + "}");
+        Assert.assertEquals(Arrays.asList("Failed: some state: no comment"), response.getStandardError());
+    }
+
+    @Test(expected = SaltReturnResponseParseException.class)
+    public void testExtractResponseInvalidState() {
+        new SaltStateReturnHandler().extractResponse("{\"" + VIM_KEY + "\": \"installed\"}");
+    }
+
+    @Test
+    public void testHandleReturnOutputsNothingOnParseFailure() {
+        SaltReturnListener listener = Mockito.mock(SaltReturnListener.class);
+        try {
+            new SaltStateReturnHandler().handleReturn(MinionReturn.fromJson("{"
+                    + state(NTP_KEY, "false", "failed", "{}", 0) + ", \"" + VIM_KEY + "\": 1}"), listener);
+            Assert.fail("Expected a parse exception");
+        } catch (SaltReturnResponseParseException e) {
+            // expected
+        }
+        Mockito.verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void testHandleReturnStreamsLinesBeforeExitCode() {
+        SaltReturnListener listener = Mockito.mock(SaltReturnListener.class);
+        new SaltStateReturnHandler().handleReturn(MinionReturn.fromJson("{"
+                + state(VIM_KEY, "true", "Installed", "{\"vim\": {}}", 0) + ","
+                + state(NTP_KEY, "false", "failed", "{}", 1) + "}"), listener);
+        InOrder inOrder = Mockito.inOrder(listener);
+        inOrder.verify(listener).onStdoutLine("Changed: pkg.installed vim [vim]");
+        inOrder.verify(listener).onStderrLine("Failed: service.running ntp (ntpd): failed");
+        inOrder.verify(listener).onStdoutLine("States: 0 ok, 1 changed, 1 failed");
+        inOrder.verify(listener).onExitCode(2);
+        inOrder.verifyNoMoreInteractions();
+    }
+
+    protected String state(String key, String result, String comment, String changes, int runNum) {
+        return String.format("\"%s\": {\"name\": \"ignored\", \"result\": %s, \"comment\": %s, \"changes\": %s, "
+                + "\"duration\": 1.5, \"__run_num__\": %d}", key, result, comment == null ? "null" : "\""
+                + comment.replace("\n", "\\n") + "\"", changes, runNum);
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AdaptiveBatchSizerTest {
+
+    @Test
+    public void testInitialBatchSize() {
+        Assert.assertEquals(5, new AdaptiveBatchSizer(5, 50, 1000, 0.1).getBatchSize());
+    }
+
+    @Test
+    public void testInitialBatchSizeCappedAtMaximum() {
+        Assert.assertEquals(3, new AdaptiveBatchSizer(5, 3, 1000, 0.1).getBatchSize());
+    }
+
+    @Test
+    public void testGrowsAdditivelyWhenHealthy() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(5, 12, 1000, 0.1);
+        sizer.record(5, 0, 500);
+        Assert.assertEquals(10, sizer.getBatchSize());
+        sizer.record(10, 1, 1000);
+        Assert.assertEquals("Expected batch size to be capped at maximum", 12, sizer.getBatchSize());
+    }
+
+    @Test
+    public void testHalvesOnSlowBatch() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(8, 50, 1000, 0.1);
+        sizer.record(8, 0, 1001);
+        Assert.assertEquals(4, sizer.getBatchSize());
+    }
+
+    @Test
+    public void testHalvesOnFailures() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(8, 50, 1000, 0.1);
+        sizer.record(8, 1, 10);
+        Assert.assertEquals(4, sizer.getBatchSize());
+    }
+
+    @Test
+    public void testNeverShrinksBelowOne() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(1, 50, 1000, 0.1);
+        sizer.record(1, 1, 10);
+        Assert.assertEquals(1, sizer.getBatchSize());
+    }
+
+    @Test
+    public void testIgnoresEmptyBatch() {
+        AdaptiveBatchSizer sizer = new AdaptiveBatchSizer(4, 50, 1000, 0.1);
+        sizer.record(0, 0, 5000);
+        Assert.assertEquals(4, sizer.getBatchSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNonPositiveInitialSize() {
+        new AdaptiveBatchSizer(0, 50, 1000, 0.1);
+    }
+}
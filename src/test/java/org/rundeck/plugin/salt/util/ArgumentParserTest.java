@@ -194,6 +194,47 @@ public class ArgumentParserTest {
         new ArgumentParser("\\s").parse(null);
     }
 
+    @Test
+    public void testParseWithCustomSeparators() {
+        List<String> args = new ArgumentParser("[,;]", new char[] { '"' }).parse("a,b;;\"c,d\" e");
+        Assert.assertEquals(4, args.size());
+        Assert.assertEquals("a", args.get(0));
+        Assert.assertEquals("b", args.get(1));
+        Assert.assertEquals("c,d", args.get(2));
+        Assert.assertEquals(" e", args.get(3));
+    }
+
+    @Test
+    public void testSeparatorsAreCompiled() {
+        ArgumentParser parser = new ArgumentParser("\\s");
+        Assert.assertTrue(parser.isSeparator(' '));
+        Assert.assertTrue(parser.isSeparator('\t'));
+        Assert.assertTrue(parser.isSeparator('\n'));
+        Assert.assertFalse(parser.isSeparator('a'));
+        Assert.assertFalse(parser.isSeparator('\u00a0'));
+    }
+
+    @Test
+    public void testParseEscapedQuoteMidSegment() {
+        List<String> args = new ArgumentParser("\\s", new char[] { '"' }, '\\').parse("ab\\\"cd ef");
+        Assert.assertEquals(2, args.size());
+        Assert.assertEquals("ab\"cd", args.get(0));
+        Assert.assertEquals("ef", args.get(1));
+    }
+
+    @Test
+    public void testParseLongEmbeddedScript() {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            script.append("echo 'line ").append(i).append("'\n");
+        }
+        List<String> args = ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.parse("file.append /tmp/script.sh \""
+                + script + "\" \\\"last\\\"");
+        Assert.assertEquals(4, args.size());
+        Assert.assertEquals(script.toString(), args.get(2));
+        Assert.assertEquals("\"last\"", args.get(3));
+    }
+
     @Test
     public void testDefaultArgumentSplitter() {
         Assert.assertEquals("\\s", ArgumentParser.DEFAULT_ARGUMENT_SPLITTER.separatorCharSetRegex);
@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeadlineTest {
+
+    @After
+    public void teardown() {
+        Deadline.clear();
+    }
+
+    @Test
+    public void testUnboundedByDefault() throws Exception {
+        Deadline deadline = Deadline.current();
+        Assert.assertFalse("Expected no deadline unless one was started", deadline.isBounded());
+        Assert.assertEquals(Long.MAX_VALUE, deadline.remaining());
+        deadline.check();
+    }
+
+    @Test
+    public void testStart() throws Exception {
+        Deadline deadline = Deadline.start(60000);
+        Assert.assertSame("Expected started deadline to be current", deadline, Deadline.current());
+        Assert.assertTrue("Expected started deadline to be bounded", deadline.isBounded());
+        Assert.assertTrue("Expected remaining time within the budget", deadline.remaining() > 0
+                && deadline.remaining() <= 60000);
+        deadline.check();
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testCheckExpired() throws Exception {
+        Deadline.start(0).check();
+    }
+
+    @Test
+    public void testClear() {
+        Deadline.start(60000);
+        Deadline.clear();
+        Assert.assertFalse("Expected deadline to be removed", Deadline.current().isBounded());
+    }
+
+    @Test
+    public void testRestore() {
+        Deadline deadline = Deadline.start(60000);
+        Deadline.start(0);
+        Deadline.restore(deadline);
+        Assert.assertSame("Expected restored deadline to be current", deadline, Deadline.current());
+        Deadline.restore(Deadline.NONE);
+        Assert.assertNull("Expected restoring no deadline to remove the current one", Deadline.CURRENT.get());
+    }
+
+    @Test
+    public void testAwait() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        latch.countDown();
+        Deadline.start(0).await(latch);
+    }
+
+    @Test(expected = DeadlineExceededException.class)
+    public void testAwaitExpired() throws Exception {
+        Deadline.start(0).await(new CountDownLatch(1));
+    }
+}
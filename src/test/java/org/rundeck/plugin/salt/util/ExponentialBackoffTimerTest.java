@@ -28,6 +28,7 @@ package org.rundeck.plugin.salt.util;
 
 import java.util.List;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -65,6 +66,13 @@ public class ExponentialBackoffTimerTest {
                 timer.maximumDelay);
     }
 
+    @After
+    public void teardown() {
+        Deadline.clear();
+        // Clears the interruption testInterrupted leaves behind for the tests that follow.
+        Thread.interrupted();
+    }
+
     @Test
     public void testWaitForNext() throws Exception {
         long delayStep = 1;
@@ -85,6 +93,33 @@ public class ExponentialBackoffTimerTest {
                 sleepValues);
     }
 
+    @Test
+    public void testWaitForNextLimitedByDeadline() throws Exception {
+        ExponentialBackoffTimer timer = Mockito.spy(new ExponentialBackoffTimer(60000, 60000));
+        Mockito.doNothing().when(timer).sleep(Mockito.anyLong());
+        Deadline.start(1000);
+
+        timer.waitForNext();
+
+        ArgumentCaptor<Long> captor = ArgumentCaptor.forClass(Long.class);
+        Mockito.verify(timer, Mockito.times(1)).sleep(captor.capture());
+        Assert.assertTrue("Expected sleep not to outlive the deadline", captor.getValue() <= 1000);
+    }
+
+    @Test
+    public void testWaitForNextAfterDeadline() throws Exception {
+        ExponentialBackoffTimer timer = Mockito.spy(new ExponentialBackoffTimer(1, 300));
+        Deadline.start(0);
+
+        try {
+            timer.waitForNext();
+            Assert.fail("Expected deadline exceeded exception");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+        Mockito.verify(timer, Mockito.never()).sleep(Mockito.anyLong());
+    }
+
     @Test
     public void testInterrupted() throws Exception {
         ExponentialBackoffTimer timer = new ExponentialBackoffTimer(1, 300);
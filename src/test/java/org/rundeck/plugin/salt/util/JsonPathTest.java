@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.gson.stream.JsonReader;
+
+public class JsonPathTest {
+
+    protected static final String JSON = "{\"retcode\": 0, \"data\": {\"a\": {\"comment\": \"first\", \"ok\": true}, "
+            + "\"b\": {\"comment\": \"second\", \"list\": [1, {\"x\": null}]}}, \"comment\": \"top\"}";
+
+    @Test
+    public void testCompile() {
+        Assert.assertEquals("[['retcode']]", JsonPath.compile("$.retcode").segments.toString());
+        Assert.assertEquals("[['data'], .*, ['comment']]", JsonPath.compile("$.data.*.comment").segments.toString());
+        Assert.assertEquals("[['a.b'], [0], .*]", JsonPath.compile("$['a.b'][0][*]").segments.toString());
+        Assert.assertTrue("Expected root path to have no segments", JsonPath.compile("$").segments.isEmpty());
+    }
+
+    @Test
+    public void testCompileInvalid() {
+        for (String expression : Arrays.asList(null, "retcode", "$.", "$..a", "$[", "$[-1]", "$[a]", "$a")) {
+            try {
+                JsonPath.compile(expression);
+                Assert.fail("Expected invalid path " + expression);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testExtractKey() throws Exception {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("0")), extract("$.retcode"));
+    }
+
+    @Test
+    public void testExtractWildcard() throws Exception {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("first", "second")), extract("$.data.*.comment"));
+    }
+
+    @Test
+    public void testExtractArrayIndexAndNull() throws Exception {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("1")), extract("$.data.b.list[0]"));
+        Assert.assertEquals(Arrays.asList(Collections.singletonList(null)), extract("$.data.b.list[1].x"));
+    }
+
+    @Test
+    public void testExtractContainerAsJson() throws Exception {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("{\"comment\":\"first\",\"ok\":true}")),
+                extract("$.data.a"));
+    }
+
+    @Test
+    public void testExtractSeveralPathsInOnePass() throws Exception {
+        Assert.assertEquals(Arrays.asList(Arrays.asList("0"), Arrays.asList("top"), Arrays.asList("true"),
+                Collections.<String> emptyList()), extract("$.retcode", "$.comment", "$.data.a.ok", "$.missing"));
+    }
+
+    @Test
+    public void testExtractNestedMatches() throws Exception {
+        List<List<String>> matches = extract("$.data.b", "$.data.b.comment");
+        Assert.assertEquals("Expected the enclosing value as json",
+                "{\"comment\":\"second\",\"list\":[1,{\"x\":null}]}", matches.get(0).get(0));
+        Assert.assertEquals("Expected the value below the enclosing match", Arrays.asList("second"),
+                matches.get(1));
+    }
+
+    @Test
+    public void testExtractLeavesReaderAfterValue() throws Exception {
+        JsonReader reader = new JsonReader(new StringReader("[{\"a\": 1}, 2]"));
+        reader.beginArray();
+        JsonPath.extract(reader, Arrays.asList(JsonPath.compile("$.a")));
+        Assert.assertEquals(2, reader.nextInt());
+    }
+
+    protected List<List<String>> extract(String... expressions) throws Exception {
+        List<JsonPath> paths = Lists.newArrayList();
+        for (String expression : expressions) {
+            paths.add(JsonPath.compile(expression));
+        }
+        return JsonPath.extract(new JsonReader(new StringReader(JSON)), paths);
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+public class JsonStreamsTest {
+
+    @Test
+    public void testToJsonCopiesNestedValue() throws Exception {
+        String json = "{\"a\":[1,2.50,{\"b\":null,\"c\":true}],\"d\":\"<tag> \\\"quoted\\\"\"}";
+        Assert.assertEquals(json, JsonStreams.toJson(new JsonReader(new StringReader(json))));
+    }
+
+    @Test
+    public void testToJsonCopiesOnlyNextValue() throws Exception {
+        JsonReader reader = new JsonReader(new StringReader("[{\"a\":1},\"b\"]"));
+        reader.beginArray();
+        Assert.assertEquals("{\"a\":1}", JsonStreams.toJson(reader));
+        Assert.assertEquals("Expected reader to be left after the copied value", JsonToken.STRING, reader.peek());
+        Assert.assertEquals("\"b\"", JsonStreams.toJson(reader));
+    }
+
+    @Test
+    public void testToJsonCopiesPrimitive() throws Exception {
+        JsonReader reader = new JsonReader(new StringReader("[42]"));
+        reader.beginArray();
+        Assert.assertEquals("Expected number to be copied as written", "42", JsonStreams.toJson(reader));
+    }
+
+    @Test
+    public void testToJsonCopiesNumbersWithoutLosingPrecision() throws Exception {
+        String json = "[12345678901234567890123,1.0E-7,-0.10]";
+        Assert.assertEquals(json, JsonStreams.toJson(new JsonReader(new StringReader(json))));
+    }
+}
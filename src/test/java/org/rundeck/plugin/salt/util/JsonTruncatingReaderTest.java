@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.io.CharStreams;
+import com.google.gson.JsonParser;
+
+public class JsonTruncatingReaderTest {
+
+    @Test
+    public void testShortValueUnchanged() throws Exception {
+        JsonTruncatingReader reader = new JsonTruncatingReader(new StringReader("[\"abcdef\"]"), 3, 3, "file");
+        Assert.assertEquals("[\"abcdef\"]", CharStreams.toString(reader));
+        Assert.assertEquals("Expected nothing truncated", 0, reader.getTruncatedValues());
+    }
+
+    @Test
+    public void testKeepsHeadAndTail() throws Exception {
+        JsonTruncatingReader reader = new JsonTruncatingReader(new StringReader(
+                "{\"retcode\":0,\"stdout\":\"abcdefghi\",\"stderr\":\"\"}"), 3, 2, "/tmp/out.json");
+        Assert.assertEquals("{\"retcode\":0,\"stdout\":\"abc\\n... [4 characters omitted, full output in "
+                + "/tmp/out.json] ...\\nhi\",\"stderr\":\"\"}", CharStreams.toString(reader));
+        Assert.assertEquals(1, reader.getTruncatedValues());
+    }
+
+    @Test
+    public void testHeadOnly() throws Exception {
+        Assert.assertEquals("\"ab\\n... [4 characters omitted, full output in file] ...\\n\"", CharStreams
+                .toString(new JsonTruncatingReader(new StringReader("\"abcdef\""), 2, 0, "file")));
+    }
+
+    @Test
+    public void testTailOnly() throws Exception {
+        Assert.assertEquals("\"\\n... [4 characters omitted, full output in file] ...\\nef\"", CharStreams
+                .toString(new JsonTruncatingReader(new StringReader("\"abcdef\""), 0, 2, "file")));
+    }
+
+    @Test
+    public void testNamesUnchanged() throws Exception {
+        JsonTruncatingReader reader = new JsonTruncatingReader(new StringReader(
+                "{\"minion\":{\"abcdef\":[\"abcdef\",{\"ghijkl\":1}]}}"), 1, 1, "file");
+        Assert.assertEquals("{\"minion\":{\"abcdef\":[\"a\\n... [4 characters omitted, full output in file] ...\\nf\","
+                + "{\"ghijkl\":1}]}}", CharStreams.toString(reader));
+    }
+
+    @Test
+    public void testEscapeSequencesNotSplit() throws Exception {
+        JsonTruncatingReader reader = new JsonTruncatingReader(new StringReader(
+                "\"a\\u00e9bcd\\\"e\\nf\\\\\""), 2, 3, "C:\\spill \"1\".json");
+        String truncated = CharStreams.toString(reader);
+        Assert.assertEquals("a\u00e9\n... [6 characters omitted, full output in C:\\spill \"1\".json] ...\nf\\",
+                new JsonParser().parse(truncated).getAsString());
+    }
+
+    @Test
+    public void testLongValueAcrossReads() throws Exception {
+        String value = Strings.repeat("0123456789", 10000);
+        JsonTruncatingReader reader = new JsonTruncatingReader(new StringReader(String.format(
+                "{\"return\":[{\"minion\":\"%s\"}]}", value)), 5, 5, "file");
+        Assert.assertEquals("{\"return\":[{\"minion\":\"01234\\n... [99990 characters omitted, full output in file] "
+                + "...\\n56789\"}]}", CharStreams.toString(reader));
+    }
+}
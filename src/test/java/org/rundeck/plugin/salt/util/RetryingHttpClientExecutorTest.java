@@ -28,6 +28,7 @@ package org.rundeck.plugin.salt.util;
 
 import java.io.IOException;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
 
 import javax.net.ssl.SSLException;
@@ -40,10 +41,14 @@ import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.params.HttpConnectionParams;
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mockito.stubbing.OngoingStubbing;
 import org.rundeck.plugin.salt.util.ExponentialBackoffTimer;
 import org.rundeck.plugin.salt.util.LogWrapper;
@@ -77,6 +82,11 @@ public class RetryingHttpClientExecutorTest {
         executor.timerFactory = timerFactory;
     }
     
+    @After
+    public void teardown() {
+        Deadline.clear();
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testRetryWithZeroRetryCountThrowsException() throws Exception {
         executor.execute(logger, client, get, 0);
@@ -201,6 +211,52 @@ public class RetryingHttpClientExecutorTest {
         Mockito.verify(timer, Mockito.times(2)).waitForNext();
     }
 
+    @Test
+    public void testDeadlineLimitsRequestTimeouts() throws Exception {
+        HttpGet request = new HttpGet("https://localhost/jobs");
+        setupResponseCode(request, HttpStatus.SC_OK);
+        Deadline.start(60000);
+
+        Assert.assertSame("Expected mocked response to be returned.", response, executor.execute(logger, client, request, 1));
+
+        int connectionTimeout = HttpConnectionParams.getConnectionTimeout(request.getParams());
+        int socketTimeout = HttpConnectionParams.getSoTimeout(request.getParams());
+        Assert.assertTrue("Expected connection timeout within the deadline", connectionTimeout > 0 && connectionTimeout <= 60000);
+        Assert.assertTrue("Expected socket timeout within the deadline", socketTimeout > 0 && socketTimeout <= 60000);
+    }
+
+    @Test
+    public void testExpiredDeadlineAbortsExecute() throws Exception {
+        Deadline.start(0);
+        try {
+            executor.execute(logger, client, get, 5);
+            Assert.fail("Expected deadline exceeded exception.");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+        Mockito.verifyZeroInteractions(client);
+    }
+
+    @Test
+    public void testTimeoutAfterDeadlineReportedAsDeadlineExceeded() throws Exception {
+        HttpGet request = new HttpGet("https://localhost/jobs");
+        Deadline.start(10);
+        Mockito.when(client.execute(Mockito.same(request))).thenAnswer(new Answer<HttpResponse>() {
+            @Override
+            public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(50);
+                throw new SocketTimeoutException();
+            }
+        });
+
+        try {
+            executor.execute(logger, client, request, 1);
+            Assert.fail("Expected deadline exceeded exception.");
+        } catch (DeadlineExceededException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testGetThatRetriesAndIsSuccessful() throws Exception {
         setupResponseCodeAfter(get, HttpStatus.SC_BAD_REQUEST, HttpStatus.SC_OK);
@@ -0,0 +1,66 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.rundeck.plugin.salt.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RundeckConfigurationTest {
+
+    @After
+    public void teardown() {
+        // Unset the system property or else subsequent tests will try to configure using these keys.
+        System.clearProperty(RundeckConfiguration.CONFIGURATION_LOCATION_KEY);
+    }
+
+    @Test
+    public void testGetPropertyWithoutConfigurationLocation() throws Exception {
+        Assert.assertNull(RundeckConfiguration.getProperty("some.key"));
+    }
+
+    @Test
+    public void testGetProperty() throws Exception {
+        File rundeckConfigurationFile = File.createTempFile("some", "file");
+        rundeckConfigurationFile.deleteOnExit();
+        BufferedWriter writer = new BufferedWriter(new FileWriter(rundeckConfigurationFile));
+        try {
+            writer.append("some.key=value");
+        } finally {
+            writer.close();
+        }
+        System.setProperty(RundeckConfiguration.CONFIGURATION_LOCATION_KEY, rundeckConfigurationFile.getAbsolutePath());
+
+        Assert.assertEquals("value", RundeckConfiguration.getProperty("some.key"));
+        Assert.assertNull("Expected missing key to be null", RundeckConfiguration.getProperty("other.key"));
+    }
+}
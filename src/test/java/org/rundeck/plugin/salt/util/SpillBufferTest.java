@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2013, salesforce.com, inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided
+ * that the following conditions are met:
+ *
+ *    Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *    following disclaimer.
+ *
+ *    Redistributions in binary form must reproduce the above copyright notice, this list of conditions and
+ *    the following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *    Neither the name of salesforce.com, inc. nor the names of its contributors may be used to endorse or
+ *    promote products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.rundeck.plugin.salt.util;
+
+import java.io.File;
+import java.io.InputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+public class SpillBufferTest {
+
+    @Test
+    public void testHeldInMemoryUpToThreshold() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(4, null);
+        buffer.write("abcd".getBytes("UTF-8"));
+        Assert.assertFalse("Expected buffer to stay in memory", buffer.isSpilled());
+        Assert.assertNull(buffer.getFile());
+        Assert.assertEquals(4, buffer.length());
+        Assert.assertEquals("abcd", read(buffer));
+    }
+
+    @Test
+    public void testSpillsPastThreshold() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(4, null);
+        buffer.write("abc".getBytes("UTF-8"));
+        buffer.write('d');
+        buffer.write("efg".getBytes("UTF-8"));
+        Assert.assertTrue("Expected buffer to spill", buffer.isSpilled());
+        File file = buffer.getFile();
+        Assert.assertEquals(7, buffer.length());
+        Assert.assertEquals("Expected buffered bytes to be spilled too", "abcdefg", read(buffer));
+        Assert.assertEquals(7, file.length());
+
+        buffer.delete();
+        Assert.assertFalse("Expected spilled file to be deleted", file.exists());
+    }
+
+    @Test
+    public void testSpillsToDirectory() throws Exception {
+        File directory = new File(System.getProperty("java.io.tmpdir"));
+        SpillBuffer buffer = new SpillBuffer(0, directory);
+        buffer.write('a');
+        try {
+            Assert.assertEquals(directory.getCanonicalFile(), buffer.getFile().getParentFile().getCanonicalFile());
+        } finally {
+            buffer.delete();
+        }
+    }
+
+    @Test
+    public void testDeleteExpiredFiles() throws Exception {
+        File directory = File.createTempFile("spill", "");
+        directory.delete();
+        directory.mkdir();
+        File expired = File.createTempFile(SpillBuffer.SPILL_FILE_PREFIX, SpillBuffer.SPILL_FILE_SUFFIX, directory);
+        expired.setLastModified(System.currentTimeMillis() - 10000);
+        File recent = File.createTempFile(SpillBuffer.SPILL_FILE_PREFIX, SpillBuffer.SPILL_FILE_SUFFIX, directory);
+        File other = File.createTempFile("other", SpillBuffer.SPILL_FILE_SUFFIX, directory);
+        other.setLastModified(System.currentTimeMillis() - 10000);
+        SpillBuffer buffer = new SpillBuffer(0, directory);
+        buffer.write('a');
+        buffer.getFile().setLastModified(System.currentTimeMillis() - 10000);
+        try {
+            Assert.assertEquals(1, buffer.deleteExpiredFiles(5000));
+            Assert.assertFalse("Expected expired file to be deleted", expired.exists());
+            Assert.assertTrue("Expected recent file to be kept", recent.exists());
+            Assert.assertTrue("Expected unrelated file to be kept", other.exists());
+            Assert.assertTrue("Expected the buffer's own file to be kept", buffer.getFile().exists());
+        } finally {
+            buffer.delete();
+            recent.delete();
+            other.delete();
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testDeleteExpiredFilesInMemory() throws Exception {
+        Assert.assertEquals(0, new SpillBuffer(4, null).deleteExpiredFiles(0));
+    }
+
+    protected String read(SpillBuffer buffer) throws Exception {
+        InputStream in = buffer.openInputStream();
+        try {
+            return new String(ByteStreams.toByteArray(in), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package org.rundeck.plugin.salt.version;
 
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.rundeck.plugin.salt.SaltApiException;
 import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
 
+import com.google.common.collect.ImmutableList;
+
 public class LatestSaltInteractionHandlerTest {
 
     protected SaltInteractionHandler handler = new LatestSaltInteractionHandler();
@@ -35,4 +39,47 @@ public class LatestSaltInteractionHandlerTest {
         String response = "{\"_links\": {\"jobs\": [{\"href\": \"/jobs/123\"}]}, \"return\": [{}, {}]}";
         handler.extractOutputForJobSubmissionResponse(response);
     }
+
+    @Test
+    public void testExtractOutputsForLowstateBatchResponse() throws Exception {
+        String response = "{\"return\": [{\"jid\": \"123\", \"minions\": [\"host1\"]}, "
+                + "{\"jid\": \"456\", \"minions\": [\"host2\"]}]}";
+        List<SaltApiResponseOutput> outputs = handler.extractOutputsForLowstateBatchResponse(response);
+        Assert.assertEquals("Expected one output per chunk", 2, outputs.size());
+        Assert.assertEquals("Expected first jid to match", "123", outputs.get(0).getJid());
+        Assert.assertEquals("Expected first minion to match", ImmutableList.of("host1"), outputs.get(0).getMinions());
+        Assert.assertEquals("Expected second jid to match", "456", outputs.get(1).getJid());
+        Assert.assertEquals("Expected second minion to match", ImmutableList.of("host2"), outputs.get(1).getMinions());
+    }
+
+    @Test
+    public void testExtractOutputForJobSubmissionResponseLinksAfterReturn() throws Exception {
+        String response = "{\"return\": [{\"jid\": \"123\", \"minions\": [\"host1\"]}], "
+                + "\"_links\": {\"jobs\": [{\"href\": \"/jobs/123\"}]}}";
+        SaltApiResponseOutput output = handler.extractOutputForJobSubmissionResponse(response);
+        Assert.assertEquals("Expected jid to match", "123", output.getJid());
+        Assert.assertEquals("Expected minion to match", ImmutableList.of("host1"), output.getMinions());
+    }
+
+    @Test
+    public void testExtractOutputForJobSubmissionResponseMinionIdPreserved() throws Exception {
+        String response = "{\"return\": [{\"jid\": \"123\", \"minions\": [\"host=1, {a}\"]}]}";
+        SaltApiResponseOutput output = handler.extractOutputForJobSubmissionResponse(response);
+        Assert.assertEquals("Expected minion id unchanged", ImmutableList.of("host=1, {a}"), output.getMinions());
+    }
+
+    @Test(expected = SaltApiException.class)
+    public void testExtractOutputForJobSubmissionResponseMalformed() throws Exception {
+        handler.extractOutputForJobSubmissionResponse("{\"return\": [{\"jid\": ");
+    }
+
+    @Test(expected = SaltApiException.class)
+    public void testExtractOutputForJobSubmissionResponseNotAnObject() throws Exception {
+        handler.extractOutputForJobSubmissionResponse("[]");
+    }
+
+    @Test(expected = SaltApiException.class)
+    public void testExtractOutputsForLowstateBatchResponseMissingReturn() throws Exception {
+        handler.extractOutputsForLowstateBatchResponse("{}");
+    }
 }
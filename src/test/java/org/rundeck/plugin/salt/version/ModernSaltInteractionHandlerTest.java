@@ -0,0 +1,61 @@
+package org.rundeck.plugin.salt.version;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.rundeck.plugin.salt.SaltApiException;
+import org.rundeck.plugin.salt.output.SaltApiResponseOutput;
+
+import com.google.common.collect.ImmutableList;
+
+public class ModernSaltInteractionHandlerTest {
+
+    protected SaltInteractionHandler handler = new ModernSaltInteractionHandler();
+
+    @Test
+    public void testExtractOutputForJobSubmissionResponse() throws Exception {
+        String response = "{\"return\": [{\"jid\": \"20140903200912838566\", \"minions\": [\"host1\"]}], "
+                + "\"_links\": {\"jobs\": [{\"href\": \"/jobs/20140903200912838566\"}]}}";
+        SaltApiResponseOutput output = handler.extractOutputForJobSubmissionResponse(response);
+        Assert.assertEquals("Expected jid to match", "20140903200912838566", output.getJid());
+        Assert.assertEquals("Expected minions to match", ImmutableList.of("host1"), output.getMinions());
+    }
+
+    @Test
+    public void testExtractOutputForJobSubmissionResponseNoMatchedMinions() throws Exception {
+        SaltApiResponseOutput output = handler.extractOutputForJobSubmissionResponse("{\"return\": [\"\"]}");
+        Assert.assertNull("Expected no jid", output.getJid());
+        Assert.assertTrue("Expected no minions", output.getMinions().isEmpty());
+    }
+
+    @Test
+    public void testExtractOutputForJobSubmissionResponseNullReturn() throws Exception {
+        SaltApiResponseOutput output = handler.extractOutputForJobSubmissionResponse("{\"return\": [null]}");
+        Assert.assertTrue("Expected no minions", output.getMinions().isEmpty());
+    }
+
+    @Test
+    public void testExtractOutputForJobSubmissionResponseRefused() throws Exception {
+        try {
+            handler.extractOutputForJobSubmissionResponse("{\"return\": [\"Authentication failure\"]}");
+            Assert.fail("Expected exception for refused submission");
+        } catch (SaltApiException e) {
+            Assert.assertTrue("Expected reason in message", e.getMessage().contains("Authentication failure"));
+        }
+    }
+
+    @Test(expected = SaltApiException.class)
+    public void testExtractOutputForJobSubmissionResponseEmptyResponse() throws Exception {
+        handler.extractOutputForJobSubmissionResponse("{\"return\": []}");
+    }
+
+    @Test
+    public void testExtractOutputsForLowstateBatchResponse() throws Exception {
+        String response = "{\"return\": [{\"jid\": \"123\", \"minions\": [\"host1\"]}, \"\"]}";
+        List<SaltApiResponseOutput> outputs = handler.extractOutputsForLowstateBatchResponse(response);
+        Assert.assertEquals("Expected one output per chunk", 2, outputs.size());
+        Assert.assertEquals("Expected first jid to match", "123", outputs.get(0).getJid());
+        Assert.assertTrue("Expected second chunk to have no minions", outputs.get(1).getMinions().isEmpty());
+    }
+}
@@ -34,4 +34,19 @@ public class Pre082SaltInteractionHandlerTest {
         String response = "[{}, {}]";
         handler.extractOutputForJobSubmissionResponse(response);
     }
+
+    @Test(expected = SaltApiException.class)
+    public void testExtractOutputForJobSubmissionResponseMissingReturn() throws Exception {
+        handler.extractOutputForJobSubmissionResponse("[{\"_links\": {}}]");
+    }
+
+    @Test(expected = SaltApiException.class)
+    public void testExtractOutputForJobSubmissionResponseMalformed() throws Exception {
+        handler.extractOutputForJobSubmissionResponse("[{\"return\": ");
+    }
+
+    @Test(expected = SaltApiException.class)
+    public void testExtractOutputsForLowstateBatchResponseUnsupported() throws Exception {
+        handler.extractOutputsForLowstateBatchResponse("{\"return\": []}");
+    }
 }
@@ -57,4 +57,38 @@ public class SaltApiCapabilityTest {
         capability = Builder.from(capability).supportsLogout().build();
         Assert.assertTrue("Expected logout support to be turned on.", capability.getSupportsLogout());
     }
+
+    @Test
+    public void testWithSupportsSynchronousExecution() {
+        SaltApiCapability capability = new SaltApiCapability.Builder().build();
+        Assert.assertFalse("Expected default synchronous execution support to be off",
+                capability.getSupportsSynchronousExecution());
+        capability = Builder.from(capability).supportsSynchronousExecution().build();
+        Assert.assertTrue("Expected synchronous execution support to be turned on.",
+                capability.getSupportsSynchronousExecution());
+    }
+
+    @Test
+    public void testWithSupportsRunEndpoint() {
+        SaltApiCapability capability = new SaltApiCapability.Builder().build();
+        Assert.assertFalse("Expected default run endpoint support to be off", capability.getSupportsRunEndpoint());
+        capability = Builder.from(capability).supportsRunEndpoint().build();
+        Assert.assertTrue("Expected run endpoint support to be turned on.", capability.getSupportsRunEndpoint());
+    }
+
+    @Test
+    public void testWithSupportsBatchClient() {
+        SaltApiCapability capability = new SaltApiCapability.Builder().build();
+        Assert.assertFalse("Expected default batch client support to be off", capability.getSupportsBatchClient());
+        capability = Builder.from(capability).supportsBatchClient().build();
+        Assert.assertTrue("Expected batch client support to be turned on.", capability.getSupportsBatchClient());
+    }
+
+    @Test
+    public void testWithSupportsPresenceQueries() {
+        SaltApiCapability capability = new SaltApiCapability.Builder().build();
+        Assert.assertFalse("Expected default presence query support to be off", capability.getSupportsPresenceQueries());
+        capability = Builder.from(capability).supportsPresenceQueries().build();
+        Assert.assertTrue("Expected presence query support to be turned on.", capability.getSupportsPresenceQueries());
+    }
 }
@@ -71,6 +71,26 @@ public class SaltApiVersionCapabilityRegistryTest {
                 registry.getCapability("0.10.0"));
     }
 
+    @Test
+    public void testDefaultRegistryModernVersions() {
+        SaltApiVersionCapabilityRegistry defaultRegistry = new SaltApiVersionCapabilityRegistry();
+        Assert.assertSame("Expected salt 2014.7 capability", SaltApiVersionCapabilityRegistry.VERSION_2014_7_0,
+                defaultRegistry.getCapability("2015.8.3"));
+        Assert.assertSame("Expected 0.8.3 capability before 2014.7", SaltApiVersionCapabilityRegistry.VERSION_0_8_3,
+                defaultRegistry.getCapability("2014.1.0"));
+        Assert.assertTrue("Expected modern interaction handler", defaultRegistry.getLatest()
+                .getSaltInteractionHandler() instanceof ModernSaltInteractionHandler);
+    }
+
+    @Test
+    public void testDefaultIsUnchangedByModernVersions() {
+        SaltApiVersionCapabilityRegistry defaultRegistry = new SaltApiVersionCapabilityRegistry();
+        Assert.assertSame("Expected 0.8.3 capability without a configured version",
+                SaltApiVersionCapabilityRegistry.VERSION_0_8_3, defaultRegistry.getDefault());
+        Assert.assertTrue("Expected latest interaction handler", defaultRegistry.getDefault()
+                .getSaltInteractionHandler() instanceof LatestSaltInteractionHandler);
+    }
+
     @Test
     public void testGetLatest() {
         Assert.assertSame("Expected latest to be highest known version", v_0_9_0, registry.getLatest());